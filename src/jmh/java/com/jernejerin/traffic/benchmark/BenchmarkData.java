@@ -0,0 +1,65 @@
+package com.jernejerin.traffic.benchmark;
+
+import com.jernejerin.traffic.client.TaxiStream;
+import com.jernejerin.traffic.entities.Trip;
+import com.jernejerin.traffic.helper.TripOperations;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * The data of the benchmarks, drawn from the bundled file of 10799 trips. The benchmarks take
+ * the first size lines of the file, so the data sizes are parameters of the benchmarks.
+ *
+ * @author Jernej Jerin
+ */
+final class BenchmarkData {
+    /** The bundled file of the trips in the first hour of 2013. */
+    static final String FILE_NAME = "/com/jernejerin/trips_1_hour_2013-01-01-00-00_2013-01-01-01-00_10799.csv";
+
+    private BenchmarkData() {}
+
+    /**
+     * Reads the first non empty lines of the bundled file.
+     *
+     * @param size the number of lines, at most the number of lines in the file
+     * @return the lines without the line separators
+     */
+    static String[] lines(int size) {
+        List<String> lines = new ArrayList<>(size);
+        try (BufferedReader reader = new BufferedReader(TaxiStream.getReader(FILE_NAME))) {
+            String line;
+            while (lines.size() < size && (line = reader.readLine()) != null) {
+                if (!line.isEmpty())
+                    lines.add(line);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read input", e);
+        }
+
+        if (lines.size() < size)
+            throw new IllegalArgumentException("The file has only " + lines.size() + " lines");
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    /**
+     * Parses the first lines of the bundled file and keeps the valid trips in the grid, as the
+     * architectures do before the queries.
+     *
+     * @param size the number of lines
+     * @return the valid trips of the lines, in the order of the file
+     */
+    static Trip[] trips(int size) {
+        List<Trip> trips = new ArrayList<>(size);
+        int id = 0;
+        for (String line : lines(size)) {
+            Trip trip = TripOperations.parseValidateTrip(line, 0L, id++);
+            if (trip != null && trip.getRoute250() != null)
+                trips.add(trip);
+        }
+        return trips.toArray(new Trip[trips.size()]);
+    }
+}
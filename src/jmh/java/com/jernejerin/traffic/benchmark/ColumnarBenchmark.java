@@ -0,0 +1,92 @@
+package com.jernejerin.traffic.benchmark;
+
+import com.jernejerin.traffic.client.TripBatch;
+import com.jernejerin.traffic.entities.Trip;
+import com.jernejerin.traffic.helper.FrequentRoutesOperator;
+import com.jernejerin.traffic.helper.ProfitableCellsOperator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Benchmark of the columnar query operators of EDA -columnar per trip. Each invocation processes the
+ * next batch of the replayed trips with FrequentRoutesOperator (query 1) or ProfitableCellsOperator
+ * (query 2), including the changes of the top 10, that the operators pass to their listener. The batch
+ * is copied from the columns of the data set, shifted in time by its loop, as the trips are copied
+ * from the parsed batch in EDA. The windows are filled before the measurement.
+ *
+ * @author Jernej Jerin
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+@OperationsPerInvocation(ColumnarBenchmark.BATCH_SIZE)
+public class ColumnarBenchmark {
+    // the number of trips in a batch
+    static final int BATCH_SIZE = 256;
+
+    @Param({"1000", "10799"})
+    private int size;
+
+    private TripReplay replay;
+    private TripBatch columns;
+    private long changes = 0;
+    private final FrequentRoutesOperator frequentRoutes = new FrequentRoutesOperator(
+            (top10, pickupDateTime, dropOffDateTime, timeStart) -> this.changes++);
+    private final ProfitableCellsOperator profitableCells = new ProfitableCellsOperator(
+            (top10, pickupDateTime, dropOffDateTime, timeStart) -> this.changes++);
+
+    @Setup
+    public void setup() {
+        Trip[] trips = BenchmarkData.trips(this.size);
+        this.replay = new TripReplay(trips);
+        this.columns = new TripBatch(trips.length);
+        for (Trip trip : trips)
+            this.columns.add(trip, trip.getMedallionId());
+
+        // two passes over the data set fill the windows, whatever the span of the data set
+        for (int i = 0; i < 2 * this.size; i += BATCH_SIZE) {
+            TripBatch batch = nextBatch();
+            this.frequentRoutes.process(batch);
+            this.profitableCells.process(batch);
+        }
+    }
+
+    @Benchmark
+    public long frequentRoutes() {
+        this.frequentRoutes.process(nextBatch());
+        return this.changes;
+    }
+
+    @Benchmark
+    public long profitableCells() {
+        this.profitableCells.process(nextBatch());
+        return this.changes;
+    }
+
+    /**
+     * @return the next batch of the replayed trips
+     */
+    private TripBatch nextBatch() {
+        TripBatch batch = new TripBatch(BATCH_SIZE);
+        for (int j = 0; j < BATCH_SIZE; j++) {
+            long number = this.replay.next();
+            int i = (int) (number % this.columns.size());
+            long shift = (this.replay.dropOff(number) - this.columns.getDropOffTimestamp(i)) / 1000;
+            batch.add(this.columns.getId(i), this.columns.getTimestampReceived(i), this.columns.getNanoTimeReceived(i),
+                    this.columns.getTaxi(i),
+                    shift(this.columns.getPickupDatetime(i), shift), shift(this.columns.getDropOffDatetime(i), shift),
+                    this.columns.getFareAmount(i), this.columns.getTipAmount(i), this.columns.getStartCell(i),
+                    this.columns.getEndCell(i), this.columns.getRoute(i));
+        }
+        return batch;
+    }
+
+    private static long shift(long datetime, long seconds) {
+        return datetime != TripBatch.NO_DATETIME ? datetime + seconds : datetime;
+    }
+}
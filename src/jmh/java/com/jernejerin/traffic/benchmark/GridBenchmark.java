@@ -0,0 +1,93 @@
+package com.jernejerin.traffic.benchmark;
+
+import com.jernejerin.traffic.entities.Cell250;
+import com.jernejerin.traffic.entities.Cell500;
+import com.jernejerin.traffic.entities.Route;
+import com.jernejerin.traffic.entities.Trip;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Benchmarks of mapping the coordinates of a trip to the cells of the grids and of hashing the routes.
+ * The cells are either created for the coordinate or looked up as the canonical cells of the grid.
+ * The routes are hashed directly and looked up in a map of all the routes of the data set, as the
+ * route counts were kept before they were keyed by the route id.
+ *
+ * @author Jernej Jerin
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GridBenchmark {
+    @Param({"1000", "10799"})
+    private int size;
+
+    private float[] latitudes;
+    private float[] longitudes;
+    private Route[] routes;
+    private Map<Route, Route> routeMap;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        Trip[] trips = BenchmarkData.trips(this.size);
+        this.latitudes = new float[trips.length];
+        this.longitudes = new float[trips.length];
+        this.routes = new Route[trips.length];
+        this.routeMap = new HashMap<>();
+        for (int i = 0; i < trips.length; i++) {
+            this.latitudes[i] = trips[i].getPickupLatitude();
+            this.longitudes[i] = trips[i].getPickupLongitude();
+            this.routes[i] = trips[i].getRoute500();
+            this.routeMap.put(this.routes[i], this.routes[i]);
+        }
+    }
+
+    private int next() {
+        int next = this.next;
+        if (++this.next == this.routes.length)
+            this.next = 0;
+        return next;
+    }
+
+    @Benchmark
+    public Cell250 newCell250() {
+        int i = next();
+        return new Cell250(this.latitudes[i], this.longitudes[i]);
+    }
+
+    @Benchmark
+    public Cell250 canonicalCell250() {
+        int i = next();
+        return Cell250.of(this.latitudes[i], this.longitudes[i]);
+    }
+
+    @Benchmark
+    public Cell500 newCell500() {
+        int i = next();
+        return new Cell500(this.latitudes[i], this.longitudes[i]);
+    }
+
+    @Benchmark
+    public Cell500 canonicalCell500() {
+        int i = next();
+        return Cell500.of(this.latitudes[i], this.longitudes[i]);
+    }
+
+    @Benchmark
+    public int routeHashCode() {
+        return this.routes[next()].hashCode();
+    }
+
+    @Benchmark
+    public Route routeLookup() {
+        return this.routeMap.get(this.routes[next()]);
+    }
+}
@@ -0,0 +1,67 @@
+package com.jernejerin.traffic.benchmark;
+
+import com.jernejerin.traffic.entities.Trip;
+import com.jernejerin.traffic.helper.MedianOfStream;
+import com.jernejerin.traffic.helper.SlidingMedian;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Benchmarks of a sliding median of the profits (fare + tip) of the data set. The window holds
+ * size profits, so each invocation adds the next profit, removes the oldest one and gets the median,
+ * as the median of a cell is updated in query 2. MedianOfStream is the median of two heaps with
+ * O(n) removal, SlidingMedian is the order statistic tree used by CellProfitabilityIndex.
+ *
+ * @author Jernej Jerin
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MedianBenchmark {
+    @Param({"1000", "10799"})
+    private int size;
+
+    private float[] profits;
+    private MedianOfStream<Float> medianOfStream;
+    private SlidingMedian slidingMedian;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        Trip[] trips = BenchmarkData.trips(this.size);
+        this.profits = new float[trips.length];
+        this.medianOfStream = new MedianOfStream<>();
+        this.slidingMedian = new SlidingMedian();
+        for (int i = 0; i < trips.length; i++) {
+            this.profits[i] = trips[i].getFareAmount() + trips[i].getTipAmount();
+            this.medianOfStream.addNumberToStream(this.profits[i]);
+            this.slidingMedian.add(this.profits[i]);
+        }
+    }
+
+    @Benchmark
+    public double medianOfStream() {
+        // the profit leaving the window is the same as the next profit entering it
+        float profit = this.profits[this.next];
+        if (++this.next == this.profits.length)
+            this.next = 0;
+        this.medianOfStream.removeNumberFromStream(profit);
+        this.medianOfStream.addNumberToStream(profit);
+        return this.medianOfStream.getMedian();
+    }
+
+    @Benchmark
+    public double slidingMedian() {
+        float profit = this.profits[this.next];
+        if (++this.next == this.profits.length)
+            this.next = 0;
+        this.slidingMedian.remove(profit);
+        this.slidingMedian.add(profit);
+        return this.slidingMedian.getMedian();
+    }
+}
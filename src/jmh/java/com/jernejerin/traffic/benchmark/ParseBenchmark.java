@@ -0,0 +1,67 @@
+package com.jernejerin.traffic.benchmark;
+
+import com.jernejerin.traffic.entities.Trip;
+import com.jernejerin.traffic.helper.ByteSequence;
+import com.jernejerin.traffic.helper.TripOperations;
+import com.jernejerin.traffic.helper.TripParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Benchmark of parsing and validating a single trip line, as done for each event by the architectures.
+ * Each invocation parses the next line of the data set, either from a String or, as for the memory mapped
+ * input, from a ByteSequence over the bytes of the lines in a direct buffer.
+ *
+ * @author Jernej Jerin
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseBenchmark {
+    @Param({"1000", "10799"})
+    private int size;
+
+    private String[] lines;
+    private int next = 0;
+
+    // the lines separated by new lines and the offset of each line in the buffer
+    private ByteBuffer bytes;
+    private int[] offsets;
+    private final ByteSequence sequence = new ByteSequence();
+
+    @Setup
+    public void setup() {
+        this.lines = BenchmarkData.lines(this.size);
+
+        this.offsets = new int[this.lines.length + 1];
+        for (int i = 0; i < this.lines.length; i++)
+            this.offsets[i + 1] = this.offsets[i] + this.lines[i].length() + 1;
+        this.bytes = ByteBuffer.allocateDirect(this.offsets[this.lines.length]);
+        for (String line : this.lines)
+            this.bytes.put(line.getBytes(StandardCharsets.ISO_8859_1)).put((byte) '\n');
+    }
+
+    @Benchmark
+    public Trip parseValidateTrip() {
+        String line = this.lines[this.next];
+        if (++this.next == this.lines.length)
+            this.next = 0;
+        return TripOperations.parseValidateTrip(line, 0L, this.next);
+    }
+
+    @Benchmark
+    public Trip parseBytes() {
+        int offset = this.offsets[this.next];
+        int length = this.offsets[this.next + 1] - offset - 1;
+        if (++this.next == this.lines.length)
+            this.next = 0;
+        return TripParser.parse(this.sequence.wrap(this.bytes, offset, length), 0L, this.next);
+    }
+}
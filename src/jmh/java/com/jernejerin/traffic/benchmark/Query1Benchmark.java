@@ -0,0 +1,58 @@
+package com.jernejerin.traffic.benchmark;
+
+import com.jernejerin.traffic.entities.Trip;
+import com.jernejerin.traffic.helper.RouteRanking;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Benchmark of the top 10 update of query 1 (frequent routes) for a single trip. The trips of the data
+ * set are replayed in a loop through the 30 minute window: the trips leaving the window count down their
+ * routes, the new trip counts up its route and the top 10 routes are taken from the ranking, as in EDA.
+ * The window is filled before the measurement, so the ranking holds the routes of a full window.
+ *
+ * @author Jernej Jerin
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Query1Benchmark {
+    // the length of the window in milliseconds
+    private static final long WINDOW = 30 * 60 * 1000;
+
+    @Param({"1000", "10799"})
+    private int size;
+
+    private TripReplay replay;
+    private final TripReplay.Window window = new TripReplay.Window();
+    private final RouteRanking ranking = new RouteRanking(100000);
+    private final long[] top10 = new long[10];
+
+    @Setup
+    public void setup() {
+        this.replay = new TripReplay(BenchmarkData.trips(this.size));
+        // two passes over the data set fill the window, whatever the span of the data set
+        for (int i = 0; i < 2 * this.size; i++)
+            update();
+    }
+
+    @Benchmark
+    public int update() {
+        long number = this.replay.next();
+        long dropOff = this.replay.dropOff(number);
+
+        // trips leaving the window
+        while (!this.window.isEmpty() && this.replay.dropOff(this.window.peek()) < dropOff - WINDOW)
+            this.ranking.decrement(this.replay.trip(this.window.poll()).getRoute500());
+
+        Trip trip = this.replay.trip(number);
+        this.window.add(number);
+        this.ranking.increment(trip.getRoute500(), trip.getId());
+        return this.ranking.topIds(this.top10, 10);
+    }
+}
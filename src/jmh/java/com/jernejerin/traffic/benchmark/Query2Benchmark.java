@@ -0,0 +1,65 @@
+package com.jernejerin.traffic.benchmark;
+
+import com.jernejerin.traffic.entities.Trip;
+import com.jernejerin.traffic.helper.CellProfitabilityIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Benchmark of the top 10 update of query 2 (profitable cells) for a single trip. The trips of the data
+ * set are replayed in a loop through the 30 minute window of the empty taxis and the 15 minute window of
+ * the profits: the trips leaving the windows are removed from the index, the new trip is added to both
+ * and the top 10 cells are taken from the ranking, as in EDA. The windows are filled before the measurement.
+ *
+ * @author Jernej Jerin
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Query2Benchmark {
+    // the lengths of the windows in milliseconds
+    private static final long EMPTY_TAXIS_WINDOW = 30 * 60 * 1000;
+    private static final long PROFIT_WINDOW = 15 * 60 * 1000;
+
+    @Param({"1000", "10799"})
+    private int size;
+
+    private TripReplay replay;
+    private final TripReplay.Window emptyTaxis = new TripReplay.Window();
+    private final TripReplay.Window profits = new TripReplay.Window();
+    private final CellProfitabilityIndex index = new CellProfitabilityIndex();
+    private final int[] top10 = new int[10];
+
+    @Setup
+    public void setup() {
+        this.replay = new TripReplay(BenchmarkData.trips(this.size));
+        // two passes over the data set fill the windows, whatever the span of the data set
+        for (int i = 0; i < 2 * this.size; i++)
+            update();
+    }
+
+    @Benchmark
+    public int update() {
+        long number = this.replay.next();
+        long dropOff = this.replay.dropOff(number);
+
+        // trips leaving the windows
+        while (!this.emptyTaxis.isEmpty() &&
+                this.replay.dropOff(this.emptyTaxis.peek()) < dropOff - EMPTY_TAXIS_WINDOW)
+            this.index.removeEmptyTaxi(this.replay.trip(this.emptyTaxis.poll()));
+        while (!this.profits.isEmpty() && this.replay.dropOff(this.profits.peek()) < dropOff - PROFIT_WINDOW)
+            this.index.removeProfit(this.replay.trip(this.profits.poll()));
+
+        Trip trip = this.replay.trip(number);
+        this.emptyTaxis.add(number);
+        this.profits.add(number);
+        this.index.addEmptyTaxi(trip);
+        this.index.addProfit(trip);
+        return this.index.topCells(this.top10, 10);
+    }
+}
@@ -0,0 +1,85 @@
+package com.jernejerin.traffic.benchmark;
+
+import com.jernejerin.traffic.entities.Trip;
+
+/**
+ * <p>
+ * Replays the trips of the data set in a loop, so a benchmark of a window operator can run for any
+ * number of invocations. The trips are numbered in the order they are replayed and each loop is shifted
+ * in time by the span of the data set, so the drop off times keep increasing. A time window holds the
+ * numbers of the trips, which leave it in the order they entered.
+ *
+ * @author Jernej Jerin
+ */
+final class TripReplay {
+    private final Trip[] trips;
+    private final long firstDropOff;
+    private final long span;
+    private long next = 0;
+
+    /**
+     * @param trips the trips ordered by the drop off time
+     */
+    TripReplay(Trip[] trips) {
+        this.trips = trips;
+        this.firstDropOff = trips[0].getDropOffTimestamp();
+        // the next loop starts a minute after the last drop off
+        this.span = trips[trips.length - 1].getDropOffTimestamp() - this.firstDropOff + 60 * 1000;
+    }
+
+    /**
+     * @return the number of the next replayed trip
+     */
+    long next() {
+        return this.next++;
+    }
+
+    /**
+     * @param number the number of the replayed trip
+     * @return the trip
+     */
+    Trip trip(long number) {
+        return this.trips[(int) (number % this.trips.length)];
+    }
+
+    /**
+     * @param number the number of the replayed trip
+     * @return the drop off time of the trip shifted by its loop
+     */
+    long dropOff(long number) {
+        return trip(number).getDropOffTimestamp() + number / this.trips.length * this.span;
+    }
+
+    /**
+     * A time window of the replayed trips, kept as a growing ring of the trip numbers.
+     */
+    static final class Window {
+        private long[] numbers = new long[1024];
+        private int mask = 1023;
+        private long head = 0;
+        private long tail = 0;
+
+        boolean isEmpty() {
+            return this.head == this.tail;
+        }
+
+        long peek() {
+            return this.numbers[(int) this.head & this.mask];
+        }
+
+        long poll() {
+            return this.numbers[(int) this.head++ & this.mask];
+        }
+
+        void add(long number) {
+            if (this.tail - this.head == this.numbers.length) {
+                long[] numbers = new long[this.numbers.length << 1];
+                for (long i = this.head; i < this.tail; i++)
+                    numbers[(int) i & (numbers.length - 1)] = this.numbers[(int) i & this.mask];
+                this.numbers = numbers;
+                this.mask = numbers.length - 1;
+            }
+            this.numbers[(int) this.tail++ & this.mask] = number;
+        }
+    }
+}
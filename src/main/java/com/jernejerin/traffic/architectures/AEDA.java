@@ -5,7 +5,7 @@ import akka.actor.ActorSystem;
 import akka.actor.Inbox;
 import akka.actor.Props;
 import com.jernejerin.traffic.entities.*;
-import com.jernejerin.traffic.client.TaxiStream;
+import com.jernejerin.traffic.helper.LatencyRecorder;
 import com.jernejerin.traffic.helper.TripOperations;
 import reactor.fn.tuple.Tuple;
 import reactor.rx.Stream;
@@ -53,7 +53,7 @@ public class AEDA extends Architecture {
         long startTime = System.currentTimeMillis();
 
         // create a taxi service
-        this.taxiStream = new TaxiStream("/com/jernejerin/" + this.fileNameInput);
+        this.taxiStream = createTaxiStream();
 
         // Actor factory for creating Actors.
         // only one per application
@@ -86,7 +86,8 @@ public class AEDA extends Architecture {
 
         CountDownLatch completeSignal = new CountDownLatch(1);
 
-        Stream<Trip> sharedTripsStream = taxiStream.getTrips()
+        // in the batched mode the events were already stamped and numbered when they were read
+        Stream<Trip> tripsStream = this.taxiStream.isBatched() ? unpackBatches() : taxiStream.getTrips()
                 .map(t -> {
                     // create a tuple of string trip and current time for computing delay
                     // As this is our entry point it is appropriate to start the time here,
@@ -95,7 +96,9 @@ public class AEDA extends Architecture {
                     return Tuple.of(t, System.currentTimeMillis(), id++);
                 })
                         // parsing and validating trip structure
-                .map(t -> TripOperations.parseValidateTrip(t.getT1(), t.getT2(), t.getT3()))
+                .map(t -> TripOperations.parseValidateTrip(t.getT1(), t.getT2(), t.getT3()));
+
+        Stream<Trip> sharedTripsStream = tripsStream
                         // filter invalid data
                 .filter(t -> t != null & t.getRoute250() != null)
                 .broadcast();
@@ -149,6 +152,7 @@ public class AEDA extends Architecture {
                     RouteActor.Top10 routeActorTop10 = (RouteActor.Top10) inbox.receive(Duration.create(10000, "seconds"));
                     List<RouteCount> newTop10Routes = Arrays.asList(routeActorTop10.top10Routes);
                     Collections.sort(newTop10Routes, Comparator.<RouteCount>reverseOrder());
+                    recordLatency(LatencyRecorder.Stage.QUERY1_UPDATE, t);
 
                     return Tuple.of(newTop10Routes, t.getPickupDatetime(), t.getDropOffDatetime(),
                             t.getTimestampReceived(), t);
@@ -162,6 +166,7 @@ public class AEDA extends Architecture {
                         top10Routes.addAll(ct.getT1());
                         writeTop10ChangeQuery1(ct.getT1(), ct.getT2(), ct.getT3(), ct.getT4(), ct.getT5());
                     }
+                    recordLatency(LatencyRecorder.Stage.QUERY1_OUTPUT, ct.getT5());
                 });
 
         // query 2: Frequent routes
@@ -255,6 +260,9 @@ public class AEDA extends Architecture {
         // wait for onComplete event
         completeSignal.await();
         id = 0;
+
+        // write out the buffered output
+        closeOutputs();
         system.shutdown();
         return System.currentTimeMillis() - startTime;
     }
@@ -4,8 +4,8 @@ import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.Inbox;
 import akka.actor.Props;
-import com.jernejerin.traffic.client.TaxiStream;
 import com.jernejerin.traffic.entities.*;
+import com.jernejerin.traffic.helper.LatencyRecorder;
 import com.jernejerin.traffic.helper.TripOperations;
 import reactor.fn.tuple.Tuple;
 import reactor.rx.Stream;
@@ -55,7 +55,7 @@ public class AEDA3 extends Architecture {
         long startTime = System.currentTimeMillis();
 
         // create a taxi service
-        this.taxiStream = new TaxiStream("/com/jernejerin/" + this.fileNameInput);
+        this.taxiStream = createTaxiStream();
 
         // Actor factory for creating Actors.
         // only one per application
@@ -92,7 +92,8 @@ public class AEDA3 extends Architecture {
 
         CountDownLatch completeSignal = new CountDownLatch(1);
 
-        Stream<Trip> sharedTripsStream = taxiStream.getTrips()
+        // in the batched mode the events were already stamped and numbered when they were read
+        Stream<Trip> tripsStream = this.taxiStream.isBatched() ? unpackBatches() : taxiStream.getTrips()
                 .map(t -> {
                     // create a tuple of string trip and current time for computing delay
                     // As this is our entry point it is appropriate to start the time here,
@@ -101,7 +102,9 @@ public class AEDA3 extends Architecture {
                     return Tuple.of(t, System.currentTimeMillis(), id++);
                 })
                         // parsing and validating trip structure
-                .map(t -> TripOperations.parseValidateTrip(t.getT1(), t.getT2(), t.getT3()))
+                .map(t -> TripOperations.parseValidateTrip(t.getT1(), t.getT2(), t.getT3()));
+
+        Stream<Trip> sharedTripsStream = tripsStream
                         // filter invalid data
                 .filter(t -> t != null & t.getRoute250() != null)
                 .broadcast();
@@ -167,6 +170,7 @@ public class AEDA3 extends Architecture {
                     RouteActor3.FirstTop10 routeActorTop10 = (RouteActor3.FirstTop10) inbox.receive(Duration.create(10000, "seconds"));
                     List<RouteCount> newTop10Routes = Arrays.asList(routeActorTop10.top10Routes);
                     Collections.sort(newTop10Routes, Comparator.<RouteCount>reverseOrder());
+                    recordLatency(LatencyRecorder.Stage.QUERY1_UPDATE, t);
 
                     if (!newTop10Routes.equals(top10Routes)) {
                         top10Routes.clear();
@@ -175,6 +179,7 @@ public class AEDA3 extends Architecture {
                                 t.getDropOffDatetime(),
                                 t.getTimestampReceived(), t);
                     }
+                    recordLatency(LatencyRecorder.Stage.QUERY1_OUTPUT, t);
 
                     numEvents++;
                 });
@@ -185,8 +190,13 @@ public class AEDA3 extends Architecture {
         // wait for onComplete event
         completeSignal.await();
         id = 0;
+        long duration = System.currentTimeMillis() - startTime;
+
+        // actors may still be writing the output, so wait for them to stop before writing it out
         system.shutdown();
-        return System.currentTimeMillis() - startTime;
+        system.awaitTermination();
+        closeOutputs();
+        return duration;
     }
 
 }
@@ -3,15 +3,27 @@ package com.jernejerin.traffic.architectures;
 import com.jernejerin.traffic.entities.CellProfitability;
 import com.jernejerin.traffic.entities.RouteCount;
 import com.jernejerin.traffic.entities.Trip;
+import com.jernejerin.traffic.helper.CountingTripStorage;
+import com.jernejerin.traffic.helper.JdbcTripStorage;
+import com.jernejerin.traffic.helper.LatencyRecorder;
+import com.jernejerin.traffic.helper.MD5Dictionary;
+import com.jernejerin.traffic.helper.OutputBuffer;
+import com.jernejerin.traffic.helper.OutputSink;
+import com.jernejerin.traffic.helper.OutputStage;
 import com.jernejerin.traffic.helper.PollingDriver;
+import com.jernejerin.traffic.helper.TripLog;
+import com.jernejerin.traffic.helper.TripLogStorage;
+import com.jernejerin.traffic.helper.TripStorage;
 import com.jernejerin.traffic.client.TaxiStream;
+import com.jernejerin.traffic.client.TripBatch;
+import com.jernejerin.traffic.client.TripFrameCodec;
+import com.jernejerin.traffic.client.TripGenerator;
 import reactor.Environment;
-import reactor.io.codec.StandardCodecs;
 import reactor.io.net.NetStreams;
 import reactor.io.net.tcp.TcpServer;
+import reactor.rx.Stream;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.List;
@@ -38,13 +50,57 @@ public abstract class Architecture {
     protected String fileNameInput;
     protected String fileNameQuery1Output;
     protected String fileNameQuery2Output;
-    protected TcpServer<String, String> serverTCP;
+    protected TcpServer<CharSequence, CharSequence> serverTCP;
     protected boolean streamingTCP = false;
+    protected int tcpCredits;
+    protected int tcpConnections;
+    protected boolean mappedInput = false;
+    protected int ringBufferSize;
+    protected String waitStrategy;
+    protected int batchSize;
+    protected boolean parseBatches;
+    protected int outputFlushSize;
+    protected long outputFlushInterval;
+    protected boolean asyncOutput;
+    protected int outputQueueSize;
+    protected String outputPolicy;
+    protected int dbBatchSize;
+    protected long dbLingerTime;
+    protected String storageType;
+    protected String dbFile;
+    protected String logDir;
+    protected String logFsync;
+    protected long logFsyncInterval;
+    protected boolean replay;
+    protected boolean columnar;
+    protected int readers;
+    protected int mergeLookahead;
+    protected boolean recordLatency;
+    protected int stage1Threads;
+    protected int stage2Threads;
+    protected long generateTrips;
+    protected long generatorSeed;
+    protected int generatorMedallions;
+    protected double generatorMalformed;
+    protected TripStorage storage;
     protected TaxiStream taxiStream;
     protected Environment env;
     protected File fileQuery1;
     protected File fileQuery2;
 
+    // long lived writers for the output files, opened on the first write
+    private OutputSink outputQuery1;
+    private OutputSink outputQuery2;
+
+    // asynchronous output stage, started on the first write, and the buffers for formatting
+    // the changes on the query threads
+    private OutputStage outputStage;
+    private final OutputBuffer lineQuery1 = new OutputBuffer(512);
+    private final OutputBuffer lineQuery2 = new OutputBuffer(1024);
+    private final OutputStage.Statistics statisticsQuery1 = new OutputStage.Statistics();
+    private final OutputStage.Statistics statisticsQuery2 = new OutputStage.Statistics();
+    private final LatencyRecorder latencyRecorder = new LatencyRecorder();
+
     private final static Logger LOGGER = Logger.getLogger(Architecture.class.getName());
 
     public Architecture() { }
@@ -62,29 +118,97 @@ public abstract class Architecture {
         this.fileNameQuery1Output = builder.fileNameQuery1Output;
         this.fileNameQuery2Output = builder.fileNameQuery2Output;
         this.streamingTCP = builder.streamingTCP;
+        this.tcpCredits = builder.tcpCredits;
+        this.tcpConnections = builder.tcpConnections;
+        this.mappedInput = builder.mappedInput;
+        this.ringBufferSize = builder.ringBufferSize;
+        this.waitStrategy = builder.waitStrategy;
+        this.batchSize = builder.batchSize;
+        this.parseBatches = builder.parseBatches;
+        this.outputFlushSize = builder.outputFlushSize;
+        this.outputFlushInterval = builder.outputFlushInterval;
+        this.asyncOutput = builder.asyncOutput;
+        this.outputQueueSize = builder.outputQueueSize;
+        this.outputPolicy = builder.outputPolicy;
+        this.dbBatchSize = builder.dbBatchSize;
+        this.dbLingerTime = builder.dbLingerTime;
+        this.storageType = builder.storage;
+        this.dbFile = builder.dbFile;
+        this.logDir = builder.logDir;
+        this.logFsync = builder.logFsync;
+        this.logFsyncInterval = builder.logFsyncInterval;
+        this.replay = builder.replay;
+        this.columnar = builder.columnar;
+        this.readers = builder.readers;
+        this.mergeLookahead = builder.mergeLookahead;
+        this.recordLatency = builder.recordLatency;
+        this.stage1Threads = builder.stage1Threads;
+        this.stage2Threads = builder.stage2Threads;
+        this.generateTrips = builder.generateTrips;
+        this.generatorSeed = builder.generatorSeed;
+        this.generatorMedallions = builder.generatorMedallions;
+        this.generatorMalformed = builder.generatorMalformed;
 
         // initialize the environment
         this.env = Environment.initializeIfEmpty().assignErrorJournal();
 
-        // create the TCP server
+        // create the TCP server, that receives the trip lines as length prefixed frames
         this.serverTCP = NetStreams.tcpServer(
             spec -> spec
                 .env(this.env)
                 .listen(this.hostTCP, this.portTCP)
                 .dispatcher(Environment.cachedDispatcher())
-                .codec(StandardCodecs.STRING_CODEC)
+                .codec(new TripFrameCodec())
         );
 
         // initializes output files given the file name
         this.fileQuery1 = new File(this.fileNameQuery1Output);
         this.fileQuery2 = new File(this.fileNameQuery2Output);
 
-        // set up and register the PoolingDriver
-        try {
-            PollingDriver.setupDriver("jdbc:mysql://" + this.hostDB + ":" + this.portDB + "/" + this.schemaDB,
-                    this.userDB, this.passDB);
-        } catch (Exception e) {
-            e.printStackTrace();
+        // set up the storage for trips
+        this.storage = createStorage();
+    }
+
+    /**
+     * Creates the trip storage selected in the builder. The following storages are supported:
+     *  - mysql: MySQL server at hostDB and portDB
+     *  - h2: embedded H2 database in the file dbFile, where the tables are created on start. If the
+     *    database can not be set up, the architecture fails on construction
+     *  - log: append-only binary trip log in the directory logDir
+     *  - none: trips are only counted, to run without a database
+     *
+     * @return the trip storage
+     */
+    protected TripStorage createStorage() {
+        switch (this.storageType) {
+            case "mysql":
+                // set up and register the PoolingDriver. The driver rewrites the batches of inserts
+                // into multi row inserts, so a batch is sent in a single round trip
+                try {
+                    PollingDriver.setupDriver("jdbc:mysql://" + this.hostDB + ":" + this.portDB + "/" +
+                            this.schemaDB + "?rewriteBatchedStatements=true", this.userDB, this.passDB);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                return new JdbcTripStorage();
+            case "h2":
+                JdbcTripStorage storage = new JdbcTripStorage();
+                try {
+                    PollingDriver.setupDriver("org.h2.Driver", "jdbc:h2:file:" + new File(this.dbFile)
+                            .getAbsolutePath() + ";MODE=MySQL", this.userDB, this.passDB);
+                    storage.createTable("trip");
+                    storage.createTable("tripChangeTop10");
+                } catch (Exception e) {
+                    throw new IllegalStateException("Unable to set up the embedded database " + this.dbFile, e);
+                }
+                return storage;
+            case "log":
+                return new TripLogStorage(new File(this.logDir), TripLog.DEFAULT_SEGMENT_SIZE, this.logFsync,
+                        this.logFsyncInterval);
+            case "none":
+                return new CountingTripStorage();
+            default:
+                throw new IllegalArgumentException("Unknown storage " + this.storageType);
         }
     }
 
@@ -92,7 +216,9 @@ public abstract class Architecture {
         return fileNameQuery1Output;
     }
 
-    public void setFileNameQuery1Output(String fileNameQuery1Output) {
+    public synchronized void setFileNameQuery1Output(String fileNameQuery1Output) {
+        // write out the lines for the previous file
+        this.outputQuery1 = closeOutput(this.outputQuery1);
         this.fileNameQuery1Output = fileNameQuery1Output;
         this.fileQuery1 = new File(this.fileNameQuery1Output);
     }
@@ -101,11 +227,54 @@ public abstract class Architecture {
         return fileNameQuery2Output;
     }
 
-    public void setFileNameQuery2Output(String fileNameQuery2Output) {
+    public synchronized void setFileNameQuery2Output(String fileNameQuery2Output) {
+        // write out the lines for the previous file
+        this.outputQuery2 = closeOutput(this.outputQuery2);
         this.fileNameQuery2Output = fileNameQuery2Output;
         this.fileQuery2 = new File(this.fileNameQuery2Output);
     }
 
+    /**
+     * Get the delay statistics of the query 1 output, when the output is asynchronous.
+     *
+     * @return the statistics of the changes written since the architecture was created
+     */
+    public OutputStage.Statistics getOutputStatisticsQuery1() {
+        return statisticsQuery1;
+    }
+
+    /**
+     * Get the delay statistics of the query 2 output, when the output is asynchronous.
+     *
+     * @return the statistics of the changes written since the architecture was created
+     */
+    public OutputStage.Statistics getOutputStatisticsQuery2() {
+        return statisticsQuery2;
+    }
+
+    /**
+     * Get the latencies of the events per stage and the delays of the changes per query, when the
+     * latency is recorded.
+     *
+     * @return the latencies recorded since the architecture was created or the recorder was reset
+     */
+    public LatencyRecorder getLatencyRecorder() {
+        return latencyRecorder;
+    }
+
+    /**
+     * Get the taxi stream of the current run.
+     *
+     * @return the taxi stream or null, if the architecture has not run yet
+     */
+    public TaxiStream getTaxiStream() {
+        return taxiStream;
+    }
+
+    public TripStorage getStorage() {
+        return storage;
+    }
+
     public File getFileQuery1() {
         return fileQuery1;
     }
@@ -142,6 +311,118 @@ public abstract class Architecture {
         return schemaDB;
     }
 
+    public boolean isMappedInput() {
+        return mappedInput;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Creates a taxi stream for the input file. If the input is memory mapped, the
+     * input file name is a path to the file on disk, otherwise it is a resource
+     * in the /com/jernejerin/ package. When streaming from TCP client, the stream
+     * receives the lines from the TCP server instead. When generating trips, the stream publishes
+     * the lines of a new trip generator instead. When the latency is recorded, the stream stamps each
+     * event when it is read.
+     *
+     * @return a new taxi stream for the input file
+     */
+    protected TaxiStream createTaxiStream() {
+        return createTaxiStream(false);
+    }
+
+    /**
+     * Creates a taxi stream for the input file, that can publish the trips for the columnar
+     * query operators. See createTaxiStream().
+     *
+     * @param columnar are the trips processed in columnar batches
+     * @return a new taxi stream for the input file
+     */
+    protected TaxiStream createTaxiStream(boolean columnar) {
+        // each run interns the checksums of its trips from scratch
+        MD5Dictionary.MEDALLIONS.clear();
+        MD5Dictionary.HACK_LICENSES.clear();
+
+        if (this.streamingTCP) {
+            TaxiStream taxiStream = new TaxiStream(this.hostTCP + ":" + this.portTCP, false, false, columnar,
+                    this.ringBufferSize, this.waitStrategy, this.batchSize, this.parseBatches, 1, this.recordLatency);
+            taxiStream.setServerTCP(this.serverTCP);
+            taxiStream.setTcpCredits(this.tcpCredits);
+            taxiStream.setTcpConnections(this.tcpConnections);
+            return taxiStream;
+        }
+        if (this.generateTrips > 0) {
+            TaxiStream taxiStream = new TaxiStream("generated", false, false, columnar, this.ringBufferSize,
+                    this.waitStrategy, this.batchSize, this.parseBatches, 1, this.recordLatency);
+            taxiStream.setGenerator(new TripGenerator(this.generatorSeed, this.generatorMedallions,
+                    TripGenerator.DEFAULT_ROUTES, TripGenerator.DEFAULT_ZIPF_EXPONENT,
+                    TripGenerator.DEFAULT_TRIPS_PER_DAY, this.generatorMalformed, TripGenerator.DEFAULT_START),
+                    this.generateTrips);
+            return taxiStream;
+        }
+        if (this.replay)
+            return new TaxiStream(this.fileNameInput, false, true, columnar, this.ringBufferSize,
+                    this.waitStrategy, this.batchSize, true, 1, this.recordLatency);
+        // the input file name can list several inputs to merge, each of them is a resource when not mapped
+        String fileName = this.mappedInput ? this.fileNameInput :
+                "/com/jernejerin/" + this.fileNameInput.replace(",", ",/com/jernejerin/");
+        TaxiStream taxiStream = new TaxiStream(fileName, this.mappedInput, false, columnar, this.ringBufferSize,
+                this.waitStrategy, this.batchSize, this.parseBatches, this.readers, this.recordLatency);
+        taxiStream.setMergeLookahead(this.mergeLookahead);
+        return taxiStream;
+    }
+
+    /**
+     * Unpacks the batches from the taxi stream into a stream of parsed trips. The batches, that
+     * were not parsed by the reader, are parsed here. The trips keep the order, the id and
+     * the receive time that they got when they were read.
+     *
+     * @return a stream of parsed trips, without the malformed ones
+     */
+    protected Stream<Trip> unpackBatches() {
+        return this.taxiStream.getBatches()
+                .map(batch -> parsed(batch.parse().getTrips()))
+                .split();
+    }
+
+    /**
+     * Records the latency of parsing for each of the parsed trips, if the latency is recorded.
+     *
+     * @param trips the parsed trips, stamped when they were read
+     * @return the passed trips
+     */
+    protected List<Trip> parsed(List<Trip> trips) {
+        if (this.recordLatency)
+            trips.forEach(trip -> recordLatency(LatencyRecorder.Stage.PARSE, trip));
+        return trips;
+    }
+
+    /**
+     * Records the latency of the trip, that has passed the stage, if the latency is recorded.
+     *
+     * @param stage the stage that the trip has passed
+     * @param trip the trip stamped when it was read, see TaxiStream
+     */
+    protected void recordLatency(LatencyRecorder.Stage stage, Trip trip) {
+        if (this.recordLatency)
+            this.latencyRecorder.record(stage, trip.getNanoTimeReceived());
+    }
+
+    /**
+     * Records the latency of the trip in the columnar batch, that has passed the stage, if the latency
+     * is recorded.
+     *
+     * @param stage the stage that the trip has passed
+     * @param batch the columnar batch stamped when it was read, see TaxiStream
+     * @param i the index of the trip in the batch
+     */
+    protected void recordLatency(LatencyRecorder.Stage stage, TripBatch batch, int i) {
+        if (this.recordLatency)
+            this.latencyRecorder.record(stage, batch.getNanoTimeReceived(i));
+    }
+
     /**
      * Outputs a log to a file when top 10 routes is changed.
      *
@@ -154,27 +435,41 @@ public abstract class Architecture {
                                                LocalDateTime dropOffDateTime, long timeStart, Trip trip) {
         // compute delay now as we do not want to take in the actual processing of the result
         long delay = System.currentTimeMillis() - timeStart;
+        if (this.recordLatency)
+            this.latencyRecorder.recordChangeQuery1(delay);
+
+        if (this.asyncOutput) {
+            // format the change now, as the route counts keep changing after it is submitted
+            byte[] line;
+            synchronized (this.lineQuery1) {
+                formatTop10Query1(this.lineQuery1, top10, pickupDateTime, dropOffDateTime);
+                line = this.lineQuery1.take();
+            }
+            submit(outputQuery1(), this.statisticsQuery1, line, delay);
+            return;
+        }
 
-        // build content string for output
-        String content = pickupDateTime.toString() + ", " + dropOffDateTime.toString() + ", ";
+        OutputSink output = outputQuery1();
+        synchronized (output) {
+            formatTop10Query1(output, top10, pickupDateTime, dropOffDateTime);
 
-        // iterate over all the most frequent routes
-        for (RouteCount routeCount : top10) {
-            content += routeCount.getRoute().getStartCell().getEast() + "." + routeCount.getRoute().getStartCell().getSouth() +
-                ", " + routeCount.getRoute().getEndCell().getEast() + "." + routeCount.getRoute().getEndCell().getSouth() +
-                    " (" + routeCount.getCount() + "),";
+            // add a delay
+            output.append(delay);
+            endLine(output);
         }
+    }
 
-        // add a start time, end and a delay
-        content += delay + "\n";
+    private static void formatTop10Query1(OutputBuffer output, List<RouteCount> top10, LocalDateTime pickupDateTime,
+                                          LocalDateTime dropOffDateTime) {
+        output.append(pickupDateTime).append(", ").append(dropOffDateTime).append(", ");
 
-        try (FileOutputStream fop = new FileOutputStream(this.fileQuery1, true)) {
-            // write to file
-            fop.write(content.getBytes());
-            fop.flush();
-            fop.close();
-        } catch (IOException ex) {
-            LOGGER.log(Level.SEVERE, ex.getMessage());
+        // iterate over all the most frequent routes
+        for (RouteCount routeCount : top10) {
+            output.append(routeCount.getRoute().getStartCell().getEast()).append('.')
+                    .append(routeCount.getRoute().getStartCell().getSouth()).append(", ")
+                    .append(routeCount.getRoute().getEndCell().getEast()).append('.')
+                    .append(routeCount.getRoute().getEndCell().getSouth())
+                    .append(" (").append(routeCount.getCount()).append("),");
         }
     }
 
@@ -190,41 +485,128 @@ public abstract class Architecture {
                                        LocalDateTime dropOffDateTime, long timeStart) {
         // compute delay now as we do not want to take in the actual processing of the result
         long delay = System.currentTimeMillis() - timeStart;
+        if (this.recordLatency)
+            this.latencyRecorder.recordChangeQuery2(delay);
+
+        if (this.asyncOutput) {
+            byte[] line;
+            synchronized (this.lineQuery2) {
+                formatTop10Query2(this.lineQuery2, top10, pickupDateTime, dropOffDateTime);
+                line = this.lineQuery2.take();
+            }
+            submit(outputQuery2(), this.statisticsQuery2, line, delay);
+            return;
+        }
 
-        // build content string for output
-        String content = pickupDateTime.toString() + ", " + dropOffDateTime.toString() + ", ";
+        OutputSink output = outputQuery2();
+        synchronized (output) {
+            formatTop10Query2(output, top10, pickupDateTime, dropOffDateTime);
+
+            // add a delay
+            output.append(delay);
+            endLine(output);
+        }
+    }
+
+    private static void formatTop10Query2(OutputBuffer output, List<CellProfitability> top10,
+                                          LocalDateTime pickupDateTime, LocalDateTime dropOffDateTime) {
+        output.append(pickupDateTime).append(", ").append(dropOffDateTime).append(", ");
 
         // iterate over all the most profitable cells
         for (CellProfitability cellProfitability : top10) {
-            content += cellProfitability.getCell().getEast() + "." + cellProfitability.getCell().getSouth() +
-                ", " + cellProfitability.getEmptyTaxis() + ", " + cellProfitability.getMedianProfit() + ", " +
-                cellProfitability.getProfitability() + ", ";
+            output.append(cellProfitability.getCell().getEast()).append('.')
+                    .append(cellProfitability.getCell().getSouth()).append(", ")
+                    .append(cellProfitability.getEmptyTaxis()).append(", ")
+                    .append(cellProfitability.getMedianProfit()).append(", ")
+                    .append(cellProfitability.getProfitability()).append(", ");
         }
+    }
 
-        // add a start time, end and a delay
-        content += delay + "\n";
+    public void writeTrips(Trip trip) {
+        OutputSink output = outputQuery1();
+        synchronized (output) {
+            output.append(trip.toString());
+            endLine(output);
+        }
+    }
 
-        try (FileOutputStream fop = new FileOutputStream(this.fileQuery2, true)) {
-            // write to file
-            fop.write(content.getBytes());
-            fop.flush();
-            fop.close();
-        } catch (IOException ex) {
+    /**
+     * Writes out the pending changes and the buffered lines and closes the output files and the trip
+     * storage. Architectures call it at the end of run, so the output is complete when run returns.
+     * A later write opens the file again.
+     */
+    protected synchronized void closeOutputs() {
+        try {
+            this.storage.close();
+        } catch (Exception ex) {
             LOGGER.log(Level.SEVERE, ex.getMessage());
         }
+
+        // a failed output stage is rethrown, after the output files are closed
+        try {
+            if (this.outputStage != null) {
+                this.outputStage.close();
+                LOGGER.log(Level.INFO, "Output query 1: " + this.statisticsQuery1);
+                LOGGER.log(Level.INFO, "Output query 2: " + this.statisticsQuery2);
+            }
+        } finally {
+            this.outputStage = null;
+            this.outputQuery1 = closeOutput(this.outputQuery1);
+            this.outputQuery2 = closeOutput(this.outputQuery2);
+        }
+
+        if (this.recordLatency)
+            LOGGER.log(Level.INFO, "Latency: " + this.latencyRecorder);
     }
 
-    public void writeTrips(Trip trip) {
-        try (FileOutputStream fop = new FileOutputStream(this.fileQuery1, true)) {
-            // write to file
-            fop.write((trip.toString() + "\n").getBytes());
-            fop.flush();
-            fop.close();
+    private synchronized OutputSink outputQuery1() {
+        if (this.outputQuery1 == null)
+            this.outputQuery1 = new OutputSink(this.fileQuery1, this.outputFlushSize, this.outputFlushInterval);
+        return this.outputQuery1;
+    }
+
+    private synchronized OutputSink outputQuery2() {
+        if (this.outputQuery2 == null)
+            this.outputQuery2 = new OutputSink(this.fileQuery2, this.outputFlushSize, this.outputFlushInterval);
+        return this.outputQuery2;
+    }
+
+    private synchronized OutputStage outputStage() {
+        if (this.outputStage == null)
+            this.outputStage = new OutputStage(this.outputQueueSize, this.outputPolicy);
+        return this.outputStage;
+    }
+
+    private void submit(OutputSink output, OutputStage.Statistics statistics, byte[] line, long delay) {
+        try {
+            outputStage().submit(output, statistics, line, delay);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.log(Level.SEVERE, ex.getMessage());
+        }
+    }
+
+    private static void endLine(OutputSink output) {
+        try {
+            output.endLine();
         } catch (IOException ex) {
             LOGGER.log(Level.SEVERE, ex.getMessage());
         }
     }
 
+    private static OutputSink closeOutput(OutputSink output) {
+        if (output != null) {
+            synchronized (output) {
+                try {
+                    output.close();
+                } catch (IOException ex) {
+                    LOGGER.log(Level.SEVERE, ex.getMessage());
+                }
+            }
+        }
+        return null;
+    }
+
     /**
      * Method to run implemented architecture. The method should return the
      * time to run the solution in milliseconds.
@@ -1,5 +1,6 @@
 package com.jernejerin.traffic.architectures;
 
+import com.jernejerin.traffic.client.TripGenerator;
 import org.apache.commons.cli.*;
 
 /**
@@ -42,6 +43,96 @@ public class ArchitectureBuilder {
     /** The default value if we are streaming from TCP client. */
     protected boolean streamingTCP = false;
 
+    /** The default number of frames requested ahead from the TCP client. */
+    protected int tcpCredits = 4096;
+
+    /** The default number of TCP client connections, that are read before the input is complete. */
+    protected int tcpConnections = 1;
+
+    /** The default value if the input file is a file on disk, that is memory mapped. */
+    protected boolean mappedInput = false;
+
+    /** The default capacity of the ring buffer for the input events. Must be a power of 2. */
+    protected int ringBufferSize = 32;
+
+    /** The default wait strategy of the ring buffer. */
+    protected String waitStrategy = "blocking";
+
+    /** The default number of events published as a single element. 1 means event by event. */
+    protected int batchSize = 1;
+
+    /** The default value if the batches are parsed by the reader before they are published. */
+    protected boolean parseBatches = false;
+
+    /** The default number of buffered output bytes after which the output is written to file. */
+    protected int outputFlushSize = 64 * 1024;
+
+    /** The default time in milliseconds after which the buffered output is written to file. */
+    protected long outputFlushInterval = 1000;
+
+    /** The default value if the output is written by a dedicated writer thread. */
+    protected boolean asyncOutput = false;
+
+    /** The default maximum number of changes waiting for the asynchronous writer. */
+    protected int outputQueueSize = 1024;
+
+    /** The default back pressure policy of the asynchronous output. */
+    protected String outputPolicy = "block";
+
+    /** The default number of trips inserted into DB in a single batch. */
+    protected int dbBatchSize = 500;
+
+    /** The default time in milliseconds a trip waits for its DB batch to fill up. */
+    protected long dbLingerTime = 100;
+
+    /** The default storage for trips (mysql, h2, log or none). */
+    protected String storage = "mysql";
+
+    /** The default file of the embedded database, without the extension. */
+    protected String dbFile = "output/db/taxi";
+
+    /** The default directory of the trip logs. */
+    protected String logDir = "output/log";
+
+    /** The default fsync policy of the trip logs (never, commit or interval). */
+    protected String logFsync = "interval";
+
+    /** The default time in milliseconds between syncs of the trip logs for the interval policy. */
+    protected long logFsyncInterval = 1000;
+
+    /** The default value if the input is a trip log or a trip archive, that is replayed instead of the CSV file. */
+    protected boolean replay = false;
+
+    /** The default value if the trips are processed in columnar batches by the query operators (EDA only). */
+    protected boolean columnar = false;
+
+    /** The default number of workers parsing the memory mapped input in parallel. */
+    protected int readers = 1;
+
+    /** The default number of lines read ahead for each input, when merging several inputs. */
+    protected int mergeLookahead = 1024;
+
+    /** The default value if the latency of each event is recorded per stage. */
+    protected boolean recordLatency = false;
+
+    /** The default number of threads for stage 1 (SEDA only). */
+    protected int stage1Threads = 4;
+
+    /** The default number of threads for stage 2 (SEDA only). */
+    protected int stage2Threads = 4;
+
+    /** The default number of generated trips, that replace the input file. 0 means reading the input file. */
+    protected long generateTrips = 0;
+
+    /** The default seed of the trip generator. */
+    protected long generatorSeed = TripGenerator.DEFAULT_SEED;
+
+    /** The default number of medallions of the trip generator. */
+    protected int generatorMedallions = TripGenerator.DEFAULT_MEDALLIONS;
+
+    /** The default fraction of the malformed trips of the trip generator. */
+    protected double generatorMalformed = TripGenerator.DEFAULT_MALFORMED;
+
     public ArchitectureBuilder() { }
 
     public ArchitectureBuilder hostTCP(String hostTCP) {
@@ -99,11 +190,162 @@ public class ArchitectureBuilder {
         return this;
     }
 
+    public ArchitectureBuilder tcpCredits(int tcpCredits) {
+        this.tcpCredits = tcpCredits;
+        return this;
+    }
+
+    public ArchitectureBuilder tcpConnections(int tcpConnections) {
+        this.tcpConnections = tcpConnections;
+        return this;
+    }
+
+    public ArchitectureBuilder mappedInput(boolean mappedInput) {
+        this.mappedInput = mappedInput;
+        return this;
+    }
+
+    public ArchitectureBuilder ringBufferSize(int ringBufferSize) {
+        this.ringBufferSize = ringBufferSize;
+        return this;
+    }
+
+    public ArchitectureBuilder waitStrategy(String waitStrategy) {
+        this.waitStrategy = waitStrategy;
+        return this;
+    }
+
+    public ArchitectureBuilder batchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public ArchitectureBuilder parseBatches(boolean parseBatches) {
+        this.parseBatches = parseBatches;
+        return this;
+    }
+
+    public ArchitectureBuilder outputFlushSize(int outputFlushSize) {
+        this.outputFlushSize = outputFlushSize;
+        return this;
+    }
+
+    public ArchitectureBuilder outputFlushInterval(long outputFlushInterval) {
+        this.outputFlushInterval = outputFlushInterval;
+        return this;
+    }
+
+    public ArchitectureBuilder asyncOutput(boolean asyncOutput) {
+        this.asyncOutput = asyncOutput;
+        return this;
+    }
+
+    public ArchitectureBuilder outputQueueSize(int outputQueueSize) {
+        this.outputQueueSize = outputQueueSize;
+        return this;
+    }
+
+    public ArchitectureBuilder outputPolicy(String outputPolicy) {
+        this.outputPolicy = outputPolicy;
+        return this;
+    }
+
+    public ArchitectureBuilder dbBatchSize(int dbBatchSize) {
+        this.dbBatchSize = dbBatchSize;
+        return this;
+    }
+
+    public ArchitectureBuilder dbLingerTime(long dbLingerTime) {
+        this.dbLingerTime = dbLingerTime;
+        return this;
+    }
+
+    public ArchitectureBuilder storage(String storage) {
+        this.storage = storage;
+        return this;
+    }
+
+    public ArchitectureBuilder dbFile(String dbFile) {
+        this.dbFile = dbFile;
+        return this;
+    }
+
+    public ArchitectureBuilder logDir(String logDir) {
+        this.logDir = logDir;
+        return this;
+    }
+
+    public ArchitectureBuilder logFsync(String logFsync) {
+        this.logFsync = logFsync;
+        return this;
+    }
+
+    public ArchitectureBuilder logFsyncInterval(long logFsyncInterval) {
+        this.logFsyncInterval = logFsyncInterval;
+        return this;
+    }
+
+    public ArchitectureBuilder replay(boolean replay) {
+        this.replay = replay;
+        return this;
+    }
+
+    public ArchitectureBuilder columnar(boolean columnar) {
+        this.columnar = columnar;
+        return this;
+    }
+
+    public ArchitectureBuilder readers(int readers) {
+        this.readers = readers;
+        return this;
+    }
+
+    public ArchitectureBuilder mergeLookahead(int mergeLookahead) {
+        this.mergeLookahead = mergeLookahead;
+        return this;
+    }
+
+    public ArchitectureBuilder recordLatency(boolean recordLatency) {
+        this.recordLatency = recordLatency;
+        return this;
+    }
+
+    public ArchitectureBuilder stage1Threads(int stage1Threads) {
+        this.stage1Threads = stage1Threads;
+        return this;
+    }
+
+    public ArchitectureBuilder stage2Threads(int stage2Threads) {
+        this.stage2Threads = stage2Threads;
+        return this;
+    }
+
+    public ArchitectureBuilder generateTrips(long generateTrips) {
+        this.generateTrips = generateTrips;
+        return this;
+    }
+
+    public ArchitectureBuilder generatorSeed(long generatorSeed) {
+        this.generatorSeed = generatorSeed;
+        return this;
+    }
+
+    public ArchitectureBuilder generatorMedallions(int generatorMedallions) {
+        this.generatorMedallions = generatorMedallions;
+        return this;
+    }
+
+    public ArchitectureBuilder generatorMalformed(double generatorMalformed) {
+        this.generatorMalformed = generatorMalformed;
+        return this;
+    }
+
     /**
      * Set options from passed command line arguments. The following
      * options are set:
      *  - host TCP
      *  - port TCP
+     *  - streaming from TCP clients, the number of frames requested ahead and the number of connections
      *  - host DB
      *  - port DB
      *  - user DB
@@ -112,6 +354,20 @@ public class ArchitectureBuilder {
      *  - input file name
      *  - query1 output file name
      *  - query2 output file name
+     *  - memory mapped input
+     *  - ring buffer size, wait strategy, batch size and parsing of batches
+     *  - output flush size and flush interval
+     *  - asynchronous output, its queue size and back pressure policy
+     *  - DB batch size and linger time
+     *  - storage for trips and the file of the embedded database
+     *  - directory and fsync policy of the trip logs and replaying of a trip log or a trip archive
+     *  - columnar processing of the trips
+     *  - number of readers parsing the memory mapped input in parallel
+     *  - lookahead of each input, when merging several inputs
+     *  - recording of the latency of each event
+     *  - number of threads for the stages of SEDA
+     *  - number of generated trips instead of the input file and the seed, medallions and malformed
+     *    fraction of the trip generator
      *
      * It also prints the display help if user passes in help option.
      *
@@ -125,6 +381,9 @@ public class ArchitectureBuilder {
         options.addOption("help", false, "help for usage");
         options.addOption("hostTCP", true, "the hostname of the TCP server");
         options.addOption("portTCP", true, "the port of the TCP server");
+        options.addOption("streamingTCP", false, "receive the input from a TCP client instead of the input file");
+        options.addOption("tcpCredits", true, "the number of frames requested ahead from each TCP client");
+        options.addOption("tcpConnections", true, "the number of TCP client connections to read");
         options.addOption("hostDB", true, "the hostname of the DB server");
         options.addOption("portDB", true, "the port of the DB server");
         options.addOption("userDB", true, "the username for the DB server");
@@ -133,6 +392,38 @@ public class ArchitectureBuilder {
         options.addOption("fileNameInput", true, "the name of the input file that holds the data");
         options.addOption("fileNameQuery1Output", true, "the name of the output file to write the results for query 1");
         options.addOption("fileNameQuery2Output", true, "the name of the output file to write the results for query 1");
+        options.addOption("mappedInput", false, "memory map the input file from the given path on disk");
+        options.addOption("ringBufferSize", true, "the capacity of the ring buffer for input events (power of 2)");
+        options.addOption("waitStrategy", true, "the wait strategy of the ring buffer (blocking, liteBlocking, " +
+                "sleeping, yielding, busySpin)");
+        options.addOption("batchSize", true, "the number of input events published as a single batch");
+        options.addOption("parseBatches", false, "parse the batches before they are published");
+        options.addOption("outputFlushSize", true, "the number of buffered output bytes after which they are written");
+        options.addOption("outputFlushInterval", true, "the time in milliseconds after which the buffered output " +
+                "is written");
+        options.addOption("asyncOutput", false, "write the output from a dedicated writer thread");
+        options.addOption("outputQueueSize", true, "the number of changes waiting for the asynchronous writer");
+        options.addOption("outputPolicy", true, "the back pressure policy of the asynchronous output (block, " +
+                "dropOldest, coalesce)");
+        options.addOption("dbBatchSize", true, "the number of trips inserted into DB in a single batch");
+        options.addOption("dbLingerTime", true, "the time in milliseconds a trip waits for its DB batch to fill up");
+        options.addOption("storage", true, "the storage for trips (mysql, h2, log, none)");
+        options.addOption("dbFile", true, "the file of the embedded database");
+        options.addOption("logDir", true, "the directory of the trip logs");
+        options.addOption("logFsync", true, "the fsync policy of the trip logs (never, commit, interval)");
+        options.addOption("logFsyncInterval", true, "the time in milliseconds between syncs of the trip logs");
+        options.addOption("replay", false, "replay the trip log directory or the trip archive given as input file name");
+        options.addOption("columnar", false, "process the trips in columnar batches (EDA only)");
+        options.addOption("readers", true, "the number of workers parsing the memory mapped input in parallel");
+        options.addOption("mergeLookahead", true, "the number of lines read ahead for each input, when merging " +
+                "several inputs");
+        options.addOption("recordLatency", false, "record the latency of each event per stage");
+        options.addOption("stage1Threads", true, "the number of threads for stage 1 (SEDA only)");
+        options.addOption("stage2Threads", true, "the number of threads for stage 2 (SEDA only)");
+        options.addOption("generateTrips", true, "the number of generated trips, that replace the input file");
+        options.addOption("generatorSeed", true, "the seed of the trip generator");
+        options.addOption("generatorMedallions", true, "the number of medallions of the trip generator");
+        options.addOption("generatorMalformed", true, "the fraction of the malformed trips of the trip generator");
 
         // parser for command line arguments
         CommandLineParser parser = new GnuParser();
@@ -156,6 +447,12 @@ public class ArchitectureBuilder {
             this.hostTCP = cmd.getOptionValue("hostTCP");
         if (cmd.getOptionValue("portTCP") != null)
             this.portTCP = Integer.parseInt(cmd.getOptionValue("portTCP"));
+        if (cmd.hasOption("streamingTCP"))
+            this.streamingTCP = true;
+        if (cmd.getOptionValue("tcpCredits") != null)
+            this.tcpCredits = Integer.parseInt(cmd.getOptionValue("tcpCredits"));
+        if (cmd.getOptionValue("tcpConnections") != null)
+            this.tcpConnections = Integer.parseInt(cmd.getOptionValue("tcpConnections"));
         if (cmd.getOptionValue("hostDB") != null)
             this.hostDB = cmd.getOptionValue("hostDB");
         if (cmd.getOptionValue("portDB") != null)
@@ -172,5 +469,61 @@ public class ArchitectureBuilder {
             this.fileNameQuery1Output = cmd.getOptionValue("fileNameQuery1Output");
         if (cmd.getOptionValue("fileNameQuery2Output") != null)
             this.fileNameQuery2Output = cmd.getOptionValue("fileNameQuery2Output");
+        if (cmd.hasOption("mappedInput"))
+            this.mappedInput = true;
+        if (cmd.getOptionValue("ringBufferSize") != null)
+            this.ringBufferSize = Integer.parseInt(cmd.getOptionValue("ringBufferSize"));
+        if (cmd.getOptionValue("waitStrategy") != null)
+            this.waitStrategy = cmd.getOptionValue("waitStrategy");
+        if (cmd.getOptionValue("batchSize") != null)
+            this.batchSize = Integer.parseInt(cmd.getOptionValue("batchSize"));
+        if (cmd.hasOption("parseBatches"))
+            this.parseBatches = true;
+        if (cmd.getOptionValue("outputFlushSize") != null)
+            this.outputFlushSize = Integer.parseInt(cmd.getOptionValue("outputFlushSize"));
+        if (cmd.getOptionValue("outputFlushInterval") != null)
+            this.outputFlushInterval = Long.parseLong(cmd.getOptionValue("outputFlushInterval"));
+        if (cmd.hasOption("asyncOutput"))
+            this.asyncOutput = true;
+        if (cmd.getOptionValue("outputQueueSize") != null)
+            this.outputQueueSize = Integer.parseInt(cmd.getOptionValue("outputQueueSize"));
+        if (cmd.getOptionValue("outputPolicy") != null)
+            this.outputPolicy = cmd.getOptionValue("outputPolicy");
+        if (cmd.getOptionValue("dbBatchSize") != null)
+            this.dbBatchSize = Integer.parseInt(cmd.getOptionValue("dbBatchSize"));
+        if (cmd.getOptionValue("dbLingerTime") != null)
+            this.dbLingerTime = Long.parseLong(cmd.getOptionValue("dbLingerTime"));
+        if (cmd.getOptionValue("storage") != null)
+            this.storage = cmd.getOptionValue("storage");
+        if (cmd.getOptionValue("dbFile") != null)
+            this.dbFile = cmd.getOptionValue("dbFile");
+        if (cmd.getOptionValue("logDir") != null)
+            this.logDir = cmd.getOptionValue("logDir");
+        if (cmd.getOptionValue("logFsync") != null)
+            this.logFsync = cmd.getOptionValue("logFsync");
+        if (cmd.getOptionValue("logFsyncInterval") != null)
+            this.logFsyncInterval = Long.parseLong(cmd.getOptionValue("logFsyncInterval"));
+        if (cmd.hasOption("replay"))
+            this.replay = true;
+        if (cmd.hasOption("columnar"))
+            this.columnar = true;
+        if (cmd.getOptionValue("readers") != null)
+            this.readers = Integer.parseInt(cmd.getOptionValue("readers"));
+        if (cmd.getOptionValue("mergeLookahead") != null)
+            this.mergeLookahead = Integer.parseInt(cmd.getOptionValue("mergeLookahead"));
+        if (cmd.hasOption("recordLatency"))
+            this.recordLatency = true;
+        if (cmd.getOptionValue("stage1Threads") != null)
+            this.stage1Threads = Integer.parseInt(cmd.getOptionValue("stage1Threads"));
+        if (cmd.getOptionValue("stage2Threads") != null)
+            this.stage2Threads = Integer.parseInt(cmd.getOptionValue("stage2Threads"));
+        if (cmd.getOptionValue("generateTrips") != null)
+            this.generateTrips = Long.parseLong(cmd.getOptionValue("generateTrips"));
+        if (cmd.getOptionValue("generatorSeed") != null)
+            this.generatorSeed = Long.parseLong(cmd.getOptionValue("generatorSeed"));
+        if (cmd.getOptionValue("generatorMedallions") != null)
+            this.generatorMedallions = Integer.parseInt(cmd.getOptionValue("generatorMedallions"));
+        if (cmd.getOptionValue("generatorMalformed") != null)
+            this.generatorMalformed = Double.parseDouble(cmd.getOptionValue("generatorMalformed"));
     }
 }
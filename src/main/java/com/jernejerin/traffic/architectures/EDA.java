@@ -1,10 +1,12 @@
 package com.jernejerin.traffic.architectures;
 
-import com.aliasi.util.BoundedPriorityQueue;
+import com.jernejerin.traffic.client.TripBatch;
 import com.jernejerin.traffic.entities.*;
-import com.jernejerin.traffic.client.TaxiStream;
-import com.jernejerin.traffic.helper.MedianOfStream;
-import com.jernejerin.traffic.helper.PollingDriver;
+import com.jernejerin.traffic.helper.CellProfitabilityIndex;
+import com.jernejerin.traffic.helper.FrequentRoutesOperator;
+import com.jernejerin.traffic.helper.LatencyRecorder;
+import com.jernejerin.traffic.helper.ProfitableCellsOperator;
+import com.jernejerin.traffic.helper.RouteRanking;
 import com.jernejerin.traffic.helper.TripOperations;
 import reactor.fn.tuple.Tuple;
 import reactor.rx.Stream;
@@ -19,28 +21,20 @@ import java.util.logging.Logger;
  * An example of a single threaded event driven architecture - EDA.
  * This solution consists of LinkedHashMap.
  *
+ * <p> With the columnar option the trips are processed in columnar batches by the
+ * query operators, which produce the same output without an object per trip in the windows.
+ *
  * @author Jernej Jerin
  */
 public class EDA extends Architecture {
     private final static Logger LOGGER = Logger.getLogger(EDA.class.getName());
     private static int id = 0;
 
-    // controls the size of the list to store largest Routes
-    // TODO (Jernej Jerin): From empirical testing it seems that
-    // TODO (Jernej Jerin): the best n is at value 30.
-    private int n = 100;
-
     public EDA(ArchitectureBuilder builder) {
         // call super constructor to initialize fields from builder
         super(builder);
     }
 
-    public EDA(ArchitectureBuilder builder, int n) {
-        // call super constructor to initialize fields from builder
-        super(builder);
-        this.n = n;
-    }
-
     public static void main(String[] args) throws InterruptedException {
         LOGGER.log(Level.INFO, "Starting single threaded EDA 3 solution from thread = " + Thread.currentThread());
 
@@ -60,40 +54,34 @@ public class EDA extends Architecture {
     }
 
     public long run() throws InterruptedException {
-        LOGGER.log(Level.INFO, "Registering pooling driver from thread = " + Thread.currentThread());
-        try {
-            PollingDriver.setupDriver("jdbc:mysql://" + this.hostDB + ":" + this.portDB + "/" +
-                    this.schemaDB, this.userDB, this.passDB);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
         long startTime = System.currentTimeMillis();
+        if (this.columnar)
+            return runColumnar(startTime);
 
         // create a taxi service
-        this.taxiStream = new TaxiStream("/com/jernejerin/" + this.fileNameInput);
+        this.taxiStream = createTaxiStream();
 
-        // current top N sorted
-        final LinkedList<RouteCount> topNRoutes = new LinkedList<>();
-        final LinkedList<CellProfitability> topNCellProfitability = new LinkedList<>();
+        // current top 10 sorted
         final List<CellProfitability> top10Cells = new LinkedList<>();
 
         // time windows
         final ArrayDeque<Trip> trips = new ArrayDeque<>();
-        ArrayDeque<Trip> tripProfits = new ArrayDeque<>();
-        ArrayDeque<Trip> tripEmptyTaxis = new ArrayDeque<>();
+        final ArrayDeque<Trip> tripProfits = new ArrayDeque<>();
+        final ArrayDeque<Trip> tripEmptyTaxis = new ArrayDeque<>();
 
-        // key value storage
-        final LinkedHashMap<Route, RouteCount> routesCount = new LinkedHashMap<>(100000);
-        final LinkedHashMap<Cell, EmptyTaxisCount> emptyTaxis = new LinkedHashMap<>(100000);
-        final HashMap<String, Cell> emptyTaxisMedallion = new HashMap<>();
-        final LinkedHashMap<Cell, CellProfit> cellProfits = new LinkedHashMap<>(100000);
+        // key value storage, where routes are ranked by frequency and cells by profitability
+        final RouteRanking routesRanking = new RouteRanking(100000);
+        final CellProfitabilityIndex cellsProfitability = new CellProfitabilityIndex();
 
         CountDownLatch completeSignal = new CountDownLatch(2);
 
-        Stream<Trip> sharedTripsStream = taxiStream.getTrips()
+        // in the batched mode the events were already stamped and numbered when they were read, which is
+        // always the case when the latency is recorded
+        Stream<Trip> tripsStream = this.taxiStream.isBatched() ? unpackBatches() : taxiStream.getTrips()
                 .map(t -> Tuple.of(t, System.currentTimeMillis(), id++))
-                .map(t -> TripOperations.parseValidateTrip(t.getT1(), t.getT2(), t.getT3()))
+                .map(t -> TripOperations.parseValidateTrip(t.getT1(), t.getT2(), t.getT3()));
+
+        Stream<Trip> sharedTripsStream = tripsStream
                 .filter(t -> t != null && t.getRoute250() != null)
 //                .map(t -> {
 //                    TripOperations.insertTrip(t);
@@ -111,421 +99,94 @@ public class EDA extends Architecture {
                         // remove it from queue
                         Trip trip = trips.poll();
 
+                        // counting down a route that is not in top 10 can not change the top 10,
+                        // so we only save current top 10 for future comparison if the route is in it
+                        RouteCount routeCount = routesRanking.get(trip.getRoute500());
+                        List<RouteCount> top10 = routesRanking.isInTop(routeCount, 10) ?
+                                routesRanking.top(10) : null;
+
                         // update the route count for the route of the trip, leaving the window
-                        RouteCount routeCount = routesCount.get(trip.getRoute500());
-                        routeCount.setCount(routeCount.getCount() - 1);
-
-                        // if count is 0 then remove the route count to avoid unnecessary iteration
-                        if (routeCount.getCount() == 0)
-                            routesCount.remove(routeCount);
-                        else
-                            routesCount.put(trip.getRoute500(), routeCount);
-
-                        // if route is in top N, then resort the top N
-                        // if it is not in top N, then we do not have to do
-                        // anything because counting down the route count
-                        // will not change the top N
-                        int i = topNRoutes.indexOf(routeCount);
-                        if (i != -1) {
-                            List<RouteCount> top10 = null;
-
-                            // save current top 10 for future comparison only if
-                            // the route of the removed trip lies in top 10
-                            if (i <= 9) {
-                                top10 = new LinkedList<>(topNRoutes.subList(0, topNRoutes.size() < 10 ?
-                                        topNRoutes.size() : 10));
-                            }
-
-                            // flip elements from i-th to the last one
-                            // until the current route is smaller
-                            for (int j = i, k = i + 1; k < topNRoutes.size(); j++, k++) {
-                                // route count at current position is smaller, then switch places
-                                if (topNRoutes.get(j).compareTo(topNRoutes.get(k)) < 0) {
-                                    Collections.swap(topNRoutes, j, k);
-                                }
-                            }
-
-                            // if the element falls into the last place in top N, then we need to
-                            // resort all route count
-                            if (topNRoutes.get(topNRoutes.size() - 1).equals(routeCount)) {
-                                // a priority queue for top N routes. Orders by natural number.
-                                BoundedPriorityQueue<RouteCount> newTopNRoutes = new BoundedPriorityQueue<>
-                                        (Comparator.<RouteCount>naturalOrder(), this.n);
-
-                                // try to add each route count to the top N list. This way we get sorted top N with
-                                // time complexity n * log(N) + N * log(N) vs. n * log(n), where N << n!
-                                routesCount.forEach((r, rc) -> newTopNRoutes.offer(rc));
-
-                                // copy to the top N routes and resort (N * log(N))
-                                Collections.copy(topNRoutes, new LinkedList<>(newTopNRoutes));
-                                Collections.sort(topNRoutes, Comparator.<RouteCount>reverseOrder());
-                            }
-
-                            // check if top 10 has changed
-                            if (top10 != null && !top10.equals(topNRoutes.subList(0, topNRoutes.size() < 10 ?
-                                    topNRoutes.size() : 10))) {
-                                writeTop10ChangeQuery1(topNRoutes.subList(0, topNRoutes.size() < 10 ? topNRoutes.size() : 10),
-                                        trip.getPickupDatetime().plusMinutes(30),
-                                        trip.getDropOffDatetime().plusMinutes(30),
-                                        t.getTimestampReceived(), trip);
-                            }
+                        routesRanking.decrement(trip.getRoute500());
+
+                        // check if top 10 has changed
+                        if (top10 != null && !top10.equals(routesRanking.top(10))) {
+                            writeTop10ChangeQuery1(routesRanking.top(10),
+                                    trip.getPickupDatetime().plusMinutes(30),
+                                    trip.getDropOffDatetime().plusMinutes(30),
+                                    t.getTimestampReceived(), trip);
                         }
                     }
 
                     // add to window
                     trips.add(t);
 
-                    // update the route count and trip id for the route of the incoming trip
-                    // if the rout count does not yet exist, create a new one
-                    RouteCount routeCount = routesCount.getOrDefault(t.getRoute500(),
-                            new RouteCount(t.getRoute500(), t.getId(), 0));
-                    routeCount.setCount(routeCount.getCount() + 1);
-                    routeCount.setId(t.getId());
-                    routesCount.put(t.getRoute500(), routeCount);
-
                     // store current top 10
-                    LinkedList<RouteCount> top10 = new LinkedList<>(topNRoutes.subList(0, topNRoutes.size() < 10 ?
-                            topNRoutes.size() : 10));
-
-                    int i = topNRoutes.indexOf(routeCount);
-                    if (i != -1) {
-                        topNRoutes.set(i, routeCount);
-                        // flip elements from i-th to the first one
-                        // until the current route is larger
-                        for (int j = i - 1, k = i; j >= 0; j--, k--) {
-                            // route count at current position is smaller, then switch places
-                            if (topNRoutes.get(j).compareTo(topNRoutes.get(k)) < 0) {
-                                Collections.swap(topNRoutes, j, k);
-                            }
-                        }
-                    } else {
-                        // check top N size
-                        if (topNRoutes.size() < this.n) {
-                            topNRoutes.addLast(routeCount);
-                        }
-                        // compare it with the last element in top 100
-                        else if (topNRoutes.getLast().compareTo(routeCount) < 0) {
-                            topNRoutes.set(this.n - 1, routeCount);
-                        }
+                    List<RouteCount> top10 = routesRanking.top(10);
+
+                    // update the route count and trip id for the route of the incoming trip
+                    routesRanking.increment(t.getRoute500(), t.getId());
+                    recordLatency(LatencyRecorder.Stage.QUERY1_UPDATE, t);
 
-                        for (int j = topNRoutes.size() - 2, k = topNRoutes.size() - 1; j >= 0; j--, k--) {
-                            // route count at current position is smaller, then switch places
-                            if (topNRoutes.get(j).compareTo(topNRoutes.get(k)) < 0) {
-                                Collections.swap(topNRoutes, j, k);
-                            }
-                        }
-                    }
                     return Tuple.of(top10, t.getPickupDatetime(), t.getDropOffDatetime(),
                             t.getTimestampReceived(), t);
 
                 })
                 .consume(ct -> {
-                    if (!ct.getT1().equals(topNRoutes.subList(0, topNRoutes.size() < 10 ?
-                            topNRoutes.size() : 10))) {
-                        writeTop10ChangeQuery1(topNRoutes.subList(0, topNRoutes.size() < 10 ?
-                                        topNRoutes.size() : 10), ct.getT2(), ct.getT3(), ct.getT4(),
-                                ct.getT5());
+                    List<RouteCount> top10 = routesRanking.top(10);
+                    if (!ct.getT1().equals(top10)) {
+                        writeTop10ChangeQuery1(top10, ct.getT2(), ct.getT3(), ct.getT4(), ct.getT5());
                     }
+                    recordLatency(LatencyRecorder.Stage.QUERY1_OUTPUT, ct.getT5());
                 });
 
         // query 2: Profitable cells
         sharedTripsStream
                 .observeComplete(v -> completeSignal.countDown())
                 .map(t -> {
-//                    while (tripEmptyTaxis.peek() != null && tripEmptyTaxis.peek().getDropOffTimestamp() <
-//                            t.getDropOffTimestamp() - 30 * 60 * 1000) {
-//                        // a priority queue for top 10 cells. Orders by natural number.
-//                        BoundedPriorityQueue<CellProfitability> top10 = new BoundedPriorityQueue<>(Comparator.<CellProfitability>naturalOrder(), 10);
-//
-//                        boolean removed = false;
-//                        for (CellProfitability cellProfitability : top10Cells) {
-//                            // remove if the profitable cell exists that has the same end cell
-//                            if (!cellProfitability.getCell().equals(t.getRoute250().getEndCell()))
-//                                top10.offer(cellProfitability);
-//                            else
-//                                removed = true;
-//                        }
-//
-//                        Trip trip = tripEmptyTaxis.poll();
-//
-//                        // update the empty taxis count for the end cell of the trip, leaving the window
-//                        EmptyTaxisCount emptyTaxisCount = emptyTaxis.get(trip.getRoute250().getEndCell());
-//                        emptyTaxisCount.setCount(emptyTaxisCount.getCount() - 1);
-//
-//                        // if count is 0 then remove the empty taxis to avoid unnecessary iteration
-//                        if (emptyTaxisCount.getCount() <= 0) {
-//                            emptyTaxis.remove(emptyTaxisCount);
-//
-////                            if (removed) {
-////                                // change in top10, we need to recompute all
-////                                emptyTaxis.forEach((ec, etc) -> {
-////                                    // get the profit for current end cell
-////                                    CellProfit endCellProfit = cellProfits.get(ec);
-////                                    if (endCellProfit != null) {
-////                                        top10.offer(new CellProfitability(ec, etc.getId() > endCellProfit.getId() ? etc.getId() :
-////                                                endCellProfit.getId(), etc.getCount(), endCellProfit.getMedianProfit().getMedian(),
-////                                                endCellProfit.getMedianProfit().getMedian() / etc.getCount()));
-////                                    } else {
-////                                        // end cell profit does not exist, just set median profit and profitability to 0
-////                                        top10.offer(new CellProfitability(ec, etc.getId(), etc.getCount(), 0, 0));
-////                                    }
-////                                });
-////                            }
-//                        } else {
-//                            emptyTaxis.put(trip.getRoute250().getEndCell(), emptyTaxisCount);
-//
-////                            // recompute the profitable cell only for the cell, whose leaving taxi trip
-////                            // resulted in change of number of empty taxis
-////                            CellProfit endCellProfit = cellProfits.get(trip.getRoute250().getEndCell());
-////                            if (endCellProfit != null && endCellProfit.getMedianProfit().numOfElements > 0) {
-////                                top10.offer(new CellProfitability(trip.getRoute250().getEndCell(),
-////                                        emptyTaxisCount.getId() > endCellProfit.getId() ?
-////                                                emptyTaxisCount.getId() : endCellProfit.getId(),
-////                                        emptyTaxisCount.getCount(), endCellProfit.getMedianProfit().getMedian(),
-////                                        endCellProfit.getMedianProfit().getMedian() / emptyTaxisCount.getCount()));
-////                            } else {
-////                                // end cell profit does not exist, just set median profit and profitability to 0
-////                                top10.offer(new CellProfitability(trip.getRoute250().getEndCell(), emptyTaxisCount.getId(),
-////                                        emptyTaxisCount.getCount(), 0, 0));
-////                            }
-//                        }
-//
-//                        top10.clear();
-//                        emptyTaxis.forEach((ec, etc) -> {
-//                            if (etc.getCount() > 0) {
-//                                // get the profit for current end cell
-//                                CellProfit cellProfit2 = cellProfits.get(ec);
-//                                if (cellProfit2 != null && cellProfit2.getMedianProfit().numOfElements > 0) {
-//                                    top10.offer(new CellProfitability(ec, etc.getId() > cellProfit2.getId() ? etc.getId() :
-//                                            cellProfit2.getId(), etc.getCount(), cellProfit2.getMedianProfit().getMedian(),
-//                                            cellProfit2.getMedianProfit().getMedian() / etc.getCount()));
-//                                } else {
-//                                    // end cell profit does not exist, just set median profit and profitability to 0
-//                                    top10.offer(new CellProfitability(ec, etc.getId(), etc.getCount(), 0, 0));
-//                                }
-//                            }
-//                        });
-//
-//                        List<CellProfitability> top10SortedNew = new LinkedList<>(top10);
-//                        // sort profitable cells
-//                        top10SortedNew.sort(Comparator.<CellProfitability>reverseOrder());
-//
-//                        // if there is change in top 10, write it
-//                        if (!top10Cells.equals(top10SortedNew)) {
-//                            top10Cells.clear();
-//                            top10Cells.addAll(top10SortedNew);
-//                            writeTop10ChangeQuery2(top10SortedNew, trip.getPickupDatetime().plusMinutes(30),
-//                                    trip.getDropOffDatetime().plusMinutes(30),
-//                                    t.getTimestampReceived());
-//                        }
-//                    }
-//
-//                    while (tripProfits.peek() != null && tripProfits.peek().getDropOffTimestamp() <
-//                            t.getDropOffTimestamp() - 15 * 60 * 1000) {
-//                        // a priority queue for top 10 cells. Orders by natural number.
-//                        BoundedPriorityQueue<CellProfitability> top10 = new BoundedPriorityQueue<>(Comparator.<CellProfitability>naturalOrder(), 10);
-//
-//                        boolean removed = false;
-//                        for (CellProfitability cellProfitability : top10Cells) {
-//                            // remove if the profitable cell exists that has the same end cell
-//                            if (!cellProfitability.getCell().equals(t.getRoute250().getStartCell()))
-//                                top10.offer(cellProfitability);
-//                            else
-//                                removed = true;
-//                        }
-//
-//                        Trip trip = tripProfits.poll();
-//
-//                        // update the cell profit for the start cell of the trip, leaving the window
-//                        CellProfit cellProfit = cellProfits.get(trip.getRoute250().getStartCell());
-//                        cellProfit.getMedianProfit().removeNumberFromStream(trip.getFareAmount() + trip.getTipAmount());
-//
-//                        // if there is no profit on cell, then remove it
-//                        if (cellProfit.getMedianProfit().numOfElements == 0) {
-//                            cellProfits.remove(cellProfit);
-////                            if (removed) {
-////                                // change in top10, we need to recompute all
-////                                emptyTaxis.forEach((ec, etc) -> {
-////                                    // get the profit for current end cell
-////                                    CellProfit endCellProfit = cellProfits.get(ec);
-////                                    if (endCellProfit != null) {
-////                                        top10.offer(new CellProfitability(ec, etc.getId() > endCellProfit.getId() ? etc.getId() :
-////                                                endCellProfit.getId(), etc.getCount(), endCellProfit.getMedianProfit().getMedian(),
-////                                                endCellProfit.getMedianProfit().getMedian() / etc.getCount()));
-////                                    } else {
-////                                        // end cell profit does not exist, just set median profit and profitability to 0
-////                                        top10.offer(new CellProfitability(ec, etc.getId(), etc.getCount(), 0, 0));
-////                                    }
-////                                });
-////                            }
-//                        } else {
-//                            cellProfits.put(trip.getRoute250().getStartCell(), cellProfit);
-//
-////                            // recompute the profitable cell only for the cell, whose leaving taxi trip
-////                            // resulted in change of cell profit
-////                            EmptyTaxisCount emptyTaxisCount = emptyTaxis.get(trip.getRoute250().getStartCell());
-////                            if (emptyTaxisCount != null) {
-////                                top10.offer(new CellProfitability(trip.getRoute250().getStartCell(),
-////                                        emptyTaxisCount.getId() > cellProfit.getId() ?
-////                                                emptyTaxisCount.getId() : cellProfit.getId(),
-////                                        emptyTaxisCount.getCount(), cellProfit.getMedianProfit().getMedian(),
-////                                        cellProfit.getMedianProfit().getMedian() / emptyTaxisCount.getCount()));
-////                            }
-//                        }
-//
-//                        top10.clear();
-//                        emptyTaxis.forEach((ec, etc) -> {
-//                            if (etc.getCount() > 0) {
-//                                // get the profit for current end cell
-//                                CellProfit cellProfit2 = cellProfits.get(ec);
-//                                if (cellProfit2 != null && cellProfit2.getMedianProfit().numOfElements > 0) {
-//                                    top10.offer(new CellProfitability(ec, etc.getId() > cellProfit2.getId() ? etc.getId() :
-//                                            cellProfit2.getId(), etc.getCount(), cellProfit2.getMedianProfit().getMedian(),
-//                                            cellProfit2.getMedianProfit().getMedian() / etc.getCount()));
-//                                } else {
-//                                    // end cell profit does not exist, just set median profit and profitability to 0
-//                                    top10.offer(new CellProfitability(ec, etc.getId(), etc.getCount(), 0, 0));
-//                                }
-//                            }
-//                        });
-//
-//                        List<CellProfitability> top10SortedNew = new LinkedList<>(top10);
-//                        // sort profitable cells
-//                        top10SortedNew.sort(Comparator.<CellProfitability>reverseOrder());
-//
-//                        // if there is change in top 10, write it
-//                        if (!top10Cells.equals(top10SortedNew)) {
-//                            top10Cells.clear();
-//                            top10Cells.addAll(top10SortedNew);
-//                            writeTop10ChangeQuery2(top10SortedNew, trip.getPickupDatetime().plusMinutes(30),
-//                                    trip.getDropOffDatetime().plusMinutes(30),
-//                                    t.getTimestampReceived());
-//                        }
-//                    }
-
-                    // store trip in both windows
-                    tripEmptyTaxis.add(t);
-                    tripProfits.add(t);
-
-                    // we need to remove the trip from empty taxis, that has the same medallion
-                    // As new trip arrives, the previous empty taxi for end cell is not valid anymore
-                    // This basically mimics filter operation defined in EDAPrimer.
-                    Cell endCell = emptyTaxisMedallion.getOrDefault(t.getMedallion(), null);
-                    CellProfitability previousEndCellProfitability = null;
-                    if (endCell != null) {
-                        EmptyTaxisCount etc = emptyTaxis.getOrDefault(endCell, null);
-                        if (etc != null) {
-                            etc.setCount(etc.getCount() - 1);
-                            if (etc.getCount() == 0)
-                                emptyTaxis.remove(endCell);
-                            else {
-                                emptyTaxis.put(endCell, etc);
-                            }
-
-                            // we need to update the previous end cell profitability
-                            CellProfit cellProfit = cellProfits.getOrDefault(endCell, null);
-
-                            if (cellProfit != null && cellProfit.getMedianProfit().numOfElements > 0) {
-                                previousEndCellProfitability = new CellProfitability(endCell, etc.getId() > cellProfit.getId() ? etc.getId() :
-                                        cellProfit.getId(), etc.getCount(), cellProfit.getMedianProfit().getMedian(),
-                                        cellProfit.getMedianProfit().getMedian() / etc.getCount());
-                            } else {
-                                // end cell profit does not exist, just set median profit and profitability to 0
-                                previousEndCellProfitability = new CellProfitability(endCell, etc.getId(), etc.getCount(), 0, 0);
-                            }
-                        }
-                    }
-                    emptyTaxisMedallion.put(t.getMedallion(), t.getRoute250().getEndCell());
-
-                    // update map for empty taxi count
-                    EmptyTaxisCount emptyTaxisCount = emptyTaxis.getOrDefault(t.getRoute250().getEndCell(),
-                            new EmptyTaxisCount(t.getId(), 0));
-                    emptyTaxisCount.setCount(emptyTaxisCount.getCount() + 1);
-                    emptyTaxisCount.setId(t.getId());
-                    emptyTaxis.put(t.getRoute250().getEndCell(), emptyTaxisCount);
-
-                    // update map for cell profits
-                    CellProfit cellProfit = cellProfits.getOrDefault(t.getRoute250().getStartCell(),
-                            new CellProfit(t.getId(), new MedianOfStream<Float>()));
-                    cellProfit.getMedianProfit().addNumberToStream(t.getFareAmount() + t.getTipAmount());
-                    cellProfit.setId(t.getId());
-                    cellProfits.put(t.getRoute250().getStartCell(), cellProfit);
-
-                    // storage for top 10 profitable cells
-                    BoundedPriorityQueue<CellProfitability> top10 = new BoundedPriorityQueue<>(Comparator.<CellProfitability>naturalOrder(), 10);
-
-                    boolean removed = false;
-                    for (CellProfitability cellProfitability : top10Cells) {
-                        // remove both start and end cell
-                        if (!cellProfitability.getCell().equals(t.getRoute250().getEndCell()) &&
-                                !cellProfitability.getCell().equals(t.getRoute250().getStartCell()) &&
-                                !(previousEndCellProfitability != null &&
-                                cellProfitability.getCell().equals(previousEndCellProfitability.getCell()))) {
-                            top10.offer(cellProfitability);
-                        } else {
-                            removed = true;
+                    // events leaving window for empty taxis in the last 30 minutes
+                    while (tripEmptyTaxis.peek() != null && tripEmptyTaxis.peek().getDropOffTimestamp() <
+                            t.getDropOffTimestamp() - 30 * 60 * 1000) {
+                        Trip trip = tripEmptyTaxis.poll();
+                        cellsProfitability.removeEmptyTaxi(trip);
+
+                        // if there is change in top 10, write it
+                        List<CellProfitability> top10 = cellsProfitability.top(10);
+                        if (!top10Cells.equals(top10)) {
+                            top10Cells.clear();
+                            top10Cells.addAll(top10);
+                            writeTop10ChangeQuery2(top10, trip.getPickupDatetime().plusMinutes(30),
+                                    trip.getDropOffDatetime().plusMinutes(30),
+                                    t.getTimestampReceived());
                         }
                     }
 
-
-                    // add for both start, end cell and previous taxi end cell
-                    // for end cell, we need to get cell profit
-                    CellProfit endCellProfit = cellProfits.get(t.getRoute250().getEndCell());
-                    if (endCellProfit != null && endCellProfit.getMedianProfit().numOfElements > 0) {
-                        top10.offer(new CellProfitability(t.getRoute250().getEndCell(), t.getId(),
-                                emptyTaxisCount.getCount(), endCellProfit.getMedianProfit().getMedian(),
-                                endCellProfit.getMedianProfit().getMedian() / emptyTaxisCount.getCount()));
-                    } else {
-                        // end cell profit does not exist, just set median profit and profitability to 0
-                        top10.offer(new CellProfitability(t.getRoute250().getEndCell(), t.getId(),
-                                emptyTaxisCount.getCount(), 0, 0));
-                    }
-
-                    // for start cell, we need to get empty taxis
-                    EmptyTaxisCount startCellEmptyTaxisCount = emptyTaxis.get(t.getRoute250().getStartCell());
-                    if (startCellEmptyTaxisCount != null && startCellEmptyTaxisCount.getCount() > 0) {
-                        top10.offer(new CellProfitability(t.getRoute250().getStartCell(), t.getId(),
-                                startCellEmptyTaxisCount.getCount(), cellProfit.getMedianProfit().getMedian(),
-                                cellProfit.getMedianProfit().getMedian() / startCellEmptyTaxisCount.getCount()));
+                    // events leaving the window for profit cells in the last 15 minutes
+                    while (tripProfits.peek() != null && tripProfits.peek().getDropOffTimestamp() <
+                            t.getDropOffTimestamp() - 15 * 60 * 1000) {
+                        Trip trip = tripProfits.poll();
+                        cellsProfitability.removeProfit(trip);
+
+                        // if there is change in top 10, write it
+                        List<CellProfitability> top10 = cellsProfitability.top(10);
+                        if (!top10Cells.equals(top10)) {
+                            top10Cells.clear();
+                            top10Cells.addAll(top10);
+                            writeTop10ChangeQuery2(top10, trip.getPickupDatetime().plusMinutes(30),
+                                    trip.getDropOffDatetime().plusMinutes(30),
+                                    t.getTimestampReceived());
+                        }
                     }
 
-                    // add previous end cell profit
-                    if (previousEndCellProfitability != null)
-                        top10.offer(previousEndCellProfitability);
-
-                    List<CellProfitability> top10SortedNew = new LinkedList<>(top10);
-                    // sort routes
-                    top10SortedNew.sort(Comparator.<CellProfitability>reverseOrder());
-
-                    // check if profitable cells were already in top n and if now are in position n-2 or n-1
-                    // in that case we need to resort all
-                    if (removed && top10SortedNew.size() > 1 && (top10SortedNew.get(top10SortedNew.size() - 2).getCell().equals(t.getRoute250().getEndCell()) ||
-                            top10SortedNew.get(top10SortedNew.size() - 2).getCell().equals(t.getRoute250().getStartCell()) ||
-                            top10SortedNew.get(top10SortedNew.size() - 1).getCell().equals(t.getRoute250().getEndCell()) ||
-                            top10SortedNew.get(top10SortedNew.size() - 1).getCell().equals(t.getRoute250().getStartCell()))) {
-                        top10.clear();
-                        emptyTaxis.forEach((ec, etc) -> {
-                            // get the profit for current end cell
-                            if (etc.getCount() > 0) {
-                                CellProfit cellProfit2 = cellProfits.get(ec);
-                                if (cellProfit2 != null && cellProfit2.getMedianProfit().numOfElements > 0) {
-                                    top10.offer(new CellProfitability(ec, etc.getId() > cellProfit2.getId() ? etc.getId() :
-                                            cellProfit2.getId(), etc.getCount(), cellProfit2.getMedianProfit().getMedian(),
-                                            cellProfit2.getMedianProfit().getMedian() / etc.getCount()));
-                                } else {
-                                    // end cell profit does not exist, just set median profit and profitability to 0
-                                    top10.offer(new CellProfitability(ec, etc.getId(), etc.getCount(), 0, 0));
-                                }
-                            }
-                        });
-
-                        top10SortedNew.clear();
-                        top10SortedNew.addAll(top10);
-                        // sort routes
-                        top10SortedNew.sort(Comparator.<CellProfitability>reverseOrder());
-                    }
+                    // add to both windows. This updates only the start cell, the end cell and
+                    // the end cell of the previous trip of the same taxi
+                    tripEmptyTaxis.add(t);
+                    tripProfits.add(t);
+                    cellsProfitability.addEmptyTaxi(t);
+                    cellsProfitability.addProfit(t);
+                    List<CellProfitability> top10 = cellsProfitability.top(10);
+                    recordLatency(LatencyRecorder.Stage.QUERY2_UPDATE, t);
 
-                    return Tuple.of(top10SortedNew, t.getPickupDatetime(), t.getDropOffDatetime(),
+                    return Tuple.of(top10, t.getPickupDatetime(), t.getDropOffDatetime(),
                             t.getTimestampReceived(), t);
                 })
                 .consume(ct -> {
@@ -533,10 +194,9 @@ public class EDA extends Architecture {
                     if (!top10Cells.equals(ct.getT1())) {
                         top10Cells.clear();
                         top10Cells.addAll(ct.getT1());
-                        writeTop10ChangeQuery2(ct.getT1(), ct.getT2(),
-                                ct.getT3(),
-                                ct.getT4());
+                        writeTop10ChangeQuery2(ct.getT1(), ct.getT2(), ct.getT3(), ct.getT4());
                     }
+                    recordLatency(LatencyRecorder.Stage.QUERY2_OUTPUT, ct.getT5());
                 });
 
         // read the stream from file: for local testing
@@ -545,6 +205,70 @@ public class EDA extends Architecture {
         // wait for onComplete event
         completeSignal.await();
         id = 0;
+
+        // write out the buffered output
+        closeOutputs();
+        return System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * Runs both queries with the columnar query operators.
+     *
+     * @param startTime time in milliseconds when the run started
+     * @return the time to run the solution in milliseconds
+     */
+    private long runColumnar(long startTime) throws InterruptedException {
+        // create a taxi service, that publishes the trips from a trip archive as columns
+        this.taxiStream = createTaxiStream(true);
+
+        final FrequentRoutesOperator frequentRoutes = new FrequentRoutesOperator(
+                (top10, pickupDateTime, dropOffDateTime, timeStart) ->
+                        writeTop10ChangeQuery1(top10, pickupDateTime, dropOffDateTime, timeStart, null));
+        final ProfitableCellsOperator profitableCells = new ProfitableCellsOperator(this::writeTop10ChangeQuery2);
+
+        CountDownLatch completeSignal = new CountDownLatch(2);
+
+        Stream<TripBatch> sharedBatchesStream = this.taxiStream.getBatches()
+                .map(batch -> {
+                    TripBatch columns = batch.parse().toTripBatch();
+                    for (int i = 0; i < columns.size(); i++)
+                        recordLatency(LatencyRecorder.Stage.PARSE, columns, i);
+                    return columns;
+                })
+                .broadcast();
+
+        // query 1: Frequent routes
+        sharedBatchesStream
+                .observeComplete(v -> completeSignal.countDown())
+                .consume(batch -> {
+                    // the operator updates the window and writes the change in one step
+                    for (int i = 0; i < batch.size(); i++) {
+                        frequentRoutes.process(batch, i);
+                        recordLatency(LatencyRecorder.Stage.QUERY1_UPDATE, batch, i);
+                        recordLatency(LatencyRecorder.Stage.QUERY1_OUTPUT, batch, i);
+                    }
+                });
+
+        // query 2: Profitable cells
+        sharedBatchesStream
+                .observeComplete(v -> completeSignal.countDown())
+                .consume(batch -> {
+                    // the operator updates the cells and writes the change in one step
+                    for (int i = 0; i < batch.size(); i++) {
+                        profitableCells.process(batch, i);
+                        recordLatency(LatencyRecorder.Stage.QUERY2_UPDATE, batch, i);
+                        recordLatency(LatencyRecorder.Stage.QUERY2_OUTPUT, batch, i);
+                    }
+                });
+
+        // read the stream from file: for local testing
+        taxiStream.readStream();
+
+        // wait for onComplete event
+        completeSignal.await();
+
+        // write out the buffered output
+        closeOutputs();
         return System.currentTimeMillis() - startTime;
     }
 }
@@ -2,8 +2,7 @@ package com.jernejerin.traffic.architectures;
 
 import com.aliasi.util.BoundedPriorityQueue;
 import com.jernejerin.traffic.entities.*;
-import com.jernejerin.traffic.client.TaxiStream;
-import com.jernejerin.traffic.helper.PollingDriver;
+import com.jernejerin.traffic.helper.LatencyRecorder;
 import com.jernejerin.traffic.helper.TripOperations;
 import reactor.fn.tuple.Tuple;
 import reactor.rx.Stream;
@@ -64,19 +63,10 @@ public class EDAPrimer extends Architecture {
      * @throws InterruptedException
      */
     public long run() throws InterruptedException {
-        // set up and register the PoolingDriver
-        LOGGER.log(Level.INFO, "Registering pooling driver from thread = " + Thread.currentThread());
-        try {
-            PollingDriver.setupDriver("jdbc:mysql://" + this.hostDB + ":" + this.portDB + "/" +
-                    this.schemaDB, this.userDB, this.passDB);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
         long startTime = System.currentTimeMillis();
 
         // create a taxi service
-        this.taxiStream = new TaxiStream("/com/jernejerin/" + this.fileNameInput);
+        this.taxiStream = createTaxiStream();
 
         // current top 10 sorted
         final List<RouteCount> top10Routes = new LinkedList<>();
@@ -91,19 +81,23 @@ public class EDAPrimer extends Architecture {
         CountDownLatch completeSignal = new CountDownLatch(2);
 
         // sharing an upstream pipeline and wiring up 2 downstream pipelines
-        Stream<Trip> sharedTripsStream = taxiStream.getTrips()
+        // in the batched mode the events were already stamped and numbered when they were read, which is
+        // always the case when the latency is recorded
+        Stream<Trip> tripsStream = this.taxiStream.isBatched() ? unpackBatches() : taxiStream.getTrips()
                 // create a tuple of string trip, current time for computing delay
                 // and id of the event. As this is our entry point it is appropriate to
                 // start the time here, before any parsing is being done. This also in
                 // record with the Grand challenge recommendation
                 .map(t -> Tuple.of(t, System.currentTimeMillis(), id++))
                 // parsing and validating trip structure
-                .map(t -> TripOperations.parseValidateTrip(t.getT1(), t.getT2(), t.getT3()))
+                .map(t -> TripOperations.parseValidateTrip(t.getT1(), t.getT2(), t.getT3()));
+
+        Stream<Trip> sharedTripsStream = tripsStream
                 // filter invalid data
                 .filter(t -> t != null && t.getRoute250() != null)
                 // insert record into DB
                 .map(t -> {
-                    TripOperations.insertTrip(t, "trip");
+                    this.storage.insertTrip(t, "trip");
                     return t;
                 })
                 // wiring up 2 downstream pipelines
@@ -135,19 +129,22 @@ public class EDAPrimer extends Architecture {
                     trips.add(t);
 
                     List<RouteCount> bestRoutes = bestRoutes(trips);
+                    recordLatency(LatencyRecorder.Stage.QUERY1_UPDATE, t);
                     return Tuple.of(bestRoutes, t.getPickupDatetime(), t.getDropOffDatetime(),
                             t.getTimestampReceived(), t);
                 })
-                // filter all events that DID NOT change top 10 routes
-                .filter(ct -> !top10Routes.equals(ct.getT1()))
                 .consume(ct -> {
-                    top10Routes.clear();
-                    top10Routes.addAll(ct.getT1());
-                    // write to output file
-                    writeTop10ChangeQuery1(ct.getT1(), ct.getT2(), ct.getT3(), ct.getT4(), ct.getT5());
-
-                    // write to DB all incoming events that triggered change in the top 10 routes
-                    TripOperations.insertTrip(ct.getT5(), "tripChangeTop10");
+                    // only the events that changed top 10 routes are written
+                    if (!top10Routes.equals(ct.getT1())) {
+                        top10Routes.clear();
+                        top10Routes.addAll(ct.getT1());
+                        // write to output file
+                        writeTop10ChangeQuery1(ct.getT1(), ct.getT2(), ct.getT3(), ct.getT4(), ct.getT5());
+
+                        // write to DB all incoming events that triggered change in the top 10 routes
+                        this.storage.insertTrip(ct.getT5(), "tripChangeTop10");
+                    }
+                    recordLatency(LatencyRecorder.Stage.QUERY1_OUTPUT, ct.getT5());
                 });
 
 
@@ -192,8 +189,9 @@ public class EDAPrimer extends Architecture {
                     tripProfits.add(t);
 
                     List<CellProfitability> bestCells = bestCells(tripEmptyTaxis, tripProfits);
+                    recordLatency(LatencyRecorder.Stage.QUERY2_UPDATE, t);
                     return Tuple.of(bestCells, t.getPickupDatetime(), t.getDropOffDatetime(),
-                            t.getTimestampReceived());
+                            t.getTimestampReceived(), t);
                 })
                 .consume(ct -> {
                     if (!top10Cells.equals(ct.getT1())) {
@@ -201,6 +199,7 @@ public class EDAPrimer extends Architecture {
                         top10Cells.addAll(ct.getT1());
                         writeTop10ChangeQuery2(ct.getT1(), ct.getT2(), ct.getT3(), ct.getT4());
                     }
+                    recordLatency(LatencyRecorder.Stage.QUERY2_OUTPUT, ct.getT5());
                 });
 
         // read the stream from file: for local testing
@@ -210,6 +209,9 @@ public class EDAPrimer extends Architecture {
         completeSignal.await();
         id = 0;
 
+        // write out the buffered output
+        closeOutputs();
+
         // compute the time that was needed to get the solution
         return System.currentTimeMillis() - startTime;
     }
@@ -266,7 +268,7 @@ public class EDAPrimer extends Architecture {
                 tripEmptyTaxis.descendingIterator(), Spliterator.ORDERED), false)
                 // filter by distinct medallion, this is unique taxi identifier
                 // we want only the most recent unique empty taxis
-                .filter(distinctByKey(Trip::getMedallion))
+                .filter(distinctByKey(Trip::getMedallionId))
                 // group by end cell
                 .collect(Collectors.groupingBy(t -> t.getRoute250().getEndCell(),
                                 Collectors.collectingAndThen(
@@ -291,7 +293,7 @@ public class EDAPrimer extends Architecture {
         emptyTaxis.forEach((ec, etc) -> {
             // get the profit for current end cell
             CellProfit endCellProfit = profits.get(ec);
-            if (endCellProfit != null && endCellProfit.getMedianProfit().numOfElements > 0) {
+            if (endCellProfit != null && endCellProfit.getMedianProfit().size() > 0) {
                 top10.offer(new CellProfitability(ec, etc.getId() > endCellProfit.getId() ? etc.getId() :
                         endCellProfit.getId(), etc.getCount(), endCellProfit.getMedianProfit().getMedian(),
                         endCellProfit.getMedianProfit().getMedian() / etc.getCount()));
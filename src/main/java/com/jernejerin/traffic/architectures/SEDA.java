@@ -1,13 +1,13 @@
 package com.jernejerin.traffic.architectures;
 
-import com.aliasi.util.BoundedPriorityQueue;
-import com.jernejerin.traffic.client.TaxiStream;
 import com.jernejerin.traffic.entities.Cell;
 import com.jernejerin.traffic.entities.Route;
 import com.jernejerin.traffic.entities.RouteCount;
 import com.jernejerin.traffic.entities.Trip;
-import com.jernejerin.traffic.helper.PollingDriver;
+import com.jernejerin.traffic.helper.LatencyRecorder;
+import com.jernejerin.traffic.helper.RouteRanking;
 import com.jernejerin.traffic.helper.TripOperations;
+import com.jernejerin.traffic.helper.TripWriter;
 import reactor.Environment;
 import reactor.core.DispatcherSupplier;
 import reactor.fn.tuple.Tuple;
@@ -15,6 +15,7 @@ import reactor.rx.Stream;
 import reactor.rx.Streams;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -36,12 +37,6 @@ public class SEDA extends Architecture {
     private static LinkedList<Route> top10PreviousQuery1 = new LinkedList<>();
     private static LinkedList<Cell> top10PreviousQuery2 = new LinkedList<>();
 
-    /** The default number of threads for stage 1. */
-    private static int stage1T = 4;
-
-    /** The default number of threads for stage 2. */
-    private static int stage2T = 4;
-
     static int id = 0;
 
     DispatcherSupplier supplierStage1;
@@ -53,8 +48,8 @@ public class SEDA extends Architecture {
         // call super constructor to initialize fields from builder
         super(builder);
         // suppliers for stages
-        this.supplierStage1 = Environment.newCachedDispatchers(stage1T, "stage1");
-        this.supplierStage2 = Environment.newCachedDispatchers(stage2T, "stage2");
+        this.supplierStage1 = Environment.newCachedDispatchers(this.stage1Threads, "stage1");
+        this.supplierStage2 = Environment.newCachedDispatchers(this.stage2Threads, "stage2");
     }
 
     public static void main(String[] args) throws InterruptedException {
@@ -71,15 +66,6 @@ public class SEDA extends Architecture {
         // construct the SEDA solution using the builder
         SEDA seda = new SEDA(builder);
 
-        // Then we set up and register the PoolingDriver.
-        LOGGER.log(Level.INFO, "Registering pooling driver from thread = " + Thread.currentThread());
-        try {
-            PollingDriver.setupDriver("jdbc:mysql://" + seda.hostDB + ":" + seda.portDB + "/" +
-                    seda.schemaDB, seda.userDB, seda.passDB);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
         // run the solution
         seda.run();
     }
@@ -88,14 +74,12 @@ public class SEDA extends Architecture {
         long startTime = System.currentTimeMillis();
 
         // create a taxi service
-        this.taxiStream = new TaxiStream("/com/jernejerin/" + this.fileNameInput);
-
-        // current top 100 sorted
-        final LinkedList<RouteCount> top100Routes = new LinkedList<>();
+        this.taxiStream = createTaxiStream();
 
         // time windows
         final ArrayDeque<Trip> trips = new ArrayDeque<>();
-        final LinkedHashMap<Route, RouteCount> routesCount = new LinkedHashMap<>(100000);
+        // routes ranked by frequency
+        final RouteRanking routesRanking = new RouteRanking(100000);
 
         // synchronization signal
         CountDownLatch completeSignal = new CountDownLatch(1);
@@ -103,30 +87,53 @@ public class SEDA extends Architecture {
         // processing through stages of streams, where each stage has a separate thread pool
         // for processing streams. We basically fork the stream in each stage to number of streams,
         // which equals the number of threads in pool
-        Stream<Trip> sharedTripsStream = taxiStream.getTrips()
-            .map(t -> Tuple.of(t, System.currentTimeMillis(), id++))
-            // parallelize stream tasks to separate streams for stage 1 - PARSING AND FILTERING INCORRECT DATA
-            .partition(stage1T)
-            // we receive streams grouped by accordingly to the positive modulo of the
-            // current hashcode with respect to the number of buckets specified
-            .flatMap(stream -> stream
-                            // use dispatcher pool to assign to the newly generated streams
-                            .dispatchOn(supplierStage1.get())
-                                    // stage 1 is for validating ticket structure and filtering
-                            .map(t -> TripOperations.parseValidateTrip(t.getT1(), t.getT2(), t.getT3()))
-                                    // filter invalid data
-                            .filter(t -> t != null && t.getRoute250() != null)
-            )
+        Stream<Trip> tripsStream;
+        if (this.taxiStream.isBatched()) {
+            tripsStream = taxiStream.getBatches()
+                // stage 1 parses whole batches in parallel, unless the reader already parsed them
+                .partition(this.stage1Threads)
+                .flatMap(stream -> stream
+                                .dispatchOn(supplierStage1.get())
+                                .map(batch -> parsed(batch.parse().getTrips()))
+                )
+                // unpack the batches into separate trips
+                .<Trip>split()
+                // filter trips outside of the grid
+                .filter(t -> t.getRoute250() != null);
+        } else {
+            tripsStream = taxiStream.getTrips()
+                .map(t -> Tuple.of(t, System.currentTimeMillis(), id++))
+                // parallelize stream tasks to separate streams for stage 1 - PARSING AND FILTERING INCORRECT DATA
+                .partition(this.stage1Threads)
+                // we receive streams grouped by accordingly to the positive modulo of the
+                // current hashcode with respect to the number of buckets specified
+                .flatMap(stream -> stream
+                                // use dispatcher pool to assign to the newly generated streams
+                                .dispatchOn(supplierStage1.get())
+                                        // stage 1 is for validating ticket structure and filtering
+                                .map(t -> TripOperations.parseValidateTrip(t.getT1(), t.getT2(), t.getT3()))
+                                        // filter invalid data
+                                .filter(t -> t != null && t.getRoute250() != null)
+                );
+        }
+
+        // batch writers for stage 2, one for each stream, so each thread has its own connection
+        final List<TripWriter> tripWriters = new CopyOnWriteArrayList<>();
+
+        Stream<Trip> sharedTripsStream = tripsStream
             // stage 2 consists of storing the trip into DB
-            .partition(stage2T)
-            .flatMap(stream -> stream
-                            .dispatchOn(supplierStage2.get())
-                            .map(trip -> {
-                                // insert into DB
-                                TripOperations.insertTrip(trip, "trip");
-                                return trip;
-                            })
-            )
+            .partition(this.stage2Threads)
+            .flatMap(stream -> {
+                TripWriter tripWriter = this.storage.openWriter("trip", this.dbBatchSize, this.dbLingerTime);
+                tripWriters.add(tripWriter);
+                return stream
+                        .dispatchOn(supplierStage2.get())
+                        .map(trip -> {
+                            // insert into DB in batches
+                            tripWriter.add(trip);
+                            return trip;
+                        });
+            })
             // dispatcher for funneling/joining result back to single thread
             .dispatchOn(Environment.sharedDispatcher())
             .broadcast();
@@ -140,122 +147,45 @@ public class SEDA extends Architecture {
                         // remove it from queue
                         Trip trip = trips.poll();
 
+                        // counting down a route that is not in top 10 can not change the top 10,
+                        // so we only save current top 10 for future comparison if the route is in it
+                        RouteCount routeCount = routesRanking.get(trip.getRoute500());
+                        List<RouteCount> top10 = routesRanking.isInTop(routeCount, 10) ?
+                                routesRanking.top(10) : null;
+
                         // update the route count for the route of the trip, leaving the window
-                        RouteCount routeCount = routesCount.get(trip.getRoute500());
-                        routeCount.setCount(routeCount.getCount() - 1);
-
-                        // if count is 0 then remove the route count to avoid unnecessary iteration
-                        if (routeCount.getCount() == 0)
-                            routesCount.remove(routeCount);
-                        else
-                            routesCount.put(trip.getRoute500(), routeCount);
-
-                        // if route is in top 100, then resort the top 100
-                        // if it is not in top 100, then we do not have to do
-                        // anything because counting down the route count
-                        // will not change the top 100
-                        int i = top100Routes.indexOf(routeCount);
-                        if (i != -1) {
-                            List<RouteCount> top10 = null;
-
-                            // save current top 10 for future comparison only if
-                            // the route of the removed trip lies in top 10
-                            if (i <= 9) {
-                                top10 = new LinkedList<>(top100Routes.subList(0, top100Routes.size() < 10 ?
-                                        top100Routes.size() : 10));
-                            }
-
-                            // flip elements from i-th to the last one
-                            // until the current route is smaller
-                            for (int j = i, k = i + 1; k < top100Routes.size(); j++, k++) {
-                                // route count at current position is smaller, then switch places
-                                if (top100Routes.get(j).compareTo(top100Routes.get(k)) < 0) {
-                                    Collections.swap(top100Routes, j, k);
-                                }
-                            }
-
-                            // if the element falls into the last place in top 100, then we need to
-                            // resort all route count
-                            if (top100Routes.get(top100Routes.size() - 1).equals(routeCount)) {
-                                // a priority queue for top 10 routes. Orders by natural number.
-                                BoundedPriorityQueue<RouteCount> newTop100Routes = new BoundedPriorityQueue<>
-                                        (Comparator.<RouteCount>naturalOrder(), 100);
-
-                                // try to add each route count to the top 100 list. This way we get sorted top 100 with
-                                // time complexity n * log(100) + 100 * log(100) vs. n * log(n)
-                                routesCount.forEach((r, rc) -> newTop100Routes.offer(rc));
-
-                                // copy to the top 100 routes and resort (100 * log(100))
-                                Collections.copy(top100Routes, new LinkedList<>(newTop100Routes));
-                                Collections.sort(top100Routes, Comparator.<RouteCount>reverseOrder());
-                            }
-
-                            // check if top 10 has changed
-                            if (top10 != null && !top10.equals(top100Routes.subList(0, top100Routes.size() < 10 ?
-                                    top100Routes.size() : 10))) {
-                                writeTop10ChangeQuery1(top100Routes.subList(0, top100Routes.size() < 10 ? top100Routes.size() : 10),
-                                        trip.getPickupDatetime().plusMinutes(30),
-                                        trip.getDropOffDatetime().plusMinutes(30),
-                                        t.getTimestampReceived(), trip);
-                            }
+                        routesRanking.decrement(trip.getRoute500());
+
+                        // check if top 10 has changed
+                        if (top10 != null && !top10.equals(routesRanking.top(10))) {
+                            writeTop10ChangeQuery1(routesRanking.top(10),
+                                    trip.getPickupDatetime().plusMinutes(30),
+                                    trip.getDropOffDatetime().plusMinutes(30),
+                                    t.getTimestampReceived(), trip);
                         }
                     }
 
                     // add to window
                     trips.add(t);
 
-                    // update the route count and trip id for the route of the incoming trip
-                    // if the rout count does not yet exist, create a new one
-                    RouteCount routeCount = routesCount.getOrDefault(t.getRoute500(),
-                            new RouteCount(t.getRoute500(), t.getId(), 0));
-                    routeCount.setCount(routeCount.getCount() + 1);
-                    routeCount.setId(t.getId());
-                    routesCount.put(t.getRoute500(), routeCount);
-
                     // store current top 10
-                    LinkedList<RouteCount> top10 = new LinkedList<>(top100Routes.subList(0, top100Routes.size() < 10 ?
-                            top100Routes.size() : 10));
-
-                    int i = top100Routes.indexOf(routeCount);
-                    if (i != -1) {
-                        top100Routes.set(i, routeCount);
-                        // flip elements from i-th to the first one
-                        // until the current route is larger
-                        for (int j = i - 1, k = i; j >= 0; j--, k--) {
-                            // route count at current position is smaller, then switch places
-                            if (top100Routes.get(j).compareTo(top100Routes.get(k)) < 0) {
-                                Collections.swap(top100Routes, j, k);
-                            }
-                        }
-                    } else {
-                        // check top 100 size
-                        if (top100Routes.size() < 100) {
-                            top100Routes.addLast(routeCount);
-                        }
-                        // compare it with the last element in top 100
-                        else if (top100Routes.getLast().compareTo(routeCount) < 0) {
-                            top100Routes.set(99, routeCount);
-                        }
+                    List<RouteCount> top10 = routesRanking.top(10);
+
+                    // update the route count and trip id for the route of the incoming trip
+                    routesRanking.increment(t.getRoute500(), t.getId());
+                    recordLatency(LatencyRecorder.Stage.QUERY1_UPDATE, t);
 
-                        for (int j = top100Routes.size() - 2, k = top100Routes.size() - 1; j >= 0; j--, k--) {
-                            // route count at current position is smaller, then switch places
-                            if (top100Routes.get(j).compareTo(top100Routes.get(k)) < 0) {
-                                Collections.swap(top100Routes, j, k);
-                            }
-                        }
-                    }
                     return Tuple.of(top10, t.getPickupDatetime(), t.getDropOffDatetime(),
                             t.getTimestampReceived(), t);
 
                 })
                 .observeComplete(v -> completeSignal.countDown())
                 .consume(ct -> {
-                    if (!ct.getT1().equals(top100Routes.subList(0, top100Routes.size() < 10 ?
-                            top100Routes.size() : 10))) {
-                        writeTop10ChangeQuery1(top100Routes.subList(0, top100Routes.size() < 10 ?
-                                        top100Routes.size() : 10), ct.getT2(), ct.getT3(), ct.getT4(),
-                                ct.getT5());
+                    List<RouteCount> top10 = routesRanking.top(10);
+                    if (!ct.getT1().equals(top10)) {
+                        writeTop10ChangeQuery1(top10, ct.getT2(), ct.getT3(), ct.getT4(), ct.getT5());
                     }
+                    recordLatency(LatencyRecorder.Stage.QUERY1_OUTPUT, ct.getT5());
                 });
 
         // read the stream from file: for local testing
@@ -265,6 +195,12 @@ public class SEDA extends Architecture {
         completeSignal.await();
         id = 0;
 
+        // insert the remaining trips
+        tripWriters.forEach(TripWriter::close);
+
+        // write out the buffered output
+        closeOutputs();
+
         // compute the time that was needed to get the solution
         return System.currentTimeMillis() - startTime;
     }
@@ -0,0 +1,161 @@
+package com.jernejerin.traffic.client;
+
+import com.jernejerin.traffic.entities.Trip;
+import com.jernejerin.traffic.helper.TripOperations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A batch of consecutive events, that is published to the ring buffer as a single
+ * element. Each event in the batch keeps its own id and the timestamp when it was read,
+ * so the ordering and the delay of each event stay the same as when publishing
+ * event by event. When the latency is recorded, the event also keeps the System.nanoTime()
+ * when it was read (ingress), which is passed on to the parsed trip.
+ *
+ * <p> The batch holds raw lines. After parse is called it also holds the parsed trips
+ * in the same order, where malformed trips are left out. A batch of replayed trips holds
+ * only the trips, which are already parsed, and a batch of replayed columns holds only the TripBatch.
+ *
+ * @author Jernej Jerin
+ */
+public class EventBatch {
+    private final CharSequence[] lines;
+    private final long[] timestampsReceived;
+    private final long[] nanoTimesReceived;
+    private final int firstId;
+    private int size = 0;
+    private List<Trip> trips;
+    private TripBatch columns;
+
+    public EventBatch(int capacity, int firstId) {
+        this.lines = new CharSequence[capacity];
+        this.timestampsReceived = new long[capacity];
+        this.nanoTimesReceived = new long[capacity];
+        this.firstId = firstId;
+    }
+
+    /**
+     * Creates a batch of the replayed columns, that has no lines and no parsed trips.
+     *
+     * @param columns the replayed trips
+     */
+    public EventBatch(TripBatch columns) {
+        this.lines = new CharSequence[0];
+        this.timestampsReceived = new long[0];
+        this.nanoTimesReceived = new long[0];
+        this.firstId = columns.size() > 0 ? columns.getId(0) : 0;
+        this.size = columns.size();
+        this.trips = Collections.emptyList();
+        this.columns = columns;
+    }
+
+    /**
+     * Adds the event to the batch.
+     *
+     * @param line the raw trip line
+     * @param timestampReceived timestamp in milliseconds when the event was read
+     * @param nanoTimeReceived System.nanoTime() when the event was read, or 0 if the latency is not recorded
+     */
+    public void add(CharSequence line, long timestampReceived, long nanoTimeReceived) {
+        this.lines[this.size] = line;
+        this.timestampsReceived[this.size] = timestampReceived;
+        this.nanoTimesReceived[this.size] = nanoTimeReceived;
+        this.size++;
+    }
+
+    /**
+     * Adds the already parsed trip to the batch. A batch holds either lines or trips.
+     *
+     * @param trip the parsed trip
+     */
+    public void add(Trip trip) {
+        if (this.trips == null)
+            this.trips = new ArrayList<>(this.lines.length);
+        this.trips.add(trip);
+        this.timestampsReceived[this.size] = trip.getTimestampReceived();
+        this.nanoTimesReceived[this.size] = trip.getNanoTimeReceived();
+        this.size++;
+    }
+
+    public boolean isFull() {
+        return this.size == this.lines.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getFirstId() {
+        return firstId;
+    }
+
+    public CharSequence getLine(int i) {
+        return this.lines[i];
+    }
+
+    public long getTimestampReceived(int i) {
+        return this.timestampsReceived[i];
+    }
+
+    public long getNanoTimeReceived(int i) {
+        return this.nanoTimesReceived[i];
+    }
+
+    public boolean isParsed() {
+        return this.trips != null;
+    }
+
+    /**
+     * Parses and validates all the lines in the batch. Each event gets the id
+     * by its position in the stream. If the batch was already parsed, it does nothing.
+     *
+     * @return this batch
+     */
+    public EventBatch parse() {
+        if (this.trips != null)
+            return this;
+
+        List<Trip> parsed = new ArrayList<>(this.size);
+        for (int i = 0; i < this.size; i++) {
+            Trip trip = TripOperations.parseValidateTrip(this.lines[i], this.timestampsReceived[i], this.firstId + i);
+            // malformed trips are filtered out here, as streams do not accept null values
+            if (trip != null) {
+                trip.setNanoTimeReceived(this.nanoTimesReceived[i]);
+                parsed.add(trip);
+            }
+        }
+        this.trips = parsed;
+        return this;
+    }
+
+    /**
+     * Get parsed trips in the order as they were read.
+     *
+     * @return parsed trips or an empty list if the batch was not parsed yet
+     */
+    public List<Trip> getTrips() {
+        return this.trips != null ? this.trips : Collections.<Trip>emptyList();
+    }
+
+    /**
+     * Get the trips with both routes as columnar batch. The replayed columns are returned as they are,
+     * otherwise the parsed trips are copied into a new batch.
+     *
+     * @return the trips of the batch in columns
+     */
+    public TripBatch toTripBatch() {
+        if (this.columns != null)
+            return this.columns;
+
+        List<Trip> trips = getTrips();
+        TripBatch columns = new TripBatch(trips.size());
+        for (Trip trip : trips) {
+            if (trip.getRoute250() == null)
+                continue;
+            columns.add(trip, trip.getMedallionId());
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,159 @@
+package com.jernejerin.traffic.client;
+
+import com.jernejerin.traffic.helper.TripParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Merges the trip lines of several inputs (e.g. a file per borough or per day) into a single sequence
+ * ordered by the drop off time, as required by the time windows of the queries. Each input has to be
+ * ordered by the drop off time itself, as the DEBS files are.
+ *
+ * Each input is read concurrently on its own thread, which parses the drop off time of each line and
+ * puts the line into a bounded lookahead buffer of the input. The merging thread keeps the first line of each
+ * input in a heap (k-way merge) and passes on the line with the earliest drop off. Lines with the same drop off
+ * are passed in the order of the inputs, so the merged order is deterministic. A line without a valid drop off
+ * keeps its place in its input, i.e. it is ordered by the drop off of the previous line of the input.
+ *
+ * @author Jernej Jerin
+ */
+public class MergeSource {
+    /** The default number of lines read ahead for each input. */
+    public static final int DEFAULT_LOOKAHEAD = 1024;
+
+    // marks the end of an input in its lookahead buffer
+    private static final Line END = new Line(null, Long.MAX_VALUE, -1);
+
+    private final String[] fileNames;
+    private final boolean mapped;
+    private final int lookahead;
+
+    /**
+     * Creates a merge source of the inputs.
+     *
+     * @param fileNames the names of the resources or the paths of the files
+     * @param mapped are the files memory mapped from disk
+     * @param lookahead the number of lines read ahead for each input
+     */
+    public MergeSource(String[] fileNames, boolean mapped, int lookahead) {
+        this.fileNames = fileNames;
+        this.mapped = mapped;
+        this.lookahead = lookahead;
+    }
+
+    /**
+     * Reads all the inputs and passes their lines to the consumer in the order of the drop off time.
+     * The consumer is called on the calling thread.
+     *
+     * @param consumer the consumer of the merged lines
+     * @return the number of merged lines
+     * @throws InterruptedException if interrupted while waiting for an input
+     */
+    public long merge(Consumer<CharSequence> consumer) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(this.fileNames.length);
+        try {
+            List<BlockingQueue<Line>> buffers = new ArrayList<>(this.fileNames.length);
+            List<Future<?>> readers = new ArrayList<>(this.fileNames.length);
+            for (int i = 0; i < this.fileNames.length; i++) {
+                BlockingQueue<Line> buffer = new ArrayBlockingQueue<>(this.lookahead);
+                buffers.add(buffer);
+                readers.add(executor.submit(read(this.fileNames[i], i, buffer)));
+            }
+
+            // the first line of each input, ordered by the drop off and the input
+            PriorityQueue<Line> heads = new PriorityQueue<>(this.fileNames.length, (a, b) ->
+                    a.dropOff != b.dropOff ? Long.compare(a.dropOff, b.dropOff) : Integer.compare(a.input, b.input));
+            for (int i = 0; i < this.fileNames.length; i++)
+                next(buffers.get(i), readers.get(i), heads);
+
+            long count = 0;
+            while (!heads.isEmpty()) {
+                Line head = heads.poll();
+                consumer.accept(head.line);
+                count++;
+                next(buffers.get(head.input), readers.get(head.input), heads);
+            }
+            return count;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Takes the next line of the input into the heap. At the end of the input the reader is checked
+     * for a failure.
+     */
+    private static void next(BlockingQueue<Line> buffer, Future<?> reader, PriorityQueue<Line> heads)
+            throws InterruptedException {
+        Line line = buffer.take();
+        if (line != END) {
+            heads.add(line);
+            return;
+        }
+
+        try {
+            reader.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to read input", e.getCause());
+        }
+    }
+
+    /**
+     * Creates the task reading the input into its lookahead buffer. The end of the input is marked
+     * even if reading fails, so the merging thread never waits for a failed input.
+     */
+    private Runnable read(String fileName, int input, BlockingQueue<Line> buffer) {
+        return () -> {
+            long[] dropOff = {Long.MIN_VALUE};
+            Consumer<CharSequence> consumer = line -> {
+                long timestamp = TripParser.parseDropOffTimestamp(line);
+                if (timestamp != Long.MIN_VALUE)
+                    dropOff[0] = timestamp;
+                put(buffer, new Line(line, dropOff[0], input));
+            };
+
+            try {
+                if (this.mapped)
+                    TaxiStream.readMappedLines(fileName, consumer);
+                else
+                    TaxiStream.readLines(fileName, consumer);
+            } finally {
+                put(buffer, END);
+            }
+        };
+    }
+
+    private static void put(BlockingQueue<Line> buffer, Line line) {
+        try {
+            buffer.put(line);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading input", e);
+        }
+    }
+
+    /**
+     * A line of an input with its drop off timestamp.
+     */
+    private static class Line {
+        private final CharSequence line;
+        private final long dropOff;
+        private final int input;
+
+        private Line(CharSequence line, long dropOff, int input) {
+            this.line = line;
+            this.dropOff = dropOff;
+            this.input = input;
+        }
+    }
+}
@@ -1,44 +1,300 @@
 package com.jernejerin.traffic.client;
 
 import com.jernejerin.traffic.entities.Trip;
+import com.jernejerin.traffic.helper.ByteSequence;
+import com.jernejerin.traffic.helper.TripArchiveReader;
+import com.jernejerin.traffic.helper.TripOperations;
+import com.jernejerin.traffic.helper.TripSource;
 import com.univocity.parsers.csv.CsvParser;
 import com.univocity.parsers.csv.CsvParserSettings;
 import org.reactivestreams.Processor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
 import reactor.Environment;
 import reactor.core.processor.RingBufferProcessor;
+import reactor.io.net.tcp.TcpServer;
+import reactor.jarjar.com.lmax.disruptor.*;
 import reactor.rx.Stream;
 import reactor.rx.Streams;
 import reactor.rx.broadcast.Broadcaster;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * A taxi stream class for reading data and broadcasting it to the
  * different architectures. It can be used for streaming from TCP client
  * to TCP server or from local.
+ *
+ * <p> The data can be read from a classpath resource or from a memory mapped file
+ * on disk. When the file is memory mapped, each line is broadcast as a slice (offset and length)
+ * of the mapped buffer, i.e. a ByteSequence, without decoding it into a String.
+ *
+ * <p> In the batched mode (batch size larger than 1) the lines are published to the ring buffer
+ * in chunks of batch size, as a single EventBatch element. The events in the batch are stamped with
+ * the receive time and numbered when they are read, so the delay includes the time spent waiting for
+ * the batch to fill up. Optionally the reader also parses the batch before publishing it.
+ *
+ * <p> The stream can also replay the trips from a trip log or a trip archive, see TripSource, instead
+ * of reading the CSV lines. The replayed trips are published in batches of already parsed trips.
+ * In the columnar mode the trips from a trip archive are published as TripBatch columns, without
+ * creating a Trip for each event, and the stream is always batched.
+ *
+ * <p> A memory mapped file can be read by several readers in parallel. The file is split into
+ * ranges, that end at a line separator, and each range is parsed on its own worker. The parsed ranges
+ * are published in the order of the file as batches of parsed trips, where each event gets the id
+ * by its position in the file, so the ids and the order of the events are the same as with a single reader.
+ *
+ * <p> The file name can also list several inputs separated by commas, e.g. a file per borough or per day.
+ * The inputs are read concurrently and merged by the drop off time, see MergeSource, before the lines are
+ * published the same way as the lines of a single input.
+ *
+ * <p> Instead of reading a file the stream can also receive the lines from a client over TCP, e.g. from
+ * TcpTaxiClient or a live dispatcher feed. The lines are sent as length prefixed frames, see TripFrameCodec.
+ * The stream requests the frames from the connection in credits and replenishes them as the lines are published,
+ * so the server reads from the socket only as fast as the lines are published to the ring buffer, and a slow
+ * consumer slows down the client through the TCP flow control. The stream reads the given number of connections,
+ * e.g. of a load generator, and completes when the clients close them.
+ *
+ * <p> The lines can also be generated by a TripGenerator instead of reading a file, e.g. for benchmarks
+ * with more trips than the bundled file. The generated lines are published the same way as the lines of a file.
+ *
+ * <p> When the latency is recorded, each event is also stamped with System.nanoTime() when it is read
+ * (ingress), so the latency includes the time spent in the ring buffer. The stamp can only be carried
+ * in an EventBatch, so the stamped events are always published in batches, of a single event at the
+ * default batch size.
  *  
  * @author Jernej Jerin
  */
 public class TaxiStream {
     private final static Logger LOGGER = Logger.getLogger(TaxiStream.class.getName());
+    // the maximum size of a single mapped region of the file
+    private static final long MAPPED_REGION_SIZE = 1L << 30;
+    // the size of a range of the file, that is parsed by a single worker, when reading in parallel
+    private static final int RANGE_SIZE = 256 * 1024;
+
+    /** The default capacity of the ring buffer. */
+    public static final int DEFAULT_BUFFER_SIZE = 32;
+
+    /** The default number of frames requested ahead from the TCP connection. */
+    public static final int DEFAULT_TCP_CREDITS = 4096;
+
     private String fileName;
 
+    // is the file name a path to the file on disk, that we memory map
+    private boolean mapped = false;
+
     // for asynchronous broadcasting the Processor is the recommended way
     // instead of using the Broadcaster
-    private Processor<String, String> tripsProcessor;
-    private Stream<String> trips;
+    private Processor<CharSequence, CharSequence> tripsProcessor;
+    private Stream<CharSequence> trips;
+
+    // number of events in a single batch, 1 means publishing event by event
+    private int batchSize = 1;
+
+    // should the reader parse the batch before publishing it
+    private boolean parseBatches = false;
+
+    // processor and stream for the batched mode
+    private Processor<EventBatch, EventBatch> batchesProcessor;
+    private Stream<EventBatch> batches;
+
+    // is the file name a trip log directory or a trip archive, that we replay
+    private boolean replay = false;
+
+    // are the trips from a trip archive replayed as columnar batches
+    private boolean columnar = false;
+
+    // number of workers parsing the memory mapped file in parallel, 1 means reading in a single thread
+    private int readers = 1;
+
+    // are the events stamped with System.nanoTime() when they are read, for recording the latency
+    private boolean stampIngress = false;
+
+    // number of lines read ahead for each input, when merging several inputs
+    private int mergeLookahead = MergeSource.DEFAULT_LOOKAHEAD;
+
+    // the TCP server, that receives the lines from a client instead of reading the file
+    private TcpServer<CharSequence, CharSequence> serverTCP;
+
+    // number of frames requested ahead from each TCP connection
+    private int tcpCredits = DEFAULT_TCP_CREDITS;
+
+    // number of TCP connections, that are read before the stream completes
+    private int tcpConnections = 1;
+
+    // the generator of the lines instead of the file and the number of generated trips
+    private TripGenerator generator;
+    private long generatedTrips;
+
+    // the batch currently being filled and the id of the next event
+    private EventBatch batch;
+    private int nextId = 0;
 
     public TaxiStream(String fileName) {
+        this(fileName, false);
+    }
+
+    public TaxiStream(String fileName, boolean mapped) {
+        this(fileName, mapped, DEFAULT_BUFFER_SIZE, "blocking", 1, false);
+    }
+
+    /**
+     * Creates a taxi stream with the given ring buffer settings.
+     *
+     * @param fileName the name of the resource or the path of the file
+     * @param mapped is the file memory mapped from disk
+     * @param bufferSize the capacity of the ring buffer, must be a power of 2
+     * @param waitStrategy the name of the wait strategy of the ring buffer, see waitStrategy(String)
+     * @param batchSize the number of events published as a single element, 1 to publish event by event
+     * @param parseBatches should the reader parse the batch before it is published
+     */
+    public TaxiStream(String fileName, boolean mapped, int bufferSize, String waitStrategy, int batchSize,
+                      boolean parseBatches) {
+        this(fileName, mapped, false, bufferSize, waitStrategy, batchSize, parseBatches);
+    }
+
+    /**
+     * Creates a taxi stream with the given ring buffer settings, that can also replay a trip log
+     * or a trip archive.
+     * The replayed trips are always published in batches, as they are already parsed.
+     *
+     * @param fileName the name of the resource, the path of the file, the directory of the trip log
+     *                 or the path of the trip archive
+     * @param mapped is the file memory mapped from disk
+     * @param replay is the file name a trip log directory or a trip archive to replay
+     * @param bufferSize the capacity of the ring buffer, must be a power of 2
+     * @param waitStrategy the name of the wait strategy of the ring buffer, see waitStrategy(String)
+     * @param batchSize the number of events published as a single element
+     * @param parseBatches should the reader parse the batch before it is published
+     */
+    public TaxiStream(String fileName, boolean mapped, boolean replay, int bufferSize, String waitStrategy,
+                      int batchSize, boolean parseBatches) {
+        this(fileName, mapped, replay, false, bufferSize, waitStrategy, batchSize, parseBatches);
+    }
+
+    /**
+     * Creates a taxi stream with the given ring buffer settings, that can also replay the trips
+     * of a trip archive as columnar batches, see EventBatch.toTripBatch.
+     *
+     * @param fileName the name of the resource, the path of the file, the directory of the trip log
+     *                 or the path of the trip archive
+     * @param mapped is the file memory mapped from disk
+     * @param replay is the file name a trip log directory or a trip archive to replay
+     * @param columnar are the trips from a trip archive replayed as columnar batches
+     * @param bufferSize the capacity of the ring buffer, must be a power of 2
+     * @param waitStrategy the name of the wait strategy of the ring buffer, see waitStrategy(String)
+     * @param batchSize the number of events published as a single element
+     * @param parseBatches should the reader parse the batch before it is published
+     */
+    public TaxiStream(String fileName, boolean mapped, boolean replay, boolean columnar, int bufferSize,
+                      String waitStrategy, int batchSize, boolean parseBatches) {
+        this(fileName, mapped, replay, columnar, bufferSize, waitStrategy, batchSize, parseBatches, 1);
+    }
+
+    /**
+     * Creates a taxi stream with the given ring buffer settings, that can also read a memory mapped
+     * file with several readers in parallel. The trips read in parallel are always published in
+     * already parsed batches.
+     *
+     * @param fileName the name of the resource, the path of the file, the directory of the trip log
+     *                 or the path of the trip archive
+     * @param mapped is the file memory mapped from disk
+     * @param replay is the file name a trip log directory or a trip archive to replay
+     * @param columnar are the trips from a trip archive replayed as columnar batches
+     * @param bufferSize the capacity of the ring buffer, must be a power of 2
+     * @param waitStrategy the name of the wait strategy of the ring buffer, see waitStrategy(String)
+     * @param batchSize the number of events published as a single element
+     * @param parseBatches should the reader parse the batch before it is published
+     * @param readers the number of workers parsing the memory mapped file in parallel
+     */
+    public TaxiStream(String fileName, boolean mapped, boolean replay, boolean columnar, int bufferSize,
+                      String waitStrategy, int batchSize, boolean parseBatches, int readers) {
+        this(fileName, mapped, replay, columnar, bufferSize, waitStrategy, batchSize, parseBatches, readers, false);
+    }
+
+    /**
+     * Creates a taxi stream with the given ring buffer settings, that can also stamp each event with
+     * System.nanoTime() when it is read, for recording the latency. The stamped events are always
+     * published in batches.
+     *
+     * @param fileName the name of the resource, the path of the file, the directory of the trip log
+     *                 or the path of the trip archive
+     * @param mapped is the file memory mapped from disk
+     * @param replay is the file name a trip log directory or a trip archive to replay
+     * @param columnar are the trips from a trip archive replayed as columnar batches
+     * @param bufferSize the capacity of the ring buffer, must be a power of 2
+     * @param waitStrategy the name of the wait strategy of the ring buffer, see waitStrategy(String)
+     * @param batchSize the number of events published as a single element
+     * @param parseBatches should the reader parse the batch before it is published
+     * @param readers the number of workers parsing the memory mapped file in parallel
+     * @param stampIngress are the events stamped with System.nanoTime() when they are read
+     */
+    public TaxiStream(String fileName, boolean mapped, boolean replay, boolean columnar, int bufferSize,
+                      String waitStrategy, int batchSize, boolean parseBatches, int readers, boolean stampIngress) {
         this.fileName = fileName;
+        this.mapped = mapped;
+        this.replay = replay;
+        this.columnar = columnar;
+        this.batchSize = batchSize;
+        this.parseBatches = parseBatches;
+        this.readers = readers;
+        this.stampIngress = stampIngress;
 
-        // create a Processor with an internal RingBuffer capacity of 32 slots
-        this.tripsProcessor = RingBufferProcessor.create("trips", 32);
+        if (isBatched()) {
+            // create a Processor where each slot holds a batch of events
+            this.batchesProcessor = RingBufferProcessor.create("trips", bufferSize, waitStrategy(waitStrategy));
+            this.batches = Streams.wrap(this.batchesProcessor);
+        } else {
+            // create a Processor with an internal RingBuffer capacity of bufferSize slots
+            this.tripsProcessor = RingBufferProcessor.create("trips", bufferSize, waitStrategy(waitStrategy));
 
-        // create a Reactor Stream from this Reactive Streams Processor
-        this.trips = Streams.wrap(this.tripsProcessor);
+            // create a Reactor Stream from this Reactive Streams Processor
+            this.trips = Streams.wrap(this.tripsProcessor);
+        }
+    }
+
+    /**
+     * Maps the name of the wait strategy to the ring buffer wait strategy. The following
+     * names are supported: blocking, liteBlocking, sleeping, yielding and busySpin.
+     *
+     * @param name the name of the wait strategy
+     * @return the wait strategy for the ring buffer
+     */
+    public static WaitStrategy waitStrategy(String name) {
+        switch (name) {
+            case "blocking":
+                return new BlockingWaitStrategy();
+            case "liteBlocking":
+                return new LiteBlockingWaitStrategy();
+            case "sleeping":
+                return new SleepingWaitStrategy();
+            case "yielding":
+                return new YieldingWaitStrategy();
+            case "busySpin":
+                return new BusySpinWaitStrategy();
+            default:
+                throw new IllegalArgumentException("Unknown wait strategy " + name);
+        }
     }
 
     public String getFileName() {
@@ -49,44 +305,622 @@ public class TaxiStream {
         this.fileName = fileName;
     }
 
-    public Stream<String> getTrips() {
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    public void setMapped(boolean mapped) {
+        this.mapped = mapped;
+    }
+
+    public int getMergeLookahead() {
+        return mergeLookahead;
+    }
+
+    public void setMergeLookahead(int mergeLookahead) {
+        this.mergeLookahead = mergeLookahead;
+    }
+
+    public TcpServer<CharSequence, CharSequence> getServerTCP() {
+        return serverTCP;
+    }
+
+    /**
+     * Receive the lines from the TCP server instead of reading the file. The server has to use
+     * the TripFrameCodec.
+     *
+     * @param serverTCP the TCP server, that is started when the stream is read
+     */
+    public void setServerTCP(TcpServer<CharSequence, CharSequence> serverTCP) {
+        this.serverTCP = serverTCP;
+    }
+
+    public TripGenerator getGenerator() {
+        return generator;
+    }
+
+    /**
+     * Publish the lines of the generator instead of reading the file.
+     *
+     * @param generator the generator of the trips
+     * @param trips the number of generated trips
+     */
+    public void setGenerator(TripGenerator generator, long trips) {
+        this.generator = generator;
+        this.generatedTrips = trips;
+    }
+
+    public int getTcpCredits() {
+        return tcpCredits;
+    }
+
+    public void setTcpCredits(int tcpCredits) {
+        this.tcpCredits = tcpCredits;
+    }
+
+    public int getTcpConnections() {
+        return tcpConnections;
+    }
+
+    public void setTcpConnections(int tcpConnections) {
+        this.tcpConnections = tcpConnections;
+    }
+
+    /**
+     * @return true if the file name lists several inputs, that are merged by the drop off time
+     */
+    public boolean isMerged() {
+        return !replay && generator == null && fileName.indexOf(',') != -1;
+    }
+
+    public boolean isBatched() {
+        return batchSize > 1 || replay || columnar || stampIngress || isParallel();
+    }
+
+    public boolean isStampIngress() {
+        return stampIngress;
+    }
+
+    /**
+     * @return true if the memory mapped file is read by several readers in parallel
+     */
+    public boolean isParallel() {
+        return readers > 1 && mapped && !replay && generator == null && !isMerged();
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Get the stream of events. Only available when publishing event by event.
+     *
+     * @return the stream of raw trip lines
+     */
+    public Stream<CharSequence> getTrips() {
         return trips;
     }
 
-    public void setTrips(Broadcaster<String> trips) {
+    /**
+     * Get the stream of batches. Only available in the batched mode.
+     *
+     * @return the stream of batches of trips
+     */
+    public Stream<EventBatch> getBatches() {
+        return batches;
+    }
+
+    /**
+     * Get the number of elements waiting in the ring buffer, i.e. its capacity less the remaining
+     * capacity. In the batched mode an element is a batch of events.
+     *
+     * @return the number of elements in the ring buffer or 0, if the stream is not backed by a ring buffer
+     */
+    public long getBufferSize() {
+        Processor<?, ?> processor = isBatched() ? this.batchesProcessor : this.tripsProcessor;
+        if (!(processor instanceof RingBufferProcessor))
+            return 0;
+        RingBufferProcessor<?> ringBuffer = (RingBufferProcessor<?>) processor;
+        return ringBuffer.getCapacity() - ringBuffer.getAvailableCapacity();
+    }
+
+    public void setTrips(Broadcaster<CharSequence> trips) {
         this.trips = trips;
     }
 
     /**
      * Read stream of taxi trip data from file
-     * and broadcast its value next.
+     * and broadcast its value next. If reading fails, the ring buffer is terminated with the error,
+     * so its threads stop, and the error is thrown.
      *
      * @throws InterruptedException
      */
     public void readStream() throws InterruptedException {
+        try {
+            read();
+        } catch (RuntimeException e) {
+            fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Read the input selected by the settings of the stream. See readStream().
+     *
+     * @throws InterruptedException
+     */
+    private void read() throws InterruptedException {
+        if (this.serverTCP != null) {
+            readTcpStream();
+            return;
+        }
+        if (this.replay) {
+            readReplayStream();
+            return;
+        }
+        if (this.generator != null) {
+            readGeneratedStream();
+            return;
+        }
+        if (isMerged()) {
+            readMergedStream();
+            return;
+        }
+        if (isParallel()) {
+            readParallelStream();
+            return;
+        }
+        if (this.mapped) {
+            readMappedStream();
+            return;
+        }
+
+        // sink values to trips broadcaster
+        readLines(this.fileName, this::publish);
+
+        // close the channel as we are finished streaming data
+        // this sends a complete signal which we can in turn observe
+        complete();
+    }
+
+    /**
+     * Read the lines of the resource one by one and pass each line to the consumer.
+     *
+     * @param fileName the name of the resource
+     * @param consumer the consumer of the lines
+     */
+    static void readLines(String fileName, Consumer<CharSequence> consumer) {
         // setting up CSV parser
         CsvParser parser = setupParser();
 
         // read records one by one
-        parser.beginParsing(getReader(this.fileName));
+        parser.beginParsing(getReader(fileName));
 
         String[] row;
         // read line by line
         while ((row = parser.parseNext()) != null) {
             // create a string from array separated by comma
-            String trip = String.join(",", row);
-
-            // sink values to trips broadcaster
-            this.tripsProcessor.onNext(trip);
+            consumer.accept(String.join(",", row));
         }
-        // close the channel as we are finished streaming data
-        // this sends a complete signal which we can in turn observe
-        this.tripsProcessor.onComplete();
 
         // finished parsing all the data from the csv file
         parser.stopParsing();
     }
 
+    /**
+     * Read stream of taxi trip data from memory mapped file and broadcast
+     * each line as a slice of the mapped buffer. Files larger than the mapped region
+     * size are mapped region by region, where each region ends at the line separator.
+     */
+    public void readMappedStream() {
+        readMappedLines(this.fileName, this::publish);
+
+        // close the channel as we are finished streaming data
+        complete();
+    }
+
+    /**
+     * Read the lines of the memory mapped file and pass each line to the consumer as a slice
+     * of the mapped buffer. See readMappedStream().
+     *
+     * @param fileName the path of the file
+     * @param consumer the consumer of the lines
+     */
+    static void readMappedLines(String fileName, Consumer<CharSequence> consumer) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+
+            while (position < size) {
+                long regionSize = Math.min(MAPPED_REGION_SIZE, size - position);
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, regionSize);
+                int limit = regionLimit(region, position, size);
+
+                broadcastLines(region, limit, consumer);
+                position += limit;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read input", e);
+        }
+    }
+
+    /**
+     * Read stream of taxi trip data from several inputs, listed in the file name separated by commas,
+     * and broadcast the lines merged by the drop off time. Each input is read on its own thread.
+     *
+     * @throws InterruptedException if interrupted while waiting for an input
+     */
+    public void readMergedStream() throws InterruptedException {
+        new MergeSource(this.fileName.split(","), this.mapped, this.mergeLookahead).merge(this::publish);
+
+        // close the channel as we are finished streaming data
+        complete();
+    }
+
+    /**
+     * Generate stream of taxi trip data with the generator and broadcast each line.
+     */
+    public void readGeneratedStream() {
+        this.generator.generate(this.generatedTrips, this::publish);
+
+        // close the channel as we are finished streaming data
+        complete();
+    }
+
+    /**
+     * Receive stream of taxi trip data from clients over TCP and broadcast the lines. The server is
+     * started and the first tcpConnections connections are read until the clients close them, while any
+     * other connection is closed right away. The lines are published on the threads of the connections,
+     * one line at a time, so the lines of several connections are interleaved in the order they are received.
+     *
+     * @throws InterruptedException if interrupted while waiting for the clients
+     */
+    public void readTcpStream() throws InterruptedException {
+        AtomicInteger connected = new AtomicInteger();
+        CountDownLatch closed = new CountDownLatch(this.tcpConnections);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        this.serverTCP.start(channel -> {
+            if (connected.getAndIncrement() >= this.tcpConnections)
+                return Streams.empty();
+
+            LOGGER.info("Receiving trips from " + channel.remoteAddress());
+            channel.subscribe(new CreditSubscriber(closed, error));
+            return Streams.never();
+        }).await();
+
+        // wait for the clients to close the connections
+        closed.await();
+        this.serverTCP.shutdown().await();
+        if (error.get() != null)
+            throw new IllegalStateException("Unable to read input", error.get());
+
+        // close the channel as we are finished streaming data
+        complete();
+    }
+
+    /**
+     * Read stream of taxi trip data from memory mapped file with several readers. Each region of the file
+     * is split into ranges of about RANGE_SIZE bytes, that end at a line separator, and each range is split
+     * into lines and parsed on a worker of a ForkJoinPool. The reading thread publishes the parsed ranges in
+     * the order of the file and numbers the events, so the ids are the same as with a single reader. At most
+     * two ranges per reader are parsed ahead of the publishing.
+     */
+    public void readParallelStream() {
+        ForkJoinPool pool = new ForkJoinPool(this.readers);
+        Deque<ForkJoinTask<ParsedRange>> ranges = new ArrayDeque<>();
+        try (FileChannel channel = FileChannel.open(Paths.get(this.fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+
+            while (position < size) {
+                long regionSize = Math.min(MAPPED_REGION_SIZE, size - position);
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, regionSize);
+                int limit = regionLimit(region, position, size);
+
+                for (int start = 0; start < limit; ) {
+                    int rangeStart = start;
+                    int rangeEnd = limit - start > RANGE_SIZE ? nextLineEnd(region, start + RANGE_SIZE, limit) : limit;
+                    ranges.add(pool.submit(() -> parseRange(region, rangeStart, rangeEnd, this.stampIngress)));
+                    if (ranges.size() >= 2 * this.readers)
+                        publishRange(ranges.poll().join());
+                    start = rangeEnd;
+                }
+                position += limit;
+            }
+
+            while (!ranges.isEmpty())
+                publishRange(ranges.poll().join());
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read input", e);
+        } finally {
+            pool.shutdown();
+        }
+
+        // close the channel as we are finished streaming data
+        complete();
+    }
+
+    /**
+     * Replay the trips from the trip log or the trip archive. The trips are decoded from the memory
+     * mapped segments or blocks and published in already parsed batches, so no CSV line is parsed.
+     * Each trip keeps its id and is stamped with the time it was read. In the columnar mode the trips
+     * from a trip archive are published as columnar batches, that are always stamped with System.nanoTime().
+     */
+    public void readReplayStream() {
+        TripSource source = TripSource.open(new File(this.fileName));
+        if (this.columnar && source instanceof TripArchiveReader) {
+            ((TripArchiveReader) source).replay(this.batchSize,
+                    columns -> this.batchesProcessor.onNext(new EventBatch(columns)));
+            complete();
+            return;
+        }
+
+        source.replay(trip -> {
+            trip.setTimestampReceived(System.currentTimeMillis());
+            if (this.stampIngress)
+                trip.setNanoTimeReceived(System.nanoTime());
+            publish(trip);
+            this.nextId = trip.getId() + 1;
+        });
+
+        // close the channel as we are finished streaming data
+        complete();
+    }
+
+    /**
+     * Publish the line to the ring buffer. In the batched mode the line is added to
+     * the current batch, which is published when full.
+     *
+     * @param line the raw trip line
+     */
+    private void publish(CharSequence line) {
+        if (!isBatched()) {
+            this.tripsProcessor.onNext(line);
+            return;
+        }
+
+        if (this.batch == null)
+            this.batch = new EventBatch(this.batchSize, this.nextId);
+        this.batch.add(line, System.currentTimeMillis(), this.stampIngress ? System.nanoTime() : 0);
+        this.nextId++;
+
+        if (this.batch.isFull())
+            publishBatch();
+    }
+
+    /**
+     * Publish the already parsed trip. It is added to the current batch, which is published when full.
+     *
+     * @param trip the parsed trip
+     */
+    private void publish(Trip trip) {
+        if (this.batch == null)
+            this.batch = new EventBatch(this.batchSize, trip.getId());
+        this.batch.add(trip);
+
+        if (this.batch.isFull())
+            publishBatch();
+    }
+
+    /**
+     * Publish the trips of the parsed range. The ids of the trips are shifted from the position
+     * in the range to the position in the file.
+     *
+     * @param range the parsed range
+     */
+    private void publishRange(ParsedRange range) {
+        for (Trip trip : range.trips) {
+            trip.setId(this.nextId + trip.getId());
+            publish(trip);
+        }
+        this.nextId += range.lines;
+    }
+
+    private void publishBatch() {
+        if (this.parseBatches)
+            this.batch.parse();
+        this.batchesProcessor.onNext(this.batch);
+        this.batch = null;
+    }
+
+    /**
+     * Publish the last, partially filled batch and send the complete signal.
+     */
+    private void complete() {
+        if (!isBatched()) {
+            this.tripsProcessor.onComplete();
+            return;
+        }
+
+        if (this.batch != null)
+            publishBatch();
+        this.batchesProcessor.onComplete();
+    }
+
+    /**
+     * Terminate the ring buffer with the error, instead of completing it. The batch being filled is dropped.
+     * Only onComplete shuts down the thread of the ring buffer, so the ring buffer is completed after the
+     * error as well, which the subscribers ignore, as they have already terminated with the error.
+     *
+     * @param error the error of reading the input
+     */
+    private void fail(Throwable error) {
+        Processor<?, ?> processor = isBatched() ? this.batchesProcessor : this.tripsProcessor;
+        this.batch = null;
+        processor.onError(error);
+        processor.onComplete();
+    }
+
+    /**
+     * Broadcast each non empty line in the region as a slice of the region.
+     *
+     * @param region the mapped region of the file
+     * @param limit the number of bytes in the region to broadcast
+     * @param consumer the consumer of the lines
+     */
+    private static void broadcastLines(MappedByteBuffer region, int limit, Consumer<CharSequence> consumer) {
+        int start = 0;
+        for (int i = 0; i <= limit; i++) {
+            if (i == limit || region.get(i) == '\n') {
+                // strip the carriage return of the Windows line separator
+                int end = i > start && region.get(i - 1) == '\r' ? i - 1 : i;
+
+                // skip empty lines
+                if (end > start)
+                    consumer.accept(new ByteSequence(region, start, end - start));
+                start = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Splits the range of the region into non empty lines and parses them. The trips are numbered
+     * by the position of the line in the range and stamped with the time the line was read.
+     *
+     * @param region the mapped region of the file
+     * @param start the index of the first byte of the range
+     * @param end the index after the last byte of the range
+     * @param stampIngress are the trips also stamped with System.nanoTime() when the line was read
+     * @return the parsed range
+     */
+    private static ParsedRange parseRange(MappedByteBuffer region, int start, int end, boolean stampIngress) {
+        List<Trip> trips = new ArrayList<>();
+        ByteSequence line = new ByteSequence();
+        int lines = 0;
+        int lineStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || region.get(i) == '\n') {
+                // strip the carriage return of the Windows line separator
+                int lineEnd = i > lineStart && region.get(i - 1) == '\r' ? i - 1 : i;
+
+                // skip empty lines
+                if (lineEnd > lineStart) {
+                    long nanoTimeReceived = stampIngress ? System.nanoTime() : 0;
+                    Trip trip = TripOperations.parseValidateTrip(line.wrap(region, lineStart, lineEnd - lineStart),
+                            System.currentTimeMillis(), lines++);
+                    // malformed trips are left out, but they keep their id
+                    if (trip != null) {
+                        trip.setNanoTimeReceived(nanoTimeReceived);
+                        trips.add(trip);
+                    }
+                }
+                lineStart = i + 1;
+            }
+        }
+        return new ParsedRange(trips, lines);
+    }
+
+    /**
+     * Computes the number of bytes in the region, that hold complete lines. If this is not the last
+     * region, the lines can only be read up to the last line separator.
+     *
+     * @param region the mapped region of the file
+     * @param position the position of the region in the file
+     * @param size the size of the file
+     * @return the number of bytes in the region to read
+     */
+    private static int regionLimit(MappedByteBuffer region, long position, long size) {
+        int limit = region.capacity();
+        if (position + limit < size) {
+            limit = lastLineEnd(region, limit);
+            if (limit == 0)
+                throw new IllegalStateException("Line at position " + position + " is longer than " +
+                        "the mapped region");
+        }
+        return limit;
+    }
+
+    /**
+     * Finds the end of the line, that contains the index.
+     *
+     * @param region the mapped region of the file
+     * @param index the index in the line
+     * @param limit the number of bytes in the region
+     * @return the index after the line separator or the limit if there is none
+     */
+    private static int nextLineEnd(MappedByteBuffer region, int index, int limit) {
+        for (int i = index; i < limit; i++) {
+            if (region.get(i) == '\n')
+                return i + 1;
+        }
+        return limit;
+    }
+
+    /**
+     * Finds the end of the last complete line in the region.
+     *
+     * @param region the mapped region of the file
+     * @param limit the number of bytes in the region
+     * @return the index after the last line separator or 0 if there is none
+     */
+    private static int lastLineEnd(MappedByteBuffer region, int limit) {
+        for (int i = limit - 1; i >= 0; i--) {
+            if (region.get(i) == '\n')
+                return i + 1;
+        }
+        return 0;
+    }
+
+
+    /**
+     * Publishes the lines received from a TCP connection. It requests tcpCredits frames up front
+     * and requests the next half of them each time half of them are published.
+     */
+    private class CreditSubscriber implements Subscriber<CharSequence> {
+        private final CountDownLatch closed;
+        private final AtomicReference<Throwable> error;
+        private final int replenish = Math.max(1, tcpCredits / 2);
+        private Subscription subscription;
+        private int published = 0;
+
+        private CreditSubscriber(CountDownLatch closed, AtomicReference<Throwable> error) {
+            this.closed = closed;
+            this.error = error;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(tcpCredits);
+        }
+
+        @Override
+        public void onNext(CharSequence line) {
+            // the connections share the ring buffer and the current batch
+            synchronized (TaxiStream.this) {
+                publish(line);
+            }
+            if (++this.published == this.replenish) {
+                this.published = 0;
+                this.subscription.request(this.replenish);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            LOGGER.log(Level.SEVERE, "Receiving trips failed", t);
+            this.error.compareAndSet(null, t);
+            this.closed.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            this.closed.countDown();
+        }
+    }
+
+    /**
+     * The trips parsed from a range of the file and the number of non empty lines in the range.
+     */
+    private static class ParsedRange {
+        private final List<Trip> trips;
+        private final int lines;
+
+        private ParsedRange(List<Trip> trips, int lines) {
+            this.trips = trips;
+            this.lines = lines;
+        }
+    }
 
     /**
      * Setup a parser (line separator, etc.).
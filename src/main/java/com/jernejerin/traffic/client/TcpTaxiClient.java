@@ -1,21 +1,51 @@
 package com.jernejerin.traffic.client;
 
+import com.jernejerin.traffic.helper.TripParser;
+import org.HdrHistogram.Histogram;
 import org.apache.commons.cli.*;
 
-import reactor.Environment;
-import reactor.io.codec.StandardCodecs;
-import reactor.io.net.NetStreams;
-import reactor.io.net.tcp.TcpClient;
-import reactor.rx.Stream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * <p>
  * A running program for reading Taxi data from local
- * file and sending it to the TCP server. The program parses
- * the file line by line. It accepts the following arguments:
+ * file and sending it to the TCP server. It is used as a load
+ * generator for finding the saturation point of the architectures.
+ * The program reads the file line by line and sends each line as
+ * a length prefixed frame, see TripFrameCodec. It accepts the following arguments:
  * - hostTCP - TCP server host name
  * - portTCP - TCP server port
  * - fileName - Name of the file
+ * - fromDisk - the file name is a path to the file on disk instead of a resource
+ * - flushSize - Maximum number of frames written to the socket at once
+ * - connections - Number of concurrent connections
+ * - rate - Number of trips sent per second over all connections
+ * - speedUp - Speed up of sending the trips relative to their drop off time
+ * - loops - Number of times the file is sent, 0 to send it until stopped
+ *
+ * Without a rate or speed up the trips are sent as fast as the server receives them
+ * (closed loop). With a rate or speed up each trip has a scheduled send time, which does not
+ * depend on how fast the previous trips were sent (open loop). The connections take the trips
+ * from the schedule in turn, wait for their send time and write all the trips, that are due,
+ * at once. The frames are written without waiting for an answer from the server.
+ *
+ * The program reports the achieved send rate every second. With a schedule it also reports the
+ * send latency of the trips, i.e. the time from the scheduled send time until the frame is written
+ * to the socket. As it is measured from the scheduled time, it includes the time a trip waited
+ * behind the previous ones, when the server could not keep up and held back the client through the
+ * TCP flow control (coordinated omission). The server does not acknowledge the trips, so the time
+ * spent in the server is not included.
  *
  * For more info, use --help.
  * </p>
@@ -23,6 +53,12 @@ import reactor.rx.Stream;
  * @author Jernej Jerin
  */
 public class TcpTaxiClient {
+    // the value of the send time of a trip, that is sent as fast as possible
+    private static final long NOT_SCHEDULED = Long.MIN_VALUE;
+
+    // the initial size of the buffer of a connection for the frames written at once
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     /** The default hostname of the TCP server. */
     private static String hostTCP = "localhost";
 
@@ -32,42 +68,242 @@ public class TcpTaxiClient {
     /** The default file name. */
     private static String fileName = "trips_example.csv";
 
-    public static void main(String[] args) throws InterruptedException{
+    /** The default value if the file is a file on disk instead of a resource. */
+    private static boolean fromDisk = false;
+
+    /** The default maximum number of frames written at once. */
+    private static int flushSize = 256;
+
+    /** The default number of concurrent connections. */
+    private static int connections = 1;
+
+    /** The default number of trips sent per second, 0 means as fast as possible. */
+    private static double rate = 0;
+
+    /** The default speed up relative to the drop off time, 0 means no speed up schedule. */
+    private static double speedUp = 0;
+
+    /** The default number of times the file is sent, 0 means until stopped. */
+    private static int loops = 1;
+
+    public static void main(String[] args) throws InterruptedException {
         // set host and port from command line options
         setOptionsCmd(args);
 
-        // environment initialization. This creates and assigns a context environment
-        // bound to the current class loader.
-        Environment.initialize();
+        // start the connections, that take the trips from the shared schedule
+        Schedule schedule = new Schedule();
+        CountDownLatch done = new CountDownLatch(connections);
+        Sender[] senders = new Sender[connections];
+        for (int i = 0; i < connections; i++) {
+            senders[i] = new Sender(schedule, done);
+            new Thread(senders[i], "sender-" + i).start();
+        }
+
+        // report the send rate every second until all the connections are closed
+        long start = System.nanoTime();
+        long lastTime = start;
+        long lastSent = 0;
+        while (!done.await(1, TimeUnit.SECONDS)) {
+            long now = System.nanoTime();
+            long sent = sent(senders);
+            System.out.printf("sent %d trips, %.0f trips/s%n", sent, (sent - lastSent) * 1e9 / (now - lastTime));
+            lastTime = now;
+            lastSent = sent;
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long sent = sent(senders);
+        System.out.printf("sent %d trips in %.3f s over %d connections, %.0f trips/s%n", sent, seconds,
+                connections, sent / seconds);
+
+        if (schedule.isScheduled()) {
+            Histogram latency = new Histogram(3);
+            for (Sender sender : senders)
+                latency.add(sender.latency);
+            System.out.printf("send latency (us) p50 = %d, p90 = %d, p99 = %d, p99.9 = %d, max = %d%n",
+                    latency.getValueAtPercentile(50) / 1000, latency.getValueAtPercentile(90) / 1000,
+                    latency.getValueAtPercentile(99) / 1000, latency.getValueAtPercentile(99.9) / 1000,
+                    latency.getMaxValue() / 1000);
+        }
+
+        for (Sender sender : senders) {
+            if (sender.error != null)
+                throw new IllegalStateException("Unable to send trips", sender.error);
+        }
+    }
+
+    private static long sent(Sender[] senders) {
+        long sent = 0;
+        for (Sender sender : senders)
+            sent += sender.sent;
+        return sent;
+    }
+
+    /**
+     * Opens the file and reads its non empty lines lazily, without the line separators.
+     *
+     * @return an iterator over the lines of the file
+     */
+    private static Iterator<CharSequence> readLines() {
+        BufferedReader reader;
+        try {
+            reader = fromDisk ? Files.newBufferedReader(Paths.get(fileName), StandardCharsets.ISO_8859_1) :
+                    new BufferedReader(TaxiStream.getReader("/com/jernejerin/" + fileName));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read input", e);
+        }
+
+        return reader.lines()
+                .map(line -> (CharSequence) (line.endsWith("\r") ? line.substring(0, line.length() - 1) : line))
+                .filter(line -> line.length() > 0)
+                .iterator();
+    }
 
-        // create a broadcaster we can sink values into
-        TaxiStream taxiStream = new TaxiStream("/com/jernejerin/" + fileName);
+    /**
+     * The trips to send and their send times, shared by all the connections. With a rate the trips are
+     * spaced evenly. With a speed up they are spaced by their drop off time, where a trip without a valid
+     * drop off time is sent together with the previous trip, and each loop starts a second after the last
+     * drop off of the file.
+     */
+    private static class Schedule {
+        private final long start = System.nanoTime();
+        private Iterator<CharSequence> lines = readLines();
+        private int loop = 1;
+        private long index = 0;
 
-        // instruct the stream to request the produced subscription indefinitely
-        // by consuming values we are creating a demand to the TCP server
-        taxiStream.getTrips().consume();
+        // the first and the last drop off time of the file and the offset of the current loop in milliseconds
+        private long firstDropOff = Long.MIN_VALUE;
+        private long lastDropOff = Long.MIN_VALUE;
+        private long loopOffset = 0;
+        private long time = NOT_SCHEDULED;
 
-        // a separate sink stream with capacity of one
-        Stream<String> sink = taxiStream.getTrips().log("trips").capacity(1L);
+        private boolean isScheduled() {
+            return rate > 0 || speedUp > 0;
+        }
 
-        // TCP client for producing demand to the TCP server
-        TcpClient<String, String> client = NetStreams.tcpClient(
-            spec -> spec
-                .codec(StandardCodecs.STRING_CODEC)
-                .connect(hostTCP, portTCP)
-                .dispatcher(Environment.cachedDispatcher())
-        );
+        /**
+         * Takes the next trip from the schedule.
+         *
+         * @param trip the trip to fill with the line and its send time
+         * @return false if there are no more trips
+         */
+        private synchronized boolean next(Trip trip) {
+            while (!this.lines.hasNext()) {
+                if (loops != 0 && this.loop == loops)
+                    return false;
 
-        // start a connection to server. Subscribe to sink publisher, which will reply data on
-        // the active connection. We basically have a stream of data from broadcaster that we now publish
-        // it to the TCP server.
-        client.start(ch -> ch.writeWith(sink));
+                this.loop++;
+                this.lines = readLines();
+                if (this.lastDropOff != Long.MIN_VALUE)
+                    this.loopOffset += this.lastDropOff - this.firstDropOff + 1000;
+            }
 
-        // read stream of data
-        taxiStream.readStream();
+            trip.line = this.lines.next();
+            if (rate > 0) {
+                this.time = this.start + (long) (this.index * 1e9 / rate);
+            } else if (speedUp > 0) {
+                long dropOff = TripParser.parseDropOffTimestamp(trip.line);
+                if (dropOff != Long.MIN_VALUE) {
+                    if (this.firstDropOff == Long.MIN_VALUE)
+                        this.firstDropOff = dropOff;
+                    if (this.loop == 1)
+                        this.lastDropOff = Math.max(this.lastDropOff, dropOff);
+                    this.time = this.start + (long) ((this.loopOffset + dropOff - this.firstDropOff) * 1e6 / speedUp);
+                } else if (this.time == NOT_SCHEDULED) {
+                    this.time = this.start;
+                }
+            }
+            trip.time = this.time;
+            this.index++;
+            return true;
+        }
+    }
+
+    /**
+     * A trip line and its send time in nanoseconds.
+     */
+    private static class Trip {
+        private CharSequence line;
+        private long time;
+    }
 
-        // shutdown client
-        client.shutdown().await();
+    /**
+     * A connection, that sends the trips from the schedule. The frames, that are due, are collected
+     * in a buffer and written at once, before waiting for the next trip or when flushSize frames are
+     * collected.
+     */
+    private static class Sender implements Runnable {
+        private final Schedule schedule;
+        private final CountDownLatch done;
+        // the send latencies in nanoseconds, read after the connection is done
+        private final Histogram latency = new Histogram(3);
+        private final long[] times = new long[flushSize];
+        private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private int frames = 0;
+        private volatile long sent = 0;
+        private volatile Throwable error;
+
+        private Sender(Schedule schedule, CountDownLatch done) {
+            this.schedule = schedule;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            // Nagle's algorithm is left on, so the small writes of a schedule are coalesced into larger segments
+            // while the previous ones are not acknowledged. Many tiny segments fill the receive buffer of the
+            // server with their overhead, which shrinks its receive window and stalls the connection.
+            try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(hostTCP, portTCP))) {
+
+                Trip trip = new Trip();
+                while (this.schedule.next(trip)) {
+                    if (trip.time != NOT_SCHEDULED && trip.time > System.nanoTime()) {
+                        // write the frames, that are due, before waiting for the trip
+                        write(channel);
+                        long wait;
+                        while ((wait = trip.time - System.nanoTime()) > 0)
+                            LockSupport.parkNanos(wait);
+                    }
+
+                    int size = TripFrameCodec.HEADER_SIZE + trip.line.length();
+                    if (this.buffer.remaining() < size) {
+                        write(channel);
+                        if (this.buffer.capacity() < size)
+                            this.buffer = ByteBuffer.allocate(size);
+                    }
+                    TripFrameCodec.encode(trip.line, this.buffer);
+                    this.times[this.frames++] = trip.time;
+                    if (this.frames == flushSize)
+                        write(channel);
+                }
+                write(channel);
+            } catch (Throwable t) {
+                this.error = t;
+            } finally {
+                this.done.countDown();
+            }
+        }
+
+        /**
+         * Writes the collected frames to the socket and records their send latency.
+         */
+        private void write(SocketChannel channel) throws IOException {
+            if (this.frames == 0)
+                return;
+
+            this.buffer.flip();
+            while (this.buffer.hasRemaining())
+                channel.write(this.buffer);
+            this.buffer.clear();
+
+            long now = System.nanoTime();
+            for (int i = 0; i < this.frames; i++) {
+                if (this.times[i] != NOT_SCHEDULED)
+                    this.latency.recordValue(Math.max(0, now - this.times[i]));
+            }
+            this.sent += this.frames;
+            this.frames = 0;
+        }
     }
 
     /**
@@ -77,6 +313,11 @@ public class TcpTaxiClient {
      *  - host TCP
      *  - port TCP
      *  - file name
+     *  - file on disk
+     *  - flush size
+     *  - number of connections
+     *  - rate or speed up of the schedule
+     *  - number of loops
      * It also prints the display help if user passes in help option.
      * </p>
      *
@@ -91,6 +332,12 @@ public class TcpTaxiClient {
         options.addOption("hostTCP", true, "the hostname of the TCP server");
         options.addOption("portTCP", true, "the port of the TCP server");
         options.addOption("fileName", true, "the name of the file that holds the data");
+        options.addOption("fromDisk", false, "read the file from the given path on disk");
+        options.addOption("flushSize", true, "the maximum number of frames written at once");
+        options.addOption("connections", true, "the number of concurrent connections");
+        options.addOption("rate", true, "the number of trips sent per second over all connections");
+        options.addOption("speedUp", true, "the speed up of sending the trips relative to their drop off time");
+        options.addOption("loops", true, "the number of times the file is sent, 0 to send it until stopped");
 
         // parser for command line arguments
         CommandLineParser parser = new GnuParser();
@@ -116,6 +363,18 @@ public class TcpTaxiClient {
             portTCP = Integer.parseInt(cmd.getOptionValue("portTCP"));
         if (cmd.getOptionValue("fileName") != null)
             fileName = cmd.getOptionValue("fileName");
+        if (cmd.hasOption("fromDisk"))
+            fromDisk = true;
+        if (cmd.getOptionValue("flushSize") != null)
+            flushSize = Integer.parseInt(cmd.getOptionValue("flushSize"));
+        if (cmd.getOptionValue("connections") != null)
+            connections = Integer.parseInt(cmd.getOptionValue("connections"));
+        if (cmd.getOptionValue("rate") != null)
+            rate = Double.parseDouble(cmd.getOptionValue("rate"));
+        if (cmd.getOptionValue("speedUp") != null)
+            speedUp = Double.parseDouble(cmd.getOptionValue("speedUp"));
+        if (cmd.getOptionValue("loops") != null)
+            loops = Integer.parseInt(cmd.getOptionValue("loops"));
     }
 
 }
@@ -0,0 +1,169 @@
+package com.jernejerin.traffic.client;
+
+import com.jernejerin.traffic.entities.Trip;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * A batch of consecutive trips, stored column by column in primitive arrays. It holds only
+ * the values, that are needed by query 1 and query 2, so the query operators can process the
+ * trips without a Trip, LocalDateTime, String, Route or Cell object for each event.
+ *
+ * <p> The taxi is the id of the medallion in MD5Dictionary.MEDALLIONS, the cells
+ * are the ids of the 250m cells (east * 600 + south) and the route is the id of the 500m route.
+ * The date times are in seconds from epoch, where a missing date time is Long.MIN_VALUE. The time
+ * of the ingress is System.nanoTime() when the trip was read, or 0 if the latency is not recorded.
+ * Only the trips with both locations inside the grid are added, as the queries ignore the others.
+ *
+ * @author Jernej Jerin
+ */
+public class TripBatch {
+    /** The value of a missing date time. */
+    public static final long NO_DATETIME = Long.MIN_VALUE;
+
+    private final int[] ids;
+    private final long[] timestampsReceived;
+    private final long[] nanoTimesReceived;
+    private final int[] taxis;
+    private final long[] pickupDatetimes;
+    private final long[] dropOffDatetimes;
+    private final long[] dropOffTimestamps;
+    private final float[] fareAmounts;
+    private final float[] tipAmounts;
+    private final int[] startCells;
+    private final int[] endCells;
+    private final long[] routes;
+    private int size = 0;
+
+    public TripBatch(int capacity) {
+        this.ids = new int[capacity];
+        this.timestampsReceived = new long[capacity];
+        this.nanoTimesReceived = new long[capacity];
+        this.taxis = new int[capacity];
+        this.pickupDatetimes = new long[capacity];
+        this.dropOffDatetimes = new long[capacity];
+        this.dropOffTimestamps = new long[capacity];
+        this.fareAmounts = new float[capacity];
+        this.tipAmounts = new float[capacity];
+        this.startCells = new int[capacity];
+        this.endCells = new int[capacity];
+        this.routes = new long[capacity];
+    }
+
+    /**
+     * Adds the values of the trip to the batch. The trip has to have both routes.
+     *
+     * @param trip the parsed trip
+     * @param taxi the id of the medallion of the trip
+     */
+    public void add(Trip trip, int taxi) {
+        add(trip.getId(), trip.getTimestampReceived(), trip.getNanoTimeReceived(), taxi, toEpochSecond(trip.getPickupDatetime()),
+                toEpochSecond(trip.getDropOffDatetime()), trip.getFareAmount(), trip.getTipAmount(),
+                trip.getRoute250().getStartCell().getId(), trip.getRoute250().getEndCell().getId(),
+                trip.getRoute500().getId());
+    }
+
+    /**
+     * Adds the trip to the batch. The drop off timestamp is computed as by the parser, i.e. it is
+     * 0 if the drop off date time is missing.
+     *
+     * @param id the id of the event
+     * @param timestampReceived timestamp in milliseconds when the event was read
+     * @param nanoTimeReceived System.nanoTime() when the event was read, or 0 if the latency is not recorded
+     * @param taxi the id of the medallion
+     * @param pickupDatetime the pickup date time in seconds from epoch or NO_DATETIME
+     * @param dropOffDatetime the drop off date time in seconds from epoch or NO_DATETIME
+     * @param fareAmount the fare amount
+     * @param tipAmount the tip amount
+     * @param startCell the id of the 250m start cell
+     * @param endCell the id of the 250m end cell
+     * @param route the id of the 500m route
+     */
+    public void add(int id, long timestampReceived, long nanoTimeReceived, int taxi, long pickupDatetime,
+                    long dropOffDatetime, float fareAmount, float tipAmount, int startCell, int endCell, long route) {
+        int i = this.size++;
+        this.ids[i] = id;
+        this.timestampsReceived[i] = timestampReceived;
+        this.nanoTimesReceived[i] = nanoTimeReceived;
+        this.taxis[i] = taxi;
+        this.pickupDatetimes[i] = pickupDatetime;
+        this.dropOffDatetimes[i] = dropOffDatetime;
+        this.dropOffTimestamps[i] = dropOffDatetime != NO_DATETIME ? dropOffDatetime * 1000 : 0;
+        this.fareAmounts[i] = fareAmount;
+        this.tipAmounts[i] = tipAmount;
+        this.startCells[i] = startCell;
+        this.endCells[i] = endCell;
+        this.routes[i] = route;
+    }
+
+    /**
+     * Converts the date time in seconds from epoch, as stored in the batch, into a LocalDateTime.
+     *
+     * @param datetime the date time in seconds from epoch or NO_DATETIME
+     * @return the date time or null if it is missing
+     */
+    public static LocalDateTime toDateTime(long datetime) {
+        return datetime != NO_DATETIME ? LocalDateTime.ofEpochSecond(datetime, 0, ZoneOffset.UTC) : null;
+    }
+
+    private static long toEpochSecond(LocalDateTime datetime) {
+        return datetime != null ? datetime.toEpochSecond(ZoneOffset.UTC) : NO_DATETIME;
+    }
+
+    public boolean isFull() {
+        return this.size == this.ids.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getId(int i) {
+        return this.ids[i];
+    }
+
+    public long getTimestampReceived(int i) {
+        return this.timestampsReceived[i];
+    }
+
+    public long getNanoTimeReceived(int i) {
+        return this.nanoTimesReceived[i];
+    }
+
+    public int getTaxi(int i) {
+        return this.taxis[i];
+    }
+
+    public long getPickupDatetime(int i) {
+        return this.pickupDatetimes[i];
+    }
+
+    public long getDropOffDatetime(int i) {
+        return this.dropOffDatetimes[i];
+    }
+
+    public long getDropOffTimestamp(int i) {
+        return this.dropOffTimestamps[i];
+    }
+
+    public float getFareAmount(int i) {
+        return this.fareAmounts[i];
+    }
+
+    public float getTipAmount(int i) {
+        return this.tipAmounts[i];
+    }
+
+    public int getStartCell(int i) {
+        return this.startCells[i];
+    }
+
+    public int getEndCell(int i) {
+        return this.endCells[i];
+    }
+
+    public long getRoute(int i) {
+        return this.routes[i];
+    }
+}
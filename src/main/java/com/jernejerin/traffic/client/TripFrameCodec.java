@@ -0,0 +1,85 @@
+package com.jernejerin.traffic.client;
+
+import com.jernejerin.traffic.helper.ByteSequence;
+import reactor.fn.Consumer;
+import reactor.fn.Function;
+import reactor.io.buffer.Buffer;
+import reactor.io.codec.Codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * A binary codec for sending trip lines over TCP. Each line is sent as a frame of a 4 byte
+ * big endian length followed by the ASCII bytes of the line, without the line separator.
+ *
+ * The decoder does not decode the frames into Strings. All the complete frames in a received buffer are
+ * copied at once into a single byte array and each frame is passed on as a ByteSequence view of the array.
+ * The copy is needed, because Netty releases the received buffer as soon as it is decoded, while the lines
+ * are parsed later on the ring buffer. An incomplete frame at the end of the buffer is not consumed,
+ * so it is decoded together with the next received buffer.
+ *
+ * @author Jernej Jerin
+ */
+public class TripFrameCodec extends Codec<Buffer, CharSequence, CharSequence> {
+    /** The size of the length of a frame. */
+    public static final int HEADER_SIZE = 4;
+
+    @Override
+    public Function<Buffer, CharSequence> decoder(Consumer<CharSequence> next) {
+        return buffer -> {
+            ByteBuffer bytes = buffer.byteBuffer();
+            int start = bytes.position();
+
+            // find the end of the last complete frame
+            int end = start;
+            while (bytes.limit() - end >= HEADER_SIZE) {
+                int length = bytes.getInt(end);
+                if (length < 0)
+                    throw new IllegalStateException("Invalid frame length " + length);
+                if (bytes.limit() - end - HEADER_SIZE < length)
+                    break;
+                end += HEADER_SIZE + length;
+            }
+            if (end == start)
+                return null;
+
+            // a single copy of all the complete frames
+            byte[] frames = new byte[end - start];
+            bytes.get(frames);
+            ByteBuffer view = ByteBuffer.wrap(frames);
+            CharSequence last = null;
+            for (int offset = 0; offset < frames.length; ) {
+                int length = view.getInt(offset);
+                last = new ByteSequence(view, offset + HEADER_SIZE, length);
+                offset += HEADER_SIZE + length;
+
+                if (next != null)
+                    next.accept(last);
+            }
+            return next != null ? null : last;
+        };
+    }
+
+    @Override
+    public Buffer apply(CharSequence line) {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + line.length());
+        encode(line, frame);
+        frame.flip();
+        return new Buffer(frame);
+    }
+
+    /**
+     * Writes the line as a frame into the buffer, which needs HEADER_SIZE + line.length() bytes remaining.
+     * Each char is written as a single ISO-8859-1 byte, the same as ByteSequence decodes it.
+     *
+     * @param line the trip line without the line separator
+     * @param buffer the buffer to write the frame into
+     */
+    public static void encode(CharSequence line, ByteBuffer buffer) {
+        int length = line.length();
+        buffer.putInt(length);
+        for (int i = 0; i < length; i++)
+            buffer.put((byte) line.charAt(i));
+    }
+}
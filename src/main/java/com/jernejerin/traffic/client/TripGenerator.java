@@ -0,0 +1,479 @@
+package com.jernejerin.traffic.client;
+
+import org.apache.commons.cli.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Generates synthetic taxi trips in the format of the DEBS 2015 Grand Challenge data, for
+ * benchmarks with more trips than the bundled one hour file. The trips are generated lazily, so
+ * any number of trips can be streamed to a file or directly into TaxiStream. The generator is
+ * deterministic, i.e. the same seed and settings give the same trips.
+ *
+ * The trips are sorted by the drop off time and modeled as follows:
+ *  - drop off times: the trips arrive as a Poisson process with the given average number of
+ *    trips per day, where the rate follows the hourly curve of a day (DIURNAL), with a low at
+ *    5 AM and a peak in the evening
+ *  - routes: most of the trips take one of the hot routes, that are chosen by the Zipf distribution
+ *    over their rank, so a few routes are very frequent. The routes connect 250m x 250m cells
+ *    around Midtown Manhattan and the coordinates of a trip are spread inside the cells, so all
+ *    the trips of a route have the same route for both query 1 and query 2. The other trips
+ *    (BACKGROUND) have random coordinates in New York City.
+ *  - taxis: the medallion is chosen uniformly from the population of medallions, where each taxi
+ *    has two drivers (hack licenses), one for the day and one for the night shift
+ *  - trip time, distance, fare, surcharge, tip and tolls follow from the distance of the route
+ *    by the rates of 2013 and the payment type
+ *  - malformed records: the given fraction of the trips is malformed, in one of the ways found in
+ *    the original data or handled by TripParser (Malformation). The malformed trips have valid
+ *    drop off times, so they do not break the order of the trips.
+ *
+ * It can be run to write the trips into a file. For more info, use --help.
+ * </p>
+ *
+ * @author Jernej Jerin
+ */
+public class TripGenerator {
+    private final static Logger LOGGER = Logger.getLogger(TripGenerator.class.getName());
+
+    /** The default seed of the random generator. */
+    public static final long DEFAULT_SEED = 2015;
+
+    /** The default number of medallions (taxis), about the number of taxis in New York City in 2013. */
+    public static final int DEFAULT_MEDALLIONS = 13000;
+
+    /** The default number of hot routes. */
+    public static final int DEFAULT_ROUTES = 10000;
+
+    /** The default exponent of the Zipf distribution of the hot routes. */
+    public static final double DEFAULT_ZIPF_EXPONENT = 1.0;
+
+    /** The default average number of trips per day, about the number of trips per day in 2013. */
+    public static final double DEFAULT_TRIPS_PER_DAY = 450000;
+
+    /** The default fraction of the malformed trips. */
+    public static final double DEFAULT_MALFORMED = 0.001;
+
+    /** The default drop off time of the first trip. */
+    public static final LocalDateTime DEFAULT_START = LocalDateTime.of(2013, 1, 1, 0, 0);
+
+    // the relative rate of the trips for each hour of the day, normalized to an average of 1
+    private static final double[] DIURNAL = {
+            1.11, 0.83, 0.62, 0.45, 0.33, 0.29, 0.53, 0.86, 1.02, 1.04, 1.01, 1.05,
+            1.10, 1.10, 1.13, 1.08, 0.93, 1.18, 1.42, 1.49, 1.38, 1.34, 1.35, 1.25
+    };
+
+    static {
+        double sum = Arrays.stream(DIURNAL).sum();
+        for (int hour = 0; hour < DIURNAL.length; hour++)
+            DIURNAL[hour] *= DIURNAL.length / sum;
+    }
+
+    // the fraction of the trips, that do not take a hot route
+    private static final double BACKGROUND = 0.2;
+
+    // the center of the grid cell 0.0 and the size of a 250m x 250m cell, see Cell
+    private static final double CENTER_LATITUDE = 41.474937;
+    private static final double CENTER_LONGITUDE = -74.913585;
+    private static final double SOUTH_250 = 0.004491556 / 2;
+    private static final double EAST_250 = 0.005986 / 2;
+
+    // the center and the spread of the hot cells around Midtown Manhattan in degrees
+    private static final double HOT_LATITUDE = 40.758;
+    private static final double HOT_LONGITUDE = -73.985;
+    private static final double HOT_SPREAD_LATITUDE = 0.025;
+    private static final double HOT_SPREAD_LONGITUDE = 0.015;
+
+    // the bounds of the background trips in New York City
+    private static final double NORTH = 40.90;
+    private static final double SOUTH = 40.57;
+    private static final double WEST = -74.05;
+    private static final double EAST = -73.75;
+
+    // kilometers per degree of latitude and of longitude in New York City and kilometers per mile
+    private static final double KM_LATITUDE = 111.2;
+    private static final double KM_LONGITUDE = 84.3;
+    private static final double KM_MILE = 1.609;
+
+    /**
+     * The kinds of the malformed trips and what TripParser makes of them.
+     */
+    public enum Malformation {
+        /** The line ends after less than 17 values. The trip is dropped. */
+        TRUNCATED,
+        /** The last value (total amount) is empty. The trip is dropped. */
+        MISSING_TOTAL,
+        /** The coordinates are 0, as for the trips without GPS in the original data. The trip has no route. */
+        ZERO_COORDINATES,
+        /** The latitude and longitude of the drop off are swapped. The trip has no route. */
+        OUT_OF_GRID,
+        /** The fare amount is not a number. The fare is Float.MIN_VALUE. */
+        BAD_NUMBER
+    }
+
+    private final long seed;
+    private final int medallions;
+    private final double tripsPerDay;
+    private final double malformed;
+    private final LocalDateTime start;
+
+    // the hash like ids of the taxis and of their drivers, two per taxi
+    private final String[] medallionIds;
+    private final String[] hackLicenseIds;
+
+    // the pickup and drop off cell of each hot route (east and south in the 250m grid)
+    // and the cumulative Zipf probabilities of the routes by rank
+    private final int[] pickupEast;
+    private final int[] pickupSouth;
+    private final int[] dropOffEast;
+    private final int[] dropOffSouth;
+    private final double[] routeProbabilities;
+
+    public TripGenerator(long seed) {
+        this(seed, DEFAULT_MEDALLIONS, DEFAULT_ROUTES, DEFAULT_ZIPF_EXPONENT, DEFAULT_TRIPS_PER_DAY,
+                DEFAULT_MALFORMED, DEFAULT_START);
+    }
+
+    /**
+     * Creates a generator with the given settings.
+     *
+     * @param seed the seed of the random generator
+     * @param medallions the number of medallions (taxis)
+     * @param routes the number of hot routes
+     * @param zipfExponent the exponent of the Zipf distribution of the hot routes, 0 for uniform
+     * @param tripsPerDay the average number of trips per day
+     * @param malformed the fraction of the malformed trips between 0 and 1
+     * @param start the drop off time of the first trip
+     */
+    public TripGenerator(long seed, int medallions, int routes, double zipfExponent, double tripsPerDay,
+                         double malformed, LocalDateTime start) {
+        if (medallions < 1 || routes < 1 || tripsPerDay <= 0 || malformed < 0 || malformed > 1)
+            throw new IllegalArgumentException("Invalid settings of the trip generator");
+
+        this.seed = seed;
+        this.medallions = medallions;
+        this.tripsPerDay = tripsPerDay;
+        this.malformed = malformed;
+        this.start = start;
+
+        Random random = new Random(seed);
+        this.medallionIds = new String[medallions];
+        this.hackLicenseIds = new String[2 * medallions];
+        for (int i = 0; i < medallions; i++)
+            this.medallionIds[i] = randomId(random);
+        for (int i = 0; i < 2 * medallions; i++)
+            this.hackLicenseIds[i] = randomId(random);
+
+        // the hot cells are spread normally around Midtown, a hot route connects two of them
+        int cells = Math.max(2, (int) Math.sqrt(routes) * 4);
+        int[] cellEast = new int[cells];
+        int[] cellSouth = new int[cells];
+        for (int i = 0; i < cells; i++) {
+            cellEast[i] = east(HOT_LONGITUDE + random.nextGaussian() * HOT_SPREAD_LONGITUDE);
+            cellSouth[i] = south(HOT_LATITUDE + random.nextGaussian() * HOT_SPREAD_LATITUDE);
+        }
+
+        this.pickupEast = new int[routes];
+        this.pickupSouth = new int[routes];
+        this.dropOffEast = new int[routes];
+        this.dropOffSouth = new int[routes];
+        this.routeProbabilities = new double[routes];
+        double sum = 0;
+        for (int rank = 0; rank < routes; rank++) {
+            int pickup = random.nextInt(cells);
+            int dropOff = random.nextInt(cells);
+            this.pickupEast[rank] = cellEast[pickup];
+            this.pickupSouth[rank] = cellSouth[pickup];
+            this.dropOffEast[rank] = cellEast[dropOff];
+            this.dropOffSouth[rank] = cellSouth[dropOff];
+
+            sum += 1 / Math.pow(rank + 1, zipfExponent);
+            this.routeProbabilities[rank] = sum;
+        }
+        for (int rank = 0; rank < routes; rank++)
+            this.routeProbabilities[rank] /= sum;
+    }
+
+    private static String randomId(Random random) {
+        return String.format("%016X%016X", random.nextLong(), random.nextLong());
+    }
+
+    private static int east(double longitude) {
+        return (int) Math.floor((longitude - CENTER_LONGITUDE + EAST_250) / EAST_250);
+    }
+
+    private static int south(double latitude) {
+        return (int) Math.floor((CENTER_LATITUDE + SOUTH_250 - latitude) / SOUTH_250);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Options options = new Options();
+        options.addOption("help", false, "help for usage");
+        options.addOption("fileName", true, "the path of the file, into which the trips are written");
+        options.addOption("trips", true, "the number of trips");
+        options.addOption("seed", true, "the seed of the random generator");
+        options.addOption("medallions", true, "the number of medallions (taxis)");
+        options.addOption("routes", true, "the number of hot routes");
+        options.addOption("zipfExponent", true, "the exponent of the Zipf distribution of the hot routes");
+        options.addOption("tripsPerDay", true, "the average number of trips per day");
+        options.addOption("malformed", true, "the fraction of the malformed trips");
+        options.addOption("start", true, "the drop off time of the first trip (yyyy-MM-dd HH:mm:ss)");
+
+        // parser for command line arguments
+        CommandLineParser parser = new GnuParser();
+        CommandLine cmd = null;
+        try {
+            cmd = parser.parse(options, args);
+        } catch (ParseException e) {
+            System.out.println(e.getMessage());
+            System.exit(-1);
+        }
+
+        // display help
+        if (cmd.hasOption("help") || cmd.getOptionValue("fileName") == null) {
+            HelpFormatter help = new HelpFormatter();
+            help.printHelp("java com.jernejerin.traffic.client.TripGenerator -fileName <file>", options);
+            System.exit(-1);
+        }
+
+        File file = new File(cmd.getOptionValue("fileName"));
+        long trips = Long.parseLong(cmd.getOptionValue("trips", "1000000"));
+        TripGenerator generator = new TripGenerator(
+                Long.parseLong(cmd.getOptionValue("seed", String.valueOf(DEFAULT_SEED))),
+                Integer.parseInt(cmd.getOptionValue("medallions", String.valueOf(DEFAULT_MEDALLIONS))),
+                Integer.parseInt(cmd.getOptionValue("routes", String.valueOf(DEFAULT_ROUTES))),
+                Double.parseDouble(cmd.getOptionValue("zipfExponent", String.valueOf(DEFAULT_ZIPF_EXPONENT))),
+                Double.parseDouble(cmd.getOptionValue("tripsPerDay", String.valueOf(DEFAULT_TRIPS_PER_DAY))),
+                Double.parseDouble(cmd.getOptionValue("malformed", String.valueOf(DEFAULT_MALFORMED))),
+                cmd.getOptionValue("start") != null ? LocalDateTime.parse(cmd.getOptionValue("start"),
+                        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")) : DEFAULT_START);
+
+        long start = System.currentTimeMillis();
+        if (file.getParentFile() != null)
+            file.getParentFile().mkdirs();
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.ISO_8859_1),
+                1 << 20)) {
+            generator.write(trips, writer);
+        }
+        LOGGER.log(Level.INFO, "Generated " + trips + " trips into " + file + " in " +
+                (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Writes the trips into the writer, a line per trip.
+     *
+     * @param trips the number of trips
+     * @param writer the writer of the lines
+     */
+    public void write(long trips, Writer writer) {
+        generate(trips, line -> {
+            try {
+                writer.append(line).append('\n');
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to write trips", e);
+            }
+        });
+    }
+
+    /**
+     * Generates the trips and passes each of them as a line to the consumer. Each call generates
+     * the same trips from the start.
+     *
+     * @param trips the number of trips
+     * @param consumer the consumer of the lines
+     */
+    public void generate(long trips, Consumer<CharSequence> consumer) {
+        Random random = new Random(this.seed ^ 0x5DEECE66DL);
+        StringBuilder line = new StringBuilder(200);
+        long startSecond = this.start.toEpochSecond(ZoneOffset.UTC);
+        double ratePerSecond = this.tripsPerDay / (24 * 60 * 60);
+
+        // the time of the current trip in seconds since the start
+        double time = 0;
+        for (long i = 0; i < trips; i++) {
+            // the gap to the next trip follows from the rate at the current time of the day
+            long dropOff = startSecond + (long) time;
+            double hour = Math.floorMod(dropOff, 24 * 60 * 60) / 3600.0;
+            time += -Math.log(1 - random.nextDouble()) / (ratePerSecond * diurnal(hour));
+
+            line.setLength(0);
+            appendTrip(line, random, dropOff, (int) hour);
+            consumer.accept(line.toString());
+        }
+    }
+
+    /**
+     * The relative rate of the trips at the time of the day, interpolated between the hours.
+     *
+     * @param hour the time of the day in hours
+     * @return the relative rate
+     */
+    private static double diurnal(double hour) {
+        int h = (int) hour;
+        double fraction = hour - h;
+        return DIURNAL[h] * (1 - fraction) + DIURNAL[(h + 1) % DIURNAL.length] * fraction;
+    }
+
+    /**
+     * Appends the values of a trip, that is dropped off at the given time.
+     *
+     * @param line the line to append to
+     * @param random the random generator
+     * @param dropOff the drop off time in seconds since the epoch
+     * @param hour the hour of the day of the drop off
+     */
+    private void appendTrip(StringBuilder line, Random random, long dropOff, int hour) {
+        Malformation malformation = random.nextDouble() < this.malformed ?
+                Malformation.values()[random.nextInt(Malformation.values().length)] : null;
+
+        // a taxi and the driver of its current shift
+        int medallion = random.nextInt(this.medallions);
+        int shift = hour >= 5 && hour < 17 ? 0 : 1;
+
+        double pickupLatitude, pickupLongitude, dropOffLatitude, dropOffLongitude;
+        if (random.nextDouble() < BACKGROUND) {
+            pickupLatitude = SOUTH + random.nextDouble() * (NORTH - SOUTH);
+            pickupLongitude = WEST + random.nextDouble() * (EAST - WEST);
+            dropOffLatitude = SOUTH + random.nextDouble() * (NORTH - SOUTH);
+            dropOffLongitude = WEST + random.nextDouble() * (EAST - WEST);
+        } else {
+            int rank = Arrays.binarySearch(this.routeProbabilities, random.nextDouble());
+            rank = Math.min(rank < 0 ? -rank - 1 : rank, this.routeProbabilities.length - 1);
+
+            // the coordinates keep a margin to the edges of the cell
+            pickupLatitude = latitude(this.pickupSouth[rank], 0.2 + 0.6 * random.nextDouble());
+            pickupLongitude = longitude(this.pickupEast[rank], 0.2 + 0.6 * random.nextDouble());
+            dropOffLatitude = latitude(this.dropOffSouth[rank], 0.2 + 0.6 * random.nextDouble());
+            dropOffLongitude = longitude(this.dropOffEast[rank], 0.2 + 0.6 * random.nextDouble());
+        }
+
+        // the distance along the streets and the time at 8 to 16 mph, with a minute for the pickup
+        double distance = 0.1 + (Math.abs(dropOffLatitude - pickupLatitude) * KM_LATITUDE +
+                Math.abs(dropOffLongitude - pickupLongitude) * KM_LONGITUDE) / KM_MILE;
+        int tripTime = 60 + (int) (distance / (8 + 8 * random.nextDouble()) * 3600);
+
+        // the fare is $2.50 and $0.50 per 1/5 mile or minute in slow traffic, rounded to $0.50
+        double fare = Math.round((2.5 + 2.5 * distance + 0.1 * tripTime / 60) * 2) / 2.0;
+        double surcharge = hour >= 20 || hour < 6 ? 0.5 : hour >= 16 ? 1.0 : 0;
+        double mtaTax = 0.5;
+        boolean card = random.nextDouble() < 0.55;
+        double tip = card ? Math.round(fare * (0.1 + 0.15 * random.nextDouble()) * 100) / 100.0 : 0;
+        double tolls = random.nextDouble() < 0.03 ? 5.33 : 0;
+        double total = fare + surcharge + mtaTax + tip + tolls;
+
+        if (malformation == Malformation.ZERO_COORDINATES) {
+            pickupLatitude = pickupLongitude = dropOffLatitude = dropOffLongitude = 0;
+        } else if (malformation == Malformation.OUT_OF_GRID) {
+            double latitude = dropOffLatitude;
+            dropOffLatitude = dropOffLongitude;
+            dropOffLongitude = latitude;
+        }
+
+        line.append(this.medallionIds[medallion]).append(',');
+        line.append(this.hackLicenseIds[2 * medallion + shift]).append(',');
+        appendDateTime(line, dropOff - tripTime).append(',');
+        appendDateTime(line, dropOff).append(',');
+        line.append(tripTime).append(',');
+        appendDecimal(line, distance, 2).append(',');
+        appendDecimal(line, pickupLongitude, 6).append(',');
+        appendDecimal(line, pickupLatitude, 6).append(',');
+        appendDecimal(line, dropOffLongitude, 6).append(',');
+        appendDecimal(line, dropOffLatitude, 6).append(',');
+        line.append(card ? "CRD" : "CSH").append(',');
+        if (malformation == Malformation.BAD_NUMBER)
+            line.append("N/A").append(',');
+        else
+            appendDecimal(line, fare, 2).append(',');
+        appendDecimal(line, surcharge, 2).append(',');
+        appendDecimal(line, mtaTax, 2).append(',');
+        appendDecimal(line, tip, 2).append(',');
+        appendDecimal(line, tolls, 2).append(',');
+        if (malformation != Malformation.MISSING_TOTAL)
+            appendDecimal(line, total, 2);
+
+        // cut the line after one of the first 15 values
+        if (malformation == Malformation.TRUNCATED) {
+            int values = 1 + random.nextInt(15);
+            for (int i = 0; i < line.length(); i++) {
+                if (line.charAt(i) == ',' && --values == 0) {
+                    line.setLength(i);
+                    break;
+                }
+            }
+        }
+    }
+
+    private static double latitude(int south, double offset) {
+        return CENTER_LATITUDE + SOUTH_250 - (south + offset) * SOUTH_250;
+    }
+
+    private static double longitude(int east, double offset) {
+        return CENTER_LONGITUDE - EAST_250 + (east + offset) * EAST_250;
+    }
+
+    /**
+     * Appends the time as yyyy-MM-dd HH:mm:ss.
+     *
+     * @param line the line to append to
+     * @param epochSecond the time in seconds since the epoch
+     * @return the line
+     */
+    private static StringBuilder appendDateTime(StringBuilder line, long epochSecond) {
+        LocalDateTime dateTime = LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+        line.append(dateTime.getYear()).append('-');
+        appendTwoDigits(line, dateTime.getMonthValue()).append('-');
+        appendTwoDigits(line, dateTime.getDayOfMonth()).append(' ');
+        appendTwoDigits(line, dateTime.getHour()).append(':');
+        appendTwoDigits(line, dateTime.getMinute()).append(':');
+        return appendTwoDigits(line, dateTime.getSecond());
+    }
+
+    private static StringBuilder appendTwoDigits(StringBuilder line, int value) {
+        return line.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    /**
+     * Appends the value rounded to the given number of decimals, without String.format.
+     *
+     * @param line the line to append to
+     * @param value the value
+     * @param decimals the number of decimals
+     * @return the line
+     */
+    private static StringBuilder appendDecimal(StringBuilder line, double value, int decimals) {
+        long scale = (long) Math.pow(10, decimals);
+        long scaled = Math.round(Math.abs(value) * scale);
+        if (value < 0 && scaled != 0)
+            line.append('-');
+        line.append(scaled / scale).append('.');
+        String fraction = Long.toString(scaled % scale);
+        for (int i = fraction.length(); i < decimals; i++)
+            line.append('0');
+        return line.append(fraction);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getMedallions() {
+        return medallions;
+    }
+
+    public double getMalformed() {
+        return malformed;
+    }
+}
@@ -1,8 +1,6 @@
 package com.jernejerin.traffic.entities;
 
 import com.jernejerin.traffic.helper.MedianOfStream;
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
 import reactor.fn.tuple.Tuple;
 import reactor.fn.tuple.Tuple2;
 
@@ -21,6 +19,12 @@ import java.util.*;
  * 0.0 with the cell 299.299 being the last cell in the grid.
  * </p>
  *
+ * <p>
+ * The cells inside the grid are preallocated, see Cell250.of and Cell500.of, so parsing a trip
+ * gives canonical cells, that can be compared by identity, instead of allocating new ones. The
+ * canonical cells are shared and must not be modified.
+ * </p>
+ *
  * @author Jernej Jerin
  */
 public abstract class Cell {
@@ -40,6 +44,10 @@ public abstract class Cell {
     protected static final Tuple2<Float, Float> BOTTOM_RIGHT =
             Tuple.of(TOP_LEFT.getT1() - 300f * SOUTH_500, TOP_LEFT.getT2() + 300f * EAST_500);
 
+    // the edges of the grid, unboxed
+    protected static final float NORTH = TOP_LEFT.getT1();
+    protected static final float WEST = -TOP_LEFT.getT2();
+
     protected int id;
     protected int east;
     protected int south;
@@ -89,34 +97,96 @@ public abstract class Cell {
 
     @Override
     /**
-     * Compute hash code by using Apache Commons Lang HashCodeBuilder.
+     * Compute hash code the same way as Apache Commons Lang HashCodeBuilder(17, 31)
+     * appending south and east, without creating the builder.
      */
     public int hashCode() {
-        return new HashCodeBuilder(17, 31)
-                .append(this.south)
-                .append(this.east)
-                .toHashCode();
+        return (17 * 31 + this.south) * 31 + this.east;
     }
 
     @Override
     /**
-     * Compute equals by using Apache Commons Lang EqualsBuilder.
+     * Compute equals by comparing south and east. Canonical cells are equal only to themselves.
      */
     public boolean equals(Object obj) {
-        if (!(obj instanceof Cell))
-            return false;
         if (obj == this)
             return true;
+        if (!(obj instanceof Cell))
+            return false;
 
         Cell cell = (Cell) obj;
-        return new EqualsBuilder()
-                .append(this.south, cell.south)
-                .append(this.east, cell.east)
-                .isEquals();
+        return this.south == cell.south && this.east == cell.east;
     }
 
     @Override
     public String toString() {
         return this.east + "." + this.south;
     }
+
+    /**
+     * <p>
+     * Maps the distance from the edge of the grid along one axis to the index of the cell, i.e.
+     * (int) (distance / step), using a precomputed reciprocal of the step instead of the division.
+     * The product can differ from the quotient in the last bit, so the result is corrected against
+     * the precomputed smallest distance of each index, which gives exactly the index of the division.
+     * </p>
+     */
+    protected static final class Axis {
+        private final float step;
+        private final float reciprocal;
+        private final int size;
+
+        // the smallest distance, that has the index i, for i = 0..size
+        private final float[] starts;
+
+        /**
+         * Creates the axis.
+         *
+         * @param step the size of a cell along the axis
+         * @param size the number of cells along the axis
+         */
+        protected Axis(float step, int size) {
+            this.step = step;
+            this.reciprocal = 1f / step;
+            this.size = size;
+            this.starts = new float[size + 1];
+            for (int i = 0; i <= size; i++)
+                this.starts[i] = start(i);
+        }
+
+        /**
+         * Computes the index of the cell along the axis.
+         *
+         * @param distance the distance from the edge of the grid in degrees
+         * @return the same value as (int) (distance / step)
+         */
+        protected int index(float distance) {
+            int i = (int) (distance * this.reciprocal);
+            // outside the grid (or NaN) compute it as it was
+            if (i < 0 || i >= this.size || !(distance >= 0))
+                return (int) (distance / this.step);
+
+            if (distance < this.starts[i])
+                return i - 1;
+            return distance >= this.starts[i + 1] ? i + 1 : i;
+        }
+
+        /**
+         * Searches for the smallest non negative float, where (int) (distance / step) is at least the index.
+         * The float division is monotonic, so the binary search over the bits of the non negative floats
+         * finds it.
+         */
+        private float start(int index) {
+            int low = 0;
+            int high = Float.floatToIntBits(Float.MAX_VALUE);
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if ((int) (Float.intBitsToFloat(middle) / this.step) >= index)
+                    high = middle;
+                else
+                    low = middle + 1;
+            }
+            return Float.intBitsToFloat(low);
+        }
+    }
 }
@@ -6,15 +6,53 @@ package com.jernejerin.traffic.entities;
  * @author Jernej Jerin
  */
 public class Cell250 extends Cell {
+    // number of cells in each direction of the grid
+    private static final int GRID_SIZE = 600;
+
+    private static final Axis EAST = new Axis(EAST_250, GRID_SIZE);
+    private static final Axis SOUTH = new Axis(SOUTH_250, GRID_SIZE);
+
+    // the canonical cells of the grid by their id (east * GRID_SIZE + south)
+    private static final Cell250[] CELLS = new Cell250[GRID_SIZE * GRID_SIZE];
+
+    static {
+        for (int east = 0; east < GRID_SIZE; east++)
+            for (int south = 0; south < GRID_SIZE; south++)
+                CELLS[east * GRID_SIZE + south] = new Cell250(east, south);
+    }
+
     public Cell250(int east, int south) {
         this.east = east;
         this.south = south;
+        this.id = this.east * GRID_SIZE + this.south;
     }
 
     public Cell250(float latitude, float longitude) {
-        this.east = (int)((-TOP_LEFT.getT2() + longitude) / EAST_250);
-        this.south = (int)((TOP_LEFT.getT1() - latitude) / SOUTH_250);
-        this.id = this.east * 600 + this.south;
+        this(EAST.index(WEST + longitude), SOUTH.index(NORTH - latitude));
+    }
+
+    /**
+     * Get the canonical cell. A cell outside of the grid is created.
+     *
+     * @param east the shift of the cell to east
+     * @param south the shift of the cell to south
+     * @return the cell
+     */
+    public static Cell250 of(int east, int south) {
+        if (east >= 0 && east < GRID_SIZE && south >= 0 && south < GRID_SIZE)
+            return CELLS[east * GRID_SIZE + south];
+        return new Cell250(east, south);
+    }
+
+    /**
+     * Get the canonical cell, that contains the coordinate. A cell outside of the grid is created.
+     *
+     * @param latitude latitude of the coordinate
+     * @param longitude longitude of the coordinate
+     * @return the cell
+     */
+    public static Cell250 of(float latitude, float longitude) {
+        return of(EAST.index(WEST + longitude), SOUTH.index(NORTH - latitude));
     }
 
     public float toLatitude() {
@@ -6,15 +6,53 @@ package com.jernejerin.traffic.entities;
  * @author Jernej Jerin
  */
 public class Cell500 extends Cell {
+    // number of cells in each direction of the grid
+    private static final int GRID_SIZE = 300;
+
+    private static final Axis EAST = new Axis(EAST_500, GRID_SIZE);
+    private static final Axis SOUTH = new Axis(SOUTH_500, GRID_SIZE);
+
+    // the canonical cells of the grid by their id (east * GRID_SIZE + south)
+    private static final Cell500[] CELLS = new Cell500[GRID_SIZE * GRID_SIZE];
+
+    static {
+        for (int east = 0; east < GRID_SIZE; east++)
+            for (int south = 0; south < GRID_SIZE; south++)
+                CELLS[east * GRID_SIZE + south] = new Cell500(east, south);
+    }
+
     public Cell500(int east, int south) {
         this.east = east;
         this.south = south;
+        this.id = this.east * GRID_SIZE + this.south;
     }
 
     public Cell500(float latitude, float longitude) {
-        this.east = (int)((-TOP_LEFT.getT2() + longitude) / EAST_500);
-        this.south = (int)((TOP_LEFT.getT1() - latitude) / SOUTH_500);
-        this.id = this.east * 300 + this.south;
+        this(EAST.index(WEST + longitude), SOUTH.index(NORTH - latitude));
+    }
+
+    /**
+     * Get the canonical cell. A cell outside of the grid is created.
+     *
+     * @param east the shift of the cell to east
+     * @param south the shift of the cell to south
+     * @return the cell
+     */
+    public static Cell500 of(int east, int south) {
+        if (east >= 0 && east < GRID_SIZE && south >= 0 && south < GRID_SIZE)
+            return CELLS[east * GRID_SIZE + south];
+        return new Cell500(east, south);
+    }
+
+    /**
+     * Get the canonical cell, that contains the coordinate. A cell outside of the grid is created.
+     *
+     * @param latitude latitude of the coordinate
+     * @param longitude longitude of the coordinate
+     * @return the cell
+     */
+    public static Cell500 of(float latitude, float longitude) {
+        return of(EAST.index(WEST + longitude), SOUTH.index(NORTH - latitude));
     }
 
     public float toLatitude() {
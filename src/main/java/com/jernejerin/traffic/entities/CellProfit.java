@@ -1,6 +1,6 @@
 package com.jernejerin.traffic.entities;
 
-import com.jernejerin.traffic.helper.MedianOfStream;
+import com.jernejerin.traffic.helper.SlidingMedian;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
@@ -14,9 +14,9 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
  */
 public class CellProfit {
     private int id;
-    private final MedianOfStream<Float> medianProfit;
+    private final SlidingMedian medianProfit;
 
-    public CellProfit(int id, MedianOfStream<Float> medianProfit) {
+    public CellProfit(int id, SlidingMedian medianProfit) {
         this.id = id;
         this.medianProfit = medianProfit;
     }
@@ -27,7 +27,7 @@ public class CellProfit {
 
     public void setId(int id) { this.id = id; }
 
-    public MedianOfStream<Float> getMedianProfit() {
+    public SlidingMedian getMedianProfit() {
         return medianProfit;
     }
 
@@ -38,7 +38,7 @@ public class CellProfit {
      * @return a new cell profit
      */
     public static CellProfit fromTrip(Trip trip) {
-        return new CellProfit(trip.getId(), new MedianOfStream<>(trip.getFareAmount() +
+        return new CellProfit(trip.getId(), new SlidingMedian(trip.getFareAmount() +
                 trip.getTipAmount()));
     }
 
@@ -53,8 +53,7 @@ public class CellProfit {
         CellProfit recent = cellProfit1.id > cellProfit2.id ? cellProfit1 : cellProfit2;
 
         // combine the median profits into cell profit 1 (it does not matter if we chose cell profit 1 or 2)
-        cellProfit2.medianProfit.maxHeap.forEach(cellProfit1.medianProfit::addNumberToStream);
-        cellProfit2.medianProfit.minHeap.forEach(cellProfit1.medianProfit::addNumberToStream);
+        cellProfit1.medianProfit.addAll(cellProfit2.medianProfit);
 
         return new CellProfit(recent.id, cellProfit1.medianProfit);
     }
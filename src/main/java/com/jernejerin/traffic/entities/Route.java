@@ -1,8 +1,5 @@
 package com.jernejerin.traffic.entities;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
-
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -52,30 +49,25 @@ public class Route {
 
     @Override
     /**
-     * Compute hash code by using Apache Commons Lang HashCodeBuilder.
+     * Compute hash code the same way as Apache Commons Lang HashCodeBuilder(43, 59)
+     * appending start and end cell, without creating the builder.
      */
     public int hashCode() {
-        return new HashCodeBuilder(43, 59)
-                .append(this.startCell)
-                .append(this.endCell)
-                .toHashCode();
+        return (43 * 59 + Objects.hashCode(this.startCell)) * 59 + Objects.hashCode(this.endCell);
     }
 
     @Override
     /**
-     * Compute equals by using Apache Commons Lang EqualsBuilder.
+     * Compute equals by comparing start and end cell, which are compared by identity first.
      */
     public boolean equals(Object obj) {
-        if (!(obj instanceof Route))
-            return false;
         if (obj == this)
             return true;
+        if (!(obj instanceof Route))
+            return false;
 
         Route route = (Route) obj;
-        return new EqualsBuilder()
-                .append(this.startCell, route.startCell)
-                .append(this.endCell, route.endCell)
-                .isEquals();
+        return Objects.equals(this.startCell, route.startCell) && Objects.equals(this.endCell, route.endCell);
     }
 
     @Override
@@ -1,17 +1,22 @@
 package com.jernejerin.traffic.entities;
 
+import com.jernejerin.traffic.helper.MD5Dictionary;
+
 import java.time.LocalDateTime;
 
 /**
  * A taxi trip entity. Stores the trip data, such as fare, location, identity etc.
  *
+ * <p> The medallion and the hack license are stored as ids interned in MD5Dictionary.MEDALLIONS
+ * and MD5Dictionary.HACK_LICENSES. The getters create the checksum strings from the dictionaries.
+ *
  * @author Jernej Jerin
  */
 public class Trip {
 
     private int id;        // consecutive id of the Trip
-    private String medallion;  // an md5sum identifier of the taxi - vehicle bound
-    private String hackLicense; // an md5sum identifier of the taxi license
+    private int medallionId = MD5Dictionary.NO_ID;  // an md5sum identifier of the taxi - vehicle bound
+    private int hackLicenseId = MD5Dictionary.NO_ID; // an md5sum identifier of the taxi license
     private LocalDateTime pickupDatetime; // time and date when the passenger(s) were picked up
     private LocalDateTime dropOffDatetime; // time and date when the passenger(s) were dropped off
     private long pickupTimestamp;   // pickup datetime represented as timestamp
@@ -30,6 +35,7 @@ public class Trip {
     private float tollsAmount; // bridge and tunnel tolls in dollars
     private float totalAmount; // total paid amount in dollars
     private long timestampReceived; // timestamp in milliseconds when we received the event
+    private long nanoTimeReceived;  // System.nanoTime() when we received the event, if the latency is recorded
     // event that triggered the output and the time when the output is produced
     private Route route500;    // route between start cell and end cell with 500m X 500m
     private Route route250;    // route between start cell and end cell with 250m X 250m
@@ -43,8 +49,8 @@ public class Trip {
                 float surcharge, float mtaTax, float tipAmount, float tollsAmount, float totalAmount,
                 long timestampReceived, Route route500, Route route250) {
         this.id = id;
-        this.medallion = medallion;
-        this.hackLicense = hackLicense;
+        setMedallion(medallion);
+        setHackLicense(hackLicense);
         this.pickupDatetime = pickupDatetime;
         this.dropOffDatetime = dropOffDatetime;
         this.pickupTimestamp = pickupTimestamp;
@@ -76,19 +82,35 @@ public class Trip {
     }
 
     public String getMedallion() {
-        return medallion;
+        return MD5Dictionary.MEDALLIONS.get(medallionId);
     }
 
     public void setMedallion(String medallion) {
-        this.medallion = medallion;
+        this.medallionId = MD5Dictionary.MEDALLIONS.intern(medallion);
+    }
+
+    public int getMedallionId() {
+        return medallionId;
+    }
+
+    public void setMedallionId(int medallionId) {
+        this.medallionId = medallionId;
     }
 
     public String getHackLicense() {
-        return hackLicense;
+        return MD5Dictionary.HACK_LICENSES.get(hackLicenseId);
     }
 
     public void setHackLicense(String hackLicense) {
-        this.hackLicense = hackLicense;
+        this.hackLicenseId = MD5Dictionary.HACK_LICENSES.intern(hackLicense);
+    }
+
+    public int getHackLicenseId() {
+        return hackLicenseId;
+    }
+
+    public void setHackLicenseId(int hackLicenseId) {
+        this.hackLicenseId = hackLicenseId;
     }
 
     public LocalDateTime getPickupDatetime() {
@@ -235,6 +257,14 @@ public class Trip {
         this.timestampReceived = timestampReceived;
     }
 
+    public long getNanoTimeReceived() {
+        return nanoTimeReceived;
+    }
+
+    public void setNanoTimeReceived(long nanoTimeReceived) {
+        this.nanoTimeReceived = nanoTimeReceived;
+    }
+
     public Route getRoute500() {
         return route500;
     }
@@ -252,7 +282,7 @@ public class Trip {
     }
 
     public String toString() {
-        return this.id + ", " + this.medallion + ", " + this.hackLicense + ", " +
+        return this.id + ", " + getMedallion() + ", " + getHackLicense() + ", " +
                 this.pickupDatetime + ", " + this.dropOffDatetime + ", " + this.pickupTimestamp + ", "
                 + this.dropOffTimestamp + ", " + this.tripTime + ", " + this.tripDistance + ", " + this.pickupLongitude
                 + ", " + this.pickupLatitude + ", " + this.dropOffLongitude + ", " + this.dropOffLatitude + ", " +
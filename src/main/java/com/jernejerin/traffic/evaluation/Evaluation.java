@@ -1,12 +1,14 @@
 package com.jernejerin.traffic.evaluation;
 
 import com.jernejerin.traffic.architectures.*;
+import com.jernejerin.traffic.helper.LatencyRecorder;
 import com.jernejerin.traffic.helper.MedianOfStream;
 import com.jernejerin.traffic.helper.PollingDriver;
 import com.jernejerin.traffic.helper.SimpleCellRefGenerator;
-import com.jernejerin.traffic.helper.TripOperations;
+import com.jernejerin.traffic.helper.TripStorage;
 import com.sun.tools.attach.VirtualMachine;
 import com.sun.tools.attach.VirtualMachineDescriptor;
+import org.HdrHistogram.Histogram;
 import org.apache.logging.log4j.core.util.FileUtils;
 import org.jxls.area.XlsArea;
 import org.jxls.command.Command;
@@ -19,8 +21,6 @@ import org.jxls.util.TransformerFactory;
 import sun.tools.attach.HotSpotVirtualMachine;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -30,7 +30,12 @@ import java.util.Optional;
  * following attributes:
  * <ul>
  *     <li> delay - the delay for writing each top 10. This is the average value of delays.
+ *     <li> latency - the p50, p99, p99.9 and max latency of all the events per stage.
  *     <li> total duration of execution - The total time it took to complete.
+ *     <li> resources - buffer size, CPU, heap memory, allocation rate and garbage collections per run.
+ *
+ * The delays and the latencies are recorded by the architecture while it runs, see LatencyRecorder.
+ * The resources are sampled alongside each run, see ResourceSampler.
  *
  * @author Jernej Jerin
  */
@@ -41,6 +46,9 @@ public class Evaluation {
         // set host and port from command line options
         builder.setOptionsCmd(args);
 
+        // record the delays and the latencies while running, instead of reading them from the output
+        builder.recordLatency(true);
+
         // enumerate all the locally running Java processes and get the process that is running the Evaluation program
         Optional<VirtualMachineDescriptor> evaluationProgram = VirtualMachine.list().stream().
                 filter(descriptor -> descriptor.displayName().contains("Evaluation")).findFirst();
@@ -88,30 +96,42 @@ public class Evaluation {
             printResult(measurement);
         }
 
-        // generate Excel report
+        // generate Excel report in the reports folder
+        writeReport(measurements, "output/reports/Measurements.xlsx");
+    }
+
+    /**
+     * Generates the Excel report from the template, with a sheet for each measurement named
+     * by the measurement.
+     *
+     * @param measurements the measurements to report
+     * @param fileName the file name of the report
+     * @throws IOException
+     */
+    public static void writeReport(List<Measurement> measurements, String fileName) throws IOException {
         // first we need a template
         InputStream is = Evaluation.class.getResourceAsStream("/com/jernejerin/Measurements_template.xlsx");
 
-        // write the generated report to reports folder
-        OutputStream os = new FileOutputStream("output/reports/Measurements.xlsx");
+        // write the generated report
+        OutputStream os = new FileOutputStream(fileName);
 
         // create a transformer
         Transformer transformer = TransformerFactory.createTransformer(is, os);
 
         // save the root area
-        XlsArea xlsArea = new XlsArea("Template!A1:Q12", transformer);
-        XlsArea measurementArea = new XlsArea("Template!A1:Q12", transformer);
+        XlsArea xlsArea = new XlsArea("Template!A1:AD12", transformer);
+        XlsArea measurementArea = new XlsArea("Template!A1:AD12", transformer);
 
         // creating each command for measurements providing custom cell reference generator instance
         EachCommand measurementEachCommand = new EachCommand("measurement", "measurements", measurementArea,
                 new SimpleCellRefGenerator());
-        XlsArea runMeasurementArea = new XlsArea("Template!A12:Q12", transformer);
+        XlsArea runMeasurementArea = new XlsArea("Template!A12:AD12", transformer);
 
         // each command for run measurements
         Command runMeasurementEachCommand = new EachCommand("runMeasurement", "measurement.runMeasurements",
                 runMeasurementArea);
-        measurementArea.addCommand(new AreaRef("Template!A12:Q12"), runMeasurementEachCommand);
-        xlsArea.addCommand(new AreaRef("Template!A1:Q12"), measurementEachCommand);
+        measurementArea.addCommand(new AreaRef("Template!A12:AD12"), runMeasurementEachCommand);
+        xlsArea.addCommand(new AreaRef("Template!A1:AD12"), measurementEachCommand);
 
         // get the context for binding variables with template placeholders
         Context context = transformer.createInitialContext();
@@ -140,96 +160,134 @@ public class Evaluation {
      */
     public static Measurement evaluate(Architecture architecture,
             int numTimes) throws InterruptedException, IOException {
+        return evaluate(architecture, 1, numTimes);
+    }
+
+    /**
+     * Evaluate the passed architecture multiple times after the given number of warm up runs,
+     * which are not measured.
+     *
+     * @param architecture the architecture to evaluate
+     * @param warmUp how many number of times to run the solution before the evaluation
+     * @param numTimes how many number of times to evaluate the solution
+     * @return a measurement containing all per run measurements
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public static Measurement evaluate(Architecture architecture, int warmUp,
+            int numTimes) throws InterruptedException, IOException {
         MedianOfStream<Long> medianDuration = new MedianOfStream<>();
         MedianOfStream<Double> medianDelayQuery1 = new MedianOfStream<>();
         MedianOfStream<Double> medianDelayQuery2 = new MedianOfStream<>();
+        MedianOfStream<Long> medianP99Query1 = new MedianOfStream<>();
+        MedianOfStream<Long> medianP99Query2 = new MedianOfStream<>();
+        MedianOfStream<Double> medianBufferSize = new MedianOfStream<>();
+        MedianOfStream<Double> medianCPU = new MedianOfStream<>();
+        MedianOfStream<Double> medianHeapMemory = new MedianOfStream<>();
+        MedianOfStream<Double> medianAllocationRate = new MedianOfStream<>();
+        MedianOfStream<Long> medianGcTime = new MedianOfStream<>();
+        LatencyRecorder latency = architecture.getLatencyRecorder();
 
         // holds the result for each evaluation
         List<RunMeasurement> results = new ArrayList<>(numTimes);
 
-        //  run once before taking measurements to avoid taking into account cache misses
+        //  run before taking measurements to avoid taking into account cache misses
         architecture.setFileNameQuery1Output("output/query/" + architecture.getClass().getSimpleName() + "_query1_cache.txt");
         architecture.setFileNameQuery2Output("output/query/" + architecture.getClass().getSimpleName() + "_query2_cache.txt");
-        architecture.run();
+        for (int i = 0; i < warmUp; i++)
+            architecture.run();
 
         for (int i = 0; i < numTimes; i++) {
             architecture.setFileNameQuery1Output("output/query/" + architecture.getClass().getSimpleName() + "_query1_" + i + ".txt");
             architecture.setFileNameQuery2Output("output/query/" + architecture.getClass().getSimpleName() + "_query2_" + i + ".txt");
 
             // TODO (Jernej Jerin): Trigger Java Mission Control Flight Recorder
+            latency.reset();
+            ResourceSampler resources = new ResourceSampler(architecture, ResourceSampler.DEFAULT_INTERVAL);
             long duration = architecture.run();
+            resources.close();
 
-            // query 1 and query 2 average
-            double averageDelayQuery1 = getAverage(architecture.getFileQuery1().toPath());
-            double averageDelayQuery2 = getAverage(architecture.getFileQuery2().toPath());
+            // query 1 and query 2 delays of the changes and latencies of all the events
+            MaxMinAverageMeasurement<Double, Long, Long> delayQuery1 = getDelay(latency.getChangesQuery1());
+            MaxMinAverageMeasurement<Double, Long, Long> delayQuery2 = getDelay(latency.getChangesQuery2());
+            LatencyMeasurement query1Output = getLatency(latency.getHistogram(LatencyRecorder.Stage.QUERY1_OUTPUT));
+            LatencyMeasurement query2Output = getLatency(latency.getHistogram(LatencyRecorder.Stage.QUERY2_OUTPUT));
 
             // save the duration to median
             medianDuration.addNumberToStream(duration);
 
-            // compute the average delay and save it to median
-            medianDelayQuery1.addNumberToStream(averageDelayQuery1);
-            medianDelayQuery2.addNumberToStream(averageDelayQuery2);
-
-            // TODO (Jernej Jerin): add max, min values for buffer size, CPU and heap memory
-            results.add(new RunMeasurement(i, duration, new MaxMinAverageMeasurement<>
-                    (averageDelayQuery1, getMin(architecture.getFileQuery1().toPath()),
-                            getMax(architecture.getFileQuery1().toPath())), new MaxMinAverageMeasurement<>
-                    (averageDelayQuery2, getMin(architecture.getFileQuery2().toPath()),
-                            getMax(architecture.getFileQuery2().toPath())), new MaxMinAverageMeasurement<>
-                    (0d, 0l, 0l), new MaxMinAverageMeasurement<>
-                    (0d, 0l, 0l), new MaxMinAverageMeasurement<>
-                    (0d, 0l, 0l)));
+            // compute the average delay and save it to median, leaving out a query without changes
+            if (latency.getChangesQuery1().getTotalCount() > 0)
+                medianDelayQuery1.addNumberToStream(delayQuery1.average);
+            if (latency.getChangesQuery2().getTotalCount() > 0)
+                medianDelayQuery2.addNumberToStream(delayQuery2.average);
+
+            // save the p99 latency to median, leaving out a query the architecture does not run or record
+            if (query1Output.count > 0)
+                medianP99Query1.addNumberToStream(query1Output.p99);
+            if (query2Output.count > 0)
+                medianP99Query2.addNumberToStream(query2Output.p99);
+
+            // save the average resource usage and the time of garbage collections to median
+            MaxMinAverageMeasurement<Double, Long, Long> bufferSize = resources.getBufferSize();
+            MaxMinAverageMeasurement<Double, Long, Long> cpu = resources.getCpu();
+            MaxMinAverageMeasurement<Double, Long, Long> heapMemory = resources.getHeapMemory();
+            MaxMinAverageMeasurement<Double, Long, Long> allocationRate = resources.getAllocationRate();
+            medianBufferSize.addNumberToStream(bufferSize.average);
+            medianCPU.addNumberToStream(cpu.average);
+            medianHeapMemory.addNumberToStream(heapMemory.average);
+            medianAllocationRate.addNumberToStream(allocationRate.average);
+            medianGcTime.addNumberToStream(resources.getGcTime());
+
+            results.add(new RunMeasurement(i, duration, delayQuery1, delayQuery2, bufferSize, cpu, heapMemory,
+                    allocationRate, resources.getGcCount(), resources.getGcTime(),
+                    getLatency(latency.getHistogram(LatencyRecorder.Stage.PARSE)),
+                    getLatency(latency.getHistogram(LatencyRecorder.Stage.QUERY1_UPDATE)), query1Output,
+                    getLatency(latency.getHistogram(LatencyRecorder.Stage.QUERY2_UPDATE)), query2Output));
 
             // clear output files and truncate db
             clearOutput();
-            clearDB("trip");
-            clearDB("tripchangetop10");
+            clearDB(architecture.getStorage(), "trip");
+            clearDB(architecture.getStorage(), "tripchangetop10");
         }
-        // TODO (Jernej Jerin): add median values for buffer size, CPU and heap memory
         return new Measurement(numTimes, architecture.getClass().getSimpleName(), medianDuration.getMedian(),
-                medianDelayQuery1.getMedian(), 0d, 0, 0d, 0d, results);
+                getMedian(medianDelayQuery1), getMedian(medianDelayQuery2),
+                (int) Math.round(medianBufferSize.getMedian()), medianCPU.getMedian(), medianHeapMemory.getMedian(),
+                medianAllocationRate.getMedian(), medianGcTime.getMedian(), getMedian(medianP99Query1),
+                getMedian(medianP99Query2), results);
     }
 
     /**
-     * Get the average of the delay values in output files for query 1 and 2.
+     * Get the median of the values of a query, that can be left out of every run.
      *
-     * @param filePath the file path of the file user wants to parse
-     * @return the average of delays
-     * @throws IOException
+     * @param median the median of the values
+     * @return the median or NaN, if no run has a value, e.g. for a query the architecture does not run
      */
-    public static double getAverage(Path filePath) throws IOException {
-        return Files.lines(filePath)
-                .map(line -> line.split(","))
-                .mapToLong(splits -> Long.parseLong(splits[splits.length - 1]))
-                .average().getAsDouble();
+    private static double getMedian(MedianOfStream<?> median) {
+        return median.numOfElements > 0 ? median.getMedian() : Double.NaN;
     }
 
     /**
-     * Get the minimum of the delay values in output files for query 1 and 2.
+     * Get the average, minimum and maximum of the delays of the changes for query 1 or 2.
      *
-     * @param filePath the file path of the file user wants to parse
-     * @return the minimum of delays
-     * @throws IOException
+     * @param delays the delays of the changes in milliseconds
+     * @return the average, minimum and maximum of delays
      */
-    public static long getMin(Path filePath) throws IOException {
-        return Files.lines(filePath)
-                .map(line -> line.split(","))
-                .mapToLong(splits -> Long.parseLong(splits[splits.length - 1]))
-                .min().getAsLong();
+    public static MaxMinAverageMeasurement<Double, Long, Long> getDelay(Histogram delays) {
+        if (delays.getTotalCount() == 0)
+            return new MaxMinAverageMeasurement<>(0d, 0l, 0l);
+        return new MaxMinAverageMeasurement<>(delays.getMean(), delays.getMinValue(), delays.getMaxValue());
     }
 
     /**
-     * Get the max of the delay values in output files for query 1 and 2.
+     * Get the percentiles of the latencies of the events in a stage.
      *
-     * @param filePath the file path of the file user wants to parse
-     * @return the maximum of delays
-     * @throws IOException
+     * @param latencies the latencies of the stage in microseconds
+     * @return the p50, p99, p99.9 and max latency
      */
-    public static long getMax(Path filePath) throws IOException {
-        return Files.lines(filePath)
-                .map(line -> line.split(","))
-                .mapToLong(splits -> Long.parseLong(splits[splits.length - 1]))
-                .max().getAsLong();
+    public static LatencyMeasurement getLatency(Histogram latencies) {
+        return new LatencyMeasurement(latencies.getTotalCount(), latencies.getValueAtPercentile(50),
+                latencies.getValueAtPercentile(99), latencies.getValueAtPercentile(99.9), latencies.getMaxValue());
     }
 
     /**
@@ -242,15 +300,20 @@ public class Evaluation {
         System.out.format("%20s%25s%n", "Median execution time: ", measurement.medianExecutionTime + " ms");
         System.out.format("%20s%25s%n", "Median delay query 1: ", measurement.medianDelayQuery1 + " ms");
         System.out.format("%20s%25s%n", "Median delay query 2: ", measurement.medianDelayQuery2 + " ms");
+        System.out.format("%20s%25s%n", "Median p99 query 1: ", measurement.medianP99Query1 + " us");
+        System.out.format("%20s%25s%n", "Median p99 query 2: ", measurement.medianP99Query2 + " us");
         System.out.format("%20s%25s%n", "Median buffer size: ", measurement.medianBufferSize);
         System.out.format("%20s%25s%n", "Median CPU: ", measurement.medianCPU + " %");
-        System.out.format("%20s%25s%n", "Median heap memory: ", measurement.medianCPU + " MiB");
+        System.out.format("%20s%25s%n", "Median heap memory: ", measurement.medianHeapMemory + " MiB");
+        System.out.format("%20s%25s%n", "Median allocation rate: ", measurement.medianAllocationRate + " MiB/s");
+        System.out.format("%20s%25s%n", "Median GC time: ", measurement.medianGcTime + " ms");
 
-        System.out.format("%30s%30s%30s%30s%30s%30s%30s%30s%30s%30s%30s%30s%30s%30s%30s30s%30s%n", "Run Id",
-                "Execution time", "Max query 1",
+        System.out.format("%30s%30s%30s%30s%30s%30s%30s%30s%30s%30s%30s%30s%30s%30s%30s%30s%30s%30s%30s%30s" +
+                "%30s%30s%n", "Run Id", "Execution time", "Max query 1",
                 "Min query 1", "Average query 1", "Max query 2", "Min query 2", "Average query 2",
                 "Max buffer size", "Min buffer size", "Average buffer size",
-                "Max CPU", "Min CPU", "Average CPU", "Max heap memory", "Min heap memory", "Average heap memory");
+                "Max CPU", "Min CPU", "Average CPU", "Max heap memory", "Min heap memory", "Average heap memory",
+                "Max allocation rate", "Min allocation rate", "Average allocation rate", "GC count", "GC time");
         for (RunMeasurement runMeasurement : measurement.runMeasurements) {
             System.out.format("%30d%30d", runMeasurement.id, runMeasurement.executionTime);
             System.out.format("%30d%30d%30f", runMeasurement.query1.max, runMeasurement.query1.min,
@@ -261,9 +324,28 @@ public class Evaluation {
                     runMeasurement.bufferSize.average);
             System.out.format("%30d%30d%30f", runMeasurement.cpu.max, runMeasurement.cpu.min,
                     runMeasurement.cpu.average);
-            System.out.format("%30d%30d%30f%n", runMeasurement.heapMemory.max, runMeasurement.heapMemory.min,
+            System.out.format("%30d%30d%30f", runMeasurement.heapMemory.max, runMeasurement.heapMemory.min,
                     runMeasurement.heapMemory.average);
+            System.out.format("%30d%30d%30f", runMeasurement.allocationRate.max, runMeasurement.allocationRate.min,
+                    runMeasurement.allocationRate.average);
+            System.out.format("%30d%30d%n", runMeasurement.gcCount, runMeasurement.gcTime);
         }
+
+        // latencies of the events per stage in microseconds
+        System.out.format("%30s%30s%30s%30s%30s%30s%30s%n", "Run Id", "Stage", "Count", "p50 (us)", "p99 (us)",
+                "p99.9 (us)", "Max (us)");
+        for (RunMeasurement runMeasurement : measurement.runMeasurements) {
+            printLatency(runMeasurement.id, "Parse", runMeasurement.parse);
+            printLatency(runMeasurement.id, "Query 1 update", runMeasurement.query1Update);
+            printLatency(runMeasurement.id, "Query 1 output", runMeasurement.query1Output);
+            printLatency(runMeasurement.id, "Query 2 update", runMeasurement.query2Update);
+            printLatency(runMeasurement.id, "Query 2 output", runMeasurement.query2Output);
+        }
+    }
+
+    private static void printLatency(int id, String stage, LatencyMeasurement latency) {
+        System.out.format("%30d%30s%30d%30d%30d%30d%30d%n", id, stage, latency.count, latency.p50, latency.p99,
+                latency.p999, latency.max);
     }
 
     /**
@@ -276,11 +358,12 @@ public class Evaluation {
     }
 
     /**
-     * Truncates MySql DB.
+     * Truncates the table in the trip storage of the architecture.
      *
+     * @param storage the trip storage
      * @param table table to truncate
      */
-    public static void clearDB(String table) {
-        TripOperations.truncateTable(table);
+    public static void clearDB(TripStorage storage, String table) {
+        storage.truncateTable(table);
     }
 }
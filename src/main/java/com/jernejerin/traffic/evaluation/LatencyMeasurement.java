@@ -0,0 +1,25 @@
+package com.jernejerin.traffic.evaluation;
+
+import java.io.Serializable;
+
+/**
+ * Contains the percentiles of the latency of the events in a single stage per run.
+ * The values are in microseconds.
+ */
+public class LatencyMeasurement implements Serializable {
+    public static final long serialVersionUID = 1;
+
+    public long count;
+    public long p50;
+    public long p99;
+    public long p999;
+    public long max;
+
+    public LatencyMeasurement(long count, long p50, long p99, long p999, long max) {
+        this.count = count;
+        this.p50 = p50;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+}
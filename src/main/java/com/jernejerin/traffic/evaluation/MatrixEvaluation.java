@@ -0,0 +1,342 @@
+package com.jernejerin.traffic.evaluation;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jernejerin.traffic.architectures.Architecture;
+import com.jernejerin.traffic.architectures.ArchitectureBuilder;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Evaluates every combination of architectures and options listed in a spec file, to find the best
+ * configuration per input. Each combination is evaluated in a fresh JVM, so the combinations do not
+ * share the JIT, the heap or the static state of the architectures. The spec file is a properties
+ * file, where the values of a key are separated by semicolons (an input file name can list several
+ * files separated by commas):
+ * <pre>
+ *     architectures = EDA; SEDA; AEDA; AEDA2; AEDA3
+ *     fileNameInput = trips_example.csv; trips_1_hour_2013-01-01-00-00_2013-01-01-01-00_10799.csv
+ *     stage1Threads = 2; 4
+ *     stage2Threads = 2; 4
+ *     ringBufferSize = 32; 1024
+ *     storage = none
+ *     warmUp = 1
+ *     numTimes = 10
+ *     jvmArgs = -Xmx2g
+ *     report = output/reports/Matrix
+ *     timeout = 600
+ * </pre>
+ *
+ * Any key apart from architectures, warmUp, numTimes, jvmArgs, report and timeout is an option of
+ * ArchitectureBuilder, whose values are combined with the values of the other options. The value true
+ * or false sets or omits an option without argument. The options stage1Threads and stage2Threads
+ * (SEDA) are only combined for the architecture that uses them.
+ *
+ * The results are written to the report file name with the extensions .csv (a row of medians per
+ * combination), .json (the options and all the measurements per combination) and .xlsx (a sheet per
+ * combination). At the end the best combination by median execution time is printed for each input.
+ *
+ * @author Jernej Jerin
+ */
+public class MatrixEvaluation {
+    private final static Logger LOGGER = Logger.getLogger(MatrixEvaluation.class.getName());
+
+    // keys of the spec, that configure the evaluation instead of the architectures
+    private static final Set<String> EVALUATION_KEYS = new HashSet<>(Arrays.asList("architectures", "warmUp",
+            "numTimes", "jvmArgs", "report", "timeout"));
+
+    // options, that are only combined for a single architecture
+    private static final Map<String, String> ARCHITECTURE_OPTIONS = new HashMap<>();
+
+    static {
+        ARCHITECTURE_OPTIONS.put("stage1Threads", "SEDA");
+        ARCHITECTURE_OPTIONS.put("stage2Threads", "SEDA");
+    }
+
+    /**
+     * A single combination of an architecture and the values of the options.
+     */
+    public static class Combination {
+        public String name;
+        public String architecture;
+        public Map<String, String> options;
+        public int exitCode;
+        public Measurement measurement;
+
+        private Combination(String name, String architecture, Map<String, String> options) {
+            this.name = name;
+            this.architecture = architecture;
+            this.options = options;
+        }
+
+        /**
+         * Get the options as command line arguments for ArchitectureBuilder.
+         *
+         * @return the command line arguments
+         */
+        private List<String> toArgs() {
+            List<String> args = new ArrayList<>();
+            for (Map.Entry<String, String> option : this.options.entrySet()) {
+                if (option.getValue().equals("false"))
+                    continue;
+                args.add("-" + option.getKey());
+                if (!option.getValue().equals("true"))
+                    args.add(option.getValue());
+            }
+            return args;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("-fork")) {
+            runFork(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length != 1) {
+            System.out.println("Usage: java " + MatrixEvaluation.class.getName() + " <spec file>");
+            System.exit(-1);
+        }
+
+        Properties spec = new Properties();
+        try (Reader reader = Files.newBufferedReader(Paths.get(args[0]))) {
+            spec.load(reader);
+        }
+        int warmUp = Integer.parseInt(spec.getProperty("warmUp", "1"));
+        int numTimes = Integer.parseInt(spec.getProperty("numTimes", "10"));
+        long timeout = Long.parseLong(spec.getProperty("timeout", "0"));
+        String jvmArgs = spec.getProperty("jvmArgs", "").trim();
+        String report = spec.getProperty("report", "output/reports/Matrix");
+
+        List<Combination> combinations = combinations(spec);
+        LOGGER.log(Level.INFO, "Evaluating " + combinations.size() + " combinations");
+
+        Path result = Files.createTempFile("measurement", ".ser");
+        try {
+            for (Combination combination : combinations) {
+                LOGGER.log(Level.INFO, "Evaluating " + combination.name + " " + combination.options);
+                fork(combination, jvmArgs.isEmpty() ? Collections.<String>emptyList() :
+                        Arrays.asList(jvmArgs.split("\\s+")), warmUp, numTimes, timeout, result);
+            }
+        } finally {
+            Files.deleteIfExists(result);
+        }
+
+        // write the results
+        Path reportPath = Paths.get(report);
+        if (reportPath.getParent() != null)
+            Files.createDirectories(reportPath.getParent());
+        writeCsv(combinations, report + ".csv");
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(new File(report + ".json"), combinations);
+        ArrayList<Measurement> measurements = new ArrayList<>();
+        for (Combination combination : combinations) {
+            if (combination.measurement != null)
+                measurements.add(combination.measurement);
+        }
+        if (!measurements.isEmpty())
+            Evaluation.writeReport(measurements, report + ".xlsx");
+
+        printBest(combinations);
+    }
+
+    /**
+     * Expands the spec into all the combinations of the architectures and the values of the options.
+     * The options are combined in the order of their names.
+     *
+     * @param spec the spec of the evaluation
+     * @return the combinations in the order of the architectures
+     */
+    public static List<Combination> combinations(Properties spec) {
+        SortedMap<String, List<String>> options = new TreeMap<>();
+        for (String key : spec.stringPropertyNames()) {
+            if (!EVALUATION_KEYS.contains(key))
+                options.put(key, values(spec.getProperty(key)));
+        }
+
+        List<Combination> combinations = new ArrayList<>();
+        for (String architecture : values(spec.getProperty("architectures", "EDA"))) {
+            // the options of other architectures are not combined
+            List<Map<String, String>> partial = new ArrayList<>();
+            partial.add(new LinkedHashMap<>());
+            for (Map.Entry<String, List<String>> option : options.entrySet()) {
+                String only = ARCHITECTURE_OPTIONS.get(option.getKey());
+                if (only != null && !only.equals(architecture))
+                    continue;
+                List<Map<String, String>> next = new ArrayList<>();
+                for (Map<String, String> combination : partial) {
+                    for (String value : option.getValue()) {
+                        Map<String, String> extended = new LinkedHashMap<>(combination);
+                        extended.put(option.getKey(), value);
+                        next.add(extended);
+                    }
+                }
+                partial = next;
+            }
+            for (Map<String, String> combination : partial)
+                combinations.add(new Combination(architecture + "-" + (combinations.size() + 1), architecture,
+                        combination));
+        }
+        return combinations;
+    }
+
+    private static List<String> values(String property) {
+        List<String> values = new ArrayList<>();
+        for (String value : property.split(";")) {
+            if (!value.trim().isEmpty())
+                values.add(value.trim());
+        }
+        return values;
+    }
+
+    /**
+     * Evaluates the combination in a new JVM with the same class path, which writes the
+     * measurement into the result file.
+     */
+    private static void fork(Combination combination, List<String> jvmArgs, int warmUp, int numTimes,
+                             long timeout, Path result) throws IOException, InterruptedException {
+        Files.deleteIfExists(result);
+
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(MatrixEvaluation.class.getName());
+        command.add("-fork");
+        command.add(combination.name);
+        command.add(combination.architecture);
+        command.add(Integer.toString(warmUp));
+        command.add(Integer.toString(numTimes));
+        command.add(result.toString());
+        command.addAll(combination.toArgs());
+
+        Process process = new ProcessBuilder(command).inheritIO().start();
+        if (timeout > 0 && !process.waitFor(timeout, TimeUnit.SECONDS)) {
+            process.destroyForcibly().waitFor();
+            LOGGER.log(Level.SEVERE, combination.name + " timed out after " + timeout + " s");
+        }
+        combination.exitCode = process.waitFor();
+
+        if (combination.exitCode == 0 && Files.exists(result)) {
+            try (ObjectInputStream in = new ObjectInputStream(Files.newInputStream(result))) {
+                combination.measurement = (Measurement) in.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException("Unable to read measurement", e);
+            }
+        } else {
+            LOGGER.log(Level.SEVERE, combination.name + " failed with exit code " + combination.exitCode);
+        }
+    }
+
+    /**
+     * Evaluates a single combination in the forked JVM. The arguments are the name of the combination,
+     * the architecture, the number of warm up runs and measured runs, the result file and the options
+     * of ArchitectureBuilder.
+     */
+    private static void runFork(String[] args) throws Exception {
+        String name = args[0];
+        String architectureName = args[1];
+        int warmUp = Integer.parseInt(args[2]);
+        int numTimes = Integer.parseInt(args[3]);
+        String result = args[4];
+
+        ArchitectureBuilder builder = new ArchitectureBuilder();
+        builder.setOptionsCmd(Arrays.copyOfRange(args, 5, args.length));
+        builder.recordLatency(true);
+        Architecture architecture = (Architecture) Class.forName("com.jernejerin.traffic.architectures." +
+                architectureName).getConstructor(ArchitectureBuilder.class).newInstance(builder);
+
+        Measurement measurement = Evaluation.evaluate(architecture, warmUp, numTimes);
+        measurement.name = name;
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(result))) {
+            out.writeObject(measurement);
+        }
+
+        // the architectures can leave non daemon threads behind
+        System.exit(0);
+    }
+
+    /**
+     * Writes a row of the options and the medians for each combination.
+     */
+    private static void writeCsv(List<Combination> combinations, String fileName) throws IOException {
+        // options of all the combinations in the order of their names
+        SortedSet<String> options = new TreeSet<>();
+        for (Combination combination : combinations)
+            options.addAll(combination.options.keySet());
+
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(fileName)))) {
+            StringJoiner header = new StringJoiner(",");
+            header.add("name").add("architecture");
+            options.forEach(header::add);
+            header.add("exitCode").add("medianExecutionTime").add("medianDelayQuery1").add("medianDelayQuery2")
+                    .add("medianP99Query1").add("medianP99Query2").add("medianBufferSize").add("medianCPU")
+                    .add("medianHeapMemory").add("medianAllocationRate").add("medianGcTime");
+            writer.println(header);
+
+            for (Combination combination : combinations) {
+                StringJoiner row = new StringJoiner(",");
+                row.add(combination.name).add(combination.architecture);
+                for (String option : options)
+                    row.add(csvValue(combination.options.getOrDefault(option, "")));
+                row.add(Integer.toString(combination.exitCode));
+                Measurement measurement = combination.measurement;
+                if (measurement != null) {
+                    row.add(Double.toString(measurement.medianExecutionTime))
+                            .add(csvValue(measurement.medianDelayQuery1))
+                            .add(csvValue(measurement.medianDelayQuery2))
+                            .add(csvValue(measurement.medianP99Query1))
+                            .add(csvValue(measurement.medianP99Query2))
+                            .add(Integer.toString(measurement.medianBufferSize))
+                            .add(Double.toString(measurement.medianCPU))
+                            .add(Double.toString(measurement.medianHeapMemory))
+                            .add(Double.toString(measurement.medianAllocationRate))
+                            .add(Double.toString(measurement.medianGcTime));
+                }
+                writer.println(row);
+            }
+        }
+    }
+
+    private static String csvValue(String value) {
+        if (value.contains(",") || value.contains("\""))
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        return value;
+    }
+
+    /**
+     * @return the value or an empty value for NaN, i.e. a query that the architecture does not run or record
+     */
+    private static String csvValue(double value) {
+        return Double.isNaN(value) ? "" : Double.toString(value);
+    }
+
+    /**
+     * Prints the combination with the lowest median execution time for each input.
+     */
+    private static void printBest(List<Combination> combinations) {
+        Map<String, Combination> best = new LinkedHashMap<>();
+        for (Combination combination : combinations) {
+            if (combination.measurement == null)
+                continue;
+            String input = combination.options.getOrDefault("fileNameInput", "default input");
+            Combination current = best.get(input);
+            if (current == null || combination.measurement.medianExecutionTime <
+                    current.measurement.medianExecutionTime)
+                best.put(input, combination);
+        }
+
+        for (Map.Entry<String, Combination> entry : best.entrySet()) {
+            Combination combination = entry.getValue();
+            System.out.format("%s: %s %s %s (%s ms, p99 query 1 %s us, p99 query 2 %s us)%n", entry.getKey(),
+                    combination.name, combination.architecture, combination.options,
+                    combination.measurement.medianExecutionTime, combination.measurement.medianP99Query1,
+                    combination.measurement.medianP99Query2);
+        }
+    }
+}
@@ -1,11 +1,15 @@
 package com.jernejerin.traffic.evaluation;
 
+import java.io.Serializable;
+
 /**
  * Contains max, min and average measurements per run.
  *
  * @param <T>
  */
-public class MaxMinAverageMeasurement<T, K, L> {
+public class MaxMinAverageMeasurement<T, K, L> implements Serializable {
+    public static final long serialVersionUID = 1;
+
     public T average;
     public K min;
     public L max;
@@ -1,12 +1,15 @@
 package com.jernejerin.traffic.evaluation;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Represents a measurement for single architecture for the evaluation purpose.
  */
-public class Measurement {
+public class Measurement implements Serializable {
+    public static final long serialVersionUID = 1;
+
     // number of runs
     public int n;
 
@@ -15,10 +18,10 @@ public class Measurement {
     // median duration of execution from n runs
     public double medianExecutionTime;
 
-    // median delay for query 1 from average delay per run
+    // median delay for query 1 from average delay per run, NaN if there were no changes
     public double medianDelayQuery1;
 
-    // median delay for query 2 from average delay per run
+    // median delay for query 2 from average delay per run, NaN if there were no changes
     public double medianDelayQuery2;
 
     // median delay for buffer size
@@ -30,12 +33,24 @@ public class Measurement {
     // median heap memory usage
     public double medianHeapMemory;
 
+    // median allocation rate
+    public double medianAllocationRate;
+
+    // median total time of garbage collections
+    public double medianGcTime;
+
+    // median p99 latency in microseconds of the events for query 1 from p99 latency per run, NaN if not recorded
+    public double medianP99Query1;
+
+    // median p99 latency in microseconds of the events for query 2 from p99 latency per run, NaN if not recorded
+    public double medianP99Query2;
+
     // a list of measurements for each run
     public List<RunMeasurement> runMeasurements;
 
     public Measurement(int n, String name, double medianExecutionTime, double medianDelayQuery1,
                        double medianDelayQuery2, int medianBufferSize, double medianCPU, double medianHeapMemory,
-                       List<RunMeasurement> runMeasurements) {
+                       double medianAllocationRate, double medianGcTime, double medianP99Query1, double medianP99Query2, List<RunMeasurement> runMeasurements) {
         this.n = n;
         this.name = name;
         this.medianExecutionTime = medianExecutionTime;
@@ -44,6 +59,10 @@ public class Measurement {
         this.medianBufferSize = medianBufferSize;
         this.medianCPU = medianCPU;
         this.medianHeapMemory = medianHeapMemory;
+        this.medianAllocationRate = medianAllocationRate;
+        this.medianGcTime = medianGcTime;
+        this.medianP99Query1 = medianP99Query1;
+        this.medianP99Query2 = medianP99Query2;
         this.runMeasurements = runMeasurements;
     }
 }
@@ -0,0 +1,187 @@
+package com.jernejerin.traffic.evaluation;
+
+import com.jernejerin.traffic.architectures.Architecture;
+import com.jernejerin.traffic.client.TaxiStream;
+import com.sun.management.OperatingSystemMXBean;
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the resource usage of the process, while an architecture runs. The following
+ * values are sampled in a fixed interval:
+ * <ul>
+ *     <li> buffer size - the number of elements waiting in the ring buffer of the taxi stream
+ *     <li> CPU - the CPU load of the process in %, where 100 % is one fully used core
+ *     <li> heap memory - the used heap memory in MiB
+ *     <li> allocation rate - the memory allocated by all the threads in MiB/s since the previous sample
+ * </ul>
+ *
+ * Apart from that it counts the garbage collections and their total time from start until close.
+ *
+ * @author Jernej Jerin
+ */
+public class ResourceSampler implements AutoCloseable {
+    /** The default time in milliseconds between two samples. */
+    public static final long DEFAULT_INTERVAL = 100;
+
+    private static final double MIB = 1024 * 1024;
+
+    private final Architecture architecture;
+    private final OperatingSystemMXBean os = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    private final ScheduledExecutorService timer;
+
+    private final Samples bufferSize = new Samples();
+    private final Samples cpu = new Samples();
+    private final Samples heapMemory = new Samples();
+    private final Samples allocationRate = new Samples();
+
+    // allocated bytes and time of the previous sample
+    private long allocatedBytes;
+    private long sampleTime;
+
+    // collections and their time at start, replaced by the totals of the run on close
+    private long gcCount;
+    private long gcTime;
+
+    /**
+     * Starts sampling the resource usage of the architecture.
+     *
+     * @param architecture the architecture, that is run
+     * @param interval the time in milliseconds between two samples
+     */
+    public ResourceSampler(Architecture architecture, long interval) {
+        this.architecture = architecture;
+        this.allocatedBytes = allocatedBytes();
+        this.sampleTime = System.nanoTime();
+        this.gcCount = gcCount();
+        this.gcTime = gcTime();
+
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "resource-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.scheduleAtFixedRate(this::sample, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void sample() {
+        TaxiStream taxiStream = this.architecture.getTaxiStream();
+        if (taxiStream != null)
+            this.bufferSize.add(taxiStream.getBufferSize());
+
+        // the load is not available on the first call or on some platforms
+        double load = this.os.getProcessCpuLoad();
+        if (load >= 0)
+            this.cpu.add(Math.round(load * this.os.getAvailableProcessors() * 100));
+
+        this.heapMemory.add(Math.round(this.memory.getHeapMemoryUsage().getUsed() / MIB));
+
+        // threads that ended since the previous sample are not counted any more, so the difference can be negative
+        long allocatedBytes = allocatedBytes();
+        long sampleTime = System.nanoTime();
+        if (sampleTime > this.sampleTime)
+            this.allocationRate.add(Math.round(Math.max(0, allocatedBytes - this.allocatedBytes) / MIB /
+                    ((sampleTime - this.sampleTime) / 1e9)));
+        this.allocatedBytes = allocatedBytes;
+        this.sampleTime = sampleTime;
+    }
+
+    private long allocatedBytes() {
+        if (!this.threads.isThreadAllocatedMemorySupported() || !this.threads.isThreadAllocatedMemoryEnabled())
+            return 0;
+        long sum = 0;
+        for (long bytes : this.threads.getThreadAllocatedBytes(this.threads.getAllThreadIds()))
+            sum += Math.max(0, bytes);
+        return sum;
+    }
+
+    private long gcCount() {
+        long sum = 0;
+        for (GarbageCollectorMXBean collector : this.collectors)
+            sum += Math.max(0, collector.getCollectionCount());
+        return sum;
+    }
+
+    private long gcTime() {
+        long sum = 0;
+        for (GarbageCollectorMXBean collector : this.collectors)
+            sum += Math.max(0, collector.getCollectionTime());
+        return sum;
+    }
+
+    /**
+     * Stops sampling. Takes the last sample, so a short run has at least one. If interrupted while
+     * waiting for the sampling to stop, the interrupt flag is restored.
+     */
+    @Override
+    public void close() {
+        this.timer.shutdown();
+        try {
+            this.timer.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            sample();
+            this.gcCount = gcCount() - this.gcCount;
+            this.gcTime = gcTime() - this.gcTime;
+        }
+    }
+
+    public synchronized MaxMinAverageMeasurement<Double, Long, Long> getBufferSize() {
+        return this.bufferSize.toMeasurement();
+    }
+
+    public synchronized MaxMinAverageMeasurement<Double, Long, Long> getCpu() {
+        return this.cpu.toMeasurement();
+    }
+
+    public synchronized MaxMinAverageMeasurement<Double, Long, Long> getHeapMemory() {
+        return this.heapMemory.toMeasurement();
+    }
+
+    public synchronized MaxMinAverageMeasurement<Double, Long, Long> getAllocationRate() {
+        return this.allocationRate.toMeasurement();
+    }
+
+    /** @return the number of garbage collections while sampling, available after close */
+    public synchronized long getGcCount() {
+        return this.gcCount;
+    }
+
+    /** @return the total time of garbage collections in milliseconds while sampling, available after close */
+    public synchronized long getGcTime() {
+        return this.gcTime;
+    }
+
+    // max, min and sum of the sampled values
+    private static class Samples {
+        private long count = 0;
+        private long sum = 0;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+
+        private void add(long value) {
+            this.count++;
+            this.sum += value;
+            this.min = Math.min(this.min, value);
+            this.max = Math.max(this.max, value);
+        }
+
+        private MaxMinAverageMeasurement<Double, Long, Long> toMeasurement() {
+            if (this.count == 0)
+                return new MaxMinAverageMeasurement<>(0d, 0l, 0l);
+            return new MaxMinAverageMeasurement<>((double) this.sum / this.count, this.min, this.max);
+        }
+    }
+}
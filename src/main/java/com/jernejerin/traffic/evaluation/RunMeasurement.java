@@ -1,12 +1,15 @@
 package com.jernejerin.traffic.evaluation;
 
+import java.io.Serializable;
 import java.util.Locale;
 
 /**
  * Contains all measurements per run.
  *
  */
-public class RunMeasurement {
+public class RunMeasurement implements Serializable {
+    public static final long serialVersionUID = 1;
+
     public int id;
     public long executionTime;
     public MaxMinAverageMeasurement<Double, Long, Long> query1;
@@ -14,10 +17,25 @@ public class RunMeasurement {
     public MaxMinAverageMeasurement<Double, Long, Long> bufferSize;
     public MaxMinAverageMeasurement<Double, Long, Long> cpu;
     public MaxMinAverageMeasurement<Double, Long, Long> heapMemory;
+    public MaxMinAverageMeasurement<Double, Long, Long> allocationRate;
+
+    // number of garbage collections and their total time in milliseconds
+    public long gcCount;
+    public long gcTime;
+
+    // latency of the events from ingress until they passed the stage
+    public LatencyMeasurement parse;
+    public LatencyMeasurement query1Update;
+    public LatencyMeasurement query1Output;
+    public LatencyMeasurement query2Update;
+    public LatencyMeasurement query2Output;
 
     public RunMeasurement(int id, long executionTime, MaxMinAverageMeasurement<Double, Long, Long> query1,
                           MaxMinAverageMeasurement<Double, Long, Long> query2, MaxMinAverageMeasurement<Double, Long, Long> bufferSize,
-                          MaxMinAverageMeasurement<Double, Long, Long> cpu, MaxMinAverageMeasurement<Double, Long, Long> heapMemory) {
+                          MaxMinAverageMeasurement<Double, Long, Long> cpu, MaxMinAverageMeasurement<Double, Long, Long> heapMemory,
+                          MaxMinAverageMeasurement<Double, Long, Long> allocationRate, long gcCount, long gcTime,
+                          LatencyMeasurement parse, LatencyMeasurement query1Update, LatencyMeasurement query1Output,
+                          LatencyMeasurement query2Update, LatencyMeasurement query2Output) {
         this.id = id;
         this.executionTime = executionTime;
         this.query1 = query1;
@@ -25,5 +43,13 @@ public class RunMeasurement {
         this.bufferSize = bufferSize;
         this.cpu = cpu;
         this.heapMemory = heapMemory;
+        this.allocationRate = allocationRate;
+        this.gcCount = gcCount;
+        this.gcTime = gcTime;
+        this.parse = parse;
+        this.query1Update = query1Update;
+        this.query1Output = query1Output;
+        this.query2Update = query2Update;
+        this.query2Output = query2Output;
     }
 }
\ No newline at end of file
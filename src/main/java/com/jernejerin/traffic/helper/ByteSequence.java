@@ -0,0 +1,78 @@
+package com.jernejerin.traffic.helper;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>
+ * A read only view of a region of bytes as a CharSequence. Each byte is
+ * exposed as a single char (ISO-8859-1), which is correct for the ASCII encoded trip data. The
+ * view does not copy the underlying bytes, so it can be reused for every line of the
+ * input by calling wrap with a new offset and length.
+ *
+ * Only toString decodes the region into a new String, with the same ISO-8859-1 decoding as charAt,
+ * so the String has the same length and chars as the view.
+ *
+ * @author Jernej Jerin
+ */
+public class ByteSequence implements CharSequence {
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+    public ByteSequence() { }
+
+    public ByteSequence(ByteBuffer buffer, int offset, int length) {
+        wrap(buffer, offset, length);
+    }
+
+    public ByteSequence(byte[] bytes, int offset, int length) {
+        wrap(ByteBuffer.wrap(bytes), offset, length);
+    }
+
+    /**
+     * Point the view to a new region of bytes.
+     *
+     * @param buffer the buffer that holds the bytes
+     * @param offset absolute offset of the first byte in the buffer
+     * @param length number of bytes in the region
+     * @return this view
+     */
+    public ByteSequence wrap(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (this.buffer.get(this.offset + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new ByteSequence(this.buffer, this.offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        byte[] bytes = new byte[this.length];
+        for (int i = 0; i < this.length; i++)
+            bytes[i] = this.buffer.get(this.offset + i);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
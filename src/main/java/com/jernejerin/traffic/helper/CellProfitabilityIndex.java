@@ -0,0 +1,310 @@
+package com.jernejerin.traffic.helper;
+
+import com.jernejerin.traffic.entities.Cell;
+import com.jernejerin.traffic.entities.Cell250;
+import com.jernejerin.traffic.entities.CellProfitability;
+import com.jernejerin.traffic.entities.Trip;
+
+import java.util.*;
+
+/**
+ * <p>
+ * Incremental index of the profitability of the 250m cells for query 2. The profitability
+ * of a cell is the median profit of the trips that started in the cell in the last 15 minutes,
+ * divided by the number of empty taxis in the cell. The number of empty taxis is the number of
+ * taxis that had a drop off in the cell in the last 30 minutes and had no following pickup yet.
+ * Only the cells with at least one empty taxi are ranked, as in EDAPrimer.
+ *
+ * The caller keeps both time windows and tells the index which trips enter and leave them.
+ * Each change refreshes only the cells it affects: the start cell, the end cell and the end cell
+ * of the previous trip of the same taxi. The state of the cells is kept in arrays indexed by
+ * the position of the cell in the 600 x 600 grid, the medians are kept in a SlidingMedian per cell
+ * and the cells are ranked in a balanced tree, so no change needs a scan over all the cells.
+ *
+ * The index works on primitive values: the taxi is the id of the medallion in MD5Dictionary.MEDALLIONS,
+ * where the trips without a medallion (NO_ID) count as a single taxi, and the cell is the id of
+ * the 250m cell. The trips in the empty taxis window are numbered and kept in a ring, where the drop
+ * offs in each cell are linked from the most recent one backwards.
+ *
+ * The index is not thread safe.
+ *
+ * @author Jernej Jerin
+ */
+public class CellProfitabilityIndex {
+    // number of 250m cells in each direction of the grid
+    private static final int GRID_SIZE = 600;
+
+    // the trips in the empty taxis window, numbered from head to tail and stored in the ring at
+    // number & mask: the slot of the taxi in lastTrips, the id, the end cell and the previous drop off
+    // in the same end cell
+    private int[] windowTaxis = new int[1024];
+    private int[] windowIds = new int[1024];
+    private int[] windowEndCells = new int[1024];
+    private long[] windowPreviousDropOffs = new long[1024];
+    private int mask = 1023;
+    private long head = 0;
+    private long tail = 0;
+
+    // the number of the most recent trip of each taxi in the empty taxis window or -1, at the
+    // medallion id + 1, so NO_ID has a slot as well
+    private long[] lastTrips = new long[1024];
+
+    // per cell state for empty taxis: the number of taxis and the number of the most recent trip,
+    // that ended in the cell, where trips, that are not the most recent trip of the taxi anymore,
+    // are skipped lazily
+    private final int[] emptyTaxis = new int[GRID_SIZE * GRID_SIZE];
+    private final long[] lastDropOffs = new long[GRID_SIZE * GRID_SIZE];
+
+    // per cell state for profit: median fare + tip and the id of the most recent trip
+    private final SlidingMedian[] profits = new SlidingMedian[GRID_SIZE * GRID_SIZE];
+    private final int[] profitIds = new int[GRID_SIZE * GRID_SIZE];
+
+    // the current profitability of each ranked cell
+    private final CellProfitability[] cellProfitabilities = new CellProfitability[GRID_SIZE * GRID_SIZE];
+
+    // ranking by CellProfitability natural order. Cells with the same profitability and id are
+    // kept apart by the position of the cell, as the tree would otherwise treat them as one.
+    private final TreeSet<CellProfitability> ranking = new TreeSet<>(Comparator.<CellProfitability>naturalOrder()
+            .thenComparingInt(cp -> index(cp.getCell())));
+
+    public CellProfitabilityIndex() {
+        Arrays.fill(this.lastTrips, -1);
+        Arrays.fill(this.lastDropOffs, -1);
+    }
+
+    /**
+     * Adds the trip to the empty taxis window. The taxi becomes empty in the end cell of the trip
+     * and is not empty anymore in the end cell of its previous trip.
+     *
+     * @param trip the trip entering the window for empty taxis
+     */
+    public void addEmptyTaxi(Trip trip) {
+        addEmptyTaxi(trip.getMedallionId(), trip.getId(), index(trip.getRoute250().getEndCell()));
+    }
+
+    /**
+     * Adds the trip to the empty taxis window. See addEmptyTaxi(Trip).
+     *
+     * @param taxi the id of the medallion of the trip or NO_ID
+     * @param tripId the id of the trip
+     * @param endCell the id of the 250m end cell of the trip
+     */
+    public void addEmptyTaxi(int taxi, int tripId, int endCell) {
+        if (this.tail - this.head == this.windowIds.length)
+            growWindow();
+        int taxiSlot = taxi + 1;
+        if (taxiSlot >= this.lastTrips.length) {
+            int length = this.lastTrips.length;
+            this.lastTrips = Arrays.copyOf(this.lastTrips, Math.max(length << 1, taxiSlot + 1));
+            Arrays.fill(this.lastTrips, length, this.lastTrips.length, -1);
+        }
+
+        // the trip becomes the most recent trip of the taxi before the end cell of the previous
+        // trip is refreshed, so the previous trip is not counted as the last drop off there anymore
+        long number = this.tail++;
+        long previous = this.lastTrips[taxiSlot];
+        this.lastTrips[taxiSlot] = number;
+        if (previous != -1) {
+            int previousCell = this.windowEndCells[(int) previous & this.mask];
+            this.emptyTaxis[previousCell]--;
+            refresh(previousCell);
+        }
+
+        int slot = (int) number & this.mask;
+        this.windowTaxis[slot] = taxiSlot;
+        this.windowIds[slot] = tripId;
+        this.windowEndCells[slot] = endCell;
+        this.windowPreviousDropOffs[slot] = this.lastDropOffs[endCell];
+        this.lastDropOffs[endCell] = number;
+        this.emptyTaxis[endCell]++;
+        refresh(endCell);
+    }
+
+    /**
+     * Removes the trip from the empty taxis window. If it is still the most recent trip of the taxi,
+     * the taxi is not counted as empty anymore. Trips have to leave the window in the order they entered,
+     * so the trip must be the oldest trip in the window.
+     *
+     * @param trip the trip leaving the window for empty taxis
+     * @throws IllegalArgumentException if the trip is not the oldest trip in the window
+     */
+    public void removeEmptyTaxi(Trip trip) {
+        if (this.head == this.tail || this.windowIds[(int) this.head & this.mask] != trip.getId())
+            throw new IllegalArgumentException("Trip " + trip.getId() + " is not the oldest trip in the window");
+        removeEmptyTaxi();
+    }
+
+    /**
+     * Removes the oldest trip from the empty taxis window. See removeEmptyTaxi(Trip).
+     *
+     * @throws IllegalStateException if the window is empty
+     */
+    public void removeEmptyTaxi() {
+        if (this.head == this.tail)
+            throw new IllegalStateException("The empty taxis window is empty");
+        long number = this.head++;
+        int slot = (int) number & this.mask;
+        int taxi = this.windowTaxis[slot];
+        if (this.lastTrips[taxi] == number) {
+            int cell = this.windowEndCells[slot];
+            this.lastTrips[taxi] = -1;
+            this.emptyTaxis[cell]--;
+            refresh(cell);
+        }
+    }
+
+    /**
+     * Adds the profit of the trip to the start cell of the trip.
+     *
+     * @param trip the trip entering the window for profit
+     */
+    public void addProfit(Trip trip) {
+        addProfit(index(trip.getRoute250().getStartCell()), trip.getFareAmount() + trip.getTipAmount(), trip.getId());
+    }
+
+    /**
+     * Adds the profit of the trip to the start cell of the trip.
+     *
+     * @param startCell the id of the 250m start cell of the trip
+     * @param profit the fare amount + the tip amount of the trip
+     * @param tripId the id of the trip
+     */
+    public void addProfit(int startCell, float profit, int tripId) {
+        if (this.profits[startCell] == null)
+            this.profits[startCell] = new SlidingMedian();
+        this.profits[startCell].add(profit);
+        this.profitIds[startCell] = tripId;
+        refresh(startCell);
+    }
+
+    /**
+     * Removes the profit of the trip from the start cell of the trip. Trips have to leave the window
+     * in the order they entered, so the id of the most recent trip in the cell stays the same.
+     *
+     * @param trip the trip leaving the window for profit
+     */
+    public void removeProfit(Trip trip) {
+        removeProfit(index(trip.getRoute250().getStartCell()), trip.getFareAmount() + trip.getTipAmount());
+    }
+
+    /**
+     * Removes the profit of the trip from the start cell of the trip. See removeProfit(Trip).
+     *
+     * @param startCell the id of the 250m start cell of the trip
+     * @param profit the fare amount + the tip amount of the trip
+     */
+    public void removeProfit(int startCell, float profit) {
+        this.profits[startCell].remove(profit);
+        refresh(startCell);
+    }
+
+    /**
+     * Get the top k most profitable cells sorted from the most to the least profitable.
+     *
+     * @param k the number of top cells
+     * @return a new list of at most k cell profitabilities
+     */
+    public List<CellProfitability> top(int k) {
+        List<CellProfitability> top = new ArrayList<>(k);
+        Iterator<CellProfitability> iterator = this.ranking.descendingIterator();
+        while (top.size() < k && iterator.hasNext())
+            top.add(iterator.next());
+        return top;
+    }
+
+    /**
+     * Copies the ids of the top k most profitable cells into the array, sorted from the most to the
+     * least profitable. Two tops are equal as lists of cell profitabilities, if they hold the same ids.
+     *
+     * @param cells the array of at least k elements for the ids
+     * @param k the number of top cells
+     * @return the number of copied ids, at most k
+     */
+    public int topCells(int[] cells, int k) {
+        int size = 0;
+        Iterator<CellProfitability> iterator = this.ranking.descendingIterator();
+        while (size < k && iterator.hasNext())
+            cells[size++] = index(iterator.next().getCell());
+        return size;
+    }
+
+    /**
+     * Recomputes the profitability of the cell and updates its position in the ranking.
+     *
+     * @param cell the id of the cell to refresh
+     */
+    private void refresh(int cell) {
+        // the profitability is replaced, so the lists returned by top are not changed
+        CellProfitability previous = this.cellProfitabilities[cell];
+        if (previous != null)
+            this.ranking.remove(previous);
+
+        int count = this.emptyTaxis[cell];
+        if (count == 0) {
+            this.cellProfitabilities[cell] = null;
+            return;
+        }
+
+        Cell c = Cell250.of(cell / GRID_SIZE, cell % GRID_SIZE);
+
+        int emptyTaxisId = lastDropOffId(cell);
+        SlidingMedian profit = this.profits[cell];
+        CellProfitability cellProfitability;
+        if (profit != null && !profit.isEmpty()) {
+            int profitId = this.profitIds[cell];
+            double median = profit.getMedian();
+            cellProfitability = new CellProfitability(c, emptyTaxisId > profitId ? emptyTaxisId : profitId,
+                    count, median, median / count);
+        } else {
+            // cell profit does not exist, just set median profit and profitability to 0
+            cellProfitability = new CellProfitability(c, emptyTaxisId, count, 0, 0);
+        }
+        this.cellProfitabilities[cell] = cellProfitability;
+        this.ranking.add(cellProfitability);
+    }
+
+    /**
+     * Finds the id of the most recent trip, that ended in the cell and is still the most recent
+     * trip of its taxi. Trips that were followed by another trip of the same taxi are skipped for good,
+     * as they can never again be the most recent trip. The cell has at least one empty taxi, so the
+     * search never leaves the window.
+     *
+     * @param cell the id of the cell
+     * @return the id of the most recent drop off of an empty taxi in the cell
+     */
+    private int lastDropOffId(int cell) {
+        long number = this.lastDropOffs[cell];
+        while (this.lastTrips[this.windowTaxis[(int) number & this.mask]] != number)
+            number = this.windowPreviousDropOffs[(int) number & this.mask];
+        this.lastDropOffs[cell] = number;
+        return this.windowIds[(int) number & this.mask];
+    }
+
+    /**
+     * Doubles the capacity of the ring, where each trip keeps its number.
+     */
+    private void growWindow() {
+        int capacity = this.windowIds.length << 1;
+        int[] taxis = new int[capacity];
+        int[] ids = new int[capacity];
+        int[] endCells = new int[capacity];
+        long[] previousDropOffs = new long[capacity];
+        for (long number = this.head; number < this.tail; number++) {
+            int from = (int) number & this.mask;
+            int to = (int) number & (capacity - 1);
+            taxis[to] = this.windowTaxis[from];
+            ids[to] = this.windowIds[from];
+            endCells[to] = this.windowEndCells[from];
+            previousDropOffs[to] = this.windowPreviousDropOffs[from];
+        }
+        this.windowTaxis = taxis;
+        this.windowIds = ids;
+        this.windowEndCells = endCells;
+        this.windowPreviousDropOffs = previousDropOffs;
+        this.mask = capacity - 1;
+    }
+
+    private static int index(Cell cell) {
+        return cell.getEast() * GRID_SIZE + cell.getSouth();
+    }
+}
@@ -0,0 +1,69 @@
+package com.jernejerin.traffic.helper;
+
+import com.jernejerin.traffic.entities.Trip;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * A trip storage, that does not store the trips, but only counts them per table. It is used
+ * to run the pipeline without a database and to measure the cost of the DB stage by comparing
+ * it with a run against a database.
+ *
+ * @author Jernej Jerin
+ */
+public class CountingTripStorage implements TripStorage {
+    private final static Logger LOGGER = Logger.getLogger(CountingTripStorage.class.getName());
+
+    private final Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+
+    @Override
+    public void insertTrip(Trip trip, String table) {
+        count(table).increment();
+    }
+
+    @Override
+    public void truncateTable(String table) {
+        this.counts.remove(table);
+    }
+
+    @Override
+    public TripWriter openWriter(String table, int batchSize, long lingerTime) {
+        LongAdder count = count(table);
+        long start = System.currentTimeMillis();
+        return new TripWriter() {
+            private long rows = 0;
+
+            @Override
+            public void add(Trip trip) {
+                count.increment();
+                this.rows++;
+            }
+
+            @Override
+            public void close() {
+                LOGGER.log(Level.INFO, "Counted for table = " + table + ": rows = " + this.rows + " in " +
+                        (System.currentTimeMillis() - start) + " ms");
+            }
+        };
+    }
+
+    /**
+     * Get the number of trips inserted into table since it was last truncated.
+     *
+     * @param table the table
+     * @return the number of inserted trips
+     */
+    public long getCount(String table) {
+        LongAdder count = this.counts.get(table);
+        return count == null ? 0 : count.sum();
+    }
+
+    private LongAdder count(String table) {
+        return this.counts.computeIfAbsent(table, t -> new LongAdder());
+    }
+}
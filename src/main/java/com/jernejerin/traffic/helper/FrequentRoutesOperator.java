@@ -0,0 +1,151 @@
+package com.jernejerin.traffic.helper;
+
+import com.jernejerin.traffic.client.TripBatch;
+import com.jernejerin.traffic.entities.RouteCount;
+
+import java.time.LocalDateTime;
+
+/**
+ * <p>
+ * The query 1 operator (frequent routes), that processes the trips in columnar batches. It gives
+ * the same changes of the top 10 routes as the query 1 in EDA, but the window holds only the primitive
+ * values of the trips and the top 10 before and after a change is compared by the route ids, so an
+ * event allocates nothing unless its route enters the window or the top 10 changes.
+ *
+ * The operator is not thread safe.
+ *
+ * @author Jernej Jerin
+ */
+public class FrequentRoutesOperator {
+    // the length of the window in milliseconds
+    private static final long WINDOW = 30 * 60 * 1000;
+
+    private final RouteRanking routesRanking = new RouteRanking(100000);
+    private final Top10Listener<RouteCount> listener;
+
+    // the trips in the window from head to tail, stored in the ring at position & mask
+    private long[] dropOffTimestamps = new long[1024];
+    private long[] routes = new long[1024];
+    private long[] pickupDatetimes = new long[1024];
+    private long[] dropOffDatetimes = new long[1024];
+    private int mask = 1023;
+    private long head = 0;
+    private long tail = 0;
+
+    // the ids of the top 10 routes before the change
+    private final long[] top10 = new long[10];
+    private final long[] changedTop10 = new long[10];
+
+    /**
+     * Creates the operator.
+     *
+     * @param listener the listener of the changes of the top 10 routes
+     */
+    public FrequentRoutesOperator(Top10Listener<RouteCount> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Processes all the trips in the batch in their order.
+     *
+     * @param batch the batch of trips
+     */
+    public void process(TripBatch batch) {
+        for (int i = 0; i < batch.size(); i++)
+            process(batch, i);
+    }
+
+    /**
+     * Processes the trip in the batch, i.e. updates the window and passes a change of the top 10
+     * to the listener. The trips must be processed in their order.
+     *
+     * @param batch the batch of trips
+     * @param i the index of the trip in the batch
+     */
+    public void process(TripBatch batch, int i) {
+        long dropOffTimestamp = batch.getDropOffTimestamp(i);
+
+        // trips leaving the window
+        while (this.head < this.tail && this.dropOffTimestamps[(int) this.head & this.mask] <
+                dropOffTimestamp - WINDOW) {
+            int slot = (int) this.head++ & this.mask;
+
+            // counting down a route that is not in top 10 can not change the top 10,
+            // so we only save current top 10 for future comparison if the route is in it
+            RouteCount routeCount = this.routesRanking.get(this.routes[slot]);
+            int size = this.routesRanking.isInTop(routeCount, 10) ? this.routesRanking.topIds(this.top10, 10) : -1;
+
+            // update the route count for the route of the trip, leaving the window
+            this.routesRanking.decrement(this.routes[slot]);
+
+            // check if top 10 has changed
+            if (size != -1 && changed(size)) {
+                this.listener.changed(this.routesRanking.top(10), plusMinutes(this.pickupDatetimes[slot], 30),
+                        plusMinutes(this.dropOffDatetimes[slot], 30), batch.getTimestampReceived(i));
+            }
+        }
+
+        // add to window
+        if (this.tail - this.head == this.routes.length)
+            growWindow();
+        int slot = (int) this.tail++ & this.mask;
+        this.dropOffTimestamps[slot] = dropOffTimestamp;
+        this.routes[slot] = batch.getRoute(i);
+        this.pickupDatetimes[slot] = batch.getPickupDatetime(i);
+        this.dropOffDatetimes[slot] = batch.getDropOffDatetime(i);
+
+        // store current top 10 and update the route count and trip id for the route of the incoming trip
+        int size = this.routesRanking.topIds(this.top10, 10);
+        this.routesRanking.increment(batch.getRoute(i), batch.getId(i));
+
+        if (changed(size)) {
+            this.listener.changed(this.routesRanking.top(10), TripBatch.toDateTime(batch.getPickupDatetime(i)),
+                    TripBatch.toDateTime(batch.getDropOffDatetime(i)), batch.getTimestampReceived(i));
+        }
+    }
+
+    /**
+     * Compares the stored top 10 with the current one.
+     *
+     * @param size the number of the routes in the stored top 10
+     * @return true if the current top 10 is different
+     */
+    private boolean changed(int size) {
+        int changedSize = this.routesRanking.topIds(this.changedTop10, 10);
+        if (changedSize != size)
+            return true;
+        for (int i = 0; i < size; i++) {
+            if (this.top10[i] != this.changedTop10[i])
+                return true;
+        }
+        return false;
+    }
+
+    private static LocalDateTime plusMinutes(long datetime, long minutes) {
+        return TripBatch.toDateTime(datetime != TripBatch.NO_DATETIME ? datetime + minutes * 60 : datetime);
+    }
+
+    /**
+     * Doubles the capacity of the ring, where each trip keeps its position.
+     */
+    private void growWindow() {
+        int capacity = this.routes.length << 1;
+        long[] dropOffTimestamps = new long[capacity];
+        long[] routes = new long[capacity];
+        long[] pickupDatetimes = new long[capacity];
+        long[] dropOffDatetimes = new long[capacity];
+        for (long position = this.head; position < this.tail; position++) {
+            int from = (int) position & this.mask;
+            int to = (int) position & (capacity - 1);
+            dropOffTimestamps[to] = this.dropOffTimestamps[from];
+            routes[to] = this.routes[from];
+            pickupDatetimes[to] = this.pickupDatetimes[from];
+            dropOffDatetimes[to] = this.dropOffDatetimes[from];
+        }
+        this.dropOffTimestamps = dropOffTimestamps;
+        this.routes = routes;
+        this.pickupDatetimes = pickupDatetimes;
+        this.dropOffDatetimes = dropOffDatetimes;
+        this.mask = capacity - 1;
+    }
+}
@@ -0,0 +1,124 @@
+package com.jernejerin.traffic.helper;
+
+import com.jernejerin.traffic.entities.Trip;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * A trip storage in a database, that is accessed through the connection pool registered by
+ * PollingDriver. The database can be MySQL or an embedded database, such as H2 in file mode.
+ *
+ * @author Jernej Jerin
+ */
+public class JdbcTripStorage implements TripStorage {
+    private final static Logger LOGGER = Logger.getLogger(JdbcTripStorage.class.getName());
+
+    /** The URI of the connection pool registered by PollingDriver. */
+    public static final String POOL_URI = "jdbc:apache:commons:dbcp:taxi";
+
+    /**
+     * Creates the table for trips, if it does not exist yet. An embedded database starts empty,
+     * while the tables in MySQL are expected to be created in advance.
+     *
+     * @param table the name of the table
+     * @throws SQLException if creating the table fails
+     */
+    public void createTable(String table) throws SQLException {
+        try (Connection conn = DriverManager.getConnection(POOL_URI);
+             Statement createTable = conn.createStatement()) {
+            createTable.execute("create table if not exists " + table + " (eventId int, medallion varchar(32), " +
+                    "hack_license varchar(32), pickup_datetime timestamp, dropoff_datetime timestamp, " +
+                    "trip_time int, trip_distance double, pickup_longitude double, pickup_latitude double, " +
+                    "dropoff_longitude double, dropoff_latitude double, payment_type varchar(16), " +
+                    "fare_amount double, surcharge double, mta_tax double, tip_amount double, " +
+                    "tolls_amount double, total_amount double, timestampReceived bigint)");
+        }
+    }
+
+    /**
+     * Truncate table in database.
+     *
+     * @param table table to truncate
+     */
+    @Override
+    public void truncateTable(String table) {
+        PreparedStatement truncateTable = null;
+        Connection conn = null;
+        try {
+            // first we need to get connection from connection pool
+            conn = DriverManager.getConnection(POOL_URI);
+
+            // setting up prepared statement
+            truncateTable = conn.prepareStatement("truncate table " + table);
+            truncateTable.execute();
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Problem when truncating table = " +
+                    table + " from thread = " + Thread.currentThread());
+        } finally {
+            try {
+                if (truncateTable != null) truncateTable.close();
+            }
+            catch(Exception e) {
+                LOGGER.log(Level.SEVERE, "Problem with closing prepared statement for truncating table = " +
+                        table + " from thread = " + Thread.currentThread());
+            }
+            try {
+                if (conn != null) conn.close();
+            }
+            catch(Exception e) {
+                LOGGER.log(Level.SEVERE, "Problem with closing connection from thread = " + Thread.currentThread());
+            }
+        }
+    }
+
+    /**
+     * Insert a trip into database.
+     *
+     * @param trip trip to insert.
+     * @param table table into which we need to insert trip
+     */
+    @Override
+    public void insertTrip(Trip trip, String table) {
+        PreparedStatement insertTrip = null;
+        Connection conn = null;
+        try {
+            // first we need to get connection from connection pool
+            conn = DriverManager.getConnection(POOL_URI);
+
+            // setting up prepared statement
+            insertTrip = conn.prepareStatement(TripOperations.insertTripSql(table));
+            TripOperations.setTripParameters(insertTrip, trip);
+
+            insertTrip.execute();
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Problem when inserting ticket into DB for ticket = " +
+                    trip + " from thread = " + Thread.currentThread());
+        } finally {
+            try {
+                if (insertTrip != null) insertTrip.close();
+            }
+            catch(Exception e) {
+                LOGGER.log(Level.SEVERE, "Problem with closing prepared statement for ticket = " +
+                        trip + " from thread = " + Thread.currentThread());
+            }
+            try {
+                if (conn != null) conn.close();
+            }
+            catch(Exception e) {
+                LOGGER.log(Level.SEVERE, "Problem with closing connection from thread = " + Thread.currentThread());
+            }
+        }
+    }
+
+    @Override
+    public TripWriter openWriter(String table, int batchSize, long lingerTime) {
+        return new TripBatchWriter(table, batchSize, lingerTime);
+    }
+}
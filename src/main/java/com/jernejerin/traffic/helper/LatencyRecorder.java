@@ -0,0 +1,111 @@
+package com.jernejerin.traffic.helper;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Records the latency of each event in histograms, one per stage of the pipeline. The event is
+ * stamped with System.nanoTime() when its line is read by TaxiStream (ingress) and the latency of a
+ * stage is the time from ingress until the event has passed the stage:
+ *  - PARSE: the event is parsed and validated
+ *  - QUERY1_UPDATE, QUERY2_UPDATE: the query has updated its window and its top 10
+ *  - QUERY1_OUTPUT, QUERY2_OUTPUT: the query is done with the event, i.e. the change of the top 10 was
+ *    written or submitted to the asynchronous output. Events that did not change the top 10 are recorded too.
+ *
+ * The stage latencies are recorded in microseconds with 3 significant digits, so the percentiles
+ * of the tail are kept. Apart from that it records the delays of the written changes per query in
+ * milliseconds, which are the delays at the end of each output line.
+ *
+ * The histograms can be recorded from several threads.
+ *
+ * @author Jernej Jerin
+ */
+public class LatencyRecorder {
+    /**
+     * The stages of the pipeline, after which the latency is recorded.
+     */
+    public enum Stage {
+        PARSE, QUERY1_UPDATE, QUERY1_OUTPUT, QUERY2_UPDATE, QUERY2_OUTPUT
+    }
+
+    private final Map<Stage, Histogram> stages = new EnumMap<>(Stage.class);
+    private final Histogram changesQuery1 = new ConcurrentHistogram(3);
+    private final Histogram changesQuery2 = new ConcurrentHistogram(3);
+
+    public LatencyRecorder() {
+        for (Stage stage : Stage.values())
+            this.stages.put(stage, new ConcurrentHistogram(3));
+    }
+
+    /**
+     * Records the latency of the event, that has passed the stage.
+     *
+     * @param stage the stage that the event has passed
+     * @param nanoTimeReceived System.nanoTime() when the event was received
+     */
+    public void record(Stage stage, long nanoTimeReceived) {
+        this.stages.get(stage).recordValue(Math.max(0, (System.nanoTime() - nanoTimeReceived) / 1000));
+    }
+
+    /**
+     * Records the delay of a change of the top 10 routes.
+     *
+     * @param delay the delay in milliseconds
+     */
+    public void recordChangeQuery1(long delay) {
+        this.changesQuery1.recordValue(Math.max(0, delay));
+    }
+
+    /**
+     * Records the delay of a change of the top 10 cells.
+     *
+     * @param delay the delay in milliseconds
+     */
+    public void recordChangeQuery2(long delay) {
+        this.changesQuery2.recordValue(Math.max(0, delay));
+    }
+
+    /** @return the latencies of the stage in microseconds */
+    public Histogram getHistogram(Stage stage) {
+        return this.stages.get(stage);
+    }
+
+    /** @return the delays of the changes of query 1 in milliseconds */
+    public Histogram getChangesQuery1() {
+        return this.changesQuery1;
+    }
+
+    /** @return the delays of the changes of query 2 in milliseconds */
+    public Histogram getChangesQuery2() {
+        return this.changesQuery2;
+    }
+
+    /**
+     * Clears all the histograms, e.g. before the next run of the architecture.
+     */
+    public void reset() {
+        for (Histogram histogram : this.stages.values())
+            histogram.reset();
+        this.changesQuery1.reset();
+        this.changesQuery2.reset();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Stage, Histogram> entry : this.stages.entrySet()) {
+            Histogram histogram = entry.getValue();
+            sb.append(sb.length() == 0 ? "" : ", ").append(entry.getKey()).append(" (us) count/p50/p99/p99.9/max = ")
+                    .append(histogram.getTotalCount()).append('/')
+                    .append(histogram.getValueAtPercentile(50)).append('/')
+                    .append(histogram.getValueAtPercentile(99)).append('/')
+                    .append(histogram.getValueAtPercentile(99.9)).append('/')
+                    .append(histogram.getMaxValue());
+        }
+        return sb.toString();
+    }
+}
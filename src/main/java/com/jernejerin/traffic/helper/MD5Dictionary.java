@@ -0,0 +1,238 @@
+package com.jernejerin.traffic.helper;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * <p>
+ * Interns MD5 checksums into dense int ids, starting at 0 in the order of the first occurrence.
+ * The 32 hex digits of a checksum are decoded into two longs, which are the key of an open
+ * addressing table, so neither interning a checksum from the line nor looking it up creates a String
+ * or hashes its chars. The String is created again only when asked for by get.
+ *
+ * The checksums are compared by their value and their case, so a checksum keeps its exact spelling:
+ * the same checksum in upper and in lower case gets two ids, as two Strings would. A checksum with
+ * both upper and lower case hex digits is not a canonical checksum and is not interned, as its case
+ * can not be kept by a single flag.
+ *
+ * Lookups do not lock. A lookup that does not find the checksum, inserts it under the lock of the
+ * dictionary, where it looks again. The ids in the table are published after their keys, so a lookup,
+ * that finds an id, also sees its checksum. The dictionaries are cleared at the start of each run
+ * (see clear), so the ids of a run do not depend on the previous runs in the same JVM.
+ *
+ * @author Jernej Jerin
+ */
+public class MD5Dictionary {
+    /** The id of a missing or malformed checksum. */
+    public static final int NO_ID = -1;
+
+    /** The dictionary of taxi medallions. */
+    public static final MD5Dictionary MEDALLIONS = new MD5Dictionary(1 << 15);
+
+    /** The dictionary of hack licenses. */
+    public static final MD5Dictionary HACK_LICENSES = new MD5Dictionary(1 << 16);
+
+    // the maximum ratio of occupied slots before the table grows
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private static final char[] LOWER_CASE_DIGITS = "0123456789abcdef".toCharArray();
+    private static final char[] UPPER_CASE_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final int capacity;
+    private volatile Table table;
+
+    /**
+     * Creates a dictionary.
+     *
+     * @param expectedSize the expected number of checksums
+     */
+    public MD5Dictionary(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        this.capacity = capacity;
+        this.table = new Table(capacity);
+    }
+
+    /**
+     * Interns the checksum.
+     *
+     * @param md5 the checksum or null
+     * @return the id of the checksum or NO_ID if it is null or not 32 hex digits in a single case
+     */
+    public int intern(CharSequence md5) {
+        return md5 == null ? NO_ID : intern(md5, 0, md5.length());
+    }
+
+    /**
+     * Interns the checksum between start and end of the line.
+     *
+     * @param line the sequence holding the checksum
+     * @param start index of the first char of the checksum
+     * @param end index after the last char of the checksum
+     * @return the id of the checksum or NO_ID if it is not 32 hex digits in a single case
+     */
+    public int intern(CharSequence line, int start, int end) {
+        if (end - start != 32)
+            return NO_ID;
+
+        long high = 0;
+        long low = 0;
+        boolean lowerCase = false;
+        boolean upperCase = false;
+        for (int i = 0; i < 32; i++) {
+            char c = line.charAt(start + i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+                lowerCase = true;
+            } else if (c >= 'A' && c <= 'F') {
+                digit = c - 'A' + 10;
+                upperCase = true;
+            } else {
+                return NO_ID;
+            }
+
+            if (i < 16)
+                high = high << 4 | digit;
+            else
+                low = low << 4 | digit;
+        }
+        return lowerCase && upperCase ? NO_ID : intern(high, low, lowerCase);
+    }
+
+    /**
+     * Interns the checksum given by its value.
+     *
+     * @param high the first 8 bytes of the checksum
+     * @param low the last 8 bytes of the checksum
+     * @param lowerCase is the checksum in lower case
+     * @return the id of the checksum
+     */
+    public int intern(long high, long low, boolean lowerCase) {
+        int id = this.table.find(high, low, lowerCase);
+        return id != NO_ID ? id : insert(high, low, lowerCase);
+    }
+
+    /**
+     * Get the checksum of the id.
+     *
+     * @param id the id of the checksum
+     * @return the checksum in its case or null for NO_ID
+     */
+    public String get(int id) {
+        if (id == NO_ID)
+            return null;
+
+        Table table = this.table;
+        char[] digits = table.lowerCases[id] ? LOWER_CASE_DIGITS : UPPER_CASE_DIGITS;
+        char[] md5 = new char[32];
+        for (int i = 0; i < 16; i++) {
+            md5[i] = digits[(int) (table.highs[id] >>> (60 - 4 * i)) & 0xF];
+            md5[16 + i] = digits[(int) (table.lows[id] >>> (60 - 4 * i)) & 0xF];
+        }
+        return new String(md5);
+    }
+
+    /** @return the first 8 bytes of the checksum of the id */
+    public long getHigh(int id) {
+        return this.table.highs[id];
+    }
+
+    /** @return the last 8 bytes of the checksum of the id */
+    public long getLow(int id) {
+        return this.table.lows[id];
+    }
+
+    /** @return true if the checksum of the id is in lower case */
+    public boolean isLowerCase(int id) {
+        return this.table.lowerCases[id];
+    }
+
+    /** @return the number of interned checksums */
+    public int size() {
+        return this.table.size;
+    }
+
+    /**
+     * Removes all the checksums, so the ids start at 0 again. The ids given before are not valid
+     * anymore, so the dictionary must not be used by other threads while it is cleared.
+     */
+    public synchronized void clear() {
+        this.table = new Table(this.capacity);
+    }
+
+    private synchronized int insert(long high, long low, boolean lowerCase) {
+        Table table = this.table;
+        int id = table.find(high, low, lowerCase);
+        if (id != NO_ID)
+            return id;
+
+        if (table.size + 1 > table.resizeThreshold) {
+            table = table.grow();
+            this.table = table;
+        }
+        id = table.size++;
+        table.highs[id] = high;
+        table.lows[id] = low;
+        table.lowerCases[id] = lowerCase;
+        table.put(high, low, id);
+        return id;
+    }
+
+    /**
+     * The open addressing table with linear probing. The slots hold the id + 1, where 0 is an
+     * empty slot, and the checksums are stored by their id.
+     */
+    private static class Table {
+        private final AtomicIntegerArray slots;
+        private final int mask;
+        private final int resizeThreshold;
+        private final long[] highs;
+        private final long[] lows;
+        private final boolean[] lowerCases;
+        private int size = 0;
+
+        private Table(int capacity) {
+            this.slots = new AtomicIntegerArray(capacity);
+            this.mask = capacity - 1;
+            this.resizeThreshold = (int) (capacity * LOAD_FACTOR);
+            this.highs = new long[this.resizeThreshold];
+            this.lows = new long[this.resizeThreshold];
+            this.lowerCases = new boolean[this.resizeThreshold];
+        }
+
+        private int find(long high, long low, boolean lowerCase) {
+            for (int i = slot(high, low); ; i = (i + 1) & this.mask) {
+                int id = this.slots.get(i) - 1;
+                if (id == NO_ID || this.highs[id] == high && this.lows[id] == low &&
+                        this.lowerCases[id] == lowerCase)
+                    return id;
+            }
+        }
+
+        private void put(long high, long low, int id) {
+            int i = slot(high, low);
+            while (this.slots.get(i) != 0)
+                i = (i + 1) & this.mask;
+            this.slots.set(i, id + 1);
+        }
+
+        private Table grow() {
+            Table table = new Table((this.mask + 1) << 1);
+            for (int id = 0; id < this.size; id++) {
+                table.highs[id] = this.highs[id];
+                table.lows[id] = this.lows[id];
+                table.lowerCases[id] = this.lowerCases[id];
+                table.put(this.highs[id], this.lows[id], id);
+            }
+            table.size = this.size;
+            return table;
+        }
+
+        private int slot(long high, long low) {
+            // the checksum is already uniformly distributed
+            long h = high ^ low;
+            return (int) (h ^ (h >>> 32)) & this.mask;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.jernejerin.traffic.helper;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A reusable byte buffer for formatting the query output. Numbers and dates are formatted
+ * directly into the buffer without building intermediate Strings, in the same format as
+ * String concatenation. The output is ASCII, so each char is written as a single byte.
+ *
+ * @author Jernej Jerin
+ */
+public class OutputBuffer {
+    protected byte[] buffer;
+    protected int count = 0;
+
+    public OutputBuffer(int capacity) {
+        this.buffer = new byte[capacity];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public OutputBuffer append(char c) {
+        ensureCapacity(1);
+        this.buffer[this.count++] = (byte) c;
+        return this;
+    }
+
+    public OutputBuffer append(CharSequence s) {
+        int length = s.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++)
+            this.buffer[this.count++] = (byte) s.charAt(i);
+        return this;
+    }
+
+    public OutputBuffer append(long value) {
+        if (value == Long.MIN_VALUE)
+            return append(Long.toString(value));
+        ensureCapacity(20);
+        if (value < 0) {
+            this.buffer[this.count++] = '-';
+            value = -value;
+        }
+
+        // write digits from the end and then move them in place
+        int start = this.count;
+        do {
+            this.buffer[this.count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = this.count - 1; i < j; i++, j--) {
+            byte digit = this.buffer[i];
+            this.buffer[i] = this.buffer[j];
+            this.buffer[j] = digit;
+        }
+        return this;
+    }
+
+    public OutputBuffer append(double value) {
+        // the shortest representation, as in String concatenation
+        return append(Double.toString(value));
+    }
+
+    /**
+     * Appends the date time in the same format as LocalDateTime.toString, where seconds are
+     * left out when they are 0.
+     *
+     * @param dateTime the date time to append
+     * @return this buffer
+     */
+    public OutputBuffer append(LocalDateTime dateTime) {
+        if (dateTime.getNano() != 0 || dateTime.getYear() < 1000 || dateTime.getYear() > 9999)
+            return append(dateTime.toString());
+
+        append(dateTime.getYear());
+        append('-');
+        appendTwoDigits(dateTime.getMonthValue());
+        append('-');
+        appendTwoDigits(dateTime.getDayOfMonth());
+        append('T');
+        appendTwoDigits(dateTime.getHour());
+        append(':');
+        appendTwoDigits(dateTime.getMinute());
+        if (dateTime.getSecond() != 0) {
+            append(':');
+            appendTwoDigits(dateTime.getSecond());
+        }
+        return this;
+    }
+
+    public OutputBuffer append(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, this.buffer, this.count, bytes.length);
+        this.count += bytes.length;
+        return this;
+    }
+
+    /**
+     * Copies the formatted bytes and empties the buffer.
+     *
+     * @return the formatted bytes
+     */
+    public byte[] take() {
+        byte[] bytes = Arrays.copyOf(this.buffer, this.count);
+        this.count = 0;
+        return bytes;
+    }
+
+    private void appendTwoDigits(int value) {
+        ensureCapacity(2);
+        this.buffer[this.count++] = (byte) ('0' + value / 10);
+        this.buffer[this.count++] = (byte) ('0' + value % 10);
+    }
+
+    protected void ensureCapacity(int length) {
+        if (this.count + length > this.buffer.length)
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length << 1, this.count + length));
+    }
+}
@@ -0,0 +1,91 @@
+package com.jernejerin.traffic.helper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * <p>
+ * A long lived writer for the query output. The file is opened once in append mode and
+ * the lines are formatted directly into a reusable byte buffer (see OutputBuffer), instead
+ * of building a String and opening the file for each line. The buffer is written to the file
+ * when it reaches the flush size or when the flush interval has passed since the last flush,
+ * whichever comes first. The interval is checked when a line is ended, so the last lines are
+ * written by flush or close.
+ *
+ * Lines are formatted by calling the append methods followed by endLine. When multiple threads
+ * write to the same sink, they have to synchronize on the sink for the whole line.
+ *
+ * @author Jernej Jerin
+ */
+public class OutputSink extends OutputBuffer implements AutoCloseable {
+    private final File file;
+    private final int flushSize;
+    private final long flushInterval;
+
+    private FileOutputStream out;
+    private long lastFlush;
+
+    /**
+     * Creates an output sink for the file. The file is opened on first write.
+     *
+     * @param file the file to append the lines to
+     * @param flushSize the number of buffered bytes after which the buffer is written to file
+     * @param flushInterval the time in milliseconds after which the buffer is written to file
+     */
+    public OutputSink(File file, int flushSize, long flushInterval) {
+        super(Math.max(flushSize, 256) + 256);
+        this.file = file;
+        this.flushSize = flushSize;
+        this.flushInterval = flushInterval;
+        this.lastFlush = System.currentTimeMillis();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Ends the line and writes the buffer to file, if the flush size or the flush interval
+     * was reached.
+     *
+     * @throws IOException if writing to file fails
+     */
+    public void endLine() throws IOException {
+        append('\n');
+        if (this.count >= this.flushSize || System.currentTimeMillis() - this.lastFlush >= this.flushInterval)
+            flush();
+    }
+
+    /**
+     * Writes the buffered lines to file.
+     *
+     * @throws IOException if writing to file fails
+     */
+    public void flush() throws IOException {
+        if (this.count > 0) {
+            if (this.out == null)
+                this.out = new FileOutputStream(this.file, true);
+            this.out.write(this.buffer, 0, this.count);
+            this.count = 0;
+        }
+        this.lastFlush = System.currentTimeMillis();
+    }
+
+    /**
+     * Writes the buffered lines and closes the file.
+     *
+     * @throws IOException if writing to or closing the file fails
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (this.out != null) {
+                this.out.close();
+                this.out = null;
+            }
+        }
+    }
+}
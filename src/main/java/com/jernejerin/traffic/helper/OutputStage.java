@@ -0,0 +1,349 @@
+package com.jernejerin.traffic.helper;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * An asynchronous output stage, that decouples writing the query output from the query
+ * threads. The query thread formats the change into a line and submits it together with its
+ * processing delay to a bounded queue, from which a dedicated writer thread writes the lines to
+ * their output sinks. A disk stall therefore only blocks the writer thread, until the queue is full.
+ *
+ * When the queue is full, the back pressure policy decides what happens with a new change:
+ *  - block: the query thread waits until there is space in the queue
+ *  - dropOldest: the oldest pending change is dropped
+ *  - coalesce: the newest pending change for the same output is replaced with the new change,
+ *    as the new top 10 supersedes it. If there is no such change, the query thread waits.
+ *
+ * For each output the stage records the processing delay (from the arrival of the event until
+ * the change was submitted) and the write delay (from submitting until the line was written to the
+ * output sink) of each written change, and the number of dropped and coalesced changes.
+ *
+ * A change, that fails to be written, is logged and counted as failed, and the writer thread goes on
+ * with the next change. If the writer thread stops anyway (e.g. on an Error), the stage fails: the
+ * waiting and the following submits throw an IllegalStateException instead of waiting forever.
+ *
+ * @author Jernej Jerin
+ */
+public class OutputStage implements AutoCloseable {
+    private final static Logger LOGGER = Logger.getLogger(OutputStage.class.getName());
+
+    /**
+     * Back pressure policy, when the queue is full.
+     */
+    public enum Policy {
+        BLOCK, DROP_OLDEST, COALESCE
+    }
+
+    // a pending change, where line is the formatted change without the delay
+    private static class Change {
+        private final OutputSink sink;
+        private final Statistics statistics;
+        private byte[] line;
+        private long delay;
+        private long submitted;
+
+        private Change(OutputSink sink, Statistics statistics, byte[] line, long delay) {
+            this.sink = sink;
+            this.statistics = statistics;
+            this.line = line;
+            this.delay = delay;
+            this.submitted = System.nanoTime();
+        }
+    }
+
+    private final int capacity;
+    private final Policy policy;
+    private final ArrayDeque<Change> queue;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Thread writer;
+    private boolean closed = false;
+    private boolean failed = false;
+
+    /**
+     * Creates the output stage and starts its writer thread.
+     *
+     * @param capacity the maximum number of pending changes
+     * @param policy the name of the back pressure policy, see policy(String)
+     */
+    public OutputStage(int capacity, String policy) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Output queue size must be positive");
+        this.capacity = capacity;
+        this.policy = policy(policy);
+        this.queue = new ArrayDeque<>(capacity);
+
+        this.writer = new Thread(this::write, "output");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Maps the name of the back pressure policy to the policy. The following names
+     * are supported: block, dropOldest and coalesce.
+     *
+     * @param name the name of the policy
+     * @return the back pressure policy
+     */
+    public static Policy policy(String name) {
+        switch (name) {
+            case "block":
+                return Policy.BLOCK;
+            case "dropOldest":
+                return Policy.DROP_OLDEST;
+            case "coalesce":
+                return Policy.COALESCE;
+            default:
+                throw new IllegalArgumentException("Unknown output policy " + name);
+        }
+    }
+
+    /**
+     * Submits the change to be written to the sink. The writer thread appends the delay to the line
+     * and ends it, so the line has the same format as when written directly to the sink.
+     *
+     * @param sink the output sink to write the change to
+     * @param statistics the statistics of the output
+     * @param line the formatted change without the delay
+     * @param delay the processing delay in milliseconds
+     * @throws InterruptedException if interrupted while waiting for space in the queue
+     * @throws IllegalStateException if the stage is closed or its writer thread has stopped
+     */
+    public void submit(OutputSink sink, Statistics statistics, byte[] line, long delay) throws InterruptedException {
+        this.lock.lock();
+        try {
+            if (this.closed)
+                throw new IllegalStateException("Output stage is closed");
+            checkWriter();
+
+            if (this.queue.size() == this.capacity) {
+                if (this.policy == Policy.DROP_OLDEST) {
+                    Change dropped = this.queue.poll();
+                    dropped.statistics.drop();
+                } else if (this.policy == Policy.COALESCE && coalesce(sink, line, delay)) {
+                    statistics.coalesce();
+                    return;
+                }
+
+                while (this.queue.size() == this.capacity) {
+                    this.notFull.await();
+                    checkWriter();
+                }
+            }
+
+            this.queue.add(new Change(sink, statistics, line, delay));
+            this.notEmpty.signal();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Writes all the pending changes and stops the writer thread. The sinks are not closed.
+     * If interrupted while waiting for the writer thread, the interrupt flag is restored.
+     *
+     * @throws IllegalStateException if the writer thread has stopped before writing all the changes
+     */
+    @Override
+    public void close() {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.notEmpty.signal();
+        } finally {
+            this.lock.unlock();
+        }
+        try {
+            this.writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        this.lock.lock();
+        try {
+            checkWriter();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Throws, if the writer thread has stopped. Called with the lock held.
+     */
+    private void checkWriter() {
+        if (this.failed)
+            throw new IllegalStateException("Output writer has stopped, " + this.queue.size() +
+                    " changes were not written");
+    }
+
+    /**
+     * Replaces the newest pending change for the sink with the new change.
+     *
+     * @return true if there was a pending change for the sink
+     */
+    private boolean coalesce(OutputSink sink, byte[] line, long delay) {
+        Iterator<Change> iterator = this.queue.descendingIterator();
+        while (iterator.hasNext()) {
+            Change change = iterator.next();
+            if (change.sink == sink) {
+                change.line = line;
+                change.delay = delay;
+                change.submitted = System.nanoTime();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The loop of the writer thread. It runs until the stage is closed and the queue is empty.
+     * If the loop stops with an exception, the stage is marked as failed and the waiting
+     * submitters are woken up.
+     */
+    private void write() {
+        try {
+            writeChanges();
+        } catch (Throwable t) {
+            this.lock.lock();
+            try {
+                this.failed = true;
+                this.notFull.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+            LOGGER.log(Level.SEVERE, "Output writer has stopped", t);
+        }
+    }
+
+    private void writeChanges() {
+        while (true) {
+            Change change;
+            this.lock.lock();
+            try {
+                while (this.queue.isEmpty() && !this.closed)
+                    this.notEmpty.awaitUninterruptibly();
+                change = this.queue.poll();
+                if (change == null)
+                    return;
+                this.notFull.signal();
+            } finally {
+                this.lock.unlock();
+            }
+
+            try {
+                synchronized (change.sink) {
+                    change.sink.append(change.line).append(change.delay);
+                    change.sink.endLine();
+                }
+                change.statistics.record(change.delay, System.nanoTime() - change.submitted);
+            } catch (IOException | RuntimeException ex) {
+                change.statistics.fail();
+                LOGGER.log(Level.SEVERE, "Problem when writing change to " + change.sink.getFile(), ex);
+            }
+        }
+    }
+
+    /**
+     * Delay statistics of a single output. The delays are recorded by the writer thread and
+     * should be read after the stage is closed.
+     */
+    public static class Statistics {
+        private long written = 0;
+        private long dropped = 0;
+        private long coalesced = 0;
+        private long failed = 0;
+
+        private long processingDelaySum = 0;
+        private long processingDelayMin = Long.MAX_VALUE;
+        private long processingDelayMax = 0;
+
+        private long writeDelaySum = 0;
+        private long writeDelayMin = Long.MAX_VALUE;
+        private long writeDelayMax = 0;
+
+        private synchronized void record(long processingDelay, long writeDelay) {
+            this.written++;
+            this.processingDelaySum += processingDelay;
+            this.processingDelayMin = Math.min(this.processingDelayMin, processingDelay);
+            this.processingDelayMax = Math.max(this.processingDelayMax, processingDelay);
+            this.writeDelaySum += writeDelay;
+            this.writeDelayMin = Math.min(this.writeDelayMin, writeDelay);
+            this.writeDelayMax = Math.max(this.writeDelayMax, writeDelay);
+        }
+
+        private synchronized void drop() {
+            this.dropped++;
+        }
+
+        private synchronized void coalesce() {
+            this.coalesced++;
+        }
+
+        private synchronized void fail() {
+            this.failed++;
+        }
+
+        public synchronized long getWritten() {
+            return written;
+        }
+
+        public synchronized long getDropped() {
+            return dropped;
+        }
+
+        public synchronized long getCoalesced() {
+            return coalesced;
+        }
+
+        public synchronized long getFailed() {
+            return failed;
+        }
+
+        /** @return the average processing delay in milliseconds */
+        public synchronized double getAverageProcessingDelay() {
+            return this.written == 0 ? 0 : (double) this.processingDelaySum / this.written;
+        }
+
+        /** @return the minimum processing delay in milliseconds */
+        public synchronized long getMinProcessingDelay() {
+            return this.written == 0 ? 0 : this.processingDelayMin;
+        }
+
+        /** @return the maximum processing delay in milliseconds */
+        public synchronized long getMaxProcessingDelay() {
+            return this.processingDelayMax;
+        }
+
+        /** @return the average write delay in microseconds */
+        public synchronized double getAverageWriteDelay() {
+            return this.written == 0 ? 0 : (double) this.writeDelaySum / this.written / 1000;
+        }
+
+        /** @return the minimum write delay in microseconds */
+        public synchronized long getMinWriteDelay() {
+            return this.written == 0 ? 0 : this.writeDelayMin / 1000;
+        }
+
+        /** @return the maximum write delay in microseconds */
+        public synchronized long getMaxWriteDelay() {
+            return this.writeDelayMax / 1000;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "written = " + this.written + ", dropped = " + this.dropped + ", coalesced = " +
+                    this.coalesced + ", failed = " + this.failed + ", processing delay (ms) avg/min/max = " + getAverageProcessingDelay() +
+                    "/" + getMinProcessingDelay() + "/" + getMaxProcessingDelay() +
+                    ", write delay (us) avg/min/max = " + getAverageWriteDelay() + "/" + getMinWriteDelay() +
+                    "/" + getMaxWriteDelay();
+        }
+    }
+}
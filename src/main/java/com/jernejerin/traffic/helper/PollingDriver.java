@@ -28,12 +28,26 @@ public class PollingDriver {
      * @throws Exception
      */
     public static void setupDriver(String connectURI, String userDB, String passDB) throws Exception {
+        setupDriver("com.mysql.jdbc.Driver", connectURI, userDB, passDB);
+    }
+
+    /**
+     * Setup driver of the given class using passed parameters.
+     *
+     * @param driverClass Class name of the JDBC driver.
+     * @param connectURI Connection string to the DB.
+     * @param userDB Username of the DB.
+     * @param passDB Password of the DB.
+     * @throws Exception
+     */
+    public static void setupDriver(String driverClass, String connectURI, String userDB, String passDB)
+            throws Exception {
         // First we load the underlying JDBC driver.
         // You need this if you don't use the jdbc.drivers
         // system property.
         LOGGER.log(Level.INFO, "Started setting up driver.");
         try {
-            Class.forName("com.mysql.jdbc.Driver");
+            Class.forName(driverClass);
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,155 @@
+package com.jernejerin.traffic.helper;
+
+import com.jernejerin.traffic.client.TripBatch;
+import com.jernejerin.traffic.entities.CellProfitability;
+
+import java.time.LocalDateTime;
+
+/**
+ * <p>
+ * The query 2 operator (profitable cells), that processes the trips in columnar batches. It gives
+ * the same changes of the top 10 cells as the query 2 in EDA. Both windows share a single ring of the
+ * primitive values of the trips, as the window for profit is the most recent part of the window for
+ * empty taxis, and the top 10 cells are compared by the cell ids.
+ *
+ * The operator is not thread safe.
+ *
+ * @author Jernej Jerin
+ */
+public class ProfitableCellsOperator {
+    // the length of the windows in milliseconds
+    private static final long EMPTY_TAXIS_WINDOW = 30 * 60 * 1000;
+    private static final long PROFIT_WINDOW = 15 * 60 * 1000;
+
+    private final CellProfitabilityIndex cellsProfitability = new CellProfitabilityIndex();
+    private final Top10Listener<CellProfitability> listener;
+
+    // the trips in the window for empty taxis from emptyTaxisHead to tail and in the window for profit
+    // from profitHead to tail, stored in the ring at position & mask
+    private long[] dropOffTimestamps = new long[1024];
+    private int[] startCells = new int[1024];
+    private float[] profits = new float[1024];
+    private long[] pickupDatetimes = new long[1024];
+    private long[] dropOffDatetimes = new long[1024];
+    private int mask = 1023;
+    private long emptyTaxisHead = 0;
+    private long profitHead = 0;
+    private long tail = 0;
+
+    // the ids of the current top 10 cells
+    private final int[] top10 = new int[10];
+    private int top10Size = 0;
+    private final int[] changedTop10 = new int[10];
+
+    /**
+     * Creates the operator.
+     *
+     * @param listener the listener of the changes of the top 10 cells
+     */
+    public ProfitableCellsOperator(Top10Listener<CellProfitability> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Processes all the trips in the batch in their order.
+     *
+     * @param batch the batch of trips
+     */
+    public void process(TripBatch batch) {
+        for (int i = 0; i < batch.size(); i++)
+            process(batch, i);
+    }
+
+    /**
+     * Processes the trip in the batch, i.e. updates the window and passes a change of the top 10
+     * to the listener. The trips must be processed in their order.
+     *
+     * @param batch the batch of trips
+     * @param i the index of the trip in the batch
+     */
+    public void process(TripBatch batch, int i) {
+        long dropOffTimestamp = batch.getDropOffTimestamp(i);
+        long timeStart = batch.getTimestampReceived(i);
+
+        // events leaving window for empty taxis in the last 30 minutes
+        while (this.emptyTaxisHead < this.tail && this.dropOffTimestamps[(int) this.emptyTaxisHead & this.mask] <
+                dropOffTimestamp - EMPTY_TAXIS_WINDOW) {
+            int slot = (int) this.emptyTaxisHead++ & this.mask;
+            this.cellsProfitability.removeEmptyTaxi();
+            checkTop10(this.pickupDatetimes[slot], this.dropOffDatetimes[slot], 30, timeStart);
+        }
+
+        // events leaving the window for profit cells in the last 15 minutes
+        while (this.profitHead < this.tail && this.dropOffTimestamps[(int) this.profitHead & this.mask] <
+                dropOffTimestamp - PROFIT_WINDOW) {
+            int slot = (int) this.profitHead++ & this.mask;
+            this.cellsProfitability.removeProfit(this.startCells[slot], this.profits[slot]);
+            checkTop10(this.pickupDatetimes[slot], this.dropOffDatetimes[slot], 30, timeStart);
+        }
+
+        // add to both windows. This updates only the start cell, the end cell and
+        // the end cell of the previous trip of the same taxi
+        if (this.tail - this.emptyTaxisHead == this.startCells.length)
+            growWindow();
+        int slot = (int) this.tail++ & this.mask;
+        float profit = batch.getFareAmount(i) + batch.getTipAmount(i);
+        this.dropOffTimestamps[slot] = dropOffTimestamp;
+        this.startCells[slot] = batch.getStartCell(i);
+        this.profits[slot] = profit;
+        this.pickupDatetimes[slot] = batch.getPickupDatetime(i);
+        this.dropOffDatetimes[slot] = batch.getDropOffDatetime(i);
+        this.cellsProfitability.addEmptyTaxi(batch.getTaxi(i), batch.getId(i), batch.getEndCell(i));
+        this.cellsProfitability.addProfit(batch.getStartCell(i), profit, batch.getId(i));
+
+        checkTop10(batch.getPickupDatetime(i), batch.getDropOffDatetime(i), 0, timeStart);
+    }
+
+    /**
+     * Compares the current top 10 cells with the last written one and writes it, if it has changed.
+     * The date times of the event are converted only for a change.
+     */
+    private void checkTop10(long pickupDatetime, long dropOffDatetime, long minutes, long timeStart) {
+        int size = this.cellsProfitability.topCells(this.changedTop10, 10);
+        boolean changed = size != this.top10Size;
+        for (int i = 0; !changed && i < size; i++)
+            changed = this.top10[i] != this.changedTop10[i];
+        if (!changed)
+            return;
+
+        System.arraycopy(this.changedTop10, 0, this.top10, 0, size);
+        this.top10Size = size;
+        this.listener.changed(this.cellsProfitability.top(10), plusMinutes(pickupDatetime, minutes),
+                plusMinutes(dropOffDatetime, minutes), timeStart);
+    }
+
+    private static LocalDateTime plusMinutes(long datetime, long minutes) {
+        return TripBatch.toDateTime(datetime != TripBatch.NO_DATETIME ? datetime + minutes * 60 : datetime);
+    }
+
+    /**
+     * Doubles the capacity of the ring, where each trip keeps its position.
+     */
+    private void growWindow() {
+        int capacity = this.startCells.length << 1;
+        long[] dropOffTimestamps = new long[capacity];
+        int[] startCells = new int[capacity];
+        float[] profits = new float[capacity];
+        long[] pickupDatetimes = new long[capacity];
+        long[] dropOffDatetimes = new long[capacity];
+        for (long position = this.emptyTaxisHead; position < this.tail; position++) {
+            int from = (int) position & this.mask;
+            int to = (int) position & (capacity - 1);
+            dropOffTimestamps[to] = this.dropOffTimestamps[from];
+            startCells[to] = this.startCells[from];
+            profits[to] = this.profits[from];
+            pickupDatetimes[to] = this.pickupDatetimes[from];
+            dropOffDatetimes[to] = this.dropOffDatetimes[from];
+        }
+        this.dropOffTimestamps = dropOffTimestamps;
+        this.startCells = startCells;
+        this.profits = profits;
+        this.pickupDatetimes = pickupDatetimes;
+        this.dropOffDatetimes = dropOffDatetimes;
+        this.mask = capacity - 1;
+    }
+}
@@ -0,0 +1,166 @@
+package com.jernejerin.traffic.helper;
+
+import com.jernejerin.traffic.entities.Route;
+import com.jernejerin.traffic.entities.RouteCount;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * An open addressing hash map from the route id to the route count. Route ids are
+ * unique (base 300), so the map stores them as primitive long keys. This avoids
+ * boxing of the key and computing hash code and equals through the cells of the route,
+ * which is what a HashMap keyed by Route does on every lookup.
+ *
+ * Collisions are resolved with linear probing. On removal the following entries
+ * in the cluster are shifted back, so there are no tombstones and lookups stay short
+ * even when routes are constantly entering and leaving the window.
+ *
+ * The map is not thread safe.
+ *
+ * @author Jernej Jerin
+ */
+public class RouteCountMap {
+    // the maximum ratio of occupied slots before the table grows
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private RouteCount[] values;
+    private int mask;
+    private int size = 0;
+    private int resizeThreshold;
+
+    public RouteCountMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get the route count for the route id.
+     *
+     * @param routeId the id of the route
+     * @return the route count or null if the route is not in the map
+     */
+    public RouteCount get(long routeId) {
+        for (int i = slot(routeId); this.values[i] != null; i = (i + 1) & this.mask) {
+            if (this.keys[i] == routeId)
+                return this.values[i];
+        }
+        return null;
+    }
+
+    /**
+     * Get the route count for the route or create a new one with count 0
+     * and the given id, if the route is not in the map yet.
+     *
+     * @param route the route
+     * @param id the id of the trip for a new route count
+     * @return the route count for the route
+     */
+    public RouteCount getOrCreate(Route route, int id) {
+        long routeId = route.getId();
+        int i = slot(routeId);
+        for (; this.values[i] != null; i = (i + 1) & this.mask) {
+            if (this.keys[i] == routeId)
+                return this.values[i];
+        }
+
+        RouteCount routeCount = new RouteCount(route, id, 0);
+        this.keys[i] = routeId;
+        this.values[i] = routeCount;
+        if (++this.size > this.resizeThreshold)
+            allocate(this.keys.length << 1);
+        return routeCount;
+    }
+
+    /**
+     * Removes the route count for the route id.
+     *
+     * @param routeId the id of the route
+     * @return the removed route count or null if the route was not in the map
+     */
+    public RouteCount remove(long routeId) {
+        int i = slot(routeId);
+        for (; this.values[i] != null; i = (i + 1) & this.mask) {
+            if (this.keys[i] == routeId)
+                break;
+        }
+        RouteCount removed = this.values[i];
+        if (removed == null)
+            return null;
+
+        // shift back the entries in the cluster that would not be reachable after the removal
+        int gap = i;
+        for (int j = (i + 1) & this.mask; this.values[j] != null; j = (j + 1) & this.mask) {
+            int home = slot(this.keys[j]);
+            // entry at j can fill the gap only if its home slot is not between the gap and j
+            if (((j - home) & this.mask) >= ((j - gap) & this.mask)) {
+                this.keys[gap] = this.keys[j];
+                this.values[gap] = this.values[j];
+                gap = j;
+            }
+        }
+        this.values[gap] = null;
+        this.size--;
+        return removed;
+    }
+
+    /**
+     * Performs the action for each route count in the map.
+     *
+     * @param action the action to be performed
+     */
+    public void forEach(Consumer<RouteCount> action) {
+        for (RouteCount value : this.values) {
+            if (value != null)
+                action.accept(value);
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(this.values, null);
+        this.size = 0;
+    }
+
+    private int slot(long routeId) {
+        // mix the bits of the id, as consecutive cells give consecutive ids
+        long h = routeId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & this.mask;
+    }
+
+    /**
+     * Allocates the table with the new capacity and rehashes the existing entries.
+     *
+     * @param capacity the new capacity, must be a power of 2
+     */
+    private void allocate(int capacity) {
+        long[] oldKeys = this.keys;
+        RouteCount[] oldValues = this.values;
+
+        this.keys = new long[capacity];
+        this.values = new RouteCount[capacity];
+        this.mask = capacity - 1;
+        this.resizeThreshold = (int) (capacity * LOAD_FACTOR);
+
+        if (oldValues == null)
+            return;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] == null)
+                continue;
+            int j = slot(oldKeys[i]);
+            while (this.values[j] != null)
+                j = (j + 1) & this.mask;
+            this.keys[j] = oldKeys[i];
+            this.values[j] = oldValues[i];
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.jernejerin.traffic.helper;
+
+import com.jernejerin.traffic.entities.Cell500;
+import com.jernejerin.traffic.entities.Route;
+import com.jernejerin.traffic.entities.RouteCount;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * <p>
+ * Ranking of all the routes in the current window by their frequency. The ranking
+ * is a balanced tree ordered by RouteCount natural order, i.e. by the count and then
+ * by the id of the most recent trip, so ties are resolved exactly as in RouteCount.compareTo.
+ * The route counts are found by the route id in a RouteCountMap, which serves as a handle
+ * to the node in the tree.
+ *
+ * Increment and decrement of the route count are O(log n), as the route count is removed
+ * from the tree, updated and inserted back. Extracting top k is O(log n + k). Routes whose
+ * count drops to 0 are removed, so the ranking never has to be rebuilt from a full scan.
+ * The routes can also be given by their id only, in which case the Route is created from the id
+ * of the 500m route only when the route enters the ranking.
+ *
+ * The ranking is not thread safe.
+ *
+ * @author Jernej Jerin
+ */
+public class RouteRanking {
+    private final RouteCountMap routesCount;
+    private final TreeSet<RouteCount> ranking = new TreeSet<>();
+
+    public RouteRanking(int expectedSize) {
+        this.routesCount = new RouteCountMap(expectedSize);
+    }
+
+    public int size() {
+        return ranking.size();
+    }
+
+    /**
+     * Get the route count for the route.
+     *
+     * @param route the route
+     * @return the route count or null if there are no trips on the route in the window
+     */
+    public RouteCount get(Route route) {
+        return get(route.getId());
+    }
+
+    /**
+     * Get the route count for the route id.
+     *
+     * @param routeId the id of the route
+     * @return the route count or null if there are no trips on the route in the window
+     */
+    public RouteCount get(long routeId) {
+        return this.routesCount.get(routeId);
+    }
+
+    /**
+     * Counts a new trip on the route. The trip id becomes the id of the most recent trip
+     * of the route.
+     *
+     * @param route the route of the trip entering the window
+     * @param tripId the id of the trip
+     * @return the updated route count
+     */
+    public RouteCount increment(Route route, int tripId) {
+        return increment(this.routesCount.getOrCreate(route, tripId), tripId);
+    }
+
+    /**
+     * Counts a new trip on the 500m route with the id. See increment(Route, int).
+     *
+     * @param routeId the id of the 500m route of the trip entering the window
+     * @param tripId the id of the trip
+     * @return the updated route count
+     */
+    public RouteCount increment(long routeId, int tripId) {
+        RouteCount routeCount = this.routesCount.get(routeId);
+        if (routeCount == null)
+            routeCount = this.routesCount.getOrCreate(route500(routeId), tripId);
+        return increment(routeCount, tripId);
+    }
+
+    private RouteCount increment(RouteCount routeCount, int tripId) {
+        // the route count has to be removed before changing the values it is ordered by
+        this.ranking.remove(routeCount);
+        routeCount.setCount(routeCount.getCount() + 1);
+        routeCount.setId(tripId);
+        this.ranking.add(routeCount);
+        return routeCount;
+    }
+
+    /**
+     * Removes a trip from the count of the route. The id of the most recent trip stays the same.
+     *
+     * @param route the route of the trip leaving the window
+     * @return the updated route count or null if the route is not counted
+     */
+    public RouteCount decrement(Route route) {
+        return decrement(route.getId());
+    }
+
+    /**
+     * Removes a trip from the count of the route with the id. See decrement(Route).
+     *
+     * @param routeId the id of the route of the trip leaving the window
+     * @return the updated route count or null if the route is not counted
+     */
+    public RouteCount decrement(long routeId) {
+        RouteCount routeCount = this.routesCount.get(routeId);
+        if (routeCount == null)
+            return null;
+
+        this.ranking.remove(routeCount);
+        routeCount.setCount(routeCount.getCount() - 1);
+
+        // if count is 0 then remove the route count to keep only the routes in the window
+        if (routeCount.getCount() == 0)
+            this.routesCount.remove(routeId);
+        else
+            this.ranking.add(routeCount);
+        return routeCount;
+    }
+
+    /**
+     * Checks if the route count is ranked among the top k routes.
+     *
+     * @param routeCount the route count to check
+     * @param k the number of top routes
+     * @return true if the route count is in top k
+     */
+    public boolean isInTop(RouteCount routeCount, int k) {
+        Iterator<RouteCount> iterator = this.ranking.descendingIterator();
+        for (int i = 0; i < k && iterator.hasNext(); i++) {
+            if (iterator.next() == routeCount)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the top k routes sorted from the most to the least frequent.
+     *
+     * @param k the number of top routes
+     * @return a new list of at most k route counts
+     */
+    public List<RouteCount> top(int k) {
+        List<RouteCount> top = new ArrayList<>(k);
+        Iterator<RouteCount> iterator = this.ranking.descendingIterator();
+        while (top.size() < k && iterator.hasNext())
+            top.add(iterator.next());
+        return top;
+    }
+
+    /**
+     * Copies the ids of the top k routes into the array, sorted from the most to the least
+     * frequent. Two tops are equal as lists of route counts, if they hold the same ids.
+     *
+     * @param routeIds the array of at least k elements for the ids
+     * @param k the number of top routes
+     * @return the number of copied ids, at most k
+     */
+    public int topIds(long[] routeIds, int k) {
+        int size = 0;
+        Iterator<RouteCount> iterator = this.ranking.descendingIterator();
+        while (size < k && iterator.hasNext())
+            routeIds[size++] = iterator.next().getRoute().getId();
+        return size;
+    }
+
+    public void clear() {
+        this.routesCount.clear();
+        this.ranking.clear();
+    }
+
+    /**
+     * Creates the 500m route from its id, which is in the 300-base system, see Route.
+     */
+    private static Route route500(long routeId) {
+        return new Route(Cell500.of((int) (routeId / 300 / 300 / 300), (int) (routeId / 300 / 300 % 300)),
+                Cell500.of((int) (routeId / 300 % 300), (int) (routeId % 300)));
+    }
+}
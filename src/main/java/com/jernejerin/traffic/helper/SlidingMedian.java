@@ -0,0 +1,284 @@
+package com.jernejerin.traffic.helper;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ * Computes median value of the float values currently in the window, where values
+ * can be added as they enter the window and removed as they leave it.
+ *
+ * The values are kept in an order statistic treap, where each node holds a distinct
+ * value with the number of its occurrences and the total number of values in its subtree.
+ * Adding and removing a value and finding the median are all O(log n). The nodes are stored in
+ * primitive arrays, so values are not boxed and removing a value does not need a linear search
+ * as with removing from a PriorityQueue in MedianOfStream.
+ *
+ * Values are ordered as by Float.compare, so the median is the same as computed by
+ * MedianOfStream with Float values.
+ *
+ * @author Jernej Jerin
+ */
+public class SlidingMedian {
+    private static final int INITIAL_CAPACITY = 16;
+
+    // node 0 is the empty node, its size is always 0
+    private float[] values;
+    private int[] counts;
+    private int[] sizes;
+    private int[] priorities;
+    private int[] left;
+    private int[] right;
+
+    private int root = 0;
+    // the first never used node and the list of freed nodes linked through left
+    private int next = 1;
+    private int free = 0;
+
+    // state of the xorshift generator for node priorities
+    private int seed = 0x2545F491;
+
+    public SlidingMedian() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public SlidingMedian(float value) {
+        this();
+        add(value);
+    }
+
+    /**
+     * Get the number of values in the window.
+     *
+     * @return number of values, counting the duplicates
+     */
+    public int size() {
+        return this.sizes[this.root];
+    }
+
+    public boolean isEmpty() {
+        return this.root == 0;
+    }
+
+    /**
+     * Adds the value to the window.
+     *
+     * @param value the value entering the window
+     */
+    public void add(float value) {
+        ensureCapacity();
+        this.root = insert(this.root, value, 1);
+    }
+
+    /**
+     * Adds all the values from the other window.
+     *
+     * @param other the window to add values from
+     */
+    public void addAll(SlidingMedian other) {
+        addAll(other, other.root);
+    }
+
+    /**
+     * Removes one occurrence of the value from the window.
+     *
+     * @param value the value leaving the window
+     * @return true if the value was in the window
+     */
+    public boolean remove(float value) {
+        int size = size();
+        this.root = delete(this.root, value);
+        return size() != size;
+    }
+
+    /**
+     * Get the median of the values in the window. If the number of values is even, the
+     * median is the mean of the two middle values.
+     *
+     * @return the median value
+     * @throws NoSuchElementException if the window is empty
+     */
+    public double getMedian() {
+        int size = size();
+        if (size == 0)
+            throw new NoSuchElementException();
+        if (size % 2 != 0)
+            return select(size / 2);
+        else
+            return ((double) select(size / 2 - 1) + (double) select(size / 2)) / 2.0;
+    }
+
+    public void clear() {
+        this.root = 0;
+        this.next = 1;
+        this.free = 0;
+    }
+
+    /**
+     * Finds the k-th smallest value.
+     *
+     * @param k the zero based rank of the value
+     * @return the value with rank k
+     */
+    private float select(int k) {
+        int node = this.root;
+        while (true) {
+            int leftSize = this.sizes[this.left[node]];
+            if (k < leftSize) {
+                node = this.left[node];
+            } else if (k < leftSize + this.counts[node]) {
+                return this.values[node];
+            } else {
+                k -= leftSize + this.counts[node];
+                node = this.right[node];
+            }
+        }
+    }
+
+    private int insert(int node, float value, int count) {
+        if (node == 0)
+            return newNode(value, count);
+
+        int cmp = Float.compare(value, this.values[node]);
+        if (cmp == 0) {
+            this.counts[node] += count;
+        } else if (cmp < 0) {
+            this.left[node] = insert(this.left[node], value, count);
+            if (this.priorities[this.left[node]] > this.priorities[node])
+                return rotateRight(node);
+        } else {
+            this.right[node] = insert(this.right[node], value, count);
+            if (this.priorities[this.right[node]] > this.priorities[node])
+                return rotateLeft(node);
+        }
+        update(node);
+        return node;
+    }
+
+    private int delete(int node, float value) {
+        if (node == 0)
+            return 0;
+
+        int cmp = Float.compare(value, this.values[node]);
+        if (cmp < 0) {
+            this.left[node] = delete(this.left[node], value);
+        } else if (cmp > 0) {
+            this.right[node] = delete(this.right[node], value);
+        } else if (this.counts[node] > 1) {
+            this.counts[node]--;
+        } else {
+            // replace the node with its children merged by priority
+            int merged = merge(this.left[node], this.right[node]);
+            freeNode(node);
+            return merged;
+        }
+        update(node);
+        return node;
+    }
+
+    /**
+     * Merges two treaps, where all the values in the first are smaller than in the second.
+     */
+    private int merge(int a, int b) {
+        if (a == 0)
+            return b;
+        if (b == 0)
+            return a;
+        if (this.priorities[a] > this.priorities[b]) {
+            this.right[a] = merge(this.right[a], b);
+            update(a);
+            return a;
+        } else {
+            this.left[b] = merge(a, this.left[b]);
+            update(b);
+            return b;
+        }
+    }
+
+    private int rotateRight(int node) {
+        int pivot = this.left[node];
+        this.left[node] = this.right[pivot];
+        this.right[pivot] = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private int rotateLeft(int node) {
+        int pivot = this.right[node];
+        this.right[node] = this.left[pivot];
+        this.left[pivot] = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private void update(int node) {
+        this.sizes[node] = this.sizes[this.left[node]] + this.counts[node] + this.sizes[this.right[node]];
+    }
+
+    private void addAll(SlidingMedian other, int node) {
+        if (node == 0)
+            return;
+        ensureCapacity();
+        this.root = insert(this.root, other.values[node], other.counts[node]);
+        addAll(other, other.left[node]);
+        addAll(other, other.right[node]);
+    }
+
+    private int newNode(float value, int count) {
+        int node;
+        if (this.free != 0) {
+            node = this.free;
+            this.free = this.left[node];
+        } else {
+            node = this.next++;
+        }
+
+        this.values[node] = value;
+        this.counts[node] = count;
+        this.sizes[node] = count;
+        this.left[node] = 0;
+        this.right[node] = 0;
+
+        // xorshift random priority keeps the treap balanced in expectation
+        this.seed ^= this.seed << 13;
+        this.seed ^= this.seed >>> 17;
+        this.seed ^= this.seed << 5;
+        this.priorities[node] = this.seed;
+        return node;
+    }
+
+    /**
+     * Makes sure there is a node available for insert. This has to be done before the insert,
+     * as the insert assigns to the arrays while recursing and growing them there would lose
+     * the assignments.
+     */
+    private void ensureCapacity() {
+        if (this.free == 0 && this.next == this.values.length)
+            allocate(this.values.length << 1);
+    }
+
+    private void freeNode(int node) {
+        this.left[node] = this.free;
+        this.free = node;
+    }
+
+    private void allocate(int capacity) {
+        if (this.values == null) {
+            this.values = new float[capacity];
+            this.counts = new int[capacity];
+            this.sizes = new int[capacity];
+            this.priorities = new int[capacity];
+            this.left = new int[capacity];
+            this.right = new int[capacity];
+            return;
+        }
+        this.values = Arrays.copyOf(this.values, capacity);
+        this.counts = Arrays.copyOf(this.counts, capacity);
+        this.sizes = Arrays.copyOf(this.sizes, capacity);
+        this.priorities = Arrays.copyOf(this.priorities, capacity);
+        this.left = Arrays.copyOf(this.left, capacity);
+        this.right = Arrays.copyOf(this.right, capacity);
+    }
+}
@@ -0,0 +1,23 @@
+package com.jernejerin.traffic.helper;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * <p>
+ * A listener of the changes of the top 10 routes or cells, that are detected by the query operators.
+ *
+ * @param <T> the type of the ranked element
+ * @author Jernej Jerin
+ */
+public interface Top10Listener<T> {
+    /**
+     * Called when the top 10 has changed.
+     *
+     * @param top10 the new top 10
+     * @param pickupDateTime the pickup date time of the event, that changed the top 10
+     * @param dropOffDateTime the drop off date time of the event, that changed the top 10
+     * @param timeStart time in milliseconds when the event arrived
+     */
+    void changed(List<T> top10, LocalDateTime pickupDateTime, LocalDateTime dropOffDateTime, long timeStart);
+}
@@ -0,0 +1,346 @@
+package com.jernejerin.traffic.helper;
+
+import com.jernejerin.traffic.entities.Trip;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Converts the DEBS CSV file into a columnar trip archive, that can be replayed with
+ * TripArchiveReader without parsing the lines. The trips are the same as parsed by
+ * TripOperations.parseValidateTrip, including the ids of the events, except that the
+ * receive time is not stored. Malformed lines are left out.
+ *
+ * The archive is split into blocks of trips, where each block stores the values column by column:
+ *  - ids: delta to the previous id as zigzag varint
+ *  - flags: a byte with the present date times and routes and the payment type
+ *  - medallion and hack license: index in the dictionary + 1 as varint, 0 if not present
+ *  - pickup and drop off date time: seconds from epoch, delta to the previous present value as zigzag varint
+ *  - trip time: zigzag varint
+ *  - trip distance, coordinates and amounts: quantised to 6 decimals for coordinates and to 2 decimals
+ *    otherwise, as zigzag varint + 1, or 0 followed by the raw float bits, if the value does not round trip
+ *  - 250m and 500m route: east and south of the start and the end cell, packed into a varint
+ *
+ * A block starts with the number of trips and the length of its columns in bytes and each column
+ * is prefixed by its length in bytes. The dictionaries of the MD5 checksums follow the
+ * blocks and the file ends with a footer, that holds the offset of the dictionaries, the number of blocks
+ * and trips and the magic number.
+ *
+ * @author Jernej Jerin
+ */
+public class TripArchive {
+    private final static Logger LOGGER = Logger.getLogger(TripArchive.class.getName());
+
+    /** The magic number at the end of the archive. */
+    public static final int MAGIC = 0x54524943;
+
+    /** The size of the footer in bytes. */
+    public static final int FOOTER_SIZE = 8 + 4 + 8 + 4;
+
+    /** The default number of trips in a block. */
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    /** The number of columns in a block. */
+    public static final int COLUMNS = 20;
+
+    // flags of the present values, where the payment type takes two bits
+    static final int PICKUP_DATETIME = 1;
+    static final int DROP_OFF_DATETIME = 1 << 1;
+    static final int ROUTES = 1 << 2;
+    static final int PAYMENT_SHIFT = 3;
+
+    // scales of the quantised values
+    static final double COORDINATE_SCALE = 1e6;
+    static final double AMOUNT_SCALE = 1e2;
+
+    // grid sizes for packing the routes
+    static final int GRID_250 = 600;
+    static final int GRID_500 = 300;
+
+    private final DataOutputStream out;
+    private final int blockSize;
+    private final List<Trip> block;
+    private final Column[] columns = new Column[COLUMNS];
+
+    // dictionaries of MD5 checksums in the order of the first occurrence
+    private final Dictionary medallions = new Dictionary(MD5Dictionary.MEDALLIONS);
+    private final Dictionary hackLicenses = new Dictionary(MD5Dictionary.HACK_LICENSES);
+
+    private long position = 0;
+    private int blocks = 0;
+    private long trips = 0;
+
+    /**
+     * Creates an archive writer.
+     *
+     * @param out the stream to write the archive to
+     * @param blockSize the number of trips in a block
+     */
+    public TripArchive(OutputStream out, int blockSize) {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        this.blockSize = blockSize;
+        this.block = new ArrayList<>(blockSize);
+        for (int i = 0; i < COLUMNS; i++)
+            this.columns[i] = new Column();
+    }
+
+    /**
+     * Converts the CSV file into a trip archive.
+     *
+     * @param args the path of the CSV file, the path of the archive and optionally the block size
+     * @throws IOException if reading or writing fails
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: TripArchive <input CSV file> <output archive file> [block size]");
+            System.exit(-1);
+        }
+        int blockSize = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_BLOCK_SIZE;
+
+        long start = System.currentTimeMillis();
+        long trips = convert(new File(args[0]), new File(args[1]), blockSize);
+        LOGGER.log(Level.INFO, "Converted " + trips + " trips into " + args[1] + " in " +
+                (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Converts the CSV file into a trip archive. The events are numbered as when they are read by
+     * TaxiStream, where empty lines are skipped.
+     *
+     * @param csv the CSV file
+     * @param archive the archive file to create
+     * @param blockSize the number of trips in a block
+     * @return the number of trips in the archive
+     * @throws IOException if reading or writing fails
+     */
+    public static long convert(File csv, File archive, int blockSize) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(csv.toPath(), StandardCharsets.ISO_8859_1);
+             FileOutputStream out = new FileOutputStream(archive)) {
+            TripArchive writer = new TripArchive(out, blockSize);
+            String line;
+            int id = 0;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty())
+                    continue;
+                Trip trip = TripOperations.parseValidateTrip(line, 0, id++);
+                if (trip != null)
+                    writer.add(trip);
+            }
+            writer.finish();
+            return writer.trips;
+        }
+    }
+
+    /**
+     * Adds the trip to the archive.
+     *
+     * @param trip the trip to add
+     * @throws IOException if writing the block fails
+     */
+    public void add(Trip trip) throws IOException {
+        this.block.add(trip);
+        if (this.block.size() == this.blockSize)
+            writeBlock();
+    }
+
+    /**
+     * Writes the last block, the dictionaries and the footer and closes the stream.
+     *
+     * @throws IOException if writing fails
+     */
+    public void finish() throws IOException {
+        if (!this.block.isEmpty())
+            writeBlock();
+
+        long dictionaryOffset = this.position;
+        writeDictionary(this.medallions.values);
+        writeDictionary(this.hackLicenses.values);
+
+        this.out.writeLong(dictionaryOffset);
+        this.out.writeInt(this.blocks);
+        this.out.writeLong(this.trips);
+        this.out.writeInt(MAGIC);
+        this.out.close();
+    }
+
+    private void writeBlock() throws IOException {
+        for (Column column : this.columns)
+            column.size = 0;
+
+        int previousId = 0;
+        long previousPickup = 0;
+        long previousDropOff = 0;
+        for (Trip trip : this.block) {
+            this.columns[0].putSignedVarint(trip.getId() - previousId);
+            previousId = trip.getId();
+
+            int flags = trip.getPaymentType() != null ? (trip.getPaymentType().ordinal() + 1) << PAYMENT_SHIFT : 0;
+            if (trip.getPickupDatetime() != null) {
+                flags |= PICKUP_DATETIME;
+                long pickup = trip.getPickupDatetime().toEpochSecond(ZoneOffset.UTC);
+                this.columns[4].putSignedVarint(pickup - previousPickup);
+                previousPickup = pickup;
+            }
+            if (trip.getDropOffDatetime() != null) {
+                flags |= DROP_OFF_DATETIME;
+                long dropOff = trip.getDropOffDatetime().toEpochSecond(ZoneOffset.UTC);
+                this.columns[5].putSignedVarint(dropOff - previousDropOff);
+                previousDropOff = dropOff;
+            }
+            if (trip.getRoute250() != null && trip.getRoute500() != null) {
+                flags |= ROUTES;
+                this.columns[18].putVarint(packRoute(trip.getRoute250().getStartCell().getEast(),
+                        trip.getRoute250().getStartCell().getSouth(), trip.getRoute250().getEndCell().getEast(),
+                        trip.getRoute250().getEndCell().getSouth(), GRID_250));
+                this.columns[19].putVarint(packRoute(trip.getRoute500().getStartCell().getEast(),
+                        trip.getRoute500().getStartCell().getSouth(), trip.getRoute500().getEndCell().getEast(),
+                        trip.getRoute500().getEndCell().getSouth(), GRID_500));
+            }
+            this.columns[1].put((byte) flags);
+
+            this.columns[2].putVarint(this.medallions.index(trip.getMedallionId()));
+            this.columns[3].putVarint(this.hackLicenses.index(trip.getHackLicenseId()));
+            this.columns[6].putSignedVarint(trip.getTripTime());
+
+            this.columns[7].putQuantised(trip.getTripDistance(), AMOUNT_SCALE);
+            this.columns[8].putQuantised(trip.getPickupLongitude(), COORDINATE_SCALE);
+            this.columns[9].putQuantised(trip.getPickupLatitude(), COORDINATE_SCALE);
+            this.columns[10].putQuantised(trip.getDropOffLongitude(), COORDINATE_SCALE);
+            this.columns[11].putQuantised(trip.getDropOffLatitude(), COORDINATE_SCALE);
+            this.columns[12].putQuantised(trip.getFareAmount(), AMOUNT_SCALE);
+            this.columns[13].putQuantised(trip.getSurcharge(), AMOUNT_SCALE);
+            this.columns[14].putQuantised(trip.getMtaTax(), AMOUNT_SCALE);
+            this.columns[15].putQuantised(trip.getTipAmount(), AMOUNT_SCALE);
+            this.columns[16].putQuantised(trip.getTollsAmount(), AMOUNT_SCALE);
+            this.columns[17].putQuantised(trip.getTotalAmount(), AMOUNT_SCALE);
+        }
+
+        int length = 0;
+        for (Column column : this.columns)
+            length += 4 + column.size;
+
+        this.out.writeInt(this.block.size());
+        this.out.writeInt(length);
+        this.position += 8;
+        for (Column column : this.columns) {
+            this.out.writeInt(column.size);
+            this.out.write(column.bytes, 0, column.size);
+            this.position += 4 + column.size;
+        }
+
+        this.blocks++;
+        this.trips += this.block.size();
+        this.block.clear();
+    }
+
+    private void writeDictionary(List<String> values) throws IOException {
+        this.out.writeInt(values.size());
+        this.position += 4;
+        for (String value : values) {
+            byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+            this.out.writeShort(bytes.length);
+            this.out.write(bytes);
+            this.position += 2 + bytes.length;
+        }
+    }
+
+    static long packRoute(int startEast, int startSouth, int endEast, int endSouth, int grid) {
+        return ((startEast * (long) grid + startSouth) * grid + endEast) * grid + endSouth;
+    }
+
+    /**
+     * Dequantises the value the same way for encoding and decoding, so the check on encoding
+     * guarantees the decoded value is equal to the original one.
+     */
+    static float dequantise(long quantised, double scale) {
+        return (float) (quantised / scale);
+    }
+
+    /**
+     * A growable byte array for a single column of a block.
+     */
+    private static class Column {
+        private byte[] bytes = new byte[1024];
+        private int size = 0;
+
+        private void put(byte value) {
+            ensureCapacity(1);
+            this.bytes[this.size++] = value;
+        }
+
+        private void putVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                this.bytes[this.size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            this.bytes[this.size++] = (byte) value;
+        }
+
+        private void putSignedVarint(long value) {
+            putVarint((value << 1) ^ (value >> 63));
+        }
+
+        private void putQuantised(float value, double scale) {
+            long quantised = Math.round(value * scale);
+            if (Math.abs(quantised) < (1L << 40) &&
+                    Float.floatToIntBits(dequantise(quantised, scale)) == Float.floatToIntBits(value)) {
+                putVarint(((quantised << 1) ^ (quantised >> 63)) + 1);
+            } else {
+                // the value does not round trip, e.g. the MIN_VALUE of erroneous values, store it raw
+                put((byte) 0);
+                int bits = Float.floatToIntBits(value);
+                ensureCapacity(4);
+                this.bytes[this.size++] = (byte) (bits >>> 24);
+                this.bytes[this.size++] = (byte) (bits >>> 16);
+                this.bytes[this.size++] = (byte) (bits >>> 8);
+                this.bytes[this.size++] = (byte) bits;
+            }
+        }
+
+        private void ensureCapacity(int length) {
+            if (this.size + length > this.bytes.length)
+                this.bytes = Arrays.copyOf(this.bytes, Math.max(this.bytes.length << 1, this.size + length));
+        }
+    }
+
+    /**
+     * The dictionary of the archive, that maps the ids of the interned checksums to their index
+     * in the archive.
+     */
+    private static class Dictionary {
+        private final MD5Dictionary checksums;
+        private final List<String> values = new ArrayList<>();
+
+        // the index in the archive + 1 by the id of the checksum, 0 if not seen yet
+        private int[] indexes = new int[1024];
+
+        private Dictionary(MD5Dictionary checksums) {
+            this.checksums = checksums;
+        }
+
+        /**
+         * @return the index of the checksum in the archive + 1, 0 for NO_ID
+         */
+        private int index(int id) {
+            if (id == MD5Dictionary.NO_ID)
+                return 0;
+            if (id >= this.indexes.length)
+                this.indexes = Arrays.copyOf(this.indexes, Math.max(this.indexes.length << 1, id + 1));
+            if (this.indexes[id] == 0) {
+                this.values.add(this.checksums.get(id));
+                this.indexes[id] = this.values.size();
+            }
+            return this.indexes[id];
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.jernejerin.traffic.helper;
+
+import com.jernejerin.traffic.client.TripBatch;
+import com.jernejerin.traffic.entities.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Replays the trips from the columnar trip archive written by TripArchive. Each block is memory
+ * mapped and its columns are decoded one by one into primitive arrays, which are reused between
+ * the blocks, before the trips of the block are created from them. The trips can also be replayed in
+ * columnar batches, that are filled directly from the decoded columns without creating a Trip.
+ *
+ * @author Jernej Jerin
+ */
+public class TripArchiveReader implements TripSource {
+    private static final Payment[] PAYMENTS = Payment.values();
+
+    private final File file;
+
+    // the columns of the current block
+    private int[] ids = new int[0];
+    private byte[] flags = new byte[0];
+    private int[] medallions = new int[0];
+    private int[] hackLicenses = new int[0];
+    private long[] pickups = new long[0];
+    private long[] dropOffs = new long[0];
+    private int[] tripTimes = new int[0];
+    private float[][] values = new float[11][0];
+    private long[] routes250 = new long[0];
+    private long[] routes500 = new long[0];
+
+    /**
+     * Creates a reader of the archive.
+     *
+     * @param file the archive file
+     */
+    public TripArchiveReader(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Decodes all the trips in the archive and passes them to the consumer.
+     *
+     * @param consumer the consumer of the trips
+     * @return the number of replayed trips
+     */
+    @Override
+    public long replay(Consumer<Trip> consumer) {
+        return replayBlocks((rows, medallionIds, hackLicenseIds) -> {
+            for (int row = 0; row < rows; row++)
+                consumer.accept(createTrip(row, medallionIds, hackLicenseIds));
+        });
+    }
+
+    /**
+     * Decodes the trips with both routes into columnar batches and passes the full batches and the last
+     * batch to the consumer. The taxi of a trip is the id of its medallion in MD5Dictionary.MEDALLIONS.
+     * Each trip is stamped with the time it was decoded, both in milliseconds and as System.nanoTime().
+     *
+     * @param batchSize the capacity of a batch
+     * @param consumer the consumer of the batches
+     * @return the number of trips in the batches
+     */
+    public long replay(int batchSize, Consumer<TripBatch> consumer) {
+        long cells = TripArchive.GRID_250 * TripArchive.GRID_250;
+        TripBatch[] batch = {new TripBatch(batchSize)};
+        long[] count = {0};
+        replayBlocks((rows, medallionIds, hackLicenseIds) -> {
+            for (int row = 0; row < rows; row++) {
+                int flags = this.flags[row];
+                if ((flags & TripArchive.ROUTES) == 0)
+                    continue;
+
+                long pickup = (flags & TripArchive.PICKUP_DATETIME) != 0 ? this.pickups[row] : TripBatch.NO_DATETIME;
+                long dropOff = (flags & TripArchive.DROP_OFF_DATETIME) != 0 ? this.dropOffs[row] :
+                        TripBatch.NO_DATETIME;
+                int taxi = medallionIds[this.medallions[row]];
+                batch[0].add(this.ids[row], System.currentTimeMillis(), System.nanoTime(), taxi, pickup, dropOff,
+                        this.values[5][row], this.values[8][row], (int) (this.routes250[row] / cells),
+                        (int) (this.routes250[row] % cells), this.routes500[row]);
+                count[0]++;
+                if (batch[0].isFull()) {
+                    consumer.accept(batch[0]);
+                    batch[0] = new TripBatch(batchSize);
+                }
+            }
+        });
+        if (batch[0].size() > 0)
+            consumer.accept(batch[0]);
+        return count[0];
+    }
+
+    /**
+     * Decodes the blocks one by one into the columns and passes each block to the consumer.
+     *
+     * @param consumer the consumer of the decoded columns of a block
+     * @return the number of trips in the archive
+     */
+    private long replayBlocks(BlockConsumer consumer) {
+        try (FileChannel archive = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+            if (archive.size() < TripArchive.FOOTER_SIZE)
+                throw new IllegalStateException("File " + this.file + " is not a trip archive");
+            ByteBuffer footer = read(archive, archive.size() - TripArchive.FOOTER_SIZE, TripArchive.FOOTER_SIZE);
+            long dictionaryOffset = footer.getLong();
+            int blocks = footer.getInt();
+            long trips = footer.getLong();
+            if (footer.getInt() != TripArchive.MAGIC)
+                throw new IllegalStateException("File " + this.file + " is not a trip archive");
+
+            MappedByteBuffer dictionaries = archive.map(FileChannel.MapMode.READ_ONLY, dictionaryOffset,
+                    archive.size() - TripArchive.FOOTER_SIZE - dictionaryOffset);
+            int[] medallionIds = readDictionary(dictionaries, MD5Dictionary.MEDALLIONS);
+            int[] hackLicenseIds = readDictionary(dictionaries, MD5Dictionary.HACK_LICENSES);
+
+            long position = 0;
+            for (int i = 0; i < blocks; i++) {
+                ByteBuffer header = read(archive, position, 8);
+                int rows = header.getInt();
+                int length = header.getInt();
+
+                MappedByteBuffer block = archive.map(FileChannel.MapMode.READ_ONLY, position + 8, length);
+                decodeColumns(block, rows);
+                consumer.accept(rows, medallionIds, hackLicenseIds);
+                position += 8 + length;
+            }
+            return trips;
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read archive " + this.file, e);
+        }
+    }
+
+    private void decodeColumns(ByteBuffer block, int rows) {
+        ensureCapacity(rows);
+        ColumnReader column = new ColumnReader(block);
+
+        column.next();
+        int id = 0;
+        for (int row = 0; row < rows; row++)
+            this.ids[row] = id += (int) column.getSignedVarint();
+
+        column.next();
+        for (int row = 0; row < rows; row++)
+            this.flags[row] = column.get();
+
+        column.next();
+        for (int row = 0; row < rows; row++)
+            this.medallions[row] = (int) column.getVarint();
+
+        column.next();
+        for (int row = 0; row < rows; row++)
+            this.hackLicenses[row] = (int) column.getVarint();
+
+        column.next();
+        long pickup = 0;
+        for (int row = 0; row < rows; row++)
+            if ((this.flags[row] & TripArchive.PICKUP_DATETIME) != 0)
+                this.pickups[row] = pickup += column.getSignedVarint();
+
+        column.next();
+        long dropOff = 0;
+        for (int row = 0; row < rows; row++)
+            if ((this.flags[row] & TripArchive.DROP_OFF_DATETIME) != 0)
+                this.dropOffs[row] = dropOff += column.getSignedVarint();
+
+        column.next();
+        for (int row = 0; row < rows; row++)
+            this.tripTimes[row] = (int) column.getSignedVarint();
+
+        // trip distance, coordinates and amounts
+        for (int i = 0; i < this.values.length; i++) {
+            double scale = i >= 1 && i <= 4 ? TripArchive.COORDINATE_SCALE : TripArchive.AMOUNT_SCALE;
+            float[] values = this.values[i];
+            column.next();
+            for (int row = 0; row < rows; row++)
+                values[row] = column.getQuantised(scale);
+        }
+
+        column.next();
+        for (int row = 0; row < rows; row++)
+            if ((this.flags[row] & TripArchive.ROUTES) != 0)
+                this.routes250[row] = column.getVarint();
+
+        column.next();
+        for (int row = 0; row < rows; row++)
+            if ((this.flags[row] & TripArchive.ROUTES) != 0)
+                this.routes500[row] = column.getVarint();
+    }
+
+    private Trip createTrip(int row, int[] medallionIds, int[] hackLicenseIds) {
+        Trip trip = new Trip();
+        int flags = this.flags[row];
+
+        trip.setId(this.ids[row]);
+        int payment = flags >>> TripArchive.PAYMENT_SHIFT;
+        trip.setPaymentType(payment != 0 ? PAYMENTS[payment - 1] : null);
+
+        trip.setMedallionId(medallionIds[this.medallions[row]]);
+        trip.setHackLicenseId(hackLicenseIds[this.hackLicenses[row]]);
+        if ((flags & TripArchive.PICKUP_DATETIME) != 0)
+            trip.setPickupDatetime(LocalDateTime.ofEpochSecond(this.pickups[row], 0, ZoneOffset.UTC));
+        if ((flags & TripArchive.DROP_OFF_DATETIME) != 0) {
+            trip.setDropOffDatetime(LocalDateTime.ofEpochSecond(this.dropOffs[row], 0, ZoneOffset.UTC));
+            trip.setDropOffTimestamp(this.dropOffs[row] * 1000);
+        }
+
+        trip.setTripTime(this.tripTimes[row]);
+        trip.setTripDistance(this.values[0][row]);
+        trip.setPickupLongitude(this.values[1][row]);
+        trip.setPickupLatitude(this.values[2][row]);
+        trip.setDropOffLongitude(this.values[3][row]);
+        trip.setDropOffLatitude(this.values[4][row]);
+        trip.setFareAmount(this.values[5][row]);
+        trip.setSurcharge(this.values[6][row]);
+        trip.setMtaTax(this.values[7][row]);
+        trip.setTipAmount(this.values[8][row]);
+        trip.setTollsAmount(this.values[9][row]);
+        trip.setTotalAmount(this.values[10][row]);
+
+        if ((flags & TripArchive.ROUTES) != 0) {
+            long route250 = this.routes250[row];
+            int grid = TripArchive.GRID_250;
+            trip.setRoute250(new Route(
+                    Cell250.of((int) (route250 / grid / grid / grid), (int) (route250 / grid / grid % grid)),
+                    Cell250.of((int) (route250 / grid % grid), (int) (route250 % grid))));
+            long route500 = this.routes500[row];
+            grid = TripArchive.GRID_500;
+            trip.setRoute500(new Route(
+                    Cell500.of((int) (route500 / grid / grid / grid), (int) (route500 / grid / grid % grid)),
+                    Cell500.of((int) (route500 / grid % grid), (int) (route500 % grid))));
+        }
+        return trip;
+    }
+
+    private void ensureCapacity(int rows) {
+        if (this.ids.length >= rows)
+            return;
+        this.ids = new int[rows];
+        this.flags = new byte[rows];
+        this.medallions = new int[rows];
+        this.hackLicenses = new int[rows];
+        this.pickups = new long[rows];
+        this.dropOffs = new long[rows];
+        this.tripTimes = new int[rows];
+        this.values = new float[this.values.length][rows];
+        this.routes250 = new long[rows];
+        this.routes500 = new long[rows];
+    }
+
+    /**
+     * Reads the dictionary of the archive and interns its values, once per archive.
+     *
+     * @return the ids of the values by their index in the archive, where index 0 is a missing value
+     */
+    private static int[] readDictionary(ByteBuffer buffer, MD5Dictionary dictionary) {
+        int[] ids = new int[buffer.getInt() + 1];
+        byte[] bytes = new byte[Short.MAX_VALUE];
+        ids[0] = MD5Dictionary.NO_ID;
+        for (int i = 1; i < ids.length; i++) {
+            int length = buffer.getShort();
+            buffer.get(bytes, 0, length);
+            ids[i] = dictionary.intern(new String(bytes, 0, length, StandardCharsets.ISO_8859_1));
+        }
+        return ids;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining())
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of archive at position " + position);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * A consumer of the decoded columns of a block.
+     */
+    private interface BlockConsumer {
+        void accept(int rows, int[] medallionIds, int[] hackLicenseIds);
+    }
+
+    /**
+     * Reads the values of the columns of a block one column after another.
+     */
+    private static class ColumnReader {
+        private final ByteBuffer block;
+        private int position = 0;
+        private int end = 0;
+
+        private ColumnReader(ByteBuffer block) {
+            this.block = block;
+        }
+
+        /** Moves to the next column, skipping what is left of the current one. */
+        private void next() {
+            int length = this.block.getInt(this.end);
+            this.position = this.end + 4;
+            this.end = this.position + length;
+        }
+
+        private byte get() {
+            return this.block.get(this.position++);
+        }
+
+        private long getVarint() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = this.block.get(this.position++);
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        private long getSignedVarint() {
+            long value = getVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private float getQuantised(double scale) {
+            long value = getVarint();
+            if (value != 0)
+                return TripArchive.dequantise(((value - 1) >>> 1) ^ -((value - 1) & 1), scale);
+
+            float raw = this.block.getFloat(this.position);
+            this.position += 4;
+            return raw;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.jernejerin.traffic.helper;
+
+import com.jernejerin.traffic.entities.Trip;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Inserts trips into database in batches. Instead of borrowing a connection and preparing the
+ * insert statement for every trip as JdbcTripStorage.insertTrip does, the writer keeps one pooled
+ * connection with a single prepared statement and groups the trips with addBatch. A batch is executed
+ * and committed when it reaches the batch size or when its oldest trip has waited for the linger time.
+ * For MySQL the connections are set up to let the driver rewrite a batch into a multi row insert.
+ *
+ * The writer records the number of rows and batches and the latency of the batches, which are
+ * logged when the writer is closed. The writer is thread safe, but it is meant to be used by a
+ * single stage thread, so each thread gets its own connection.
+ *
+ * @author Jernej Jerin
+ */
+public class TripBatchWriter implements TripWriter {
+    private final static Logger LOGGER = Logger.getLogger(TripBatchWriter.class.getName());
+
+    private final String table;
+    private final int batchSize;
+    private final long lingerTime;
+
+    private Connection conn;
+    private PreparedStatement insertTrips;
+    private ScheduledExecutorService lingerTimer;
+
+    // the trips in the current batch and the time the first of them was added
+    private int pending = 0;
+    private long batchStart;
+
+    // statistics
+    private long rows = 0;
+    private long batches = 0;
+    private long failedRows = 0;
+    private long batchTimeSum = 0;
+    private long batchTimeMax = 0;
+    private long firstRow = 0;
+    private long lastRow = 0;
+
+    /**
+     * Creates a batch writer. The connection is borrowed from the pool on the first trip.
+     *
+     * @param table table into which we need to insert trips
+     * @param batchSize the maximum number of trips in a batch
+     * @param lingerTime the maximum time in milliseconds a trip waits for the batch to fill,
+     *                   0 to wait until the batch is full or the writer is closed
+     */
+    public TripBatchWriter(String table, int batchSize, long lingerTime) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be positive");
+        this.table = table;
+        this.batchSize = batchSize;
+        this.lingerTime = lingerTime;
+    }
+
+    /**
+     * Adds the trip to the current batch and executes the batch if it is full.
+     *
+     * @param trip trip to insert
+     */
+    @Override
+    public synchronized void add(Trip trip) {
+        try {
+            if (this.insertTrips == null)
+                open();
+
+            TripOperations.setTripParameters(this.insertTrips, trip);
+            this.insertTrips.addBatch();
+            if (this.pending++ == 0)
+                this.batchStart = System.currentTimeMillis();
+
+            if (this.pending >= this.batchSize)
+                flush();
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Problem when adding trip = " + trip + " to batch for table = " +
+                    this.table + " from thread = " + Thread.currentThread());
+        }
+    }
+
+    /**
+     * Executes and commits the current batch. If the batch fails, it is rolled back and its trips
+     * are counted as failed.
+     */
+    public synchronized void flush() {
+        if (this.pending == 0)
+            return;
+
+        long start = System.nanoTime();
+        int rows = this.pending;
+        this.pending = 0;
+        try {
+            this.insertTrips.executeBatch();
+            this.conn.commit();
+
+            long batchTime = System.nanoTime() - start;
+            this.batches++;
+            this.batchTimeSum += batchTime;
+            this.batchTimeMax = Math.max(this.batchTimeMax, batchTime);
+            if (this.rows == 0)
+                this.firstRow = this.batchStart;
+            this.rows += rows;
+            this.lastRow = System.currentTimeMillis();
+        } catch (SQLException e) {
+            this.failedRows += rows;
+            LOGGER.log(Level.SEVERE, "Problem when inserting batch of " + rows + " trips into table = " +
+                    this.table + " from thread = " + Thread.currentThread() + ": " + e.getMessage());
+            try {
+                this.insertTrips.clearBatch();
+                this.conn.rollback();
+            } catch (SQLException ex) {
+                LOGGER.log(Level.SEVERE, "Problem with rolling back batch from thread = " + Thread.currentThread());
+            }
+        }
+    }
+
+    /**
+     * Inserts the remaining trips, returns the connection to the pool and logs the statistics.
+     */
+    @Override
+    public synchronized void close() {
+        if (this.lingerTimer != null) {
+            this.lingerTimer.shutdownNow();
+            this.lingerTimer = null;
+        }
+        if (this.insertTrips == null)
+            return;
+
+        flush();
+        try {
+            this.insertTrips.close();
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Problem with closing prepared statement for table = " +
+                    this.table + " from thread = " + Thread.currentThread());
+        }
+        try {
+            this.conn.setAutoCommit(true);
+            this.conn.close();
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Problem with closing connection from thread = " + Thread.currentThread());
+        }
+        this.insertTrips = null;
+        this.conn = null;
+
+        LOGGER.log(Level.INFO, "Inserted into table = " + this.table + ": " + this);
+    }
+
+    public synchronized long getRows() {
+        return rows;
+    }
+
+    public synchronized long getBatches() {
+        return batches;
+    }
+
+    public synchronized long getFailedRows() {
+        return failedRows;
+    }
+
+    /**
+     * Get the insert throughput from the first trip of the first batch until the last commit.
+     *
+     * @return the number of inserted rows per second
+     */
+    public synchronized double getRowsPerSecond() {
+        long time = this.lastRow - this.firstRow;
+        return this.rows == 0 ? 0 : this.rows * 1000.0 / Math.max(time, 1);
+    }
+
+    /** @return the average time to execute and commit a batch in milliseconds */
+    public synchronized double getAverageBatchLatency() {
+        return this.batches == 0 ? 0 : this.batchTimeSum / 1e6 / this.batches;
+    }
+
+    /** @return the maximum time to execute and commit a batch in milliseconds */
+    public synchronized double getMaxBatchLatency() {
+        return this.batchTimeMax / 1e6;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "rows = " + this.rows + ", batches = " + this.batches + ", failed rows = " + this.failedRows +
+                ", rows/s = " + getRowsPerSecond() + ", batch latency (ms) avg/max = " +
+                getAverageBatchLatency() + "/" + getMaxBatchLatency();
+    }
+
+    private void open() throws SQLException {
+        // first we need to get connection from connection pool
+        Connection conn = DriverManager.getConnection(JdbcTripStorage.POOL_URI);
+        try {
+            conn.setAutoCommit(false);
+            this.insertTrips = conn.prepareStatement(TripOperations.insertTripSql(this.table));
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+        this.conn = conn;
+
+        // execute batches, that did not fill up in the linger time. The batches are checked four
+        // times per linger time, so a trip waits at most a quarter longer than the linger time
+        if (this.lingerTime > 0) {
+            long period = Math.max(this.lingerTime / 4, 1);
+            this.lingerTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "linger-" + this.table);
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.lingerTimer.scheduleWithFixedDelay(this::flushLingering, period, period,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void flushLingering() {
+        if (this.pending > 0 && System.currentTimeMillis() - this.batchStart >= this.lingerTime)
+            flush();
+    }
+}
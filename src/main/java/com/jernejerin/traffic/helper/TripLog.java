@@ -0,0 +1,391 @@
+package com.jernejerin.traffic.helper;
+
+import com.jernejerin.traffic.entities.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * An append-only log of trips in a directory. Each trip is stored as a fixed-width binary
+ * record of RECORD_SIZE bytes, so the log can be replayed without parsing the CSV lines. The log
+ * is split into segment files of at most segmentSize bytes, which are named by their sequence
+ * number, so the segments sort in the order they were written.
+ *
+ * Records are appended in groups: a group of encoded records is written to the segment with
+ * a single write (group commit). The fsync policy decides when the written groups are forced to disk:
+ *  - never: the operating system decides
+ *  - commit: after every group
+ *  - interval: after a group, if the last sync is older than the sync interval
+ *
+ * A record has the following layout, where multi byte values are big-endian:
+ *  - 0: id (int)
+ *  - 4: flags (byte), which values are present and the case of the MD5 checksums
+ *  - 5: payment type (byte), 0 if not present, otherwise ordinal of Payment + 1
+ *  - 6: reserved (2 bytes)
+ *  - 8: medallion and hack license (2 x 16 bytes), MD5 checksums as raw bytes in the case given
+ *    by the flags
+ *  - 40: pickup and drop off date time (2 x long), seconds from epoch in UTC
+ *  - 56: trip time (int)
+ *  - 60: trip distance, coordinates and amounts (11 x float)
+ *  - 104: timestamp received (long)
+ *  - 112: 250m route and 500m route (2 x 4 shorts), east and south of start and end cell
+ *
+ * The appends are thread safe.
+ *
+ * @author Jernej Jerin
+ */
+public class TripLog implements AutoCloseable {
+    /** The size of a single trip record in bytes. */
+    public static final int RECORD_SIZE = 128;
+
+    /** The default size of a segment in bytes. */
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    // flags of the present values
+    private static final int MEDALLION = 1;
+    private static final int HACK_LICENSE = 1 << 1;
+    private static final int PICKUP_DATETIME = 1 << 2;
+    private static final int DROP_OFF_DATETIME = 1 << 3;
+    private static final int ROUTES = 1 << 4;
+    private static final int MEDALLION_LOWER_CASE = 1 << 5;
+    private static final int HACK_LICENSE_LOWER_CASE = 1 << 6;
+
+    private static final Payment[] PAYMENTS = Payment.values();
+
+    /**
+     * The fsync policy of the log.
+     */
+    public enum Fsync {
+        NEVER, COMMIT, INTERVAL
+    }
+
+    private final File dir;
+    private final long segmentSize;
+    private final Fsync fsync;
+    private final long syncInterval;
+
+    private FileChannel segment;
+    private int segmentNumber = -1;
+    private long segmentPosition;
+    private long lastSync;
+
+    /**
+     * Creates a log in the directory. Appending continues at the end of the last segment.
+     *
+     * @param dir the directory of the segment files
+     * @param segmentSize the maximum size of a segment in bytes, rounded down to whole records
+     * @param fsync the name of the fsync policy, see fsync(String)
+     * @param syncInterval the time in milliseconds between syncs for the interval policy
+     */
+    public TripLog(File dir, long segmentSize, String fsync, long syncInterval) {
+        if (segmentSize < RECORD_SIZE)
+            throw new IllegalArgumentException("Segment size must hold at least one record");
+        this.dir = dir;
+        this.segmentSize = segmentSize - segmentSize % RECORD_SIZE;
+        this.fsync = fsync(fsync);
+        this.syncInterval = syncInterval;
+    }
+
+    /**
+     * Maps the name of the fsync policy to the policy. The following names are
+     * supported: never, commit and interval.
+     *
+     * @param name the name of the policy
+     * @return the fsync policy
+     */
+    public static Fsync fsync(String name) {
+        switch (name) {
+            case "never":
+                return Fsync.NEVER;
+            case "commit":
+                return Fsync.COMMIT;
+            case "interval":
+                return Fsync.INTERVAL;
+            default:
+                throw new IllegalArgumentException("Unknown fsync policy " + name);
+        }
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * Appends a group of encoded records to the log with a single write, unless the group has to be
+     * split between two segments.
+     *
+     * @param group the records from the position to the limit of the buffer, the buffer is consumed
+     */
+    public synchronized void append(ByteBuffer group) {
+        if (group.remaining() % RECORD_SIZE != 0)
+            throw new IllegalArgumentException("Group does not hold whole records");
+        try {
+            if (this.segment == null)
+                openLastSegment();
+
+            while (group.hasRemaining()) {
+                if (this.segmentPosition == this.segmentSize)
+                    nextSegment();
+
+                // write as much of the group as fits into the segment
+                int limit = group.limit();
+                group.limit(group.position() + (int) Math.min(group.remaining(),
+                        this.segmentSize - this.segmentPosition));
+                while (group.hasRemaining())
+                    this.segmentPosition += this.segment.write(group);
+                group.limit(limit);
+            }
+
+            if (this.fsync == Fsync.COMMIT || this.fsync == Fsync.INTERVAL &&
+                    System.currentTimeMillis() - this.lastSync >= this.syncInterval)
+                sync();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to append to trip log " + this.dir, e);
+        }
+    }
+
+    /**
+     * Forces the written records to disk.
+     */
+    public synchronized void sync() {
+        try {
+            if (this.segment != null)
+                this.segment.force(false);
+            this.lastSync = System.currentTimeMillis();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to sync trip log " + this.dir, e);
+        }
+    }
+
+    /**
+     * Deletes all the segments of the log.
+     */
+    public synchronized void truncate() {
+        close();
+        for (File file : segments(this.dir)) {
+            if (!file.delete())
+                throw new IllegalStateException("Unable to delete segment " + file);
+        }
+        this.segmentNumber = -1;
+    }
+
+    /**
+     * Forces the written records to disk and closes the current segment.
+     */
+    @Override
+    public synchronized void close() {
+        if (this.segment == null)
+            return;
+        try {
+            this.segment.force(false);
+            this.segment.close();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to close trip log " + this.dir, e);
+        } finally {
+            this.segment = null;
+        }
+    }
+
+    /**
+     * Get the segment files of the log in the order they were written.
+     *
+     * @param dir the directory of the log
+     * @return the segment files or an empty array if there are none
+     */
+    public static File[] segments(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files == null)
+            return new File[0];
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * Encodes the trip into a record at the position of the buffer and advances the position.
+     *
+     * @param trip the trip to encode
+     * @param buffer the buffer with at least RECORD_SIZE bytes remaining
+     */
+    public static void encode(Trip trip, ByteBuffer buffer) {
+        int start = buffer.position();
+        int flags = 0;
+
+        buffer.putInt(start, trip.getId());
+        buffer.put(start + 5, (byte) (trip.getPaymentType() != null ? trip.getPaymentType().ordinal() + 1 : 0));
+        buffer.putShort(start + 6, (short) 0);
+
+        if (trip.getMedallionId() != MD5Dictionary.NO_ID) {
+            putMD5(MD5Dictionary.MEDALLIONS, trip.getMedallionId(), buffer, start + 8);
+            flags |= MEDALLION | (MD5Dictionary.MEDALLIONS.isLowerCase(trip.getMedallionId()) ?
+                    MEDALLION_LOWER_CASE : 0);
+        } else {
+            buffer.putLong(start + 8, 0).putLong(start + 16, 0);
+        }
+        if (trip.getHackLicenseId() != MD5Dictionary.NO_ID) {
+            putMD5(MD5Dictionary.HACK_LICENSES, trip.getHackLicenseId(), buffer, start + 24);
+            flags |= HACK_LICENSE | (MD5Dictionary.HACK_LICENSES.isLowerCase(trip.getHackLicenseId()) ?
+                    HACK_LICENSE_LOWER_CASE : 0);
+        } else {
+            buffer.putLong(start + 24, 0).putLong(start + 32, 0);
+        }
+
+        if (trip.getPickupDatetime() != null)
+            flags |= PICKUP_DATETIME;
+        buffer.putLong(start + 40, trip.getPickupDatetime() != null ?
+                trip.getPickupDatetime().toEpochSecond(ZoneOffset.UTC) : 0);
+        if (trip.getDropOffDatetime() != null)
+            flags |= DROP_OFF_DATETIME;
+        buffer.putLong(start + 48, trip.getDropOffDatetime() != null ?
+                trip.getDropOffDatetime().toEpochSecond(ZoneOffset.UTC) : 0);
+
+        buffer.putInt(start + 56, trip.getTripTime());
+        buffer.putFloat(start + 60, trip.getTripDistance());
+        buffer.putFloat(start + 64, trip.getPickupLongitude());
+        buffer.putFloat(start + 68, trip.getPickupLatitude());
+        buffer.putFloat(start + 72, trip.getDropOffLongitude());
+        buffer.putFloat(start + 76, trip.getDropOffLatitude());
+        buffer.putFloat(start + 80, trip.getFareAmount());
+        buffer.putFloat(start + 84, trip.getSurcharge());
+        buffer.putFloat(start + 88, trip.getMtaTax());
+        buffer.putFloat(start + 92, trip.getTipAmount());
+        buffer.putFloat(start + 96, trip.getTollsAmount());
+        buffer.putFloat(start + 100, trip.getTotalAmount());
+        buffer.putLong(start + 104, trip.getTimestampReceived());
+
+        if (trip.getRoute250() != null && trip.getRoute500() != null) {
+            flags |= ROUTES;
+            putRoute(trip.getRoute250(), buffer, start + 112);
+            putRoute(trip.getRoute500(), buffer, start + 120);
+        } else {
+            buffer.putLong(start + 112, 0).putLong(start + 120, 0);
+        }
+
+        buffer.put(start + 4, (byte) flags);
+        buffer.position(start + RECORD_SIZE);
+    }
+
+    /**
+     * Decodes the trip from the record at the offset of the buffer. The trip is the same as
+     * parsed from the CSV line, that the record was encoded from.
+     *
+     * @param buffer the buffer holding the record
+     * @param offset the offset of the record in the buffer
+     * @return the decoded trip
+     */
+    public static Trip decode(ByteBuffer buffer, int offset) {
+        Trip trip = new Trip();
+        int flags = buffer.get(offset + 4);
+
+        trip.setId(buffer.getInt(offset));
+        int payment = buffer.get(offset + 5);
+        trip.setPaymentType(payment != 0 ? PAYMENTS[payment - 1] : null);
+
+        if ((flags & MEDALLION) != 0)
+            trip.setMedallionId(getMD5(MD5Dictionary.MEDALLIONS, buffer, offset + 8,
+                    (flags & MEDALLION_LOWER_CASE) != 0));
+        if ((flags & HACK_LICENSE) != 0)
+            trip.setHackLicenseId(getMD5(MD5Dictionary.HACK_LICENSES, buffer, offset + 24,
+                    (flags & HACK_LICENSE_LOWER_CASE) != 0));
+        if ((flags & PICKUP_DATETIME) != 0)
+            trip.setPickupDatetime(LocalDateTime.ofEpochSecond(buffer.getLong(offset + 40), 0, ZoneOffset.UTC));
+        if ((flags & DROP_OFF_DATETIME) != 0) {
+            trip.setDropOffDatetime(LocalDateTime.ofEpochSecond(buffer.getLong(offset + 48), 0, ZoneOffset.UTC));
+            trip.setDropOffTimestamp(buffer.getLong(offset + 48) * 1000);
+        }
+
+        trip.setTripTime(buffer.getInt(offset + 56));
+        trip.setTripDistance(buffer.getFloat(offset + 60));
+        trip.setPickupLongitude(buffer.getFloat(offset + 64));
+        trip.setPickupLatitude(buffer.getFloat(offset + 68));
+        trip.setDropOffLongitude(buffer.getFloat(offset + 72));
+        trip.setDropOffLatitude(buffer.getFloat(offset + 76));
+        trip.setFareAmount(buffer.getFloat(offset + 80));
+        trip.setSurcharge(buffer.getFloat(offset + 84));
+        trip.setMtaTax(buffer.getFloat(offset + 88));
+        trip.setTipAmount(buffer.getFloat(offset + 92));
+        trip.setTollsAmount(buffer.getFloat(offset + 96));
+        trip.setTotalAmount(buffer.getFloat(offset + 100));
+        trip.setTimestampReceived(buffer.getLong(offset + 104));
+
+        if ((flags & ROUTES) != 0) {
+            trip.setRoute250(new Route(Cell250.of(buffer.getShort(offset + 112), buffer.getShort(offset + 114)),
+                    Cell250.of(buffer.getShort(offset + 116), buffer.getShort(offset + 118))));
+            trip.setRoute500(new Route(Cell500.of(buffer.getShort(offset + 120), buffer.getShort(offset + 122)),
+                    Cell500.of(buffer.getShort(offset + 124), buffer.getShort(offset + 126))));
+        }
+        return trip;
+    }
+
+    /**
+     * Opens the last segment for appending, where a partially written record at the end
+     * of the segment is cut off.
+     */
+    private void openLastSegment() throws IOException {
+        File[] segments = segments(this.dir);
+        if (segments.length == 0) {
+            nextSegment();
+            return;
+        }
+
+        File last = segments[segments.length - 1];
+        this.segmentNumber = segmentNumber(last);
+        this.segment = FileChannel.open(last.toPath(), StandardOpenOption.WRITE);
+        this.segmentPosition = this.segment.size() - this.segment.size() % RECORD_SIZE;
+        this.segment.truncate(this.segmentPosition);
+        this.segment.position(this.segmentPosition);
+        this.lastSync = System.currentTimeMillis();
+    }
+
+    private void nextSegment() throws IOException {
+        if (this.segment != null) {
+            this.segment.force(false);
+            this.segment.close();
+        }
+        if (!this.dir.isDirectory() && !this.dir.mkdirs())
+            throw new IOException("Unable to create directory " + this.dir);
+
+        this.segmentNumber++;
+        File file = new File(this.dir, String.format("%010d", this.segmentNumber) + SEGMENT_SUFFIX);
+        this.segment = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.segmentPosition = 0;
+        this.lastSync = System.currentTimeMillis();
+    }
+
+    private static int segmentNumber(File segment) {
+        String name = segment.getName();
+        return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static void putRoute(Route route, ByteBuffer buffer, int offset) {
+        buffer.putShort(offset, (short) route.getStartCell().getEast());
+        buffer.putShort(offset + 2, (short) route.getStartCell().getSouth());
+        buffer.putShort(offset + 4, (short) route.getEndCell().getEast());
+        buffer.putShort(offset + 6, (short) route.getEndCell().getSouth());
+    }
+
+    /**
+     * Puts the interned MD5 checksum as 16 raw bytes.
+     */
+    private static void putMD5(MD5Dictionary dictionary, int id, ByteBuffer buffer, int offset) {
+        buffer.putLong(offset, dictionary.getHigh(id)).putLong(offset + 8, dictionary.getLow(id));
+    }
+
+    /**
+     * Interns the MD5 checksum from its 16 raw bytes.
+     *
+     * @return the id of the checksum
+     */
+    private static int getMD5(MD5Dictionary dictionary, ByteBuffer buffer, int offset, boolean lowerCase) {
+        return dictionary.intern(buffer.getLong(offset), buffer.getLong(offset + 8), lowerCase);
+    }
+}
@@ -0,0 +1,58 @@
+package com.jernejerin.traffic.helper;
+
+import com.jernejerin.traffic.entities.Trip;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Replays the trips from the append-only trip log. Each segment is memory mapped and the
+ * records are decoded directly from the mapped buffer, in the order they were appended. A partially
+ * written record at the end of a segment is skipped.
+ *
+ * @author Jernej Jerin
+ */
+public class TripLogReader implements TripSource {
+    private final File dir;
+
+    /**
+     * Creates a reader of the log in the directory.
+     *
+     * @param dir the directory of the segment files
+     */
+    public TripLogReader(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Decodes all the trips in the log and passes them to the consumer.
+     *
+     * @param consumer the consumer of the trips
+     * @return the number of replayed trips
+     */
+    @Override
+    public long replay(Consumer<Trip> consumer) {
+        long count = 0;
+        for (File file : TripLog.segments(this.dir)) {
+            try (FileChannel segment = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long size = segment.size() - segment.size() % TripLog.RECORD_SIZE;
+                if (size == 0)
+                    continue;
+
+                MappedByteBuffer records = segment.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                for (int offset = 0; offset < size; offset += TripLog.RECORD_SIZE) {
+                    consumer.accept(TripLog.decode(records, offset));
+                    count++;
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to read segment " + file, e);
+            }
+        }
+        return count;
+    }
+}
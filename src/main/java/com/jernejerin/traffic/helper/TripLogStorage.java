@@ -0,0 +1,146 @@
+package com.jernejerin.traffic.helper;
+
+import com.jernejerin.traffic.entities.Trip;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * A trip storage in append-only trip logs, one log for each table in a subdirectory of the
+ * storage directory. The writers encode the trips into their own buffer and append the whole
+ * batch to the log at once, so the log is locked once per batch instead of once per trip.
+ * The logs can be replayed with TripLogReader. The trips are in the log in the order they were
+ * appended, so when several writers share a table their batches are interleaved.
+ *
+ * @author Jernej Jerin
+ */
+public class TripLogStorage implements TripStorage {
+    private final static Logger LOGGER = Logger.getLogger(TripLogStorage.class.getName());
+
+    private final File dir;
+    private final long segmentSize;
+    private final String fsync;
+    private final long syncInterval;
+    private final Map<String, TripLog> logs = new ConcurrentHashMap<>();
+
+    // the record of a single inserted trip, reused by all the inserts under its lock
+    private final ByteBuffer record = ByteBuffer.allocateDirect(TripLog.RECORD_SIZE);
+
+    /**
+     * Creates a storage in the directory.
+     *
+     * @param dir the directory of the logs
+     * @param segmentSize the maximum size of a segment in bytes
+     * @param fsync the name of the fsync policy, see TripLog.fsync(String)
+     * @param syncInterval the time in milliseconds between syncs for the interval policy
+     */
+    public TripLogStorage(File dir, long segmentSize, String fsync, long syncInterval) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.fsync = fsync;
+        this.syncInterval = syncInterval;
+
+        // fail early on unknown policy
+        TripLog.fsync(fsync);
+    }
+
+    /**
+     * Get the log of the table.
+     *
+     * @param table the name of the table
+     * @return the log of the table
+     */
+    public TripLog getLog(String table) {
+        return this.logs.computeIfAbsent(table, t -> new TripLog(new File(this.dir, t), this.segmentSize,
+                this.fsync, this.syncInterval));
+    }
+
+    @Override
+    public void insertTrip(Trip trip, String table) {
+        TripLog log = getLog(table);
+        synchronized (this.record) {
+            this.record.clear();
+            TripLog.encode(trip, this.record);
+            this.record.flip();
+            log.append(this.record);
+        }
+    }
+
+    @Override
+    public void truncateTable(String table) {
+        getLog(table).truncate();
+    }
+
+    @Override
+    public TripWriter openWriter(String table, int batchSize, long lingerTime) {
+        return new LogWriter(getLog(table), batchSize, lingerTime);
+    }
+
+    /**
+     * Closes the logs of all the tables.
+     */
+    @Override
+    public void close() {
+        this.logs.values().forEach(TripLog::close);
+    }
+
+    /**
+     * A writer, that appends the trips to the log in groups of batch size. As there is no
+     * round trip to a server, the linger time is checked only when a trip is added.
+     */
+    private static class LogWriter implements TripWriter {
+        private final TripLog log;
+        private final ByteBuffer group;
+        private final long lingerTime;
+        private long groupStart;
+
+        private long rows = 0;
+        private long groups = 0;
+        private long start = 0;
+
+        private LogWriter(TripLog log, int batchSize, long lingerTime) {
+            if (batchSize < 1)
+                throw new IllegalArgumentException("Batch size must be positive");
+            this.log = log;
+            this.group = ByteBuffer.allocateDirect(batchSize * TripLog.RECORD_SIZE);
+            this.lingerTime = lingerTime;
+        }
+
+        @Override
+        public void add(Trip trip) {
+            long now = System.currentTimeMillis();
+            if (this.group.position() == 0) {
+                this.groupStart = now;
+                if (this.rows == 0)
+                    this.start = now;
+            }
+
+            TripLog.encode(trip, this.group);
+            this.rows++;
+            if (!this.group.hasRemaining() || this.lingerTime > 0 && now - this.groupStart >= this.lingerTime)
+                commit();
+        }
+
+        @Override
+        public void close() {
+            commit();
+            LOGGER.log(Level.INFO, "Appended to trip log = " + this.log.getDir() + ": rows = " + this.rows +
+                    ", groups = " + this.groups + ", rows/s = " +
+                    this.rows * 1000.0 / Math.max(System.currentTimeMillis() - this.start, 1));
+        }
+
+        private void commit() {
+            if (this.group.position() == 0)
+                return;
+            this.group.flip();
+            this.log.append(this.group);
+            this.group.clear();
+            this.groups++;
+        }
+    }
+}
@@ -4,8 +4,6 @@ import com.jernejerin.traffic.entities.*;
 
 import org.apache.commons.lang3.math.NumberUtils;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
@@ -36,163 +34,57 @@ public class TripOperations {
      *  - primitive types: MIN_VALUE
      *  - objects: null
      *
-     * @param tripValues comma delimited string representing Trip to check
+     * The values are read directly from the string by the TripParser.
+     *
+     * @param tripValues comma delimited string (or slice of bytes) representing Trip to check
      * @param timestampReceived Timestamp when the event was received
      * @param id id of the event received
      * @return a Trip with erroneous values set to MIN_VALUE, or null if whole trip was malformed
      */
-    public static Trip parseValidateTrip(String tripValues, long timestampReceived, int id) {
-//        LOGGER.log(Level.INFO, "Started parsing and validating trip = " +
-//                tripValues + " from thread = " + Thread.currentThread());
-
-        // our returned trip
-        Trip trip = new Trip();
-
-        // values are comma separated
-        String[] tripSplit = tripValues.split(",");
-
-        // if we do not have 17 values, then return null
-        if (tripSplit.length != 17)
-            return null;
-
-        // check for correct values and then set them
-        trip.setId(id);
-        trip.setMedallion(tryParseMD5(tripSplit[0], null));
-        trip.setHackLicense(tryParseMD5(tripSplit[1], null));
-        trip.setPickupDatetime(tryParseDateTime(tripSplit[2], null));
-        trip.setDropOffDatetime(tryParseDateTime(tripSplit[3], null));
-        trip.setDropOffTimestamp(trip.getDropOffDatetime() != null ? trip.getDropOffDatetime().toEpochSecond(ZoneOffset.UTC) * 1000 : 0);
-        trip.setTripTime(NumberUtils.toInt(tripSplit[4], Integer.MIN_VALUE));
-        trip.setTripDistance(NumberUtils.toFloat(tripSplit[5], Integer.MIN_VALUE));
-        trip.setPickupLongitude(tryLongitude(tripSplit[6], Float.MIN_VALUE));
-        trip.setPickupLatitude(tryLatitude(tripSplit[7], Float.MIN_VALUE));
-        trip.setDropOffLongitude(tryLongitude(tripSplit[8], Float.MIN_VALUE));
-        trip.setDropOffLatitude(tryLatitude(tripSplit[9], Float.MIN_VALUE));
-        trip.setPaymentType(tryPayment(tripSplit[10], null));
-        trip.setFareAmount(NumberUtils.toFloat(tripSplit[11], Float.MIN_VALUE));
-        trip.setSurcharge(NumberUtils.toFloat(tripSplit[12], Float.MIN_VALUE));
-        trip.setMtaTax(NumberUtils.toFloat(tripSplit[13], Float.MIN_VALUE));
-        trip.setTipAmount(NumberUtils.toFloat(tripSplit[14], Float.MIN_VALUE));
-        trip.setTollsAmount(NumberUtils.toFloat(tripSplit[15], Float.MIN_VALUE));
-        trip.setTotalAmount(NumberUtils.toFloat(tripSplit[16], Float.MIN_VALUE));
-        trip.setTimestampReceived(timestampReceived);
-
-        // does the coordinate for pickup location lie inside grid
-        if (Cell.inGrid(trip.getPickupLatitude(), trip.getPickupLongitude()) &&
-                Cell.inGrid(trip.getDropOffLatitude(), trip.getDropOffLongitude())) {
-            trip.setRoute250(new Route(new Cell250(trip.getPickupLatitude(), trip.getPickupLongitude()),
-                    new Cell250(trip.getDropOffLatitude(), trip.getDropOffLongitude())));
-            trip.setRoute500(new Route(new Cell500(trip.getPickupLatitude(), trip.getPickupLongitude()),
-                    new Cell500(trip.getDropOffLatitude(), trip.getDropOffLongitude())));
-        }
-
-//        LOGGER.log(Level.INFO, "Finished parsing and validating trip = " +
-//                trip.toString() + " from thread = " + Thread.currentThread());
-        return trip;
+    public static Trip parseValidateTrip(CharSequence tripValues, long timestampReceived, int id) {
+        return TripParser.parse(tripValues, 0, tripValues.length(), timestampReceived, id);
     }
 
     /**
-     * Truncate table.
+     * Get the insert statement for a trip into the table.
      *
-     * @param table table to truncate
+     * @param table table into which we need to insert trip
+     * @return the SQL of the prepared statement with 19 parameters
      */
-    public static void truncateTable(String table) {
-//        LOGGER.log(Level.INFO, "Started inserting trip into DB for trip = " +
-//                trip.toString() + " from thread = " + Thread.currentThread());
-        PreparedStatement truncateTable = null;
-        Connection conn = null;
-        try {
-            // first we need to get connection from connection pool
-            conn = DriverManager.getConnection("jdbc:apache:commons:dbcp:taxi");
-
-            // setting up prepared statement
-            truncateTable = conn.prepareStatement("truncate " + table);
-            truncateTable.execute();
-        } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "Problem when truncating table = " +
-                    table + " from thread = " + Thread.currentThread());
-        } finally {
-            try {
-                if (truncateTable != null) truncateTable.close();
-            }
-            catch(Exception e) {
-                LOGGER.log(Level.SEVERE, "Problem with closing prepared statement for truncating table = " +
-                        table + " from thread = " + Thread.currentThread());
-            }
-            try {
-                if (conn != null) conn.close();
-            }
-            catch(Exception e) {
-                LOGGER.log(Level.SEVERE, "Problem with closing connection from thread = " + Thread.currentThread());
-            }
-//            LOGGER.log(Level.INFO, "Finished inserting ticket into DB for for ticket = " +
-//                    trip + " from thread = " + Thread.currentThread());
-        }
+    public static String insertTripSql(String table) {
+        return "insert into " + table + " (eventId, medallion, hack_license, pickup_datetime, " +
+                "dropoff_datetime, trip_time, trip_distance, pickup_longitude, pickup_latitude, dropoff_longitude, " +
+                "dropoff_latitude, payment_type, fare_amount, surcharge, mta_tax, tip_amount, tolls_amount, " +
+                "total_amount, timestampReceived) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
     }
 
     /**
-     * Insert a trip into database.
+     * Sets the parameters of the insert statement from insertTripSql to the values of the trip.
      *
-     * @param trip trip to insert.
-     * @param table table into which we need to insert trip
+     * @param statement the prepared insert statement
+     * @param trip trip to insert
+     * @throws SQLException if setting a parameter fails
      */
-    public static void insertTrip(Trip trip, String table) {
-//        LOGGER.log(Level.INFO, "Started inserting trip into DB for trip = " +
-//                trip.toString() + " from thread = " + Thread.currentThread());
-        PreparedStatement insertTrip = null;
-        Connection conn = null;
-        try {
-            // first we need to get connection from connection pool
-            conn = DriverManager.getConnection("jdbc:apache:commons:dbcp:taxi");
-
-            // setting up prepared statement
-            insertTrip = conn.prepareStatement("insert into " + table + " (eventId, medallion, hack_license, pickup_datetime, " +
-                    "dropoff_datetime, trip_time, trip_distance, pickup_longitude, pickup_latitude, dropoff_longitude, " +
-                    "dropoff_latitude, payment_type, fare_amount, surcharge, mta_tax, tip_amount, tolls_amount, " +
-                    "total_amount, timestampReceived) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
-
-
-            insertTrip.setInt(1, trip.getId());
-            insertTrip.setString(2, trip.getMedallion());
-            insertTrip.setString(3, trip.getHackLicense());
-            insertTrip.setTimestamp(4, new Timestamp(trip.getPickupDatetime().toEpochSecond(ZoneOffset.UTC) * 1000));
-            insertTrip.setTimestamp(5, new Timestamp(trip.getDropOffDatetime().toEpochSecond(ZoneOffset.UTC) * 1000));
-            insertTrip.setInt(6, trip.getTripTime());
-            insertTrip.setDouble(7, trip.getTripDistance());
-            insertTrip.setDouble(8, trip.getPickupLongitude());
-            insertTrip.setDouble(9, trip.getPickupLatitude());
-            insertTrip.setDouble(10, trip.getDropOffLongitude());
-            insertTrip.setDouble(11, trip.getDropOffLatitude());
-            insertTrip.setString(12, trip.getPaymentType() != null ? trip.getPaymentType().name() : null);
-            insertTrip.setDouble(13, trip.getFareAmount());
-            insertTrip.setDouble(14, trip.getSurcharge());
-            insertTrip.setDouble(15, trip.getMtaTax());
-            insertTrip.setDouble(16, trip.getTipAmount());
-            insertTrip.setDouble(17, trip.getTollsAmount());
-            insertTrip.setDouble(18, trip.getTotalAmount());
-            insertTrip.setLong(19, trip.getTimestampReceived());
-
-            insertTrip.execute();
-        } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "Problem when inserting ticket into DB for ticket = " +
-                    trip + " from thread = " + Thread.currentThread());
-        } finally {
-            try {
-                if (insertTrip != null) insertTrip.close();
-            }
-            catch(Exception e) {
-                LOGGER.log(Level.SEVERE, "Problem with closing prepared statement for ticket = " +
-                        trip + " from thread = " + Thread.currentThread());
-            }
-            try {
-                if (conn != null) conn.close();
-            }
-            catch(Exception e) {
-                LOGGER.log(Level.SEVERE, "Problem with closing connection from thread = " + Thread.currentThread());
-            }
-//            LOGGER.log(Level.INFO, "Finished inserting ticket into DB for for ticket = " +
-//                    trip + " from thread = " + Thread.currentThread());
-        }
+    public static void setTripParameters(PreparedStatement statement, Trip trip) throws SQLException {
+        statement.setInt(1, trip.getId());
+        statement.setString(2, trip.getMedallion());
+        statement.setString(3, trip.getHackLicense());
+        statement.setTimestamp(4, new Timestamp(trip.getPickupDatetime().toEpochSecond(ZoneOffset.UTC) * 1000));
+        statement.setTimestamp(5, new Timestamp(trip.getDropOffDatetime().toEpochSecond(ZoneOffset.UTC) * 1000));
+        statement.setInt(6, trip.getTripTime());
+        statement.setDouble(7, trip.getTripDistance());
+        statement.setDouble(8, trip.getPickupLongitude());
+        statement.setDouble(9, trip.getPickupLatitude());
+        statement.setDouble(10, trip.getDropOffLongitude());
+        statement.setDouble(11, trip.getDropOffLatitude());
+        statement.setString(12, trip.getPaymentType() != null ? trip.getPaymentType().name() : null);
+        statement.setDouble(13, trip.getFareAmount());
+        statement.setDouble(14, trip.getSurcharge());
+        statement.setDouble(15, trip.getMtaTax());
+        statement.setDouble(16, trip.getTipAmount());
+        statement.setDouble(17, trip.getTollsAmount());
+        statement.setDouble(18, trip.getTotalAmount());
+        statement.setLong(19, trip.getTimestampReceived());
     }
 
     /**
@@ -0,0 +1,378 @@
+package com.jernejerin.traffic.helper;
+
+import com.jernejerin.traffic.entities.*;
+
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * <p>
+ * A hand written parser for the comma delimited trip line. It reads the 17 values
+ * directly from a CharSequence (a String, a CharBuffer or a ByteSequence over a byte buffer),
+ * without splitting the line into intermediate Strings, without regular expressions and
+ * without DateTimeFormatter. The MD5 checksums are interned into MD5Dictionary directly from
+ * the line, without creating a String.
+ *
+ * The result is exactly the same as the result of the split based parsing. For well formed
+ * values the parser uses a fast path. Only when a value falls out of the fast path (e.g.
+ * exponent notation, surrounding whitespaces, an invalid date) the value is parsed by the
+ * original conversion methods, so that the erroneous values (MIN_VALUE or null) stay the same.
+ *
+ * @author Jernej Jerin
+ */
+public class TripParser {
+    // number of values in a single trip line
+    private static final int NUM_VALUES = 17;
+
+    // largest mantissa that can be exactly represented in a double
+    private static final long MAX_MANTISSA = 1L << 53;
+
+    // powers of ten that can be exactly represented in a double
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // days in month for non leap year
+    private static final int[] DAYS_IN_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    /**
+     * Parses and validates a trip for erroneous values. See parse(CharSequence, int, int, long, int).
+     *
+     * @param tripValues comma delimited trip
+     * @param timestampReceived Timestamp when the event was received
+     * @param id id of the event received
+     * @return a Trip with erroneous values set to MIN_VALUE, or null if whole trip was malformed
+     */
+    public static Trip parse(CharSequence tripValues, long timestampReceived, int id) {
+        return parse(tripValues, 0, tripValues.length(), timestampReceived, id);
+    }
+
+    /**
+     * Parses only the drop off date time of the trip, the same way as parse does, e.g. to order
+     * the lines by the drop off time before they are parsed.
+     *
+     * @param line comma delimited trip
+     * @return the drop off timestamp in milliseconds or Long.MIN_VALUE if the drop off is missing or malformed
+     */
+    public static long parseDropOffTimestamp(CharSequence line) {
+        int end = line.length();
+        int s = 0;
+        // skip medallion, hack license and pickup date time
+        for (int i = 0; i < 3; i++) {
+            s = nextComma(line, s, end) + 1;
+            if (s > end)
+                return Long.MIN_VALUE;
+        }
+        LocalDateTime dropOff = parseDateTime(line, s, nextComma(line, s, end));
+        return dropOff != null ? dropOff.toEpochSecond(ZoneOffset.UTC) * 1000 : Long.MIN_VALUE;
+    }
+
+    /**
+     * Parses and validates a trip for erroneous values. It first checks, if the line contains
+     * 17 values (trailing empty values are ignored as in String.split). If it does not, it returns null.
+     *
+     * If the value is considered erroneous, it is set to the following values:
+     *  - primitive types: MIN_VALUE
+     *  - objects: null
+     *
+     * @param line the sequence holding comma delimited trip
+     * @param start index of the first char of the trip in the sequence
+     * @param end index after the last char of the trip in the sequence
+     * @param timestampReceived Timestamp when the event was received
+     * @param id id of the event received
+     * @return a Trip with erroneous values set to MIN_VALUE, or null if whole trip was malformed
+     */
+    public static Trip parse(CharSequence line, int start, int end, long timestampReceived, int id) {
+        if (!hasAllValues(line, start, end))
+            return null;
+
+        // our returned trip
+        Trip trip = new Trip();
+        trip.setId(id);
+
+        // read values one by one, s is the start and e the end of the current value
+        int s = start;
+        int e = nextComma(line, s, end);
+        trip.setMedallionId(MD5Dictionary.MEDALLIONS.intern(line, s, e));
+
+        s = e + 1; e = nextComma(line, s, end);
+        trip.setHackLicenseId(MD5Dictionary.HACK_LICENSES.intern(line, s, e));
+
+        s = e + 1; e = nextComma(line, s, end);
+        trip.setPickupDatetime(parseDateTime(line, s, e));
+
+        s = e + 1; e = nextComma(line, s, end);
+        trip.setDropOffDatetime(parseDateTime(line, s, e));
+        trip.setDropOffTimestamp(trip.getDropOffDatetime() != null ? trip.getDropOffDatetime().toEpochSecond(ZoneOffset.UTC) * 1000 : 0);
+
+        s = e + 1; e = nextComma(line, s, end);
+        trip.setTripTime(parseInt(line, s, e, Integer.MIN_VALUE));
+
+        s = e + 1; e = nextComma(line, s, end);
+        trip.setTripDistance(parseFloat(line, s, e, Integer.MIN_VALUE));
+
+        s = e + 1; e = nextComma(line, s, end);
+        trip.setPickupLongitude(parseCoordinate(line, s, e, 180, Float.MIN_VALUE));
+
+        s = e + 1; e = nextComma(line, s, end);
+        trip.setPickupLatitude(parseCoordinate(line, s, e, 90, Float.MIN_VALUE));
+
+        s = e + 1; e = nextComma(line, s, end);
+        trip.setDropOffLongitude(parseCoordinate(line, s, e, 180, Float.MIN_VALUE));
+
+        s = e + 1; e = nextComma(line, s, end);
+        trip.setDropOffLatitude(parseCoordinate(line, s, e, 90, Float.MIN_VALUE));
+
+        s = e + 1; e = nextComma(line, s, end);
+        trip.setPaymentType(parsePayment(line, s, e));
+
+        s = e + 1; e = nextComma(line, s, end);
+        trip.setFareAmount(parseFloat(line, s, e, Float.MIN_VALUE));
+
+        s = e + 1; e = nextComma(line, s, end);
+        trip.setSurcharge(parseFloat(line, s, e, Float.MIN_VALUE));
+
+        s = e + 1; e = nextComma(line, s, end);
+        trip.setMtaTax(parseFloat(line, s, e, Float.MIN_VALUE));
+
+        s = e + 1; e = nextComma(line, s, end);
+        trip.setTipAmount(parseFloat(line, s, e, Float.MIN_VALUE));
+
+        s = e + 1; e = nextComma(line, s, end);
+        trip.setTollsAmount(parseFloat(line, s, e, Float.MIN_VALUE));
+
+        s = e + 1; e = nextComma(line, s, end);
+        trip.setTotalAmount(parseFloat(line, s, e, Float.MIN_VALUE));
+        trip.setTimestampReceived(timestampReceived);
+
+        // does the coordinate for pickup location lie inside grid
+        if (Cell.inGrid(trip.getPickupLatitude(), trip.getPickupLongitude()) &&
+                Cell.inGrid(trip.getDropOffLatitude(), trip.getDropOffLongitude())) {
+            trip.setRoute250(new Route(Cell250.of(trip.getPickupLatitude(), trip.getPickupLongitude()),
+                    Cell250.of(trip.getDropOffLatitude(), trip.getDropOffLongitude())));
+            trip.setRoute500(new Route(Cell500.of(trip.getPickupLatitude(), trip.getPickupLongitude()),
+                    Cell500.of(trip.getDropOffLatitude(), trip.getDropOffLongitude())));
+        }
+
+        return trip;
+    }
+
+    /**
+     * Checks if the line holds exactly 17 values. It mimics String.split(","), which
+     * removes trailing empty values, i.e. the 17th value must not be empty and it can only
+     * be followed by empty values.
+     *
+     * @param line the sequence holding comma delimited trip
+     * @param start index of the first char of the trip
+     * @param end index after the last char of the trip
+     * @return true if the line holds 17 values
+     */
+    private static boolean hasAllValues(CharSequence line, int start, int end) {
+        int commas = 0;
+        int lastStart = -1;
+        int lastEnd = end;
+        for (int i = start; i < end; i++) {
+            if (line.charAt(i) == ',') {
+                commas++;
+                if (commas == NUM_VALUES - 1) {
+                    lastStart = i + 1;
+                } else if (commas == NUM_VALUES) {
+                    lastEnd = i;
+                    break;
+                }
+            }
+        }
+
+        // not enough values or the last value is empty
+        if (lastStart == -1 || lastStart == lastEnd)
+            return false;
+
+        // only trailing empty values are allowed after the last value
+        for (int i = lastEnd; i < end; i++) {
+            if (line.charAt(i) != ',')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Finds the index of the next comma.
+     *
+     * @param line the sequence to search
+     * @param from index from where to start the search
+     * @param end index after the last char of the trip
+     * @return index of the next comma or end if there is none
+     */
+    private static int nextComma(CharSequence line, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (line.charAt(i) == ',')
+                return i;
+        }
+        return end;
+    }
+
+    /**
+     * Creates a String of the value between start and end.
+     */
+    private static String value(CharSequence line, int start, int end) {
+        if (line instanceof String)
+            return ((String) line).substring(start, end);
+        return line.subSequence(start, end).toString();
+    }
+
+    /**
+     * Parses date time of the pattern "yyyy-MM-dd HH:mm:ss". Values that do not
+     * match the pattern with valid fields are passed to TripOperations.tryParseDateTime,
+     * which resolves them the same way as before (e.g. 24:00:00 or 31st of February).
+     *
+     * @return parsed date time or null if malformed
+     */
+    static LocalDateTime parseDateTime(CharSequence line, int start, int end) {
+        if (end - start == 19 && line.charAt(start + 4) == '-' && line.charAt(start + 7) == '-' &&
+                line.charAt(start + 10) == ' ' && line.charAt(start + 13) == ':' &&
+                line.charAt(start + 16) == ':') {
+            int year = digits(line, start, 4);
+            int month = digits(line, start + 5, 2);
+            int day = digits(line, start + 8, 2);
+            int hour = digits(line, start + 11, 2);
+            int minute = digits(line, start + 14, 2);
+            int second = digits(line, start + 17, 2);
+
+            if (year >= 1 && month >= 1 && month <= 12 && day >= 1 && day <= lengthOfMonth(year, month) &&
+                    hour >= 0 && hour <= 23 && minute >= 0 && minute <= 59 && second >= 0 && second <= 59)
+                return LocalDateTime.of(year, month, day, hour, minute, second);
+        }
+        return TripOperations.tryParseDateTime(value(line, start, end), null);
+    }
+
+    /**
+     * Reads a fixed number of decimal digits.
+     *
+     * @return the value or -1 if there is a char that is not a digit
+     */
+    private static int digits(CharSequence line, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        if (month == 2 && (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)))
+            return 29;
+        return DAYS_IN_MONTH[month - 1];
+    }
+
+    /**
+     * Parses an integer with an optional sign. Values out of the fast path are passed
+     * to NumberUtils.toInt.
+     *
+     * @return parsed value or default value if malformed
+     */
+    static int parseInt(CharSequence line, int start, int end, int defaultValue) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (line.charAt(i) == '-' || line.charAt(i) == '+')) {
+            negative = line.charAt(i) == '-';
+            i++;
+        }
+
+        // up to 9 digits can not overflow
+        if (i == end || end - i > 9)
+            return NumberUtils.toInt(value(line, start, end), defaultValue);
+
+        int value = 0;
+        for (; i < end; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9')
+                return NumberUtils.toInt(value(line, start, end), defaultValue);
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a plain decimal number (sign, digits and a decimal point) into a float. The
+     * decimal is first correctly rounded to a double, as both the mantissa and the power of ten
+     * are exact doubles. Rounding that double to float gives the same result as Float.parseFloat,
+     * unless the double lies exactly in the middle of two floats. Such values and values
+     * out of the fast path are passed to NumberUtils.toFloat.
+     *
+     * @return parsed value or default value if malformed
+     */
+    static float parseFloat(CharSequence line, int start, int end, float defaultValue) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (line.charAt(i) == '-' || line.charAt(i) == '+')) {
+            negative = line.charAt(i) == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fraction = 0;
+        boolean point = false;
+        for (; i < end; i++) {
+            char c = line.charAt(i);
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa >= MAX_MANTISSA)
+                    return NumberUtils.toFloat(value(line, start, end), defaultValue);
+                digits++;
+                if (point)
+                    fraction++;
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                return NumberUtils.toFloat(value(line, start, end), defaultValue);
+            }
+        }
+
+        if (digits == 0 || fraction >= POWERS_OF_TEN.length)
+            return NumberUtils.toFloat(value(line, start, end), defaultValue);
+
+        double value = mantissa / POWERS_OF_TEN[fraction];
+
+        // subnormal floats and doubles in the middle of two floats
+        if ((value != 0 && value < Float.MIN_NORMAL) ||
+                (Double.doubleToRawLongBits(value) & 0x1FFFFFFFL) == 0x10000000L)
+            return NumberUtils.toFloat(value(line, start, end), defaultValue);
+
+        return negative ? -(float) value : (float) value;
+    }
+
+    /**
+     * Parses a coordinate and checks if it is between -bound and bound inclusive.
+     *
+     * @return parsed coordinate or default value if malformed or out of bounds
+     */
+    static float parseCoordinate(CharSequence line, int start, int end, float bound, float defaultValue) {
+        float coordinate = parseFloat(line, start, end, defaultValue);
+        if (coordinate > bound || coordinate < -bound)
+            return defaultValue;
+        else
+            return coordinate;
+    }
+
+    /**
+     * Checks if payment is either CASH (CSH) or CREDIT CARD (CRD).
+     *
+     * @return payment or null if invalid
+     */
+    static Payment parsePayment(CharSequence line, int start, int end) {
+        if (end - start != 3 || line.charAt(start) != 'C')
+            return null;
+        if (line.charAt(start + 1) == 'S' && line.charAt(start + 2) == 'H')
+            return Payment.CASH;
+        if (line.charAt(start + 1) == 'R' && line.charAt(start + 2) == 'D')
+            return Payment.CREDIT_CARD;
+        return null;
+    }
+}
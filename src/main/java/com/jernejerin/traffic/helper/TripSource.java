@@ -0,0 +1,43 @@
+package com.jernejerin.traffic.helper;
+
+import com.jernejerin.traffic.entities.Trip;
+
+import java.io.File;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * A source of already parsed trips, that can be replayed instead of parsing the CSV lines.
+ *
+ * @author Jernej Jerin
+ */
+public interface TripSource {
+    /**
+     * Decodes all the trips in the source and passes them to the consumer in their order.
+     *
+     * @param consumer the consumer of the trips
+     * @return the number of replayed trips
+     */
+    long replay(Consumer<Trip> consumer);
+
+    /**
+     * Opens the source of the replay. A directory is a trip log, see TripLogReader,
+     * and a file is a trip archive, see TripArchiveReader. The trip log of a table is in its own
+     * directory, e.g. logDir/trip, so a directory without segments is rejected.
+     *
+     * @param file the directory of the trip log or the trip archive file
+     * @return the source of the trips
+     * @throws IllegalArgumentException if the file does not exist or the directory has no segments
+     */
+    static TripSource open(File file) {
+        if (!file.exists())
+            throw new IllegalArgumentException("Replay input " + file + " does not exist");
+        if (file.isDirectory()) {
+            if (TripLog.segments(file).length == 0)
+                throw new IllegalArgumentException("No trip log segments in " + file + ", the trip log of " +
+                        "a table is in its own directory, e.g. " + new File(file, "trip"));
+            return new TripLogReader(file);
+        }
+        return new TripArchiveReader(file);
+    }
+}
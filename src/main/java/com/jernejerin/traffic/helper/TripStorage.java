@@ -0,0 +1,44 @@
+package com.jernejerin.traffic.helper;
+
+import com.jernejerin.traffic.entities.Trip;
+
+/**
+ * <p>
+ * A storage for trips. Each architecture creates its storage (see Architecture.createStorage)
+ * and stores the trips through it, so the DB stage can run against MySQL, an embedded database
+ * or no database at all.
+ *
+ * @author Jernej Jerin
+ */
+public interface TripStorage extends AutoCloseable {
+    /**
+     * Insert a trip into storage.
+     *
+     * @param trip trip to insert
+     * @param table table into which we need to insert trip
+     */
+    void insertTrip(Trip trip, String table);
+
+    /**
+     * Truncate table.
+     *
+     * @param table table to truncate
+     */
+    void truncateTable(String table);
+
+    /**
+     * Opens a writer, that inserts trips into the table in batches.
+     *
+     * @param table table into which we need to insert trips
+     * @param batchSize the maximum number of trips in a batch
+     * @param lingerTime the maximum time in milliseconds a trip waits for the batch to fill
+     * @return a new writer, that has to be closed to insert the remaining trips
+     */
+    TripWriter openWriter(String table, int batchSize, long lingerTime);
+
+    /**
+     * Makes the inserted trips durable and releases the storage. By default it does nothing.
+     */
+    @Override
+    default void close() { }
+}
@@ -0,0 +1,24 @@
+package com.jernejerin.traffic.helper;
+
+import com.jernejerin.traffic.entities.Trip;
+
+/**
+ * <p>
+ * A writer of trips into a single table of the trip storage.
+ *
+ * @author Jernej Jerin
+ */
+public interface TripWriter extends AutoCloseable {
+    /**
+     * Adds the trip to be inserted.
+     *
+     * @param trip trip to insert
+     */
+    void add(Trip trip);
+
+    /**
+     * Inserts the remaining trips and releases the writer.
+     */
+    @Override
+    void close();
+}
@@ -1,5 +1,6 @@
 package com.jernejerin.traffic.architectures;
 
+import com.jernejerin.traffic.helper.LatencyRecorder;
 import junit.framework.TestCase;
 import org.junit.Test;
 
@@ -105,4 +106,85 @@ public class ArchitectureTest extends TestCase {
                     architectureBuffReader.readLine());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * A test for checking that EDA with the columnar query operators returns the same changes of the
+     * top 10 routes and cells as EDA with the trips as objects, i.e. the files that contain the outputs
+     * for query1 and query2 must match without the delays.
+     */
+    @Test
+    public void testColumnar() throws Exception {
+        Architecture rows = new EDA(new ArchitectureBuilder().fileNameQuery1Output("output/query/" +
+                EDA.class.getSimpleName() + "_rows_query1.txt").fileNameQuery2Output("output/query/" +
+                EDA.class.getSimpleName() + "_rows_query2.txt"));
+        Architecture columnar = new EDA(new ArchitectureBuilder().columnar(true).fileNameQuery1Output("output/query/" +
+                EDA.class.getSimpleName() + "_columnar_query1.txt").fileNameQuery2Output("output/query/" +
+                EDA.class.getSimpleName() + "_columnar_query2.txt"));
+        rows.run();
+        columnar.run();
+
+        assertSameChanges(rows.fileNameQuery1Output, columnar.fileNameQuery1Output);
+        assertSameChanges(rows.fileNameQuery2Output, columnar.fileNameQuery2Output);
+    }
+
+    /**
+     * A test for checking that the architectures record the latency of the events in each stage of
+     * the queries they run, also with the columnar query operators, and that EDA returns the same
+     * changes when the events are stamped when they are read.
+     */
+    @Test
+    public void testRecordLatency() throws Exception {
+        Architecture rows = new EDA(new ArchitectureBuilder().fileNameQuery1Output("output/query/" +
+                EDA.class.getSimpleName() + "_plain_query1.txt").fileNameQuery2Output("output/query/" +
+                EDA.class.getSimpleName() + "_plain_query2.txt"));
+        Architecture eda = new EDA(new ArchitectureBuilder().recordLatency(true).fileNameQuery1Output(
+                "output/query/" + EDA.class.getSimpleName() + "_latency_query1.txt").fileNameQuery2Output(
+                "output/query/" + EDA.class.getSimpleName() + "_latency_query2.txt"));
+        Architecture columnar = new EDA(new ArchitectureBuilder().recordLatency(true).columnar(true)
+                .fileNameQuery1Output("output/query/" + EDA.class.getSimpleName() + "_columnar_latency_query1.txt")
+                .fileNameQuery2Output("output/query/" + EDA.class.getSimpleName() + "_columnar_latency_query2.txt"));
+        Architecture aeda = new AEDA(new ArchitectureBuilder().recordLatency(true).fileNameQuery1Output(
+                "output/query/" + AEDA.class.getSimpleName() + "_latency_query1.txt").fileNameQuery2Output(
+                "output/query/" + AEDA.class.getSimpleName() + "_latency_query2.txt"));
+        rows.run();
+        eda.run();
+        columnar.run();
+        aeda.run();
+
+        assertSameChanges(rows.fileNameQuery1Output, eda.fileNameQuery1Output);
+        assertSameChanges(rows.fileNameQuery2Output, eda.fileNameQuery2Output);
+        for (LatencyRecorder.Stage stage : LatencyRecorder.Stage.values()) {
+            assertTrue(stage.toString(), eda.getLatencyRecorder().getHistogram(stage).getTotalCount() > 0);
+            assertTrue(stage.toString(), columnar.getLatencyRecorder().getHistogram(stage).getTotalCount() > 0);
+        }
+        assertEquals(0, rows.getLatencyRecorder().getHistogram(LatencyRecorder.Stage.PARSE).getTotalCount());
+
+        // AEDA runs query 1 only
+        LatencyRecorder latency = aeda.getLatencyRecorder();
+        assertTrue(latency.getHistogram(LatencyRecorder.Stage.PARSE).getTotalCount() > 0);
+        assertTrue(latency.getHistogram(LatencyRecorder.Stage.QUERY1_UPDATE).getTotalCount() > 0);
+        assertEquals(latency.getHistogram(LatencyRecorder.Stage.QUERY1_UPDATE).getTotalCount(),
+                latency.getHistogram(LatencyRecorder.Stage.QUERY1_OUTPUT).getTotalCount());
+        assertEquals(0, latency.getHistogram(LatencyRecorder.Stage.QUERY2_OUTPUT).getTotalCount());
+    }
+
+    /**
+     * Asserts that both output files have the same lines without the delay, which is the last value.
+     */
+    private static void assertSameChanges(String expectedFileName, String actualFileName) throws IOException {
+        try (BufferedReader expectedBuffReader = new BufferedReader(new FileReader(expectedFileName));
+             BufferedReader actualBuffReader = new BufferedReader(new FileReader(actualFileName))) {
+            int lines = 0;
+            String expectedLine;
+            while ((expectedLine = expectedBuffReader.readLine()) != null) {
+                String actualLine = actualBuffReader.readLine();
+                assertNotNull(expectedFileName + " had more lines then " + actualFileName, actualLine);
+                assertEquals(expectedLine.substring(0, expectedLine.lastIndexOf(",")),
+                        actualLine.substring(0, actualLine.lastIndexOf(",")));
+                lines++;
+            }
+            assertNull(actualFileName + " had more lines then " + expectedFileName, actualBuffReader.readLine());
+            assertTrue(expectedFileName + " has no changes", lines > 0);
+        }
+    }
+}
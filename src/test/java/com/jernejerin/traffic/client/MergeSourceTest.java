@@ -0,0 +1,159 @@
+package com.jernejerin.traffic.client;
+
+import com.jernejerin.traffic.helper.TripParser;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Unit tests for MergeSource.
+ *
+ * @author Jernej Jerin
+ */
+public class MergeSourceTest extends TestCase {
+    private final List<File> files = new ArrayList<>();
+
+    @Override
+    protected void tearDown() {
+        for (File file : this.files)
+            file.delete();
+    }
+
+    /**
+     * A test for checking that lines with the same drop off are merged in the order of the inputs.
+     */
+    @Test
+    public void testEqualDropOffs() throws Exception {
+        String[] inputs = {
+                input(trip("a1", 1), trip("a2", 2), trip("a3", 2), trip("a4", 4)),
+                input(trip("b1", 1), trip("b2", 2), trip("b3", 3)),
+                input(trip("c1", 2), trip("c2", 4))};
+
+        assertEquals(Arrays.asList("a1", "b1", "a2", "a3", "b2", "c1", "b3", "a4", "c2"), merge(inputs, 1));
+        assertEquals(Arrays.asList("a1", "b1", "a2", "a3", "b2", "c1", "b3", "a4", "c2"), merge(inputs, 1024));
+
+        // the order of the inputs decides
+        assertEquals(Arrays.asList("b1", "a1", "c1", "b2", "a2", "a3", "b3", "c2", "a4"),
+                merge(new String[]{inputs[2], inputs[1], inputs[0]}, 2));
+        assertEquals(Arrays.asList("b1", "a1", "b2", "c1", "a2", "a3", "b3", "c2", "a4"),
+                merge(new String[]{inputs[1], inputs[2], inputs[0]}, 2));
+    }
+
+    /**
+     * A test for checking that a line without a valid drop off keeps its place in its input and that
+     * such lines at the start of an input come first.
+     */
+    @Test
+    public void testLineWithoutDropOff() throws Exception {
+        String[] inputs = {
+                input(trip("a1", 1), trip("a2", -1), trip("a3", 3)),
+                input("b0,without,drop,off", trip("b1", 2), trip("b2", 3))};
+
+        assertEquals(Arrays.asList("b0", "a1", "a2", "b1", "a3", "b2"), merge(inputs, 1));
+    }
+
+    /**
+     * A test for checking that the merged lines are the same as the lines of all the inputs stably
+     * sorted by the drop off and the input, for random inputs.
+     */
+    @Test
+    public void testAsSortedLines() throws Exception {
+        Random random = new Random(42);
+        String[] inputs = new String[4];
+        // the expected lines by the drop off and the input
+        TreeMap<Long, List<String>> expected = new TreeMap<>();
+
+        for (int i = 0; i < inputs.length; i++) {
+            List<String> lines = new ArrayList<>();
+            int minute = 0;
+            for (int j = random.nextInt(500); j > 0; j--) {
+                minute += random.nextInt(3);
+                String name = i + "-" + j;
+                lines.add(trip(name, minute));
+                expected.computeIfAbsent(minute * (long) inputs.length + i, k -> new ArrayList<>()).add(name);
+            }
+            inputs[i] = input(lines.toArray(new String[lines.size()]));
+        }
+
+        List<String> sorted = new ArrayList<>();
+        expected.values().forEach(sorted::addAll);
+        assertEquals(sorted, merge(inputs, 3));
+    }
+
+    /**
+     * A test for checking that the lines read from the resources are merged the same as the lines
+     * of the memory mapped files.
+     */
+    @Test
+    public void testMergeResources() throws Exception {
+        String resource = "/com/jernejerin/trips_example.csv";
+        List<String> lines = new ArrayList<>();
+        TaxiStream.readLines(resource, l -> lines.add(l.toString()));
+        String file = input(lines.toArray(new String[lines.size()]));
+
+        List<String> merged = new ArrayList<>();
+        long count = new MergeSource(new String[]{resource, resource}, false, MergeSource.DEFAULT_LOOKAHEAD)
+                .merge(l -> merged.add(l.toString()));
+        List<String> mappedMerged = new ArrayList<>();
+        new MergeSource(new String[]{file, file}, true, MergeSource.DEFAULT_LOOKAHEAD)
+                .merge(l -> mappedMerged.add(l.toString()));
+
+        assertEquals(lines.size() * 2, count);
+        assertEquals(mappedMerged, merged);
+    }
+
+    /**
+     * A test for checking that a missing input fails the merge.
+     */
+    @Test
+    public void testMissingInput() throws Exception {
+        String[] inputs = {input(trip("a1", 1)), new File(this.files.get(0).getPath() + ".missing").getPath()};
+        try {
+            merge(inputs, 1);
+            fail("Merged a missing input");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Merges the memory mapped inputs and gets the first value of each line.
+     */
+    private static List<String> merge(String[] inputs, int lookahead) throws InterruptedException {
+        List<String> names = new ArrayList<>();
+        long count = new MergeSource(inputs, true, lookahead).merge(l -> {
+            String line = l.toString();
+            names.add(line.substring(0, line.indexOf(',')));
+        });
+        assertEquals(names.size(), count);
+        return names;
+    }
+
+    /**
+     * Writes the lines into a temporary file.
+     *
+     * @return the path of the file
+     */
+    private String input(String... lines) throws Exception {
+        File file = File.createTempFile("trips", ".csv");
+        this.files.add(file);
+        Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.ISO_8859_1);
+        return file.getPath();
+    }
+
+    /**
+     * Creates a trip line, named by the medallion, with the drop off at the minute or without
+     * a drop off, if the minute is negative.
+     */
+    private static String trip(String name, int minute) {
+        String dropOff = minute >= 0 ? String.format("2013-01-01 %02d:%02d:00", minute / 60, minute % 60) : "";
+        String line = name + ",E7750A37CAB07D0DFF0AF7E3573AC141,2013-01-01 00:00:00," + dropOff +
+                ",120,0.44,-73.956528,40.716976,-73.962440,40.715008,CSH,3.50,0.50,0.50,0.00,0.00,4.50";
+        assertEquals(minute >= 0, TripParser.parseDropOffTimestamp(line) != Long.MIN_VALUE);
+        return line;
+    }
+}
@@ -0,0 +1,275 @@
+package com.jernejerin.traffic.client;
+
+import com.jernejerin.traffic.entities.Trip;
+import com.jernejerin.traffic.helper.TripOperations;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for TaxiStream.
+ *
+ * @author Jernej Jerin
+ */
+public class TaxiStreamTest extends TestCase {
+    private static final String RESOURCE = "/com/jernejerin/trips_example.csv";
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.file = File.createTempFile("trips", ".csv");
+    }
+
+    @Override
+    protected void tearDown() {
+        this.file.delete();
+    }
+
+    /**
+     * A test for checking that the lines of a memory mapped file are the same as the lines read
+     * from the classpath resource.
+     */
+    @Test
+    public void testMappedAsResource() throws Exception {
+        try (InputStream in = TaxiStreamTest.class.getResourceAsStream(RESOURCE)) {
+            Files.copy(in, this.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        List<String> expected = read(new TaxiStream(RESOURCE));
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, read(new TaxiStream(this.file.getPath(), true)));
+    }
+
+    /**
+     * A test for checking that the Windows line separators are stripped, empty lines are skipped
+     * and the last line without a line separator is read.
+     */
+    @Test
+    public void testMappedLineSeparators() throws Exception {
+        Files.write(this.file.toPath(), "a,1\r\n\nb,2\n\r\nc,3".getBytes(StandardCharsets.ISO_8859_1));
+        assertEquals(Arrays.asList("a,1", "b,2", "c,3"), read(new TaxiStream(this.file.getPath(), true)));
+
+        Files.write(this.file.toPath(), new byte[0]);
+        assertTrue(read(new TaxiStream(this.file.getPath(), true)).isEmpty());
+    }
+
+    /**
+     * A test for checking that a missing file fails the mapped read.
+     */
+    @Test
+    public void testMappedMissingFile() {
+        try {
+            new TaxiStream(this.file.getPath() + ".missing", true).readMappedStream();
+            fail("Read a missing file");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A test for checking that the batches hold the same lines as published event by event, numbered
+     * in the order they were read, where only the last batch is not full.
+     */
+    @Test
+    public void testBatches() throws Exception {
+        List<String> expected = read(new TaxiStream(RESOURCE));
+        List<EventBatch> batches = readBatches(new TaxiStream(RESOURCE, false, 16, "yielding", 7, false));
+
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < batches.size(); i++) {
+            EventBatch batch = batches.get(i);
+            assertEquals(lines.size(), batch.getFirstId());
+            assertEquals(i < batches.size() - 1, batch.isFull());
+            assertFalse(batch.isParsed());
+            assertTrue(batch.getTrips().isEmpty());
+            for (int j = 0; j < batch.size(); j++) {
+                lines.add(batch.getLine(j).toString());
+                if (j > 0)
+                    assertTrue(batch.getTimestampReceived(j - 1) <= batch.getTimestampReceived(j));
+            }
+        }
+        assertEquals(expected, lines);
+    }
+
+    /**
+     * A test for checking that the reader parses the batches before publishing them, when asked to,
+     * the same as each line is parsed on its own, where malformed lines are left out.
+     */
+    @Test
+    public void testParseBatches() throws Exception {
+        Files.write(this.file.toPath(), Arrays.asList(
+                "07290D3599E7A0D62097A346EFCC1FB5,E7750A37CAB07D0DFF0AF7E3573AC141,2013-01-01 00:00:00," +
+                        "2013-01-01 00:02:00,120,0.44,-73.956528,40.716976,-73.962440,40.715008,CSH,3.50,0.50," +
+                        "0.50,0.00,0.00,4.50",
+                "malformed",
+                "22D70BF00EEB0ADC83BA8177BB861991,3FF2709163DE7036FCAA4E5A3324E4BF,2013-01-01 00:02:00," +
+                        "2013-01-01 00:02:00,0,0.00,0.000000,0.000000,0.000000,0.000000,CSH,27.00,0.00,0.50," +
+                        "0.00,0.00,27.50"), StandardCharsets.ISO_8859_1);
+
+        List<EventBatch> batches = readBatches(new TaxiStream(this.file.getPath(), true, 4, "blocking", 2, true));
+        assertEquals(2, batches.size());
+
+        List<String> trips = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (EventBatch batch : batches) {
+            assertTrue(batch.isParsed());
+            assertSame(batch, batch.parse());
+            for (Trip trip : batch.getTrips())
+                trips.add(String.valueOf(trip));
+            for (int i = 0; i < batch.size(); i++) {
+                Trip trip = TripOperations.parseValidateTrip(batch.getLine(i), batch.getTimestampReceived(i),
+                        batch.getFirstId() + i);
+                if (trip != null)
+                    expected.add(String.valueOf(trip));
+            }
+        }
+        assertEquals(2, trips.size());
+        assertEquals(expected, trips);
+    }
+
+    /**
+     * A test for checking that the stamped events are published in batches of a single event at the
+     * default batch size, stamped with System.nanoTime() in the order they were read, and that the
+     * stamp is passed on to the parsed trips.
+     */
+    @Test
+    public void testStampIngress() throws Exception {
+        List<String> expected = read(new TaxiStream(RESOURCE));
+        long start = System.nanoTime();
+        TaxiStream taxiStream = new TaxiStream(RESOURCE, false, false, false, 16, "blocking", 1, false, 1, true);
+        assertTrue(taxiStream.isBatched());
+        List<EventBatch> batches = readBatches(taxiStream);
+        long end = System.nanoTime();
+
+        List<String> lines = new ArrayList<>();
+        long previous = start;
+        for (EventBatch batch : batches) {
+            assertEquals(1, batch.size());
+            assertEquals(lines.size(), batch.getFirstId());
+            lines.add(batch.getLine(0).toString());
+
+            long nanoTimeReceived = batch.getNanoTimeReceived(0);
+            assertTrue(nanoTimeReceived >= previous);
+            assertTrue(nanoTimeReceived <= end);
+            previous = nanoTimeReceived;
+            for (Trip trip : batch.parse().getTrips())
+                assertEquals(nanoTimeReceived, trip.getNanoTimeReceived());
+        }
+        assertEquals(expected, lines);
+
+        // without stamping the events are published one by one
+        assertFalse(new TaxiStream(RESOURCE, false, false, false, 16, "blocking", 1, false, 1, false).isBatched());
+    }
+
+    /**
+     * A test for checking that the trips read by several readers in parallel have the same ids and order
+     * as read by a single reader, for a file of several ranges with malformed lines, empty lines and
+     * Windows line separators.
+     */
+    @Test
+    public void testParallelReaders() throws Exception {
+        List<String> lines = new ArrayList<>();
+        try (InputStream in = TaxiStreamTest.class.getResourceAsStream(RESOURCE)) {
+            String[] example = new String(readAll(in), StandardCharsets.ISO_8859_1).split("\n");
+            for (int i = 0; i < example.length; i++) {
+                lines.add(i % 1000 == 0 ? "malformed" : i % 100 == 0 ? example[i] + "\r" : example[i]);
+                if (i % 777 == 0)
+                    lines.add("");
+            }
+        }
+        Files.write(this.file.toPath(), lines, StandardCharsets.ISO_8859_1);
+        assertTrue(this.file.length() > 3 * 256 * 1024);
+
+        List<String> expected = trips(readBatches(new TaxiStream(this.file.getPath(), true, false, false, 32,
+                "blocking", 100, true, 1)));
+        for (int readers : new int[]{2, 4}) {
+            TaxiStream taxiStream = new TaxiStream(this.file.getPath(), true, false, false, 32, "blocking", 100,
+                    false, readers);
+            assertTrue(taxiStream.isParallel());
+            assertEquals(expected, trips(readBatches(taxiStream)));
+        }
+        // the empty lines are not numbered, the malformed lines are
+        long numbered = lines.stream().filter(l -> !l.isEmpty()).count();
+        assertTrue(expected.size() > 1000);
+        assertTrue(expected.get(expected.size() - 1).startsWith(numbered - 1 + ", "));
+    }
+
+    /**
+     * A test for checking that an unknown wait strategy is rejected.
+     */
+    @Test
+    public void testUnknownWaitStrategy() {
+        assertNotNull(TaxiStream.waitStrategy("busySpin"));
+        try {
+            TaxiStream.waitStrategy("spinning");
+            fail("Unknown wait strategy");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Describes the parsed trips of the batches without the time they were read.
+     */
+    private static List<String> trips(List<EventBatch> batches) {
+        List<String> trips = new ArrayList<>();
+        for (EventBatch batch : batches) {
+            for (Trip trip : batch.getTrips()) {
+                trip.setTimestampReceived(0);
+                trips.add(String.valueOf(trip));
+            }
+        }
+        return trips;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) != -1; )
+            out.write(buffer, 0, n);
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads all the lines of the taxi stream.
+     */
+    private static List<String> read(TaxiStream taxiStream) throws InterruptedException {
+        List<String> lines = new ArrayList<>();
+        CountDownLatch completed = new CountDownLatch(1);
+        taxiStream.getTrips()
+                .observeComplete(v -> completed.countDown())
+                .consume(l -> lines.add(l.toString()));
+
+        taxiStream.readStream();
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+        return lines;
+    }
+
+    /**
+     * Reads all the batches of the taxi stream.
+     */
+    private static List<EventBatch> readBatches(TaxiStream taxiStream) throws InterruptedException {
+        List<EventBatch> batches = new ArrayList<>();
+        CountDownLatch completed = new CountDownLatch(1);
+        taxiStream.getBatches()
+                .observeComplete(v -> completed.countDown())
+                .consume(batches::add);
+
+        taxiStream.readStream();
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+        return batches;
+    }
+}
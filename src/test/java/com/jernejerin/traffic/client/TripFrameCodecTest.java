@@ -0,0 +1,99 @@
+package com.jernejerin.traffic.client;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import reactor.fn.Function;
+import reactor.io.buffer.Buffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for TripFrameCodec.
+ *
+ * @author Jernej Jerin
+ */
+public class TripFrameCodecTest extends TestCase {
+    private static final String TRIP = "07290D3599E7A0D62097A346EFCC1FB5,E7750A37CAB07D0DFF0AF7E3573AC141," +
+            "2013-01-01 00:00:00,2013-01-01 00:02:00,120,0.44,-73.956528,40.716976,-73.962440,40.715008," +
+            "CSH,3.50,0.50,0.50,0.00,0.00,4.50";
+
+    /**
+     * A test for checking that all the frames in a buffer are decoded, including an empty line and
+     * the chars above 0x7F.
+     */
+    @Test
+    public void testEncodeDecode() {
+        List<String> lines = Arrays.asList(TRIP, "", "caf\u00E9,\u00FF");
+        List<String> decoded = new ArrayList<>();
+        Function<Buffer, CharSequence> decoder = new TripFrameCodec().decoder(l -> decoded.add(l.toString()));
+
+        Buffer buffer = new Buffer(frames(lines));
+        assertNull(decoder.apply(buffer));
+        assertEquals(lines, decoded);
+        assertFalse(buffer.byteBuffer().hasRemaining());
+
+        // a single frame encoded by the codec, returned when there is no consumer
+        Buffer frame = new TripFrameCodec().apply(TRIP);
+        assertEquals(TripFrameCodec.HEADER_SIZE + TRIP.length(), frame.remaining());
+        assertEquals(TRIP, new TripFrameCodec().decoder(null).apply(frame).toString());
+    }
+
+    /**
+     * A test for checking that a frame split across two buffers, also within its length, is decoded
+     * once the rest of it is received.
+     */
+    @Test
+    public void testFrameSplitAcrossBuffers() {
+        List<String> lines = Arrays.asList(TRIP, TRIP.replace("CSH", "CRD"), TRIP.replace("CSH", "UNK"));
+        ByteBuffer frames = frames(lines);
+        int firstFrame = TripFrameCodec.HEADER_SIZE + TRIP.length();
+
+        // split in the middle of the second frame, in the length of the second frame and right after it
+        for (int split : new int[]{firstFrame + 20, firstFrame + 2, firstFrame, 1}) {
+            List<String> decoded = new ArrayList<>();
+            Function<Buffer, CharSequence> decoder = new TripFrameCodec().decoder(l -> decoded.add(l.toString()));
+
+            ByteBuffer first = (ByteBuffer) frames.duplicate().limit(split);
+            decoder.apply(new Buffer(first));
+            assertEquals(split >= firstFrame ? lines.subList(0, 1) : lines.subList(0, 0), decoded);
+
+            // the incomplete frame is not consumed, so it is received again together with the rest
+            ByteBuffer second = ByteBuffer.allocate(frames.limit() - first.position());
+            second.put(first).put((ByteBuffer) frames.duplicate().position(split)).flip();
+            decoder.apply(new Buffer(second));
+            assertEquals(lines, decoded);
+            assertFalse(second.hasRemaining());
+        }
+    }
+
+    /**
+     * A test for checking that a negative length of a frame is rejected.
+     */
+    @Test
+    public void testNegativeLength() {
+        ByteBuffer frames = ByteBuffer.allocate(64);
+        frames.putInt(3).put(new byte[]{'a', 'b', 'c'}).putInt(-1).put(new byte[]{'d'}).flip();
+        List<String> decoded = new ArrayList<>();
+        try {
+            new TripFrameCodec().decoder(l -> decoded.add(l.toString())).apply(new Buffer(frames));
+            fail("Decoded a frame with a negative length");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertTrue(decoded.isEmpty());
+    }
+
+    private static ByteBuffer frames(List<String> lines) {
+        int size = 0;
+        for (String line : lines)
+            size += TripFrameCodec.HEADER_SIZE + line.length();
+        ByteBuffer frames = ByteBuffer.allocate(size);
+        for (String line : lines)
+            TripFrameCodec.encode(line, frames);
+        frames.flip();
+        return frames;
+    }
+}
@@ -0,0 +1,109 @@
+package com.jernejerin.traffic.client;
+
+import com.jernejerin.traffic.entities.Trip;
+import com.jernejerin.traffic.helper.TripParser;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for TripGenerator.
+ *
+ * @author Jernej Jerin
+ */
+public class TripGeneratorTest extends TestCase {
+    /**
+     * A test for checking that the same seed gives the same lines, also when generated again by the
+     * same generator or written into a writer, and that a different seed gives different lines.
+     */
+    @Test
+    public void testSeed() {
+        List<String> lines = generate(new TripGenerator(7), 2000);
+        assertEquals(2000, lines.size());
+        assertEquals(lines, generate(new TripGenerator(7), 2000));
+
+        TripGenerator generator = new TripGenerator(7);
+        generate(generator, 10);
+        assertEquals(lines, generate(generator, 2000));
+
+        StringWriter writer = new StringWriter();
+        new TripGenerator(7).write(2000, writer);
+        assertEquals(String.join("\n", lines) + "\n", writer.toString());
+
+        List<String> other = generate(new TripGenerator(8), 2000);
+        for (int i = 0; i < lines.size(); i++)
+            assertFalse(lines.get(i).equals(other.get(i)));
+    }
+
+    /**
+     * A test for checking that the trips without malformation are parsed with all the values and
+     * with a route, in the order of their drop off times.
+     */
+    @Test
+    public void testValid() {
+        TripGenerator generator = new TripGenerator(7, 1000, 100, 1.0, TripGenerator.DEFAULT_TRIPS_PER_DAY, 0,
+                TripGenerator.DEFAULT_START);
+        long dropOffTimestamp = Long.MIN_VALUE;
+        for (String line : generate(generator, 5000)) {
+            Trip trip = TripParser.parse(line, 0, 0);
+            assertNotNull(line, trip);
+            assertNotNull(line, trip.getPickupDatetime());
+            assertNotNull(line, trip.getDropOffDatetime());
+            assertTrue(line, trip.getTripTime() > 0);
+            assertTrue(line, trip.getFareAmount() > 0);
+            assertTrue(line, trip.getTotalAmount() >= trip.getFareAmount());
+            assertNotNull(line, trip.getRoute250());
+            assertNotNull(line, trip.getRoute500());
+
+            assertTrue(line, trip.getDropOffTimestamp() >= dropOffTimestamp);
+            dropOffTimestamp = trip.getDropOffTimestamp();
+        }
+    }
+
+    /**
+     * A test for checking that each kind of the malformed trips is rejected by TripParser as
+     * described in Malformation: dropped, without a route or with an erroneous fare.
+     */
+    @Test
+    public void testMalformed() {
+        TripGenerator generator = new TripGenerator(7, 1000, 100, 1.0, TripGenerator.DEFAULT_TRIPS_PER_DAY, 1,
+                TripGenerator.DEFAULT_START);
+        int[] counts = new int[TripGenerator.Malformation.values().length];
+        for (String line : generate(generator, 5000)) {
+            String[] values = line.split(",", -1);
+            Trip trip = TripParser.parse(line, 0, 0);
+            TripGenerator.Malformation malformation;
+            if (values.length < 17) {
+                malformation = TripGenerator.Malformation.TRUNCATED;
+                assertNull(line, trip);
+            } else if (values[16].isEmpty()) {
+                malformation = TripGenerator.Malformation.MISSING_TOTAL;
+                assertNull(line, trip);
+            } else if (values[11].equals("N/A")) {
+                malformation = TripGenerator.Malformation.BAD_NUMBER;
+                assertNotNull(line, trip);
+                assertEquals(line, Float.MIN_VALUE, trip.getFareAmount());
+                assertNotNull(line, trip.getRoute250());
+            } else {
+                malformation = values[6].equals("0.000000") ? TripGenerator.Malformation.ZERO_COORDINATES :
+                        TripGenerator.Malformation.OUT_OF_GRID;
+                assertNotNull(line, trip);
+                assertNull(line, trip.getRoute250());
+                assertNull(line, trip.getRoute500());
+            }
+            counts[malformation.ordinal()]++;
+        }
+
+        for (TripGenerator.Malformation malformation : TripGenerator.Malformation.values())
+            assertTrue(malformation.toString(), counts[malformation.ordinal()] > 0);
+    }
+
+    private static List<String> generate(TripGenerator generator, long trips) {
+        List<String> lines = new ArrayList<>();
+        generator.generate(trips, line -> lines.add(line.toString()));
+        return lines;
+    }
+}
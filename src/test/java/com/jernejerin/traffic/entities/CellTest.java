@@ -0,0 +1,85 @@
+package com.jernejerin.traffic.entities;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * Unit tests for Cell250 and Cell500.
+ *
+ * @author Jernej Jerin
+ */
+public class CellTest extends TestCase {
+    /**
+     * A test for checking that each cell of the grid is preallocated once and equals the cell
+     * computed from its shifts, and that a cell outside of the grid is computed.
+     */
+    @Test
+    public void testCanonical() {
+        for (int east = 0; east < 600; east++) {
+            for (int south = 0; south < 600; south++) {
+                Cell250 cell = Cell250.of(east, south);
+                assertSame(cell, Cell250.of(east, south));
+                assertCell(new Cell250(east, south), cell);
+            }
+        }
+        for (int east = 0; east < 300; east++) {
+            for (int south = 0; south < 300; south++) {
+                Cell500 cell = Cell500.of(east, south);
+                assertSame(cell, Cell500.of(east, south));
+                assertCell(new Cell500(east, south), cell);
+            }
+        }
+
+        assertCell(new Cell250(600, 3), Cell250.of(600, 3));
+        assertCell(new Cell250(3, -1), Cell250.of(3, -1));
+        assertCell(new Cell500(300, 3), Cell500.of(300, 3));
+        assertCell(new Cell500(-1, 3), Cell500.of(-1, 3));
+    }
+
+    /**
+     * A test for checking that for every float latitude inside the grid the canonical cell has the
+     * south shift computed by the division, as it was computed before the cells were preallocated.
+     */
+    @Test
+    public void testLatitudes() {
+        float longitude = (Cell.TOP_LEFT.getT2() + Cell.BOTTOM_RIGHT.getT2()) / 2;
+        int east250 = (int) ((-Cell.TOP_LEFT.getT2() + longitude) / Cell.EAST_250);
+        int east500 = (int) ((-Cell.TOP_LEFT.getT2() + longitude) / Cell.EAST_500);
+        float north = Cell.TOP_LEFT.getT1();
+        for (float latitude = Cell.BOTTOM_RIGHT.getT1(); latitude <= north; latitude = Math.nextUp(latitude)) {
+            int south250 = (int) ((Cell.TOP_LEFT.getT1() - latitude) / Cell.SOUTH_250);
+            int south500 = (int) ((Cell.TOP_LEFT.getT1() - latitude) / Cell.SOUTH_500);
+            assertCell(new Cell250(east250, south250), Cell250.of(latitude, longitude));
+            assertCell(new Cell500(east500, south500), Cell500.of(latitude, longitude));
+            assertSame(Cell250.of(east250, south250), Cell250.of(latitude, longitude));
+            assertSame(Cell500.of(east500, south500), Cell500.of(latitude, longitude));
+        }
+    }
+
+    /**
+     * A test for checking that for every float longitude inside the grid the canonical cell has the
+     * east shift computed by the division, as it was computed before the cells were preallocated.
+     */
+    @Test
+    public void testLongitudes() {
+        float latitude = (Cell.TOP_LEFT.getT1() + Cell.BOTTOM_RIGHT.getT1()) / 2;
+        int south250 = (int) ((Cell.TOP_LEFT.getT1() - latitude) / Cell.SOUTH_250);
+        int south500 = (int) ((Cell.TOP_LEFT.getT1() - latitude) / Cell.SOUTH_500);
+        float east = Cell.BOTTOM_RIGHT.getT2();
+        for (float longitude = Cell.TOP_LEFT.getT2(); longitude <= east; longitude = Math.nextUp(longitude)) {
+            int east250 = (int) ((-Cell.TOP_LEFT.getT2() + longitude) / Cell.EAST_250);
+            int east500 = (int) ((-Cell.TOP_LEFT.getT2() + longitude) / Cell.EAST_500);
+            assertCell(new Cell250(east250, south250), Cell250.of(latitude, longitude));
+            assertCell(new Cell500(east500, south500), Cell500.of(latitude, longitude));
+            assertSame(Cell250.of(east250, south250), Cell250.of(latitude, longitude));
+            assertSame(Cell500.of(east500, south500), Cell500.of(latitude, longitude));
+        }
+    }
+
+    private static void assertCell(Cell expected, Cell actual) {
+        assertEquals(expected, actual);
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.hashCode(), actual.hashCode());
+        assertEquals(expected.toString(), actual.toString());
+    }
+}
@@ -0,0 +1,94 @@
+package com.jernejerin.traffic.evaluation;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.*;
+
+/**
+ * Unit tests for MatrixEvaluation.
+ *
+ * @author Jernej Jerin
+ */
+public class MatrixEvaluationTest extends TestCase {
+
+    /**
+     * A test for checking that the spec is expanded into every combination of the option values per
+     * architecture, in the order of the architectures and the option names, and that the keys of the
+     * evaluation are not options.
+     */
+    @Test
+    public void testCombinations() throws Exception {
+        List<MatrixEvaluation.Combination> combinations = MatrixEvaluation.combinations(spec(
+                "architectures = EDA; AEDA\n" +
+                "ringBufferSize = 32; 1024\n" +
+                "fileNameInput = a.csv,b.csv; c.csv\n" +
+                "storage = none\n" +
+                "warmUp = 1\n" +
+                "numTimes = 10\n" +
+                "jvmArgs = -Xmx2g\n" +
+                "report = output/reports/Matrix\n" +
+                "timeout = 600\n"));
+
+        assertEquals(8, combinations.size());
+        List<String> described = new ArrayList<>();
+        for (MatrixEvaluation.Combination combination : combinations)
+            described.add(combination.name + " " + combination.architecture + " " + combination.options);
+
+        assertEquals(Arrays.asList(
+                "EDA-1 EDA {fileNameInput=a.csv,b.csv, ringBufferSize=32, storage=none}",
+                "EDA-2 EDA {fileNameInput=a.csv,b.csv, ringBufferSize=1024, storage=none}",
+                "EDA-3 EDA {fileNameInput=c.csv, ringBufferSize=32, storage=none}",
+                "EDA-4 EDA {fileNameInput=c.csv, ringBufferSize=1024, storage=none}",
+                "AEDA-5 AEDA {fileNameInput=a.csv,b.csv, ringBufferSize=32, storage=none}",
+                "AEDA-6 AEDA {fileNameInput=a.csv,b.csv, ringBufferSize=1024, storage=none}",
+                "AEDA-7 AEDA {fileNameInput=c.csv, ringBufferSize=32, storage=none}",
+                "AEDA-8 AEDA {fileNameInput=c.csv, ringBufferSize=1024, storage=none}"), described);
+    }
+
+    /**
+     * A test for checking that the options of a single architecture are only combined for that
+     * architecture.
+     */
+    @Test
+    public void testArchitectureOptions() throws Exception {
+        List<MatrixEvaluation.Combination> combinations = MatrixEvaluation.combinations(spec(
+                "architectures = EDA; SEDA; AEDA2\n" +
+                "stage1Threads = 2; 4\n" +
+                "stage2Threads = 2\n"));
+
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (MatrixEvaluation.Combination combination : combinations) {
+            counts.merge(combination.architecture, 1, Integer::sum);
+            if (combination.architecture.equals("SEDA"))
+                assertEquals(new HashSet<>(Arrays.asList("stage1Threads", "stage2Threads")),
+                        combination.options.keySet());
+            else
+                assertTrue(combination.options.isEmpty());
+        }
+        assertEquals("{EDA=1, SEDA=2, AEDA2=1}", counts.toString());
+    }
+
+    /**
+     * A test for checking that the values are trimmed, empty values are skipped and that EDA is the
+     * default architecture.
+     */
+    @Test
+    public void testValues() throws Exception {
+        List<MatrixEvaluation.Combination> combinations = MatrixEvaluation.combinations(spec(
+                "batchSize = ; 1 ;;  64  ;\n" +
+                "columnar = true; false\n"));
+
+        assertEquals(4, combinations.size());
+        assertEquals("EDA", combinations.get(0).architecture);
+        assertEquals("{batchSize=1, columnar=true}", combinations.get(0).options.toString());
+        assertEquals("{batchSize=64, columnar=false}", combinations.get(3).options.toString());
+    }
+
+    private static Properties spec(String spec) throws Exception {
+        Properties properties = new Properties();
+        properties.load(new StringReader(spec));
+        return properties;
+    }
+}
@@ -0,0 +1,109 @@
+package com.jernejerin.traffic.evaluation;
+
+import com.jernejerin.traffic.architectures.Architecture;
+import com.jernejerin.traffic.client.TaxiStream;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for ResourceSampler.
+ *
+ * @author Jernej Jerin
+ */
+public class ResourceSamplerTest extends TestCase {
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.file = File.createTempFile("trips", ".csv");
+    }
+
+    @Override
+    protected void tearDown() {
+        this.file.delete();
+    }
+
+    /**
+     * A test for checking that the elements waiting in the ring buffer are sampled, while the
+     * consumer is blocked, and that the sampled values are consistent.
+     */
+    @Test
+    public void testSample() throws Exception {
+        Files.write(this.file.toPath(), Arrays.asList("a", "b", "c", "d", "e", "f"), StandardCharsets.ISO_8859_1);
+        TaxiStream taxiStream = new TaxiStream(this.file.getPath(), true);
+        assertEquals(0, taxiStream.getBufferSize());
+
+        // the consumer blocks on the first line, so the other lines wait in the ring buffer
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch completed = new CountDownLatch(1);
+        taxiStream.getTrips()
+                .observeComplete(v -> completed.countDown())
+                .consume(l -> {
+                    try {
+                        blocked.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+        taxiStream.readStream();
+        long waiting = taxiStream.getBufferSize();
+        assertTrue(waiting >= 5);
+
+        ResourceSampler sampler = new ResourceSampler(architecture(taxiStream), 10);
+        Thread.sleep(100);
+        System.gc();
+        sampler.close();
+        blocked.countDown();
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+
+        assertEquals(waiting, (long) sampler.getBufferSize().min);
+        assertEquals(waiting, (long) sampler.getBufferSize().max);
+        assertEquals((double) waiting, sampler.getBufferSize().average);
+        assertConsistent(sampler.getHeapMemory());
+        assertTrue(sampler.getHeapMemory().max > 0);
+        assertConsistent(sampler.getCpu());
+        assertConsistent(sampler.getAllocationRate());
+        assertTrue(sampler.getGcCount() >= 1);
+        assertTrue(sampler.getGcTime() >= 0);
+    }
+
+    /**
+     * A test for checking that an architecture without a taxi stream has an empty ring buffer and that
+     * closing right away takes a sample.
+     */
+    @Test
+    public void testWithoutTaxiStream() throws Exception {
+        ResourceSampler sampler = new ResourceSampler(architecture(null), ResourceSampler.DEFAULT_INTERVAL);
+        sampler.close();
+
+        assertEquals(0, (long) sampler.getBufferSize().max);
+        assertTrue(sampler.getHeapMemory().min > 0);
+        assertConsistent(sampler.getHeapMemory());
+    }
+
+    private static void assertConsistent(MaxMinAverageMeasurement<Double, Long, Long> measurement) {
+        assertTrue(measurement.min >= 0);
+        assertTrue(measurement.min <= measurement.average);
+        assertTrue(measurement.average <= measurement.max);
+    }
+
+    private static Architecture architecture(TaxiStream stream) {
+        return new Architecture() {
+            {
+                this.taxiStream = stream;
+            }
+
+            @Override
+            public long run() {
+                return 0;
+            }
+        };
+    }
+}
@@ -0,0 +1,255 @@
+package com.jernejerin.traffic.helper;
+
+import com.jernejerin.traffic.entities.Cell;
+import com.jernejerin.traffic.entities.Cell250;
+import com.jernejerin.traffic.entities.CellProfitability;
+import com.jernejerin.traffic.entities.Route;
+import com.jernejerin.traffic.entities.Trip;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.*;
+
+/**
+ * Unit tests for CellProfitabilityIndex.
+ *
+ * @author Jernej Jerin
+ */
+public class CellProfitabilityIndexTest extends TestCase {
+    private static final int A = 1 * 600 + 2;
+    private static final int B = 3 * 600 + 4;
+
+    /**
+     * A test for checking that a taxi is empty only in the end cell of its most recent trip and
+     * that removing the last drop off of the taxi removes the cell from the ranking.
+     */
+    @Test
+    public void testRemoveLastDropOff() {
+        CellProfitabilityIndex index = new CellProfitabilityIndex();
+
+        Trip first = trip(7, 1, A, A, 10f);
+        index.addProfit(first);
+        index.addEmptyTaxi(first);
+        assertEquals(Collections.singletonList("1.2 1 1 10.0 10.0"), describe(index.top(10)));
+
+        // the taxi moves to B, so it is not empty in A anymore
+        Trip second = trip(7, 2, B, B, 0f);
+        index.addEmptyTaxi(second);
+        assertEquals(Collections.singletonList("3.4 2 1 0.0 0.0"), describe(index.top(10)));
+
+        // a trip without a medallion in B, the cell keeps the id of the most recent drop off
+        Trip third = trip(MD5Dictionary.NO_ID, 3, B, B, 0f);
+        index.addEmptyTaxi(third);
+        assertEquals(Collections.singletonList("3.4 3 2 0.0 0.0"), describe(index.top(10)));
+
+        // the first trip leaves, but it was not the most recent trip of the taxi anymore
+        index.removeEmptyTaxi(first);
+        assertEquals(Collections.singletonList("3.4 3 2 0.0 0.0"), describe(index.top(10)));
+
+        // the last drop off of the taxi leaves, the id of the other taxi stays
+        index.removeEmptyTaxi(second);
+        assertEquals(Collections.singletonList("3.4 3 1 0.0 0.0"), describe(index.top(10)));
+
+        // the last empty taxi leaves, so the cell is not ranked anymore
+        index.removeEmptyTaxi(third);
+        assertTrue(index.top(10).isEmpty());
+        assertEquals(0, index.topCells(new int[10], 10));
+
+        index.removeProfit(first);
+        assertTrue(index.top(10).isEmpty());
+    }
+
+    /**
+     * A test for checking that only the oldest trip can leave the empty taxis window.
+     */
+    @Test
+    public void testRemoveEmptyTaxiInOrder() {
+        CellProfitabilityIndex index = new CellProfitabilityIndex();
+        try {
+            index.removeEmptyTaxi();
+            fail("Removed from an empty window");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            index.removeEmptyTaxi(trip(7, 1, A, A, 0f));
+            fail("Removed from an empty window");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        Trip first = trip(7, 1, A, A, 0f);
+        Trip second = trip(8, 2, B, B, 0f);
+        index.addEmptyTaxi(first);
+        index.addEmptyTaxi(second);
+        try {
+            index.removeEmptyTaxi(second);
+            fail("Removed a trip that is not the oldest");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(2, index.top(10).size());
+
+        index.removeEmptyTaxi(first);
+        index.removeEmptyTaxi(second);
+        assertTrue(index.top(10).isEmpty());
+    }
+
+    /**
+     * A test for checking that the ranking is the same as computed from scratch from both windows,
+     * grouped by the cell in a LinkedHashMap as before, for random trips entering and leaving the
+     * windows. There are few taxis, cells and profits, so taxis move between cells, cells have ties
+     * and the medians have duplicates.
+     */
+    @Test
+    public void testAsLinkedHashMap() {
+        checkAsLinkedHashMap(false);
+    }
+
+    /**
+     * A test for checking the same as testAsLinkedHashMap, where the trips are given by the interned
+     * taxi, the id and the cell ids, and also the top cell ids.
+     */
+    @Test
+    public void testAsLinkedHashMapByIds() {
+        checkAsLinkedHashMap(true);
+    }
+
+    private static void checkAsLinkedHashMap(boolean byIds) {
+        Random random = new Random(42);
+        CellProfitabilityIndex index = new CellProfitabilityIndex();
+        Deque<Trip> emptyTaxis = new ArrayDeque<>();
+        Deque<Trip> profits = new ArrayDeque<>();
+
+        for (int id = 0; id < 20000; id++) {
+            Trip trip = trip(random.nextInt(30) - 1, id, cell(random), cell(random), random.nextInt(20) / 2f);
+            emptyTaxis.add(trip);
+            profits.add(trip);
+            if (byIds) {
+                index.addEmptyTaxi(trip.getMedallionId(), id, index(trip.getRoute250().getEndCell()));
+                index.addProfit(index(trip.getRoute250().getStartCell()), trip.getFareAmount(), id);
+            } else {
+                index.addEmptyTaxi(trip);
+                index.addProfit(trip);
+            }
+            assertTop(bestCells(emptyTaxis, profits), index);
+
+            // the profit window is shorter, but the windows change at their own pace
+            for (int n = random.nextInt(profits.size() > 20 ? 3 : 1); n > 0; n--) {
+                Trip leaving = profits.poll();
+                if (byIds)
+                    index.removeProfit(index(leaving.getRoute250().getStartCell()), leaving.getFareAmount());
+                else
+                    index.removeProfit(leaving);
+                assertTop(bestCells(emptyTaxis, profits), index);
+            }
+            for (int n = random.nextInt(emptyTaxis.size() > 40 ? 3 : 1); n > 0; n--) {
+                Trip leaving = emptyTaxis.poll();
+                if (byIds)
+                    index.removeEmptyTaxi();
+                else
+                    index.removeEmptyTaxi(leaving);
+                assertTop(bestCells(emptyTaxis, profits), index);
+            }
+        }
+    }
+
+    /**
+     * Asserts that the top of the index holds the expected cell profitabilities and their cell ids.
+     */
+    private static void assertTop(List<CellProfitability> expected, CellProfitabilityIndex index) {
+        assertEquals(describe(expected), describe(index.top(100)));
+
+        int[] cells = new int[100];
+        int size = index.topCells(cells, 100);
+        assertEquals(expected.size(), size);
+        for (int i = 0; i < size; i++)
+            assertEquals(index(expected.get(i).getCell()), cells[i]);
+    }
+
+    /**
+     * Computes the ranking of all the cells from scratch. The empty taxis are the most recent trip
+     * of each taxi in the window, grouped by the end cell, and the profits are grouped by the start cell.
+     */
+    private static List<CellProfitability> bestCells(Deque<Trip> tripEmptyTaxis, Deque<Trip> tripProfits) {
+        Map<Integer, int[]> emptyTaxis = new LinkedHashMap<>();
+        Set<String> taxis = new HashSet<>();
+        for (Iterator<Trip> iterator = tripEmptyTaxis.descendingIterator(); iterator.hasNext(); ) {
+            Trip trip = iterator.next();
+            if (!taxis.add(trip.getMedallion()))
+                continue;
+            // the count and the most recent id
+            int[] emptyTaxisCount = emptyTaxis.computeIfAbsent(index(trip.getRoute250().getEndCell()),
+                    c -> new int[]{0, trip.getId()});
+            emptyTaxisCount[0]++;
+        }
+
+        Map<Integer, List<Float>> profits = new LinkedHashMap<>();
+        Map<Integer, Integer> profitIds = new LinkedHashMap<>();
+        for (Trip trip : tripProfits) {
+            int startCell = index(trip.getRoute250().getStartCell());
+            profits.computeIfAbsent(startCell, c -> new ArrayList<>()).add(trip.getFareAmount() + trip.getTipAmount());
+            profitIds.put(startCell, trip.getId());
+        }
+
+        List<CellProfitability> cells = new ArrayList<>();
+        emptyTaxis.forEach((ec, etc) -> {
+            Cell250 cell = new Cell250(ec / 600, ec % 600);
+            List<Float> profit = profits.get(ec);
+            if (profit != null) {
+                double median = median(profit);
+                int profitId = profitIds.get(ec);
+                cells.add(new CellProfitability(cell, etc[1] > profitId ? etc[1] : profitId, etc[0], median,
+                        median / etc[0]));
+            } else
+                cells.add(new CellProfitability(cell, etc[1], etc[0], 0, 0));
+        });
+
+        // cells with the same profitability and id are ordered by the cell as in the index
+        cells.sort(Comparator.<CellProfitability>naturalOrder()
+                .thenComparingInt(cp -> index(cp.getCell())).reversed());
+        return cells;
+    }
+
+    private static double median(List<Float> values) {
+        List<Float> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        int size = sorted.size();
+        if (size % 2 != 0)
+            return sorted.get(size / 2);
+        return ((double) sorted.get(size / 2 - 1) + (double) sorted.get(size / 2)) / 2.0;
+    }
+
+    private static int cell(Random random) {
+        return (100 + random.nextInt(4)) * 600 + 100 + random.nextInt(4);
+    }
+
+    private static int index(Cell cell) {
+        return cell.getEast() * 600 + cell.getSouth();
+    }
+
+    /**
+     * Creates a trip of the taxi between the cells, given by their position in the grid, where the
+     * fare is the profit. The medallion of the taxi is its number or missing for NO_ID.
+     */
+    private static Trip trip(int taxi, int id, int startCell, int endCell, float profit) {
+        Trip trip = new Trip();
+        trip.setId(id);
+        trip.setMedallion(taxi != MD5Dictionary.NO_ID ? String.format("%032X", taxi) : null);
+        trip.setRoute250(new Route(new Cell250(startCell / 600, startCell % 600),
+                new Cell250(endCell / 600, endCell % 600)));
+        trip.setFareAmount(profit);
+        return trip;
+    }
+
+    /**
+     * Describes the cell profitabilities by all their values, as they are equal by the cell only.
+     */
+    private static List<String> describe(List<CellProfitability> cellProfitabilities) {
+        List<String> description = new ArrayList<>(cellProfitabilities.size());
+        for (CellProfitability cp : cellProfitabilities)
+            description.add(cp.getCell() + " " + cp.getId() + " " + cp.getEmptyTaxis() + " " +
+                    cp.getMedianProfit() + " " + cp.getProfitability());
+        return description;
+    }
+}
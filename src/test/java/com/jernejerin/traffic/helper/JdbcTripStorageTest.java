@@ -0,0 +1,125 @@
+package com.jernejerin.traffic.helper;
+
+import com.jernejerin.traffic.entities.Trip;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for JdbcTripStorage on an embedded H2 database.
+ *
+ * @author Jernej Jerin
+ */
+public class JdbcTripStorageTest extends TestCase {
+    private static final String TRIP = "07290D3599E7A0D62097A346EFCC1FB5,E7750A37CAB07D0DFF0AF7E3573AC141," +
+            "2013-01-01 00:00:00,2013-01-01 00:02:00,120,0.44,-73.956528,40.716976,-73.962440,40.715008," +
+            "CSH,3.50,0.50,0.50,0.00,0.00,4.50";
+
+    private File dir;
+    private JdbcTripStorage storage;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.dir = Files.createTempDirectory("trip-db").toFile();
+
+        // the same set up as the storage h2 of an architecture
+        PollingDriver.setupDriver("org.h2.Driver", "jdbc:h2:file:" + new File(this.dir, "taxi").getAbsolutePath() +
+                ";MODE=MySQL", "sa", "");
+        this.storage = new JdbcTripStorage();
+        this.storage.createTable("trip");
+        this.storage.createTable("tripChangeTop10");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try (Connection conn = DriverManager.getConnection(JdbcTripStorage.POOL_URI);
+             Statement statement = conn.createStatement()) {
+            statement.execute("shutdown");
+        }
+        PollingDriver.shutdownDriver();
+        for (File file : this.dir.listFiles())
+            file.delete();
+        this.dir.delete();
+    }
+
+    /**
+     * A test for checking that the inserted trips are stored with their values, in the table they
+     * were inserted into, and that truncating a table removes only its trips.
+     */
+    @Test
+    public void testInsertTruncate() throws Exception {
+        Trip trip = TripParser.parse(TRIP, 1357000000000L, 1);
+        Trip lowerCase = TripParser.parse(TRIP.replace("07290D3599E7A0D62097A346EFCC1FB5",
+                "07290d3599e7a0d62097a346efcc1fb5").replace("CSH", "XXX"), 1357000000001L, 2);
+        this.storage.insertTrip(trip, "trip");
+        this.storage.insertTrip(lowerCase, "trip");
+        this.storage.insertTrip(trip, "tripChangeTop10");
+
+        assertEquals(2, count("trip"));
+        assertEquals(1, count("tripChangeTop10"));
+        List<String> rows = select("trip");
+        assertEquals("1, 07290D3599E7A0D62097A346EFCC1FB5, E7750A37CAB07D0DFF0AF7E3573AC141, " +
+                "2013-01-01 00:00:00.0, 2013-01-01 00:02:00.0, 120, -73.95652770996094, CASH, 4.5, 1357000000000",
+                rows.get(0));
+        // the checksum keeps its case and a missing payment type is null
+        assertEquals("2, 07290d3599e7a0d62097a346efcc1fb5, E7750A37CAB07D0DFF0AF7E3573AC141, " +
+                "2013-01-01 00:00:00.0, 2013-01-01 00:02:00.0, 120, -73.95652770996094, null, 4.5, 1357000000001",
+                rows.get(1));
+
+        this.storage.truncateTable("trip");
+        assertEquals(0, count("trip"));
+        assertEquals(1, count("tripChangeTop10"));
+    }
+
+    /**
+     * A test for checking that a writer of the storage inserts all the trips in batches, including
+     * the last partial batch on close.
+     */
+    @Test
+    public void testWriter() throws Exception {
+        try (TripWriter writer = this.storage.openWriter("trip", 4, Long.MAX_VALUE)) {
+            for (int id = 0; id < 10; id++)
+                writer.add(TripParser.parse(TRIP, 0L, id));
+            assertEquals(8, count("trip"));
+        }
+        assertEquals(10, count("trip"));
+
+        List<String> rows = select("trip");
+        for (int id = 0; id < 10; id++)
+            assertTrue(rows.get(id).startsWith(id + ", "));
+    }
+
+    private static int count(String table) throws SQLException {
+        try (Connection conn = DriverManager.getConnection(JdbcTripStorage.POOL_URI);
+             Statement statement = conn.createStatement();
+             ResultSet result = statement.executeQuery("select count(*) from " + table)) {
+            result.next();
+            return result.getInt(1);
+        }
+    }
+
+    private static List<String> select(String table) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Connection conn = DriverManager.getConnection(JdbcTripStorage.POOL_URI);
+             Statement statement = conn.createStatement();
+             ResultSet result = statement.executeQuery("select eventId, medallion, hack_license, " +
+                     "pickup_datetime, dropoff_datetime, trip_time, pickup_longitude, payment_type, total_amount, " +
+                     "timestampReceived from " + table + " order by eventId")) {
+            while (result.next())
+                rows.add(result.getInt(1) + ", " + result.getString(2) + ", " + result.getString(3) + ", " +
+                        result.getTimestamp(4) + ", " + result.getTimestamp(5) + ", " + result.getInt(6) + ", " +
+                        result.getDouble(7) + ", " + result.getString(8) + ", " + result.getDouble(9) + ", " +
+                        result.getLong(10));
+        }
+        return rows;
+    }
+}
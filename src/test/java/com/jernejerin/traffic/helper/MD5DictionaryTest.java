@@ -0,0 +1,164 @@
+package com.jernejerin.traffic.helper;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Unit tests for MD5Dictionary.
+ *
+ * @author Jernej Jerin
+ */
+public class MD5DictionaryTest extends TestCase {
+    private static final String MEDALLION = "07290D3599E7A0D62097A346EFCC1FB5";
+
+    /**
+     * A test for checking that the ids are dense in the order of the first occurrence, that the same
+     * checksum gets the same id and that the checksum of an id is the same as interned.
+     */
+    @Test
+    public void testIntern() {
+        MD5Dictionary dictionary = new MD5Dictionary(4);
+        assertEquals(0, dictionary.intern(MEDALLION));
+        assertEquals(1, dictionary.intern("E7750A37CAB07D0DFF0AF7E3573AC141"));
+        assertEquals(0, dictionary.intern(new StringBuilder(MEDALLION)));
+        assertEquals(2, dictionary.size());
+
+        assertEquals(MEDALLION, dictionary.get(0));
+        assertEquals(0x07290D3599E7A0D6L, dictionary.getHigh(0));
+        assertEquals(0x2097A346EFCC1FB5L, dictionary.getLow(0));
+        assertFalse(dictionary.isLowerCase(0));
+
+        // the checksum in the middle of a line
+        String line = "0," + MEDALLION + ",1";
+        assertEquals(0, dictionary.intern(line, 2, 34));
+
+        // the checksum given by its value
+        assertEquals(0, dictionary.intern(0x07290D3599E7A0D6L, 0x2097A346EFCC1FB5L, false));
+        assertEquals(2, dictionary.intern(0, 0, false));
+        assertEquals("00000000000000000000000000000000", dictionary.get(2));
+        assertNull(dictionary.get(MD5Dictionary.NO_ID));
+    }
+
+    /**
+     * A test for checking that a missing checksum, a checksum with a wrong length, with a char,
+     * that is not a hex digit, or with both lower and upper case digits is not interned.
+     */
+    @Test
+    public void testMalformed() {
+        MD5Dictionary dictionary = new MD5Dictionary(4);
+        assertEquals(MD5Dictionary.NO_ID, dictionary.intern(null));
+        assertEquals(MD5Dictionary.NO_ID, dictionary.intern(""));
+        assertEquals(MD5Dictionary.NO_ID, dictionary.intern(MEDALLION.substring(1)));
+        assertEquals(MD5Dictionary.NO_ID, dictionary.intern(MEDALLION + "0"));
+        for (char c : new char[]{'G', 'g', ' ', '/', ':', '@', '`', '-'})
+            assertEquals(MD5Dictionary.NO_ID, dictionary.intern(MEDALLION.substring(0, 31) + c));
+        assertEquals(MD5Dictionary.NO_ID, dictionary.intern(MEDALLION.substring(0, 31) + 'b'));
+        assertEquals(0, dictionary.size());
+    }
+
+    /**
+     * A test for checking that the same checksum in upper and in lower case gets two ids and that
+     * each of them keeps its spelling, while a checksum of digits only has no case.
+     */
+    @Test
+    public void testCase() {
+        MD5Dictionary dictionary = new MD5Dictionary(4);
+        String lowerCase = MEDALLION.toLowerCase();
+        assertEquals(0, dictionary.intern(MEDALLION));
+        assertEquals(1, dictionary.intern(lowerCase));
+        assertEquals(0, dictionary.intern(MEDALLION));
+        assertEquals(1, dictionary.intern(lowerCase));
+
+        assertEquals(MEDALLION, dictionary.get(0));
+        assertEquals(lowerCase, dictionary.get(1));
+        assertTrue(dictionary.isLowerCase(1));
+        assertEquals(dictionary.getHigh(0), dictionary.getHigh(1));
+        assertEquals(dictionary.getLow(0), dictionary.getLow(1));
+        assertEquals(1, dictionary.intern(0x07290D3599E7A0D6L, 0x2097A346EFCC1FB5L, true));
+
+        String digits = "01234567890123456789012345678901";
+        assertEquals(2, dictionary.intern(digits));
+        assertEquals(digits, dictionary.get(2));
+        assertEquals(3, dictionary.size());
+    }
+
+    /**
+     * A test for checking that a cleared dictionary gives the ids from 0 again.
+     */
+    @Test
+    public void testClear() {
+        MD5Dictionary dictionary = new MD5Dictionary(2);
+        for (int i = 0; i < 100; i++)
+            dictionary.intern(String.format("%032X", i));
+        dictionary.clear();
+        assertEquals(0, dictionary.size());
+
+        assertEquals(0, dictionary.intern(MEDALLION));
+        assertEquals(MEDALLION, dictionary.get(0));
+        assertEquals(1, dictionary.intern(String.format("%032X", 0)));
+        assertEquals(2, dictionary.size());
+    }
+
+    /**
+     * A test for checking that the ids stay the same, when the table grows, for random checksums.
+     */
+    @Test
+    public void testGrow() {
+        Random random = new Random(42);
+        MD5Dictionary dictionary = new MD5Dictionary(2);
+        List<String> checksums = new ArrayList<>();
+        Map<String, Integer> ids = new HashMap<>();
+
+        for (int i = 0; i < 100000; i++) {
+            String checksum = random.nextInt(4) == 0 && !checksums.isEmpty() ?
+                    checksums.get(random.nextInt(checksums.size())) :
+                    String.format("%016X%016X", random.nextLong(), random.nextLong());
+            if (!ids.containsKey(checksum)) {
+                ids.put(checksum, checksums.size());
+                checksums.add(checksum);
+            }
+            assertEquals((int) ids.get(checksum), dictionary.intern(checksum));
+        }
+
+        assertEquals(checksums.size(), dictionary.size());
+        for (int id = 0; id < checksums.size(); id++)
+            assertEquals(checksums.get(id), dictionary.get(id));
+    }
+
+    /**
+     * A test for checking that the threads interning the same checksums at the same time get
+     * the same ids and that each checksum is interned once.
+     */
+    @Test
+    public void testConcurrentIntern() throws Exception {
+        Random random = new Random(42);
+        String[] checksums = new String[20000];
+        for (int i = 0; i < checksums.length; i++)
+            checksums[i] = String.format("%016X%016X", random.nextLong(), random.nextLong());
+
+        MD5Dictionary dictionary = new MD5Dictionary(16);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<int[]>> results = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            results.add(executor.submit(() -> {
+                int[] ids = new int[checksums.length];
+                for (int i = 0; i < checksums.length; i++)
+                    ids[i] = dictionary.intern(checksums[i]);
+                return ids;
+            }));
+        }
+        executor.shutdown();
+
+        int[] ids = results.get(0).get();
+        for (Future<int[]> result : results)
+            assertTrue(Arrays.equals(ids, result.get()));
+        assertEquals(checksums.length, dictionary.size());
+        for (int i = 0; i < checksums.length; i++)
+            assertEquals(checksums[i], dictionary.get(ids[i]));
+    }
+}
@@ -0,0 +1,136 @@
+package com.jernejerin.traffic.helper;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.Random;
+
+/**
+ * Unit tests for OutputSink.
+ *
+ * @author Jernej Jerin
+ */
+public class OutputSinkTest extends TestCase {
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.file = File.createTempFile("query", ".txt");
+        this.file.delete();
+    }
+
+    @Override
+    protected void tearDown() {
+        this.file.delete();
+    }
+
+    /**
+     * A test for checking that the numbers and the date times are formatted the same as by String
+     * concatenation, including the edge cases.
+     */
+    @Test
+    public void testFormatAsString() throws Exception {
+        Random random = new Random(42);
+        StringBuilder expected = new StringBuilder();
+        OutputSink output = new OutputSink(this.file, 1 << 20, Long.MAX_VALUE);
+
+        long[] longs = {0, 1, -1, 9, 10, 99, 100, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1,
+                Integer.MAX_VALUE, Integer.MIN_VALUE};
+        for (long value : longs) {
+            output.append(value).append(", ");
+            expected.append(value + ", ");
+        }
+
+        double[] doubles = {0.0, -0.0, 1.0, 0.1, 1e-7, 12345678.9, 1e21, Double.NaN,
+                Double.POSITIVE_INFINITY, Double.MIN_VALUE};
+        for (double value : doubles) {
+            output.append(value).append(", ");
+            expected.append(value + ", ");
+        }
+
+        LocalDateTime[] dateTimes = {LocalDateTime.of(2013, 1, 1, 0, 0), LocalDateTime.of(2013, 12, 31, 23, 59, 59),
+                LocalDateTime.of(2013, 1, 1, 0, 0, 0, 1000), LocalDateTime.of(999, 1, 1, 0, 0),
+                LocalDateTime.of(10000, 1, 1, 0, 0, 1)};
+        for (LocalDateTime value : dateTimes) {
+            output.append(value).append(", ");
+            expected.append(value.toString() + ", ");
+        }
+
+        for (int i = 0; i < 10000; i++) {
+            long value = random.nextLong() >> random.nextInt(64);
+            LocalDateTime dateTime = LocalDateTime.of(2013, 1, 1, 0, 0).plusSeconds(random.nextInt(1 << 25));
+            output.append(value).append(' ').append(dateTime).append(',');
+            expected.append(value + " " + dateTime.toString() + ",");
+        }
+        output.endLine();
+        expected.append('\n');
+        output.close();
+
+        assertEquals(expected.toString(), read());
+    }
+
+    /**
+     * A test for checking that the lines are written to file when the flush size is reached and
+     * not before, that the rest is written on close and that a line longer than the buffer is kept whole.
+     */
+    @Test
+    public void testFlushSize() throws Exception {
+        OutputSink output = new OutputSink(this.file, 10, Long.MAX_VALUE);
+
+        output.append("abcd");
+        output.endLine();
+        // the file is opened on the first write
+        assertFalse(this.file.exists());
+
+        output.append("efghi");
+        output.endLine();
+        assertEquals("abcd\nefghi\n", read());
+
+        String line = new String(new char[1000]).replace('\0', 'x');
+        output.append(line);
+        assertEquals("abcd\nefghi\n", read());
+        output.endLine();
+        assertEquals("abcd\nefghi\n" + line + "\n", read());
+
+        output.append('z');
+        output.endLine();
+        output.close();
+        assertEquals("abcd\nefghi\n" + line + "\nz\n", read());
+    }
+
+    /**
+     * A test for checking that a line is written to file, when it ends after the flush interval has passed,
+     * and that a closed sink appends to the same file on the next write.
+     */
+    @Test
+    public void testFlushInterval() throws Exception {
+        OutputSink output = new OutputSink(this.file, 1 << 20, 0);
+        output.append(1L);
+        output.endLine();
+        assertEquals("1\n", read());
+        output.append(2L);
+        output.endLine();
+        assertEquals("1\n2\n", read());
+        output.close();
+
+        // the file is opened again in append mode
+        output.append(3L);
+        output.endLine();
+        output.close();
+        assertEquals("1\n2\n3\n", read());
+
+        output = new OutputSink(this.file, 1 << 20, 0);
+        output.append(4L);
+        output.endLine();
+        output.close();
+        assertEquals("1\n2\n3\n4\n", read());
+    }
+
+    private String read() throws Exception {
+        return new String(Files.readAllBytes(this.file.toPath()), StandardCharsets.US_ASCII);
+    }
+}
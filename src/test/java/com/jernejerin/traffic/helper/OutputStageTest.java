@@ -0,0 +1,223 @@
+package com.jernejerin.traffic.helper;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unit tests for OutputStage.
+ *
+ * @author Jernej Jerin
+ */
+public class OutputStageTest extends TestCase {
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.file = File.createTempFile("query", ".txt");
+        this.file.delete();
+    }
+
+    @Override
+    protected void tearDown() {
+        this.file.delete();
+    }
+
+    /**
+     * A test for checking that with the block policy a submit to the full queue waits for the slow sink
+     * and that all the changes are written in order.
+     */
+    @Test
+    public void testBlock() throws Exception {
+        SlowSink sink = new SlowSink(this.file);
+        OutputStage.Statistics statistics = new OutputStage.Statistics();
+        OutputStage stage = fillWhileStalled(sink, statistics, "block");
+
+        // the third change waits for space in the queue
+        CountDownLatch submitted = new CountDownLatch(1);
+        Thread submitter = new Thread(() -> {
+            try {
+                stage.submit(sink, statistics, line("c"), 3);
+                submitted.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        submitter.start();
+        assertFalse(submitted.await(100, TimeUnit.MILLISECONDS));
+
+        sink.release.countDown();
+        assertTrue(submitted.await(10, TimeUnit.SECONDS));
+        stage.close();
+        sink.close();
+
+        assertEquals("a 1\nb 2\nc 3\n", read());
+        assertEquals(3, statistics.getWritten());
+        assertEquals(0, statistics.getDropped());
+        assertEquals(0, statistics.getCoalesced());
+    }
+
+    /**
+     * A test for checking that with the drop oldest policy a submit to the full queue drops the
+     * oldest pending change and counts it as dropped.
+     */
+    @Test
+    public void testDropOldest() throws Exception {
+        SlowSink sink = new SlowSink(this.file);
+        OutputStage.Statistics statistics = new OutputStage.Statistics();
+        OutputStage stage = fillWhileStalled(sink, statistics, "dropOldest");
+
+        stage.submit(sink, statistics, line("c"), 3);
+        stage.submit(sink, statistics, line("d"), 4);
+        sink.release.countDown();
+        stage.close();
+        sink.close();
+
+        assertEquals("a 1\nd 4\n", read());
+        assertEquals(2, statistics.getWritten());
+        assertEquals(2, statistics.getDropped());
+        assertEquals(0, statistics.getCoalesced());
+    }
+
+    /**
+     * A test for checking that with the coalesce policy a submit to the full queue replaces the
+     * pending change for the same sink and counts it as coalesced.
+     */
+    @Test
+    public void testCoalesce() throws Exception {
+        SlowSink sink = new SlowSink(this.file);
+        OutputStage.Statistics statistics = new OutputStage.Statistics();
+        OutputStage stage = fillWhileStalled(sink, statistics, "coalesce");
+
+        stage.submit(sink, statistics, line("c"), 3);
+        stage.submit(sink, statistics, line("d"), 4);
+        sink.release.countDown();
+        stage.close();
+        sink.close();
+
+        assertEquals("a 1\nd 4\n", read());
+        assertEquals(2, statistics.getWritten());
+        assertEquals(0, statistics.getDropped());
+        assertEquals(2, statistics.getCoalesced());
+    }
+
+    /**
+     * A test for checking that a change, that fails to be written, is counted as failed and that
+     * the following changes are still written, also by a submitter waiting for space in the queue.
+     */
+    @Test
+    public void testFailedChange() throws Exception {
+        OutputSink sink = new OutputSink(this.file, 1 << 20, Long.MAX_VALUE) {
+            @Override
+            public void endLine() throws IOException {
+                if (this.count > 0 && this.buffer[this.count - 3] == 'x')
+                    throw new IllegalStateException("Failed change");
+                super.endLine();
+            }
+        };
+        OutputStage.Statistics statistics = new OutputStage.Statistics();
+        OutputStage stage = new OutputStage(1, "block");
+
+        stage.submit(sink, statistics, line("a"), 1);
+        stage.submit(sink, statistics, line("x"), 2);
+        for (int i = 3; i < 10; i++)
+            stage.submit(sink, statistics, line(String.valueOf(i)), i);
+        stage.close();
+        sink.close();
+
+        // the failed change stays in the buffer of the sink without its end of line
+        assertEquals("a 1\nx 23 3\n4 4\n5 5\n6 6\n7 7\n8 8\n9 9\n", read());
+        assertEquals(8, statistics.getWritten());
+        assertEquals(1, statistics.getFailed());
+    }
+
+    /**
+     * A test for checking that a stage, whose writer thread has stopped, fails the waiting submit
+     * and close, instead of waiting forever.
+     */
+    @Test
+    public void testStoppedWriter() throws Exception {
+        SlowSink sink = new SlowSink(this.file) {
+            @Override
+            public void endLine() throws IOException {
+                super.endLine();
+                throw new AssertionError("Writer stopped");
+            }
+        };
+        OutputStage.Statistics statistics = new OutputStage.Statistics();
+        OutputStage stage = fillWhileStalled(sink, statistics, "block");
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread submitter = new Thread(() -> {
+            try {
+                stage.submit(sink, statistics, line("c"), 3);
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        submitter.start();
+        Thread.sleep(50);
+        sink.release.countDown();
+        submitter.join(10000);
+
+        assertFalse(submitter.isAlive());
+        assertTrue(failure.get() instanceof IllegalStateException);
+        try {
+            stage.close();
+            fail("Closed a stage with a stopped writer");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Creates a stage with the capacity of one, where the writer thread is stalled in the sink on
+     * the first change and the second change is pending in the full queue.
+     */
+    private static OutputStage fillWhileStalled(SlowSink sink, OutputStage.Statistics statistics, String policy)
+            throws InterruptedException {
+        OutputStage stage = new OutputStage(1, policy);
+        stage.submit(sink, statistics, line("a"), 1);
+        assertTrue(sink.stalled.await(10, TimeUnit.SECONDS));
+        stage.submit(sink, statistics, line("b"), 2);
+        return stage;
+    }
+
+    private static byte[] line(String change) {
+        return (change + " ").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private String read() throws Exception {
+        return new String(Files.readAllBytes(this.file.toPath()), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * A sink, that stalls on the end of the first line until it is released.
+     */
+    private static class SlowSink extends OutputSink {
+        private final CountDownLatch stalled = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        private SlowSink(File file) {
+            super(file, 1 << 20, Long.MAX_VALUE);
+        }
+
+        @Override
+        public void endLine() throws IOException {
+            stalled.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.endLine();
+        }
+    }
+}
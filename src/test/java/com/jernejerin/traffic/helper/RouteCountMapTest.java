@@ -0,0 +1,85 @@
+package com.jernejerin.traffic.helper;
+
+import com.jernejerin.traffic.entities.Cell500;
+import com.jernejerin.traffic.entities.Route;
+import com.jernejerin.traffic.entities.RouteCount;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.*;
+
+/**
+ * Unit tests for RouteCountMap.
+ *
+ * @author Jernej Jerin
+ */
+public class RouteCountMapTest extends TestCase {
+    /**
+     * A test for checking that get, getOrCreate and remove give the same route counts as a HashMap
+     * for random operations on a small set of routes, so the clusters are long, the entries
+     * are shifted back on removal and the table grows.
+     */
+    @Test
+    public void testAsHashMap() {
+        Random random = new Random(42);
+        RouteCountMap map = new RouteCountMap(4);
+        Map<Long, RouteCount> expected = new HashMap<>();
+
+        for (int n = 0; n < 200000; n++) {
+            Route route = new Route(new Cell500(random.nextInt(20), random.nextInt(20)),
+                    new Cell500(random.nextInt(3), 0));
+            long routeId = route.getId();
+            int operation = random.nextInt(3);
+
+            if (operation == 0) {
+                RouteCount routeCount = map.getOrCreate(route, n);
+                RouteCount expectedCount = expected.get(routeId);
+                if (expectedCount == null) {
+                    assertEquals(route, routeCount.getRoute());
+                    assertEquals(n, routeCount.getId());
+                    assertEquals(0, routeCount.getCount());
+                    expected.put(routeId, routeCount);
+                } else
+                    assertSame(expectedCount, routeCount);
+            } else if (operation == 1)
+                assertSame(expected.remove(routeId), map.remove(routeId));
+            else
+                assertSame(expected.get(routeId), map.get(routeId));
+
+            assertEquals(expected.size(), map.size());
+            assertEquals(expected.isEmpty(), map.isEmpty());
+        }
+
+        // every route count that is left is reachable
+        for (Map.Entry<Long, RouteCount> entry : expected.entrySet())
+            assertSame(entry.getValue(), map.get(entry.getKey()));
+
+        Set<RouteCount> values = Collections.newSetFromMap(new IdentityHashMap<>());
+        map.forEach(values::add);
+        assertEquals(expected.size(), values.size());
+        for (RouteCount routeCount : expected.values())
+            assertTrue(values.contains(routeCount));
+    }
+
+    /**
+     * A test for checking that the map is empty after clear and can be filled again.
+     */
+    @Test
+    public void testClear() {
+        RouteCountMap map = new RouteCountMap(2);
+        Route route = new Route(new Cell500(1, 2), new Cell500(3, 4));
+
+        for (int i = 0; i < 100; i++)
+            map.getOrCreate(new Route(new Cell500(i, 0), new Cell500(0, i)), i);
+        assertEquals(100, map.size());
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(route.getId()));
+        assertNull(map.remove(route.getId()));
+
+        RouteCount routeCount = map.getOrCreate(route, 7);
+        assertSame(routeCount, map.get(route.getId()));
+        assertEquals(1, map.size());
+    }
+}
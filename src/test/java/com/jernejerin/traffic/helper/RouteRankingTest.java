@@ -0,0 +1,213 @@
+package com.jernejerin.traffic.helper;
+
+import com.aliasi.util.BoundedPriorityQueue;
+import com.jernejerin.traffic.entities.Cell500;
+import com.jernejerin.traffic.entities.Route;
+import com.jernejerin.traffic.entities.RouteCount;
+import com.jernejerin.traffic.entities.Trip;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.*;
+
+/**
+ * Unit tests for RouteRanking.
+ *
+ * @author Jernej Jerin
+ */
+public class RouteRankingTest extends TestCase {
+    private static final Route A = new Route(new Cell500(1, 1), new Cell500(1, 2));
+    private static final Route B = new Route(new Cell500(2, 1), new Cell500(2, 2));
+
+    /**
+     * A test for checking that increment counts the trip and updates the id of the most recent trip
+     * and that decrement keeps the id and removes the route when its count drops to 0.
+     */
+    @Test
+    public void testIncrementDecrement() {
+        RouteRanking ranking = new RouteRanking(16);
+
+        assertNull(ranking.get(A));
+        assertNull(ranking.decrement(A));
+
+        ranking.increment(A, 1);
+        RouteCount routeCount = ranking.increment(A, 2);
+        assertSame(routeCount, ranking.get(A));
+        assertSame(routeCount, ranking.get(A.getId()));
+        assertEquals(A, routeCount.getRoute());
+        assertEquals(2, routeCount.getCount());
+        assertEquals(2, routeCount.getId());
+        assertEquals(1, ranking.size());
+
+        ranking.decrement(A);
+        assertEquals(1, routeCount.getCount());
+        assertEquals(2, routeCount.getId());
+        assertEquals(Collections.singletonList(routeCount), ranking.top(10));
+
+        ranking.decrement(A);
+        assertEquals(0, routeCount.getCount());
+        assertNull(ranking.get(A));
+        assertEquals(0, ranking.size());
+        assertTrue(ranking.top(10).isEmpty());
+
+        // the route given by its id only is the same route
+        routeCount = ranking.increment(A.getId(), 3);
+        assertEquals(A, routeCount.getRoute());
+        assertEquals(A.getId(), routeCount.getRoute().getId());
+        assertSame(routeCount, ranking.increment(A, 4));
+        assertEquals(2, routeCount.getCount());
+    }
+
+    /**
+     * A test for checking that the routes with the same count are ordered by the id of the most
+     * recent trip, the highest id first, as in RouteCount.compareTo.
+     */
+    @Test
+    public void testTies() {
+        RouteRanking ranking = new RouteRanking(16);
+
+        RouteCount a = ranking.increment(A, 5);
+        RouteCount b = ranking.increment(B, 7);
+        assertEquals(Arrays.asList(b, a), ranking.top(10));
+
+        // A becomes more frequent
+        ranking.increment(A, 8);
+        assertEquals(Arrays.asList(a, b), ranking.top(10));
+
+        // the same count again, but now A has the most recent trip
+        ranking.increment(B, 9);
+        ranking.decrement(B);
+        assertEquals(1, b.getCount());
+        ranking.increment(B, 6);
+        assertEquals(2, b.getCount());
+        assertEquals(Arrays.asList(a, b), ranking.top(10));
+
+        // decrement keeps the id, so B with id 6 stays behind A with id 8
+        ranking.decrement(A);
+        ranking.decrement(B);
+        assertEquals(Arrays.asList(a, b), ranking.top(10));
+
+        long[] ids = new long[10];
+        assertEquals(2, ranking.topIds(ids, 10));
+        assertEquals(A.getId(), ids[0]);
+        assertEquals(B.getId(), ids[1]);
+    }
+
+    /**
+     * A test for checking that a route drops out of the top 10 when it is counted down and that
+     * the next most frequent route takes its place.
+     */
+    @Test
+    public void testDropOutOfTop10() {
+        RouteRanking ranking = new RouteRanking(16);
+        RouteCount[] routeCounts = new RouteCount[11];
+
+        // routes 0 to 9 have 2 trips and route 10 only 1, so it is the 11th
+        int id = 0;
+        for (int i = 0; i < 11; i++) {
+            Route route = new Route(new Cell500(i, 0), new Cell500(i, 1));
+            routeCounts[i] = ranking.increment(route, id++);
+            if (i < 10)
+                ranking.increment(route, id++);
+        }
+        assertEquals(10, ranking.top(10).size());
+        for (int i = 0; i < 10; i++)
+            assertTrue(ranking.isInTop(routeCounts[i], 10));
+        assertFalse(ranking.isInTop(routeCounts[10], 10));
+        assertTrue(ranking.isInTop(routeCounts[10], 11));
+        assertEquals(routeCounts[9], ranking.top(10).get(0));
+
+        // route 3 drops to 1 trip, but its most recent trip is older than the one of route 10
+        ranking.decrement(routeCounts[3].getRoute());
+        assertFalse(ranking.isInTop(routeCounts[3], 10));
+        assertTrue(ranking.isInTop(routeCounts[10], 10));
+        assertEquals(routeCounts[10], ranking.top(10).get(9));
+
+        // route 3 leaves the window, route 10 stays the last one in top 10
+        ranking.decrement(routeCounts[3].getRoute());
+        assertNull(ranking.get(routeCounts[3].getRoute()));
+        assertFalse(ranking.isInTop(routeCounts[3], 11));
+        assertEquals(10, ranking.size());
+        assertEquals(routeCounts[10], ranking.top(10).get(9));
+    }
+
+    /**
+     * A test for checking that the ranking gives the same top 10 as the LinkedHashMap of route counts
+     * ranked by the BoundedPriorityQueue, as done before, for every trip in the 30 minutes window of
+     * the bundled trips.
+     */
+    @Test
+    public void testTop10AsBoundedPriorityQueue() throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(RouteRankingTest.class.getResourceAsStream(
+                "/com/jernejerin/trips_1_hour_2013-01-01-00-00_2013-01-01-01-00_10799.csv"), "UTF-8"));
+        RouteRanking ranking = new RouteRanking(100000);
+        LinkedHashMap<Route, RouteCount> routesCount = new LinkedHashMap<>(100000);
+        Deque<Trip> trips = new ArrayDeque<>();
+
+        String line;
+        int id = 0;
+        int changes = 0;
+        List<String> previous = Collections.emptyList();
+        while ((line = reader.readLine()) != null) {
+            Trip trip = TripParser.parse(line, 0L, id++);
+            if (trip == null || trip.getRoute250() == null)
+                continue;
+
+            // trips leaving the window
+            while (!trips.isEmpty() && trips.peek().getDropOffTimestamp() < trip.getDropOffTimestamp()
+                    - 30 * 60 * 1000) {
+                Trip leaving = trips.poll();
+                RouteCount routeCount = routesCount.get(leaving.getRoute500());
+                routeCount.setCount(routeCount.getCount() - 1);
+                if (routeCount.getCount() == 0)
+                    routesCount.remove(leaving.getRoute500());
+                ranking.decrement(leaving.getRoute500());
+            }
+
+            trips.add(trip);
+            RouteCount routeCount = routesCount.get(trip.getRoute500());
+            if (routeCount == null)
+                routesCount.put(trip.getRoute500(), new RouteCount(trip.getRoute500(), trip.getId(), 1));
+            else {
+                routeCount.setCount(routeCount.getCount() + 1);
+                routeCount.setId(trip.getId());
+            }
+            ranking.increment(trip.getRoute500(), trip.getId());
+
+            List<String> top10 = describe(ranking.top(10));
+            assertEquals("Top 10 after trip " + trip.getId(), describe(top10(routesCount)), top10);
+            assertEquals(routesCount.size(), ranking.size());
+            if (!top10.equals(previous))
+                changes++;
+            previous = top10;
+        }
+        reader.close();
+
+        assertTrue(changes > 0);
+    }
+
+    /**
+     * Ranks the route counts by the bounded priority queue of the natural order.
+     */
+    private static List<RouteCount> top10(Map<Route, RouteCount> routesCount) {
+        BoundedPriorityQueue<RouteCount> topRoutes = new BoundedPriorityQueue<>(
+                Comparator.<RouteCount>naturalOrder(), 10);
+        routesCount.forEach((r, rc) -> topRoutes.offer(rc));
+
+        List<RouteCount> top10 = new ArrayList<>(topRoutes);
+        Collections.sort(top10, Comparator.<RouteCount>reverseOrder());
+        return top10;
+    }
+
+    /**
+     * Describes the route counts by the route, count and id, as route counts are equal by the route only.
+     */
+    private static List<String> describe(List<RouteCount> routeCounts) {
+        List<String> description = new ArrayList<>(routeCounts.size());
+        for (RouteCount routeCount : routeCounts)
+            description.add(routeCount.getRoute() + " " + routeCount.getCount() + " " + routeCount.getId());
+        return description;
+    }
+}
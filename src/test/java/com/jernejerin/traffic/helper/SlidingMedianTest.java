@@ -0,0 +1,120 @@
+package com.jernejerin.traffic.helper;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Unit tests for SlidingMedian.
+ *
+ * @author Jernej Jerin
+ */
+public class SlidingMedianTest extends TestCase {
+    /**
+     * A test for checking the median of an odd and an even number of values and that the
+     * median of an empty window can not be computed.
+     */
+    @Test
+    public void testMedian() {
+        SlidingMedian median = new SlidingMedian(4f);
+        assertEquals(4.0, median.getMedian());
+
+        median.add(1f);
+        assertEquals(2.5, median.getMedian());
+
+        median.add(3f);
+        median.add(2f);
+        assertEquals(2.5, median.getMedian());
+
+        median.add(3f);
+        assertEquals(3.0, median.getMedian());
+
+        assertTrue(median.remove(3f));
+        assertTrue(median.remove(3f));
+        assertFalse(median.remove(3f));
+        assertEquals(3, median.size());
+        assertEquals(2.0, median.getMedian());
+
+        median.clear();
+        assertTrue(median.isEmpty());
+        try {
+            median.getMedian();
+            fail("The median of an empty window");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A test for checking that the median is the same as the middle of a sorted list for random
+     * additions and removals of values with many duplicates.
+     */
+    @Test
+    public void testAsSortedList() {
+        Random random = new Random(42);
+        SlidingMedian median = new SlidingMedian();
+        // the values in the window, kept sorted
+        List<Float> values = new ArrayList<>();
+
+        for (int n = 0; n < 50000; n++) {
+            float value = random.nextInt(50) / 4f - 5f;
+            if (values.isEmpty() || random.nextInt(5) < 3) {
+                median.add(value);
+                int i = Collections.binarySearch(values, value);
+                values.add(i < 0 ? -i - 1 : i, value);
+            } else {
+                // remove a value in the window or a value that may not be in it
+                if (random.nextBoolean())
+                    value = values.get(random.nextInt(values.size()));
+                assertEquals(values.remove((Float) value), median.remove(value));
+            }
+
+            assertEquals(values.size(), median.size());
+            assertEquals(values.isEmpty(), median.isEmpty());
+            if (!values.isEmpty())
+                assertEquals(median(values), median.getMedian());
+        }
+    }
+
+    /**
+     * A test for checking that adding all the values of another window gives the same median
+     * as adding them one by one.
+     */
+    @Test
+    public void testAddAll() {
+        Random random = new Random(7);
+        SlidingMedian median = new SlidingMedian();
+        SlidingMedian other = new SlidingMedian();
+        List<Float> values = new ArrayList<>();
+
+        for (int n = 0; n < 1000; n++) {
+            float value = random.nextInt(100);
+            values.add(value);
+            if (n % 3 == 0)
+                median.add(value);
+            else
+                other.add(value);
+        }
+        median.addAll(other);
+        Collections.sort(values);
+
+        assertEquals(values.size(), median.size());
+        assertEquals(median(values), median.getMedian());
+        assertEquals(666, other.size());
+    }
+
+    /**
+     * Computes the median of the sorted values.
+     */
+    private static double median(List<Float> sorted) {
+        int size = sorted.size();
+        if (size % 2 != 0)
+            return sorted.get(size / 2);
+        return ((double) sorted.get(size / 2 - 1) + (double) sorted.get(size / 2)) / 2.0;
+    }
+}
@@ -0,0 +1,185 @@
+package com.jernejerin.traffic.helper;
+
+import com.jernejerin.traffic.client.TripBatch;
+import com.jernejerin.traffic.entities.Trip;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for TripArchive and TripArchiveReader.
+ *
+ * @author Jernej Jerin
+ */
+public class TripArchiveTest extends TestCase {
+    private static final String TRIP = "07290D3599E7A0D62097A346EFCC1FB5,E7750A37CAB07D0DFF0AF7E3573AC141," +
+            "2013-01-01 00:00:00,2013-01-01 00:02:00,120,0.44,-73.956528,40.716976,-73.962440,40.715008," +
+            "CSH,3.50,0.50,0.50,0.00,0.00,4.50";
+
+    private File csv;
+    private File archive;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.csv = File.createTempFile("trips", ".csv");
+        this.archive = File.createTempFile("trips", ".archive");
+    }
+
+    @Override
+    protected void tearDown() {
+        this.csv.delete();
+        this.archive.delete();
+    }
+
+    /**
+     * A test for checking that the replayed trips are the same as parsed from the CSV lines, for all
+     * the example trips in blocks, where the last block is not full.
+     */
+    @Test
+    public void testConvertReplay() throws Exception {
+        try (InputStream in = TripArchiveTest.class.getResourceAsStream("/com/jernejerin/trips_example.csv")) {
+            Files.copy(in, this.csv.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        List<String> expected = parse(Files.readAllLines(this.csv.toPath(), StandardCharsets.ISO_8859_1));
+        assertEquals(expected.size(), TripArchive.convert(this.csv, this.archive, 1000));
+        assertEquals(expected, replay());
+    }
+
+    /**
+     * A test for checking the round trip of the edge cases: a lower case MD5 checksum, a missing payment
+     * type, erroneous values, that are stored raw, a line without a drop off, an empty line and a malformed line.
+     */
+    @Test
+    public void testConvertReplayEdgeCases() throws Exception {
+        List<String> lines = Arrays.asList(
+                TRIP,
+                TRIP.replace("07290D3599E7A0D62097A346EFCC1FB5", "a123456789abcdefabcdef0123456789"),
+                TRIP.replace("CSH", "XXX"),
+                "07290D3599E7A0D62097A346EFCC1FBX,E7750A37CAB07D0DFF0AF7E3573AC1,2013-01-01 00:00:00," +
+                        "2013-02-30 25:00:00,12a,x,-190,40.716976,-73.962440,91,CCC,3.50,0.50,0.50,0.00,0.00,4.50",
+                TRIP.replace("2013-01-01 00:02:00", ""),
+                "",
+                TRIP + ",1",
+                TRIP.replace("2013-01-01 00:00:00", "2012-12-31 23:00:00").replace("3.50", "123456.78"));
+        Files.write(this.csv.toPath(), lines, StandardCharsets.ISO_8859_1);
+
+        List<String> expected = parse(lines);
+        assertEquals(6, expected.size());
+
+        // blocks of 4 trips, so the deltas of the date times start again in the second block
+        assertEquals(6, TripArchive.convert(this.csv, this.archive, 4));
+        List<String> trips = replay();
+        assertEquals(expected, trips);
+
+        // the empty line is not numbered, the malformed line is
+        assertTrue(trips.get(5).startsWith("6, "));
+        assertTrue(trips.get(1).startsWith("1, a123456789abcdefabcdef0123456789, "));
+    }
+
+    /**
+     * A test for checking that the batches hold the same values as the trips with both routes.
+     */
+    @Test
+    public void testReplayBatches() throws Exception {
+        try (InputStream in = TripArchiveTest.class.getResourceAsStream("/com/jernejerin/trips_example.csv")) {
+            Files.copy(in, this.csv.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        TripArchive.convert(this.csv, this.archive, 1000);
+
+        List<Trip> trips = new ArrayList<>();
+        TripArchiveReader reader = new TripArchiveReader(this.archive);
+        reader.replay(t -> {
+            if (t.getRoute250() != null && t.getRoute500() != null)
+                trips.add(t);
+        });
+
+        List<TripBatch> batches = new ArrayList<>();
+        assertEquals(trips.size(), reader.replay(128, batches::add));
+        int i = 0;
+        for (TripBatch batch : batches) {
+            assertTrue(batch.size() > 0);
+            for (int j = 0; j < batch.size(); j++, i++) {
+                Trip trip = trips.get(i);
+                TripBatch expected = new TripBatch(1);
+                expected.add(trip, trip.getMedallionId());
+
+                assertEquals(expected.getId(0), batch.getId(j));
+                assertEquals(expected.getTaxi(0), batch.getTaxi(j));
+                assertEquals(expected.getPickupDatetime(0), batch.getPickupDatetime(j));
+                assertEquals(expected.getDropOffDatetime(0), batch.getDropOffDatetime(j));
+                assertEquals(expected.getDropOffTimestamp(0), batch.getDropOffTimestamp(j));
+                assertEquals(expected.getFareAmount(0), batch.getFareAmount(j));
+                assertEquals(expected.getTipAmount(0), batch.getTipAmount(j));
+                assertEquals(expected.getStartCell(0), batch.getStartCell(j));
+                assertEquals(expected.getEndCell(0), batch.getEndCell(j));
+                assertEquals(expected.getRoute(0), batch.getRoute(j));
+            }
+        }
+        assertEquals(trips.size(), i);
+    }
+
+    /**
+     * A test for checking that a file without the magic number or shorter than the footer is rejected.
+     */
+    @Test
+    public void testNotAnArchive() throws Exception {
+        try (InputStream in = TripArchiveTest.class.getResourceAsStream("/com/jernejerin/trips_example.csv")) {
+            Files.copy(in, this.archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        try {
+            replay();
+            fail("Replayed a CSV file");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // an empty CSV file gives an empty archive
+        Files.write(this.csv.toPath(), new byte[0]);
+        assertEquals(0, TripArchive.convert(this.csv, this.archive, 4));
+        assertTrue(replay().isEmpty());
+
+        // a truncated archive
+        try (RandomAccessFile file = new RandomAccessFile(this.archive, "rw")) {
+            file.setLength(TripArchive.FOOTER_SIZE - 1);
+        }
+        try {
+            replay();
+            fail("Replayed a truncated archive");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Parses the lines as TripArchive.convert, where empty lines are skipped and malformed lines are numbered.
+     */
+    private static List<String> parse(List<String> lines) {
+        List<String> trips = new ArrayList<>();
+        int id = 0;
+        for (String line : lines) {
+            if (line.isEmpty())
+                continue;
+            Trip trip = TripOperations.parseValidateTrip(line, 0, id++);
+            if (trip != null)
+                trips.add(String.valueOf(trip));
+        }
+        return trips;
+    }
+
+    private List<String> replay() {
+        List<String> trips = new ArrayList<>();
+        long count = new TripArchiveReader(this.archive).replay(t -> trips.add(String.valueOf(t)));
+        assertEquals(trips.size(), count);
+        return trips;
+    }
+}
@@ -0,0 +1,122 @@
+package com.jernejerin.traffic.helper;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Unit tests for TripBatchWriter on an in-memory H2 database. The rows are counted from another
+ * connection, so only the committed batches are seen.
+ *
+ * @author Jernej Jerin
+ */
+public class TripBatchWriterTest extends TestCase {
+    private static final String TRIP = "07290D3599E7A0D62097A346EFCC1FB5,E7750A37CAB07D0DFF0AF7E3573AC141," +
+            "2013-01-01 00:00:00,2013-01-01 00:02:00,120,0.44,-73.956528,40.716976,-73.962440,40.715008," +
+            "CSH,3.50,0.50,0.50,0.00,0.00,4.50";
+
+    @Override
+    protected void setUp() throws Exception {
+        PollingDriver.setupDriver("org.h2.Driver", "jdbc:h2:mem:taxi;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+        new JdbcTripStorage().createTable("trip");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try (Connection conn = DriverManager.getConnection(JdbcTripStorage.POOL_URI);
+             Statement statement = conn.createStatement()) {
+            statement.execute("shutdown");
+        }
+        PollingDriver.shutdownDriver();
+    }
+
+    /**
+     * A test for checking that a batch is executed and committed as soon as it reaches the batch size
+     * and not before.
+     */
+    @Test
+    public void testBatchSize() throws Exception {
+        try (TripBatchWriter writer = new TripBatchWriter("trip", 4, 0)) {
+            add(writer, 0, 3);
+            assertEquals(0, count());
+            assertEquals(0, writer.getBatches());
+
+            add(writer, 3, 4);
+            assertEquals(4, count());
+            assertEquals(1, writer.getBatches());
+
+            add(writer, 4, 12);
+            assertEquals(12, count());
+            assertEquals(3, writer.getBatches());
+            assertEquals(12, writer.getRows());
+            assertEquals(0, writer.getFailedRows());
+        }
+    }
+
+    /**
+     * A test for checking that a batch, that does not fill up, is executed and committed once its oldest
+     * trip has waited for the linger time, without closing the writer.
+     */
+    @Test
+    public void testLingerTime() throws Exception {
+        try (TripBatchWriter writer = new TripBatchWriter("trip", 100, 50)) {
+            add(writer, 0, 3);
+            assertEquals(0, count());
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (count() < 3 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertEquals(3, count());
+            assertEquals(1, writer.getBatches());
+
+            // the next trips start a new batch
+            add(writer, 3, 5);
+            while (count() < 5 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertEquals(5, count());
+            assertEquals(2, writer.getBatches());
+        }
+    }
+
+    /**
+     * A test for checking that close executes and commits the last partial batch and that closing
+     * an empty or an already closed writer does nothing.
+     */
+    @Test
+    public void testClose() throws Exception {
+        TripBatchWriter writer = new TripBatchWriter("trip", 4, 0);
+        writer.close();
+        assertEquals(0, writer.getBatches());
+
+        writer = new TripBatchWriter("trip", 4, 0);
+        add(writer, 0, 6);
+        assertEquals(4, count());
+        writer.close();
+        assertEquals(6, count());
+        assertEquals(2, writer.getBatches());
+        assertEquals(6, writer.getRows());
+
+        writer.close();
+        assertEquals(6, count());
+        assertEquals(2, writer.getBatches());
+    }
+
+    private static void add(TripBatchWriter writer, int from, int to) {
+        for (int id = from; id < to; id++)
+            writer.add(TripParser.parse(TRIP, 0L, id));
+    }
+
+    private static int count() throws SQLException {
+        try (Connection conn = DriverManager.getConnection(JdbcTripStorage.POOL_URI);
+             Statement statement = conn.createStatement();
+             ResultSet result = statement.executeQuery("select count(*) from trip")) {
+            result.next();
+            return result.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.jernejerin.traffic.helper;
+
+import com.jernejerin.traffic.entities.Payment;
+import com.jernejerin.traffic.entities.Trip;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for TripLog, TripLogReader and TripLogStorage.
+ *
+ * @author Jernej Jerin
+ */
+public class TripLogTest extends TestCase {
+    private static final String TRIP = "07290D3599E7A0D62097A346EFCC1FB5,E7750A37CAB07D0DFF0AF7E3573AC141," +
+            "2013-01-01 00:00:00,2013-01-01 00:02:00,120,0.44,-73.956528,40.716976,-73.962440,40.715008," +
+            "CSH,3.50,0.50,0.50,0.00,0.00,4.50";
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.dir = Files.createTempDirectory("trip-log").toFile();
+    }
+
+    @Override
+    protected void tearDown() {
+        // the logs of a storage are in the subdirectories
+        for (File file : this.dir.listFiles()) {
+            if (file.isDirectory()) {
+                for (File segment : TripLog.segments(file))
+                    segment.delete();
+            }
+            file.delete();
+        }
+        this.dir.delete();
+    }
+
+    /**
+     * A test for checking that a decoded record gives the same trip as parsed from the CSV line,
+     * for all the example trips.
+     */
+    @Test
+    public void testEncodeDecode() throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                TripLogTest.class.getResourceAsStream("/com/jernejerin/trips_example.csv"), "UTF-8"));
+        ByteBuffer buffer = ByteBuffer.allocate(TripLog.RECORD_SIZE * 2);
+
+        String line;
+        int id = 0;
+        while ((line = reader.readLine()) != null) {
+            Trip trip = TripParser.parse(line, 1000L + id, id++);
+            if (trip == null)
+                continue;
+
+            // records are decoded at their offset, not at the position of the buffer
+            buffer.position(TripLog.RECORD_SIZE);
+            TripLog.encode(trip, buffer);
+            assertEquals(TripLog.RECORD_SIZE * 2, buffer.position());
+            assertEquals(String.valueOf(trip), String.valueOf(TripLog.decode(buffer, TripLog.RECORD_SIZE)));
+        }
+        reader.close();
+    }
+
+    /**
+     * A test for checking that missing and erroneous values are decoded as they were parsed,
+     * including a missing payment type.
+     */
+    @Test
+    public void testEncodeDecodeMissingValues() {
+        Trip trip = TripParser.parse("07290D3599E7A0D62097A346EFCC1FBX,E7750A37CAB07D0DFF0AF7E3573AC1," +
+                "2013-01-01 00:00:00,2013-02-30 25:00:00,12a,x,-190,40.716976,-73.962440,91,CCC,3.50,0.50," +
+                "0.50,0.00,0.00,4.50", 0L, 3);
+        assertNull(trip.getPaymentType());
+        assertNull(trip.getMedallion());
+        assertNull(trip.getHackLicense());
+        assertNull(trip.getDropOffDatetime());
+        assertNull(trip.getRoute250());
+
+        Trip decoded = decode(trip);
+        assertNull(decoded.getPaymentType());
+        assertEquals(MD5Dictionary.NO_ID, decoded.getMedallionId());
+        assertEquals(MD5Dictionary.NO_ID, decoded.getHackLicenseId());
+        assertNull(decoded.getDropOffDatetime());
+        assertNull(decoded.getRoute250());
+        assertNull(decoded.getRoute500());
+        assertEquals(String.valueOf(trip), String.valueOf(decoded));
+
+        // both payment types survive the round trip
+        assertEquals(Payment.CASH, decode(TripParser.parse(TRIP, 0L, 0)).getPaymentType());
+        assertEquals(Payment.CREDIT_CARD, decode(TripParser.parse(TRIP.replace("CSH", "CRD"), 0L, 0))
+                .getPaymentType());
+    }
+
+    /**
+     * A test for checking that the MD5 checksums are decoded to the same id and case, that the same
+     * checksum in the other case is a different checksum and that a checksum with both lower and upper
+     * case digits is missing.
+     */
+    @Test
+    public void testEncodeDecodeMD5Case() {
+        Trip trip = TripParser.parse(TRIP.replace("07290D3599E7A0D62097A346EFCC1FB5", "0123456789abcdefabcdef0123456789")
+                .replace("E7750A37CAB07D0DFF0AF7E3573AC141", "fedcba9876543210fedcba9876543210"), 0L, 0);
+        assertEquals("0123456789abcdefabcdef0123456789", trip.getMedallion());
+        assertEquals("fedcba9876543210fedcba9876543210", trip.getHackLicense());
+
+        Trip decoded = decode(trip);
+        assertEquals(trip.getMedallionId(), decoded.getMedallionId());
+        assertEquals(trip.getHackLicenseId(), decoded.getHackLicenseId());
+        assertEquals(trip.getMedallion(), decoded.getMedallion());
+        assertEquals(trip.getHackLicense(), decoded.getHackLicense());
+
+        // upper case checksums stay in upper case and are not the same taxi
+        Trip upperCase = TripParser.parse(TRIP.replace("07290D3599E7A0D62097A346EFCC1FB5",
+                "0123456789ABCDEFABCDEF0123456789"), 0L, 0);
+        assertFalse(upperCase.getMedallionId() == trip.getMedallionId());
+        assertEquals("0123456789ABCDEFABCDEF0123456789", decode(upperCase).getMedallion());
+        assertEquals(upperCase.getMedallionId(), decode(upperCase).getMedallionId());
+
+        Trip mixedCase = TripParser.parse(TRIP.replace("07290D3599E7A0D62097A346EFCC1FB5",
+                "0123456789abcdefABCDEF0123456789"), 0L, 0);
+        assertNull(mixedCase.getMedallion());
+        assertNull(decode(mixedCase).getMedallion());
+    }
+
+    /**
+     * A test for checking that the appended trips are replayed in order across segments and that a
+     * partially written record at the end of a segment is skipped and cut off when appending again.
+     */
+    @Test
+    public void testAppendReplay() throws Exception {
+        List<String> expected = new ArrayList<>();
+        ByteBuffer group = ByteBuffer.allocate(TripLog.RECORD_SIZE * 2);
+
+        // segments of 3 records and groups of 2 records, so some groups are split
+        TripLog log = new TripLog(this.dir, TripLog.RECORD_SIZE * 3 + 10, "commit", 0);
+        for (int id = 0; id < 10; id += 2) {
+            group.clear();
+            for (int i = id; i < id + 2; i++) {
+                Trip trip = TripParser.parse(TRIP, i, i);
+                TripLog.encode(trip, group);
+                expected.add(String.valueOf(trip));
+            }
+            group.flip();
+            log.append(group);
+            assertFalse(group.hasRemaining());
+        }
+        log.close();
+        File[] segments = TripLog.segments(this.dir);
+        assertEquals(4, segments.length);
+        assertEquals(TripLog.RECORD_SIZE, segments[3].length());
+
+        // a record of the last segment was only partially written
+        FileOutputStream out = new FileOutputStream(segments[3], true);
+        out.write(new byte[TripLog.RECORD_SIZE / 2]);
+        out.close();
+        assertEquals(expected, replay());
+
+        // appending continues after the last whole record
+        log = new TripLog(this.dir, TripLog.RECORD_SIZE * 3, "never", 0);
+        group.clear();
+        Trip trip = TripParser.parse(TRIP, 10, 10);
+        TripLog.encode(trip, group);
+        expected.add(String.valueOf(trip));
+        group.flip();
+        log.append(group);
+        log.close();
+        assertEquals(TripLog.RECORD_SIZE * 2, segments[3].length());
+        assertEquals(expected, replay());
+
+        log.truncate();
+        assertEquals(0, TripLog.segments(this.dir).length);
+        assertTrue(replay().isEmpty());
+    }
+
+    /**
+     * A test for checking that the trips inserted one by one into the storage are appended to the
+     * log of their table, whole and in order, although they are encoded in the same record buffer.
+     */
+    @Test
+    public void testInsertTrip() {
+        List<String> expected = new ArrayList<>();
+        TripLogStorage storage = new TripLogStorage(this.dir, TripLog.DEFAULT_SEGMENT_SIZE, "never", 0);
+        for (int id = 0; id < 5; id++) {
+            Trip trip = TripParser.parse(TRIP.replace("120", String.valueOf(100 + id)), id, id);
+            storage.insertTrip(trip, "trip");
+            expected.add(String.valueOf(trip));
+        }
+        storage.insertTrip(TripParser.parse(TRIP, 5, 5), "tripChangeTop10");
+        storage.close();
+
+        List<String> trips = new ArrayList<>();
+        assertEquals(5, new TripLogReader(new File(this.dir, "trip")).replay(t -> trips.add(String.valueOf(t))));
+        assertEquals(expected, trips);
+        assertEquals(1, new TripLogReader(new File(this.dir, "tripChangeTop10")).replay(t -> { }));
+    }
+
+    /**
+     * A test for checking that the log accepts only whole records.
+     */
+    @Test
+    public void testWholeRecords() {
+        try {
+            new TripLog(this.dir, TripLog.RECORD_SIZE - 1, "never", 0);
+            fail("Segment without a record");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        TripLog log = new TripLog(this.dir, TripLog.DEFAULT_SEGMENT_SIZE, "interval", 1000);
+        try {
+            log.append(ByteBuffer.allocate(TripLog.RECORD_SIZE + 1));
+            fail("Group with a partial record");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        log.close();
+
+        try {
+            TripLog.fsync("always");
+            fail("Unknown fsync policy");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static Trip decode(Trip trip) {
+        ByteBuffer buffer = ByteBuffer.allocate(TripLog.RECORD_SIZE);
+        TripLog.encode(trip, buffer);
+        return TripLog.decode(buffer, 0);
+    }
+
+    private List<String> replay() {
+        List<String> trips = new ArrayList<>();
+        long count = new TripLogReader(this.dir).replay(t -> trips.add(String.valueOf(t)));
+        assertEquals(trips.size(), count);
+        return trips;
+    }
+}
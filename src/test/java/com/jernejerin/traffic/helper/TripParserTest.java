@@ -0,0 +1,283 @@
+package com.jernejerin.traffic.helper;
+
+import com.jernejerin.traffic.entities.Cell;
+import com.jernejerin.traffic.entities.Cell250;
+import com.jernejerin.traffic.entities.Cell500;
+import com.jernejerin.traffic.entities.Payment;
+import com.jernejerin.traffic.entities.Route;
+import com.jernejerin.traffic.entities.Trip;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Unit tests for TripParser.
+ *
+ * @author Jernej Jerin
+ */
+public class TripParserTest extends TestCase {
+    private static final String TRIP = "07290D3599E7A0D62097A346EFCC1FB5,E7750A37CAB07D0DFF0AF7E3573AC141," +
+            "2013-01-01 00:00:00,2013-01-01 00:02:00,120,0.44,-73.956528,40.716976,-73.962440,40.715008," +
+            "CSH,3.50,0.50,0.50,0.00,0.00,4.50";
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * A test for checking that all values of a well formed trip are parsed.
+     */
+    @Test
+    public void testParse() {
+        Trip trip = TripParser.parse(TRIP, 10L, 1);
+
+        assertNotNull(trip);
+        assertEquals(1, trip.getId());
+        assertEquals("07290D3599E7A0D62097A346EFCC1FB5", trip.getMedallion());
+        assertEquals("E7750A37CAB07D0DFF0AF7E3573AC141", trip.getHackLicense());
+        assertEquals(LocalDateTime.of(2013, 1, 1, 0, 0, 0), trip.getPickupDatetime());
+        assertEquals(LocalDateTime.of(2013, 1, 1, 0, 2, 0), trip.getDropOffDatetime());
+        assertEquals(1356998520000L, trip.getDropOffTimestamp());
+        assertEquals(120, trip.getTripTime());
+        assertEquals(0.44f, trip.getTripDistance());
+        assertEquals(-73.956528f, trip.getPickupLongitude());
+        assertEquals(40.716976f, trip.getPickupLatitude());
+        assertEquals(-73.962440f, trip.getDropOffLongitude());
+        assertEquals(40.715008f, trip.getDropOffLatitude());
+        assertEquals(Payment.CASH, trip.getPaymentType());
+        assertEquals(3.5f, trip.getFareAmount());
+        assertEquals(4.5f, trip.getTotalAmount());
+        assertEquals(10L, trip.getTimestampReceived());
+        assertNotNull(trip.getRoute500());
+        assertNotNull(trip.getRoute250());
+    }
+
+    /**
+     * A test for checking that erroneous values are set to MIN_VALUE or null and that
+     * lines without 17 values are rejected.
+     */
+    @Test
+    public void testErroneousValues() {
+        Trip trip = TripParser.parse("07290D3599E7A0D62097A346EFCC1FBX,E7750A37CAB07D0DFF0AF7E3573AC141," +
+                "2013-01-01 00:00:00,2013-02-30 25:00:00,12a,x,-190,40.716976,-73.962440,91,CCC,3.50,0.50," +
+                "0.50,0.00,0.00,4.50", 0L, 0);
+
+        assertNotNull(trip);
+        assertNull(trip.getMedallion());
+        assertNull(trip.getDropOffDatetime());
+        assertEquals(0L, trip.getDropOffTimestamp());
+        assertEquals(Integer.MIN_VALUE, trip.getTripTime());
+        assertEquals((float) Integer.MIN_VALUE, trip.getTripDistance());
+        assertEquals(Float.MIN_VALUE, trip.getPickupLongitude());
+        assertEquals(Float.MIN_VALUE, trip.getDropOffLatitude());
+        assertNull(trip.getPaymentType());
+        assertNull(trip.getRoute250());
+
+        // SMART resolving of the date time is preserved
+        assertEquals(LocalDateTime.of(2013, 2, 28, 10, 0), TripParser.parse(TRIP.replace(
+                "2013-01-01 00:02:00", "2013-02-30 10:00:00"), 0L, 0).getDropOffDatetime());
+
+        // trailing empty values are ignored as with String.split
+        assertNotNull(TripParser.parse(TRIP + ",,", 0L, 0));
+        assertNull(TripParser.parse(TRIP + ",1", 0L, 0));
+        assertNull(TripParser.parse(TRIP.substring(0, TRIP.lastIndexOf(',') + 1), 0L, 0));
+        assertNull(TripParser.parse("", 0L, 0));
+    }
+
+    /**
+     * A test for checking that the trips of the example file are the same as parsed by the split
+     * based reference parser, from a string and from bytes.
+     */
+    @Test
+    public void testAsReferenceExample() throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                TripParserTest.class.getResourceAsStream("/com/jernejerin/trips_example.csv"), "UTF-8"));
+        String line;
+        int id = 0;
+        while ((line = reader.readLine()) != null)
+            assertAsReference(line, id++);
+        reader.close();
+        assertTrue(id > 1000);
+    }
+
+    /**
+     * A test for checking that the numbers and the date times out of the ordinary are parsed the same
+     * as by the reference parser: long mantissas, exponents, signs, negative zero, whitespaces,
+     * overflows, Java float literals and date times, that are resolved or rejected.
+     */
+    @Test
+    public void testAsReferenceEdgeCases() {
+        String[] floats = {"0", "-0", "+0", "-0.0", "0.000", "-0.00e5", "40.716976", "+40.716976", "-73.956528",
+                "40.7169761234567891234567", "-73.95652800000000000000000001", "0.1", ".5", "5.", "-.5", "1e3", "1E3",
+                "4.0716976e1", "-7.3956528E+1", "407.16976e-1", "1e-46", "1e-45", "1e39", "3.4028235e38",
+                "3.4028236e38", "123456789012345678901234567890", "00000000000000000000040.716976", "1.5f", "2d",
+                "0x1p3", " 40.716976", "40.716976 ", "NaN", "-Infinity", "1e", "e1", "1.2.3", "--1", "+-1", "1,5", "",
+                "4.50", "99999999", "16777217", "16777219", "0.30000001192092896", "0.3000000119209289",
+                "1.00000005960464477539062500", "1.000000059604644775390625001", "1.0000000596046447753906249999"};
+        String[] ints = {"0", "-0", "+120", "0120", "-120", "2147483647", "2147483648", "-2147483648",
+                "-2147483649", "12a", "1.0", " 120", ""};
+        String[] dateTimes = {"2013-01-01 00:00:00", "2013-02-30 10:00:00", "2013-02-29 00:00:00",
+                "2012-02-29 23:59:59", "2013-04-31 12:00:00", "2013-12-31 24:00:00", "2013-01-01 23:60:00",
+                "2013-13-01 00:00:00", "2013-1-01 00:00:00", "2013-01-01T00:00:00", "2013-01-01 00:00", "",
+                "0000-01-01 00:00:00", "+2013-01-01 00:00:00"};
+        String[] md5s = {"07290D3599E7A0D62097A346EFCC1FB5", "07290d3599e7a0d62097a346efcc1fb5",
+                "07290D3599e7a0d62097a346efcc1fb5", "07290D3599E7A0D62097A346EFCC1FBX", "07290D3599E7A0D6", ""};
+        String[] payments = {"CSH", "CRD", "UNK", "csh", ""};
+
+        int id = 0;
+        for (String value : floats)
+            for (int column : new int[]{5, 6, 7, 8, 9, 11, 16})
+                assertAsReference(replace(TRIP, column, value), id++);
+        for (String value : ints)
+            assertAsReference(replace(TRIP, 4, value), id++);
+        for (String value : dateTimes) {
+            assertAsReference(replace(TRIP, 2, value), id++);
+            assertAsReference(replace(TRIP, 3, value), id++);
+        }
+        for (String value : md5s) {
+            assertAsReference(replace(TRIP, 0, value), id++);
+            assertAsReference(replace(TRIP, 1, value), id++);
+        }
+        for (String value : payments)
+            assertAsReference(replace(TRIP, 10, value), id++);
+        for (String line : new String[]{TRIP + ",,", TRIP + ",1", TRIP + ",", ",,,,,,,,,,,,,,,,", ""})
+            assertAsReference(line, id++);
+    }
+
+    /**
+     * A test for checking that the decimals at and around the halfway points between two adjacent
+     * floats are rounded the same as by Float.parseFloat, which rounds once from the exact decimal.
+     */
+    @Test
+    public void testAsReferenceHalfway() {
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            // coordinates and amounts in their ranges, where the fast path applies
+            float value = i % 2 == 0 ? -74f + random.nextFloat() : random.nextInt(100000) / 100f;
+            BigDecimal low = new BigDecimal(value);
+            BigDecimal halfway = low.add(new BigDecimal(Math.nextUp(value))).divide(BigDecimal.valueOf(2));
+            BigDecimal ulp = BigDecimal.ONE.movePointLeft(30 + random.nextInt(10));
+            for (BigDecimal decimal : Arrays.asList(halfway, halfway.add(ulp), halfway.subtract(ulp), low,
+                    halfway.setScale(9 + random.nextInt(8), BigDecimal.ROUND_HALF_EVEN)))
+                for (int column : new int[]{6, 11})
+                    assertAsReference(replace(TRIP, column, decimal.toPlainString()), i);
+        }
+    }
+
+    /**
+     * A test for checking that toString of a byte sequence gives the same chars as charAt,
+     * also for the bytes above 0x7F.
+     */
+    @Test
+    public void testByteSequenceToString() {
+        byte[] bytes = {'a', (byte) 0xE9, ',', (byte) 0xFF, (byte) 0x80};
+        ByteSequence sequence = new ByteSequence(bytes, 0, bytes.length);
+
+        String string = sequence.toString();
+        assertEquals(sequence.length(), string.length());
+        for (int i = 0; i < sequence.length(); i++)
+            assertEquals(sequence.charAt(i), string.charAt(i));
+        assertEquals("\u00E9,\u00FF", sequence.subSequence(1, 4).toString());
+    }
+
+    /**
+     * Asserts that the line is parsed from a string and from bytes to the same trip as by the reference.
+     */
+    private static void assertAsReference(String line, int id) {
+        String expected = String.valueOf(reference(line, 10L, id));
+        assertEquals(line, expected, String.valueOf(TripParser.parse(line, 10L, id)));
+
+        byte[] bytes = line.getBytes(StandardCharsets.ISO_8859_1);
+        ByteSequence sequence = new ByteSequence(bytes, 0, bytes.length);
+        assertEquals(line, expected, String.valueOf(TripParser.parse(sequence, 10L, id)));
+    }
+
+    /**
+     * Replaces the value in the column of the line.
+     */
+    private static String replace(String line, int column, String value) {
+        String[] values = line.split(",", -1);
+        values[column] = value;
+        return String.join(",", values);
+    }
+
+    /**
+     * The reference parser, that splits the line and converts the values with Integer.parseInt,
+     * Float.parseFloat and LocalDateTime.parse (SMART resolving), as the trips were parsed before
+     * TripParser. The erroneous values are MIN_VALUE or null, and a checksum in mixed case is missing.
+     */
+    private static Trip reference(String line, long timestampReceived, int id) {
+        String[] values = line.split(",");
+        if (values.length != 17)
+            return null;
+
+        Trip trip = new Trip();
+        trip.setId(id);
+        trip.setMedallion(md5(values[0]));
+        trip.setHackLicense(md5(values[1]));
+        trip.setPickupDatetime(dateTime(values[2]));
+        trip.setDropOffDatetime(dateTime(values[3]));
+        trip.setDropOffTimestamp(trip.getDropOffDatetime() != null ?
+                trip.getDropOffDatetime().toEpochSecond(ZoneOffset.UTC) * 1000 : 0);
+        try {
+            trip.setTripTime(Integer.parseInt(values[4]));
+        } catch (NumberFormatException e) {
+            trip.setTripTime(Integer.MIN_VALUE);
+        }
+        trip.setTripDistance(toFloat(values[5], Integer.MIN_VALUE, Float.POSITIVE_INFINITY));
+        trip.setPickupLongitude(toFloat(values[6], Float.MIN_VALUE, 180));
+        trip.setPickupLatitude(toFloat(values[7], Float.MIN_VALUE, 90));
+        trip.setDropOffLongitude(toFloat(values[8], Float.MIN_VALUE, 180));
+        trip.setDropOffLatitude(toFloat(values[9], Float.MIN_VALUE, 90));
+        trip.setPaymentType(values[10].equals("CSH") ? Payment.CASH : values[10].equals("CRD") ?
+                Payment.CREDIT_CARD : null);
+        trip.setFareAmount(toFloat(values[11], Float.MIN_VALUE, Float.POSITIVE_INFINITY));
+        trip.setSurcharge(toFloat(values[12], Float.MIN_VALUE, Float.POSITIVE_INFINITY));
+        trip.setMtaTax(toFloat(values[13], Float.MIN_VALUE, Float.POSITIVE_INFINITY));
+        trip.setTipAmount(toFloat(values[14], Float.MIN_VALUE, Float.POSITIVE_INFINITY));
+        trip.setTollsAmount(toFloat(values[15], Float.MIN_VALUE, Float.POSITIVE_INFINITY));
+        trip.setTotalAmount(toFloat(values[16], Float.MIN_VALUE, Float.POSITIVE_INFINITY));
+        trip.setTimestampReceived(timestampReceived);
+
+        if (Cell.inGrid(trip.getPickupLatitude(), trip.getPickupLongitude()) &&
+                Cell.inGrid(trip.getDropOffLatitude(), trip.getDropOffLongitude())) {
+            trip.setRoute250(new Route(new Cell250(trip.getPickupLatitude(), trip.getPickupLongitude()),
+                    new Cell250(trip.getDropOffLatitude(), trip.getDropOffLongitude())));
+            trip.setRoute500(new Route(new Cell500(trip.getPickupLatitude(), trip.getPickupLongitude()),
+                    new Cell500(trip.getDropOffLatitude(), trip.getDropOffLongitude())));
+        }
+        return trip;
+    }
+
+    private static String md5(String value) {
+        return value.matches("[a-f0-9]{32}|[A-F0-9]{32}") ? value : null;
+    }
+
+    private static LocalDateTime dateTime(String value) {
+        try {
+            return LocalDateTime.parse(value, FORMATTER);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Converts the value with Float.parseFloat, where a value, that is not a number or is out of
+     * the range [-range, range], is the default value.
+     */
+    private static float toFloat(String value, float defaultValue, float range) {
+        try {
+            float number = Float.parseFloat(value);
+            return number > range || number < -range ? defaultValue : number;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}